@@ -0,0 +1,145 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.nio.charset.StandardCharsets;
+
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+
+import org.bouncycastle.crypto.Digest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * JMH benchmarks comparing the {@link DigestAlgorithm}s. Run with <code>mvn -Pbenchmark test-compile exec:exec</code>.
+ * The results of SHA3-256 and BLAKE2b-256 include the allocation of a new engine on every borrow (see
+ * {@link DigestAlgorithm#isRestoredInPlace()}), which {@link #restore()} measures alone.
+ */
+@State(Scope.Benchmark)
+public class DigestAlgorithmBenchmark {
+
+    /** The algorithm to be benchmarked. */
+    @Param({ "SHA-256", "SHA-512/256", "SHA3-256", "BLAKE2b-256" })
+    public String algorithm;
+
+    /** The length of the input in bytes: a bare identifier, an identifier with short salts and with long salts. */
+    @Param({ "24", "64", "2072" })
+    public int length;
+
+    /** The pool of the engines for the algorithm. */
+    private DigestEnginePool pool;
+
+    /** The pool of the engines calculating HMACs with the algorithm. */
+    private DigestEnginePool hmacPool;
+
+    /** The input. */
+    private byte[] input;
+
+    /** The output buffer. */
+    private byte[] output;
+
+    /** The data connector calculating the authnID with the algorithm. */
+    private EcaAuthnIdDataConnector dataConnector;
+
+    /** The salted input for the data connector. */
+    private String saltedInput;
+
+    /**
+     * Initializes the engines, the inputs and the data connector.
+     * 
+     * @throws ComponentInitializationException If the component cannot be initialized.
+     */
+    @Setup public void setUp() throws ComponentInitializationException {
+        pool = new DigestEnginePool(DigestAlgorithm.forName(algorithm).newEngine());
+        hmacPool = DigestEnginePool.hmac(DigestAlgorithm.forName(algorithm),
+                "0123456789abcdef0123456789abcdef".getBytes(StandardCharsets.UTF_8));
+        output = new byte[pool.getDigestSize()];
+        final StringBuilder builder = new StringBuilder();
+        while (builder.length() < length) {
+            builder.append("student@school.example.org");
+        }
+        saltedInput = builder.substring(0, length);
+        input = saltedInput.getBytes(StandardCharsets.UTF_8);
+        dataConnector = new EcaAuthnIdDataConnector();
+        dataConnector.setId("authnid");
+        dataConnector.setSrcAttributeNames("src");
+        dataConnector.setDestAttributeName("authnid");
+        dataConnector.setDigestAlgorithm(algorithm);
+        dataConnector.initialize();
+    }
+
+    /**
+     * Destroys the data connector.
+     */
+    @TearDown public void tearDown() {
+        dataConnector.destroy();
+    }
+
+    /**
+     * Benchmarks restoring the state of the pooled engine alone.
+     * 
+     * @return The restored engine.
+     */
+    @Benchmark public Digest restore() {
+        return pool.borrow();
+    }
+
+    /**
+     * Benchmarks the digest alone.
+     * 
+     * @return The digest.
+     */
+    @Benchmark public byte[] digest() {
+        final Digest engine = pool.borrow();
+        engine.update(input, 0, input.length);
+        engine.doFinal(output, 0);
+        return output;
+    }
+
+    /**
+     * Benchmarks the HMAC with the precomputed pad states.
+     * 
+     * @return The HMAC.
+     */
+    @Benchmark public byte[] hmac() {
+        final Digest engine = hmacPool.borrow();
+        engine.update(input, 0, input.length);
+        hmacPool.finish(engine, output);
+        return output;
+    }
+
+    /**
+     * Benchmarks the calculation of the encoded authnID.
+     * 
+     * @return The authnID.
+     */
+    @Benchmark public String calculateAuthnId() {
+        return dataConnector.calculateAuthnId(saltedInput);
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.util.Collections;
+import java.util.Map;
+
+import net.shibboleth.idp.attribute.IdPAttribute;
+import net.shibboleth.idp.attribute.StringAttributeValue;
+import net.shibboleth.idp.attribute.resolver.ResolutionException;
+import net.shibboleth.idp.attribute.resolver.ResolvedAttributeDefinition;
+import net.shibboleth.idp.attribute.resolver.context.AttributeResolutionContext;
+import net.shibboleth.idp.attribute.resolver.context.AttributeResolverWorkContext;
+import net.shibboleth.idp.saml.impl.TestSources;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * JMH benchmarks for {@link EcaAuthnIdDataConnector}. Run with <code>mvn -Pbenchmark test-compile exec:exec</code>.
+ */
+@State(Scope.Benchmark)
+public class EcaAuthnIdDataConnectorBenchmark {
+
+    /** The name of the attribute used for skipping the calculation. */
+    public static final String SKIP_ATTRIBUTE_NAME = "schoolCode";
+
+    /** The number of configured skip values. */
+    public static final int SKIP_VALUE_COUNT = 10;
+
+    /** The number of source attributes. */
+    @Param({ "1", "3", "10" })
+    public int sources;
+
+    /** The length of the salts. */
+    @Param({ "short", "long" })
+    public String salt;
+
+    /** The data connector calculating the authnID. */
+    private EcaAuthnIdDataConnector dataConnector;
+
+    /** The data connector skipping the calculation. */
+    private EcaAuthnIdDataConnector skippingDataConnector;
+
+    /** The resolution context for the calculation. */
+    private AttributeResolutionContext context;
+
+    /** The work context for the calculation. */
+    private AttributeResolverWorkContext workContext;
+
+    /** The work context matching the skipCalculation configuration. */
+    private AttributeResolverWorkContext skippingWorkContext;
+
+    /** The unsalted input. */
+    private String preSaltInput;
+
+    /** The salted input. */
+    private String saltedInput;
+
+    /** The plan compiled for the skipping data connector. */
+    private ResolutionPlan skippingPlan;
+
+    /** The plan compiled for the calculating data connector. */
+    private ResolutionPlan plan;
+
+    /** The buffers where the input is collected. */
+    private AuthnIdBuffers buffers;
+
+    /**
+     * Initializes the data connectors and the contexts.
+     * 
+     * @throws ComponentInitializationException If the component cannot be initialized.
+     * @throws ResolutionException If the attributes cannot be recorded.
+     */
+    @Setup public void setUp() throws ComponentInitializationException, ResolutionException {
+        final String saltValue = "long".equals(salt) ? repeat("0123456789abcdef", 64) : "salt";
+        final StringBuilder names = new StringBuilder();
+        for (int i = 0; i < sources; i++) {
+            names.append(i == 0 ? "" : ",").append("src").append(i);
+        }
+        final StringBuilder skipCalculation = new StringBuilder();
+        for (int i = 0; i < SKIP_VALUE_COUNT; i++) {
+            skipCalculation.append(i == 0 ? "" : ",").append(SKIP_ATTRIBUTE_NAME).append("=skip").append(i);
+        }
+        dataConnector = initializeDataConnector(names.toString(), saltValue, null);
+        skippingDataConnector = initializeDataConnector(names.toString(), saltValue, skipCalculation.toString());
+
+        context = TestSources.createResolutionContext(TestSources.PRINCIPAL_ID, TestSources.IDP_ENTITY_ID,
+                TestSources.SP_ENTITY_ID);
+        workContext = context.getSubcontext(AttributeResolverWorkContext.class, false);
+        skippingWorkContext = new AttributeResolutionContext().getSubcontext(AttributeResolverWorkContext.class, 
+                true);
+        final StringBuilder input = new StringBuilder();
+        for (int i = 0; i < sources; i++) {
+            recordAttribute("src" + i, "student" + i + "@school.example.org", workContext);
+            recordAttribute("src" + i, "student" + i + "@school.example.org", skippingWorkContext);
+            input.append("student").append(i).append("@school.example.org");
+        }
+        recordAttribute(SKIP_ATTRIBUTE_NAME, "skip" + (SKIP_VALUE_COUNT - 1), skippingWorkContext);
+        plan = dataConnector.getPlans().getDefaultPlan();
+        skippingPlan = skippingDataConnector.getPlans().getDefaultPlan();
+        buffers = new AuthnIdBuffers(dataConnector.getDigestAlgorithm().newEngine().getDigestSize());
+        preSaltInput = input.toString();
+        saltedInput = dataConnector.saltAuthnIdInput(preSaltInput);
+    }
+
+    /**
+     * Benchmarks the whole resolution.
+     * 
+     * @return The resolved attributes.
+     * @throws ResolutionException If the resolution fails.
+     */
+    @Benchmark public Map<String, IdPAttribute> resolve() throws ResolutionException {
+        return dataConnector.doDataConnectorResolve(context, workContext);
+    }
+
+    /**
+     * Benchmarks the resolution when the calculation is skipped.
+     * 
+     * @return The resolved attributes.
+     * @throws ResolutionException If the resolution fails.
+     */
+    @Benchmark public Map<String, IdPAttribute> resolveSkipped() throws ResolutionException {
+        return skippingDataConnector.doDataConnectorResolve(context, skippingWorkContext);
+    }
+
+    /**
+     * Benchmarks the calculation from the salted input.
+     * 
+     * @return The authnID.
+     */
+    @Benchmark public String calculateAuthnId() {
+        return dataConnector.calculateAuthnId(saltedInput);
+    }
+
+    /**
+     * Benchmarks the calculation from the unsalted input.
+     * 
+     * @return The authnID.
+     */
+    @Benchmark public String calculateSaltedAuthnId() {
+        return dataConnector.calculateSaltedAuthnId(preSaltInput);
+    }
+
+    /**
+     * Benchmarks collecting the input into the buffers, as in the resolution.
+     * 
+     * @return Whether the input was complete.
+     */
+    @Benchmark public boolean collectAuthnIdInput() {
+        return dataConnector.collectAuthnIdInput(plan, workContext.getResolvedIdPAttributeDefinitions(), buffers);
+    }
+
+    /**
+     * Benchmarks the matching of the skip rules, as in the resolution.
+     * 
+     * @return Whether the skip rules matched.
+     */
+    @Benchmark public boolean isSkipped() {
+        return skippingPlan.isSkipped(skippingWorkContext.getResolvedIdPAttributeDefinitions());
+    }
+
+    /**
+     * Constructs and initializes a data connector.
+     * 
+     * @param srcAttributeNames The source attribute names.
+     * @param saltValue The prefix and postfix salt.
+     * @param skipCalculation The skipCalculation configuration.
+     * @return The initialized data connector.
+     * @throws ComponentInitializationException If the component cannot be initialized.
+     */
+    protected EcaAuthnIdDataConnector initializeDataConnector(final String srcAttributeNames, 
+            final String saltValue, final String skipCalculation) throws ComponentInitializationException {
+        final EcaAuthnIdDataConnector connector = new EcaAuthnIdDataConnector();
+        connector.setId("authnid");
+        connector.setSrcAttributeNames(srcAttributeNames);
+        connector.setDestAttributeName("authnid");
+        connector.setPrefixSalt(saltValue);
+        connector.setPostfixSalt(saltValue);
+        connector.setMinInputLength(null);
+        connector.setSkipCalculation(skipCalculation);
+        connector.setSkipCalculationSrc(null);
+        connector.initialize();
+        return connector;
+    }
+
+    /**
+     * Records a single-valued attribute to the work context.
+     * 
+     * @param attributeName The attribute name.
+     * @param attributeValue The attribute value.
+     * @param target The work context.
+     * @throws ComponentInitializationException If the attribute definition cannot be initialized.
+     * @throws ResolutionException If the attribute cannot be recorded.
+     */
+    protected void recordAttribute(final String attributeName, final String attributeValue, 
+            final AttributeResolverWorkContext target) throws ComponentInitializationException, ResolutionException {
+        final IdPAttribute attribute = new IdPAttribute(attributeName);
+        attribute.setValues(Collections.singletonList(new StringAttributeValue(attributeValue)));
+        target.recordAttributeDefinitionResolution(
+                TestSources.populatedStaticAttribute(attributeName, attributeName, 1), attribute);
+    }
+
+    /**
+     * Repeats the given string.
+     * 
+     * @param value The string to be repeated.
+     * @param count The number of repetitions.
+     * @return The repeated string.
+     */
+    protected static String repeat(final String value, final int count) {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append(value);
+        }
+        return builder.toString();
+    }
+}
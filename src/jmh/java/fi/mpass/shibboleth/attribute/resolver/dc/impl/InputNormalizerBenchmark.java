@@ -0,0 +1,72 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.text.Normalizer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * JMH benchmarks for the {@link InputNormalizer}. Run with <code>mvn -Pbenchmark test-compile exec:exec</code>.
+ */
+@State(Scope.Benchmark)
+public class InputNormalizerBenchmark {
+
+    /** The value to be normalized: plain ASCII, ASCII to be trimmed and folded, or non-ASCII. */
+    @Param({ "1.2.246.562.24.10000000001", " Student.Name@School.example ", "Ville.\u00c4\u00e4ri\u00e4inen" })
+    public String value;
+
+    /** The normalizer with all the steps. */
+    private InputNormalizer normalizer;
+
+    /**
+     * Initializes the normalizer.
+     */
+    @Setup public void setUp() {
+        normalizer = InputNormalizer.parse("nfkc,trim,casefold");
+    }
+
+    /**
+     * Benchmarks the normalization.
+     * 
+     * @return The normalized value.
+     */
+    @Benchmark public String normalize() {
+        return normalizer.normalize(value);
+    }
+
+    /**
+     * Benchmarks the {@link Normalizer} without the ASCII fast path, as the baseline.
+     * 
+     * @return The normalized value.
+     */
+    @Benchmark public String normalizer() {
+        return Normalizer.normalize(value, Normalizer.Form.NFKC);
+    }
+}
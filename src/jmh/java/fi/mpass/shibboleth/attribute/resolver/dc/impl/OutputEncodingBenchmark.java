@@ -0,0 +1,86 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.util.Random;
+
+import org.bouncycastle.util.encoders.Base64;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * JMH benchmarks comparing the {@link OutputEncoding}s. Run with <code>mvn -Pbenchmark test-compile exec:exec</code>.
+ */
+@State(Scope.Benchmark)
+public class OutputEncodingBenchmark {
+
+    /** The encoding to be benchmarked. */
+    @Param({ "base64", "base64url", "base32", "hex" })
+    public String encoding;
+
+    /** The size of the digest in bytes. */
+    @Param({ "32", "64" })
+    public int size;
+
+    /** The encoding to be benchmarked. */
+    private OutputEncoding outputEncoding;
+
+    /** The digest to be encoded. */
+    private byte[] digest;
+
+    /** The reusable output buffer. */
+    private char[] output;
+
+    /**
+     * Initializes the digest and the output buffer.
+     */
+    @Setup public void setUp() {
+        outputEncoding = OutputEncoding.forName(encoding);
+        digest = new byte[size];
+        new Random(1).nextBytes(digest);
+        output = new char[outputEncoding.getEncodedLength(size)];
+    }
+
+    /**
+     * Benchmarks the encoding into the reusable buffer, including the resulting string.
+     * 
+     * @return The encoded digest.
+     */
+    @Benchmark public String encode() {
+        return new String(output, 0, outputEncoding.encode(digest, digest.length, output, 0));
+    }
+
+    /**
+     * Benchmarks the BouncyCastle Base64 encoder used before, as the baseline.
+     * 
+     * @return The encoded digest.
+     */
+    @Benchmark public String encodeBouncyCastleBase64() {
+        return new String(Base64.encode(digest));
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * An immutable set of prefix and suffix patterns, such as <code>guest-*</code> (the values starting with "guest-")
+ * and <code>*.test.example</code> (the values ending with ".test.example"). The pattern <code>*</code> matches any
+ * value. All the prefixes are compiled into a single trie, and all the suffixes (reversed) into another, so a value is
+ * matched by walking each trie once from the corresponding end of the value, regardless of the number of patterns.
+ * The walk stops at the first complete pattern or at the first character without a transition.
+ * 
+ * <p>The tries are flattened into arrays: the transitions of each node are sorted by the character, and looked up with
+ * a binary search. The nodes below a complete pattern are pruned, as the shorter pattern already matches.</p>
+ */
+public final class AffixPatternSet {
+
+    /** The wildcard marking a pattern. */
+    public static final char WILDCARD = '*';
+
+    /** The trie of the prefixes, null if there are none. */
+    private final Trie prefixes;
+
+    /** The trie of the reversed suffixes, null if there are none. */
+    private final Trie suffixes;
+
+    /** The number of patterns not covered by a shorter pattern. */
+    private final int size;
+
+    /**
+     * Constructor.
+     *
+     * @param patterns The patterns, see {@link #isPattern(String)}. Duplicates are ignored.
+     */
+    public AffixPatternSet(@Nonnull final Collection<String> patterns) {
+        Constraint.isNotNull(patterns, "The patterns cannot be null!");
+        final BuildNode prefixRoot = new BuildNode();
+        final BuildNode suffixRoot = new BuildNode();
+        boolean prefixFound = false;
+        boolean suffixFound = false;
+        for (final String pattern : patterns) {
+            if (!isPattern(pattern)) {
+                throw new IllegalArgumentException("Not a prefix or suffix pattern: " + pattern);
+            }
+            if (pattern.charAt(pattern.length() - 1) == WILDCARD) {
+                prefixRoot.insert(pattern.substring(0, pattern.length() - 1), false);
+                prefixFound = true;
+            } else {
+                suffixRoot.insert(pattern.substring(1), true);
+                suffixFound = true;
+            }
+        }
+        prefixes = prefixFound ? new Trie(prefixRoot) : null;
+        suffixes = suffixFound ? new Trie(suffixRoot) : null;
+        size = (prefixes != null ? prefixes.patternCount : 0) + (suffixes != null ? suffixes.patternCount : 0);
+    }
+
+    /**
+     * Checks whether the given value is a prefix or a suffix pattern: it either ends or starts with the
+     * {@link #WILDCARD}, but not both, or it is the wildcard alone. The wildcard anywhere else is matched literally.
+     *
+     * @param value The value.
+     * @return True if the value is a pattern, false if it is matched as such.
+     */
+    public static boolean isPattern(@Nullable final String value) {
+        if (value == null || value.isEmpty()) {
+            return false;
+        }
+        final boolean leading = value.charAt(0) == WILDCARD;
+        final boolean trailing = value.charAt(value.length() - 1) == WILDCARD;
+        return value.length() == 1 ? leading : leading != trailing;
+    }
+
+    /**
+     * Get the number of distinct patterns, excluding the ones covered by a shorter pattern (for instance
+     * <code>guest-*</code> is covered by <code>guest*</code>).
+     *
+     * @return The number of patterns.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Checks whether any of the patterns matches the given value.
+     *
+     * @param value The value.
+     * @return True if any of the patterns matches, false otherwise.
+     */
+    public boolean matches(@Nullable final String value) {
+        if (value == null) {
+            return false;
+        }
+        return prefixes != null && prefixes.matches(value, false) || suffixes != null && suffixes.matches(value, true);
+    }
+
+    /**
+     * A node of the trie under construction.
+     */
+    private static final class BuildNode {
+
+        /** The transitions, sorted by the character. */
+        private final Map<Character, BuildNode> children = new TreeMap<>();
+
+        /** Whether a pattern ends at this node. */
+        private boolean terminal;
+
+        /**
+         * Inserts a pattern below this node, unless it is covered by a shorter pattern. The longer patterns covered by
+         * the inserted one are removed.
+         *
+         * @param pattern The characters of the pattern.
+         * @param reverse Whether the characters are inserted from the end.
+         */
+        private void insert(@Nonnull final String pattern, final boolean reverse) {
+            BuildNode node = this;
+            final int length = pattern.length();
+            for (int i = 0; i < length; i++) {
+                if (node.terminal) {
+                    return;
+                }
+                final char c = pattern.charAt(reverse ? length - 1 - i : i);
+                BuildNode child = node.children.get(c);
+                if (child == null) {
+                    child = new BuildNode();
+                    node.children.put(c, child);
+                }
+                node = child;
+            }
+            node.terminal = true;
+            node.children.clear();
+        }
+    }
+
+    /**
+     * A trie flattened into arrays, the root being the node 0.
+     */
+    private static final class Trie {
+
+        /** The index of the first transition of each node, followed by the total number of transitions. */
+        private final int[] firstTransition;
+
+        /** The characters of the transitions, sorted within each node. */
+        private final char[] transitionChars;
+
+        /** The target nodes of the transitions. */
+        private final int[] transitionTargets;
+
+        /** Whether a pattern ends at each node. */
+        private final boolean[] terminal;
+
+        /** The number of patterns in the trie. */
+        private final int patternCount;
+
+        /**
+         * Constructor.
+         *
+         * @param root The root of the trie under construction.
+         */
+        private Trie(@Nonnull final BuildNode root) {
+            final List<BuildNode> nodes = new ArrayList<>();
+            final Queue<BuildNode> queue = new ArrayDeque<>();
+            queue.add(root);
+            while (!queue.isEmpty()) {
+                final BuildNode node = queue.remove();
+                nodes.add(node);
+                queue.addAll(node.children.values());
+            }
+            firstTransition = new int[nodes.size() + 1];
+            transitionChars = new char[nodes.size() - 1];
+            transitionTargets = new int[nodes.size() - 1];
+            terminal = new boolean[nodes.size()];
+            // the nodes are numbered in the breadth-first order, so the children of each node are consecutive
+            int transition = 0;
+            int nextTarget = 1;
+            int count = 0;
+            for (int i = 0; i < nodes.size(); i++) {
+                final BuildNode node = nodes.get(i);
+                firstTransition[i] = transition;
+                terminal[i] = node.terminal;
+                count += node.terminal ? 1 : 0;
+                for (final Character c : node.children.keySet()) {
+                    transitionChars[transition] = c;
+                    transitionTargets[transition] = nextTarget++;
+                    transition++;
+                }
+            }
+            firstTransition[nodes.size()] = transition;
+            patternCount = count;
+        }
+
+        /**
+         * Checks whether any of the patterns in this trie matches the given value.
+         *
+         * @param value The value.
+         * @param reverse Whether the value is walked from the end.
+         * @return True if a pattern matches, false otherwise.
+         */
+        private boolean matches(@Nonnull final String value, final boolean reverse) {
+            int node = 0;
+            final int length = value.length();
+            for (int i = 0; !terminal[node]; i++) {
+                if (i == length) {
+                    return false;
+                }
+                node = transition(node, value.charAt(reverse ? length - 1 - i : i));
+                if (node < 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Finds the transition of the node with the given character.
+         *
+         * @param node The node.
+         * @param c The character.
+         * @return The target node, -1 if there is no transition.
+         */
+        private int transition(final int node, final char c) {
+            int low = firstTransition[node];
+            int high = firstTransition[node + 1] - 1;
+            while (low <= high) {
+                final int middle = (low + high) >>> 1;
+                final char middleChar = transitionChars[middle];
+                if (middleChar < c) {
+                    low = middle + 1;
+                } else if (middleChar > c) {
+                    high = middle - 1;
+                } else {
+                    return transitionTargets[middle];
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+import org.slf4j.Logger;
+
+/**
+ * Aggregates the recurring problems of the authnID calculation, so that a source attribute missing from every login
+ * does not flood the logs. The occurrences are counted per reason and subject (for instance the attribute name) in
+ * lock-free counters, and a single summary line is logged per interval. The first occurrence of each reason and
+ * subject in an interval is logged in detail as a sample, the others only on the debug level.
+ * 
+ * <p>There is no background thread: the summary is logged by the first caller after the interval has elapsed.</p>
+ */
+public class AggregatingProblemLog {
+
+    /** The reasons of the problems. */
+    public enum Reason {
+
+        /** A source attribute was not found or it was not single-valued. */
+        MISSING_ATTRIBUTE("missing attribute", false),
+
+        /** The input for the calculation was incomplete. */
+        INCOMPLETE_INPUT("incomplete input", true),
+
+        /** The input for the calculation was shorter than the minimum input length. */
+        TOO_SHORT_INPUT("too short input", true),
+
+        /** The attribute recipient was not found for the pairwise authnID. */
+        MISSING_RECIPIENT("missing recipient", false),
+
+        /** The tenant attribute had no value matching any of the tenant profiles. */
+        UNKNOWN_TENANT("unknown tenant", true);
+
+        /** The description used in the summary. */
+        private final String description;
+
+        /** Whether the sampled details are logged as errors instead of warnings. */
+        private final boolean error;
+
+        /**
+         * Constructor.
+         *
+         * @param desc The description used in the summary.
+         * @param isError Whether the sampled details are logged as errors instead of warnings.
+         */
+        private Reason(@Nonnull final String desc, final boolean isError) {
+            description = desc;
+            error = isError;
+        }
+
+        /**
+         * Get the description used in the summary.
+         *
+         * @return The description.
+         */
+        @Nonnull
+        public String getDescription() {
+            return description;
+        }
+    }
+
+    /** The logger where the summaries and the details are logged. */
+    private final Logger log;
+
+    /** The length of the aggregation interval in milliseconds. */
+    private final long interval;
+
+    /** The counters of the current interval per reason and subject. */
+    private final Map<Reason, ConcurrentMap<String, AtomicLong>> counters;
+
+    /** The time in milliseconds when the current interval ends. */
+    private final AtomicLong intervalEnd;
+
+    /**
+     * Constructor.
+     *
+     * @param logger The logger where the summaries and the details are logged.
+     * @param intervalMillis The length of the aggregation interval in milliseconds, must be positive.
+     */
+    public AggregatingProblemLog(@Nonnull final Logger logger, final long intervalMillis) {
+        log = Constraint.isNotNull(logger, "The logger cannot be null!");
+        interval = Constraint.isGreaterThan(0, intervalMillis, "The interval must be positive!");
+        counters = new EnumMap<Reason, ConcurrentMap<String, AtomicLong>>(Reason.class);
+        for (final Reason reason : Reason.values()) {
+            counters.put(reason, new ConcurrentHashMap<String, AtomicLong>());
+        }
+        intervalEnd = new AtomicLong(System.currentTimeMillis() + interval);
+    }
+
+    /**
+     * Get the length of the aggregation interval.
+     *
+     * @return The interval in milliseconds.
+     */
+    public long getInterval() {
+        return interval;
+    }
+
+    /**
+     * Records an occurrence of the problem. The details are logged if this is the first occurrence of the reason and
+     * subject in the current interval, otherwise only on the debug level.
+     *
+     * @param reason The reason of the problem.
+     * @param subject The subject of the problem, for instance the attribute name.
+     * @param message The detail message, in the SLF4J format.
+     * @param argument The argument of the detail message.
+     */
+    public void record(@Nonnull final Reason reason, @Nonnull final String subject, @Nonnull final String message,
+            @Nullable final Object argument) {
+        final ConcurrentMap<String, AtomicLong> reasonCounters = counters.get(reason);
+        AtomicLong counter = reasonCounters.get(subject);
+        if (counter == null) {
+            final AtomicLong newCounter = new AtomicLong();
+            counter = reasonCounters.putIfAbsent(subject, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        if (counter.getAndIncrement() == 0) {
+            if (reason.error) {
+                log.error(message + " (sampled, repeated occurrences are summarized)", argument);
+            } else {
+                log.warn(message + " (sampled, repeated occurrences are summarized)", argument);
+            }
+        } else {
+            log.debug(message, argument);
+        }
+        flushIfDue(System.currentTimeMillis());
+    }
+
+    /**
+     * Logs the summary of the current interval if the interval has elapsed. Only one of the concurrent callers
+     * logs the summary.
+     *
+     * @param now The current time in milliseconds.
+     * @return The summary line, null if the interval has not elapsed or there was nothing to summarize.
+     */
+    @Nullable
+    public String flushIfDue(final long now) {
+        final long end = intervalEnd.get();
+        if (now < end || !intervalEnd.compareAndSet(end, now + interval)) {
+            return null;
+        }
+        return flush(now - end + interval);
+    }
+
+    /**
+     * Logs the summary of the counted occurrences and resets the counters.
+     *
+     * @param elapsed The length of the summarized period in milliseconds.
+     * @return The summary line, null if there was nothing to summarize.
+     */
+    @Nullable
+    protected String flush(final long elapsed) {
+        StringBuilder summary = null;
+        for (final Map.Entry<Reason, ConcurrentMap<String, AtomicLong>> entry : counters.entrySet()) {
+            for (final Map.Entry<String, AtomicLong> subjectEntry : entry.getValue().entrySet()) {
+                final long count = subjectEntry.getValue().getAndSet(0);
+                if (count == 0) {
+                    continue;
+                }
+                if (summary == null) {
+                    summary = new StringBuilder("Authn ID calculation problems in the last ")
+                            .append(elapsed / 1000).append(" s:");
+                } else {
+                    summary.append(',');
+                }
+                summary.append(' ').append(entry.getKey().getDescription()).append(' ')
+                        .append(subjectEntry.getKey()).append(" x ").append(count);
+            }
+        }
+        if (summary == null) {
+            return null;
+        }
+        final String line = summary.toString();
+        log.warn(line);
+        return line;
+    }
+}
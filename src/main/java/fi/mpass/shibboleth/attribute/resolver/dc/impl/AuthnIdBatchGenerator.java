@@ -0,0 +1,600 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Calculates the authnIDs for all the principals in a CSV file, outside the attribute resolution. The first line of
+ * the file must contain the column names, and the source attributes of the connector are read from the columns with
+ * the same names. The output contains the value of the id column and the authnID for each input line, in the input
+ * order. The authnID is left empty if the input is too short.
+ * 
+ * The input is memory-mapped in regions and split into blocks of whole lines, which are calculated in parallel in a
+ * {@link ForkJoinPool}. The number of blocks in flight is bounded, so the memory usage does not depend on the size of
+ * the input. The CSV fields may be quoted, but quoted fields cannot contain line breaks.
+ * 
+ * Usage: java fi.mpass.shibboleth.attribute.resolver.dc.impl.AuthnIdBatchGenerator --input file --output file
+ * --srcAttributeNames names [--prefixSalt salt] [--postfixSalt salt] [--minInputLength length]
+ * [--digestAlgorithm name] [--outputEncoding name] [--hmacKeyFile file] [--idColumn name] [--threads count]
+ * [--config file.properties]
+ * 
+ * The keystore options of the connector (hmacKeyStore, hmacKeyStoreType, hmacKeyStorePassword, hmacKeyAlias,
+ * hmacKeyPassword), hmacOutputFormat, inputFraming, inputNormalization, truncationBits, expectedPopulation and
+ * maxCollisionProbability can be given in the same way, preferably in the properties file.
+ */
+public class AuthnIdBatchGenerator {
+
+    /** Default size of the blocks calculated in a single task, in bytes. */
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+    /** Default size of the memory-mapped regions of the input, in bytes. */
+    public static final int DEFAULT_REGION_SIZE = 256 * 1024 * 1024;
+
+    /** The number of blocks in flight per thread. */
+    private static final int BLOCKS_PER_THREAD = 4;
+
+    /** The field separator. */
+    private static final char SEPARATOR = ',';
+
+    /** The quote character. */
+    private static final char QUOTE = '"';
+
+    /** Class logger. */
+    private final Logger log = LoggerFactory.getLogger(AuthnIdBatchGenerator.class);
+
+    /** The initialized connector whose calculation is used. */
+    private final EcaAuthnIdDataConnector dataConnector;
+
+    /** The name of the column written together with the authnID, the first column if null. */
+    private final String idColumn;
+
+    /** The number of parallel threads. */
+    private final int parallelism;
+
+    /** The size of the blocks calculated in a single task, in bytes. */
+    private int blockSize = DEFAULT_BLOCK_SIZE;
+
+    /** The size of the memory-mapped regions of the input, in bytes. */
+    private int regionSize = DEFAULT_REGION_SIZE;
+
+    /**
+     * Constructor.
+     *
+     * @param connector The initialized connector whose calculation is used.
+     * @param idColumnName The name of the column written together with the authnID, the first column if null.
+     * @param threads The number of parallel threads.
+     */
+    public AuthnIdBatchGenerator(@Nonnull final EcaAuthnIdDataConnector connector,
+            @Nullable final String idColumnName, final int threads) {
+        dataConnector = Constraint.isNotNull(connector, "The data connector cannot be null!");
+        Constraint.isTrue(connector.isInitialized(), "The data connector must be initialized!");
+        Constraint.isGreaterThan(0, threads, "The number of threads must be positive!");
+        idColumn = idColumnName;
+        parallelism = threads;
+    }
+
+    /**
+     * Set the size of the blocks calculated in a single task. The blocks are extended to the next line break.
+     *
+     * @param size What to set, in bytes.
+     */
+    public void setBlockSize(final int size) {
+        blockSize = (int) Constraint.isGreaterThan(0, size, "The block size must be positive!");
+    }
+
+    /**
+     * Set the size of the memory-mapped regions of the input. A single line must fit into a region.
+     *
+     * @param size What to set, in bytes.
+     */
+    public void setRegionSize(final int size) {
+        regionSize = (int) Constraint.isGreaterThan(0, size, "The region size must be positive!");
+    }
+
+    /**
+     * Calculates the authnIDs for the principals in the input file.
+     *
+     * @param input The CSV file whose first line contains the column names.
+     * @param output The file where to write the id column and the authnID for each input line.
+     * @return The statistics of the generation.
+     * @throws IOException If the files cannot be read or written, or if the input is invalid.
+     */
+    @Nonnull
+    public Statistics generate(@Nonnull final Path input, @Nonnull final Path output) throws IOException {
+        final long start = System.currentTimeMillis();
+        final Statistics statistics = new Statistics();
+        final ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try (final FileChannel channel = FileChannel.open(input, StandardOpenOption.READ);
+                final OutputStream out = Files.newOutputStream(output)) {
+            final long fileSize = channel.size();
+            if (fileSize == 0) {
+                throw new IOException("The input file is empty");
+            }
+            MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(fileSize, regionSize));
+            final int headerLength = lineEnd(region, 0, region.limit());
+            if (region.get(headerLength - 1) != '\n' && fileSize > regionSize) {
+                throw new IOException("The header line does not fit into a region");
+            }
+            final int[] columns = mapColumns(parseLine(decode(region, 0, headerLength)));
+            final Deque<ForkJoinTask<BlockResult>> inFlight = new ArrayDeque<>();
+            final int maxInFlight = parallelism * BLOCKS_PER_THREAD;
+            long position = headerLength;
+            int regionStart = headerLength;
+            while (position < fileSize) {
+                if (regionStart == 0) {
+                    region = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                            Math.min(fileSize - position, regionSize));
+                }
+                int regionEnd = region.limit();
+                if (position - regionStart + regionEnd < fileSize) {
+                    regionEnd = lastLineEnd(region, regionEnd);
+                    if (regionEnd <= regionStart) {
+                        throw new IOException("A line does not fit into a region at " + position);
+                    }
+                }
+                int blockStart = regionStart;
+                while (blockStart < regionEnd) {
+                    int blockEnd = Math.min(blockStart + blockSize, regionEnd);
+                    if (blockEnd < regionEnd) {
+                        blockEnd = lineEnd(region, blockEnd - 1, regionEnd);
+                    }
+                    final ByteBuffer block = region.duplicate();
+                    block.limit(blockEnd).position(blockStart);
+                    inFlight.addLast(pool.submit(new BlockTask(block.slice(), columns)));
+                    while (inFlight.size() >= maxInFlight) {
+                        write(inFlight.removeFirst().join(), out, statistics);
+                    }
+                    blockStart = blockEnd;
+                }
+                position += regionEnd - regionStart;
+                regionStart = 0;
+            }
+            while (!inFlight.isEmpty()) {
+                write(inFlight.removeFirst().join(), out, statistics);
+            }
+        } finally {
+            pool.shutdown();
+        }
+        statistics.elapsed = System.currentTimeMillis() - start;
+        log.info("Calculated authnIDs for {} lines ({} failed) in {} ms", statistics.lines, statistics.failures,
+                statistics.elapsed);
+        return statistics;
+    }
+
+    /**
+     * Writes the result of a block to the output.
+     *
+     * @param result The result of the block.
+     * @param out The output.
+     * @param statistics The statistics to be updated.
+     * @throws IOException If the output cannot be written.
+     */
+    private void write(@Nonnull final BlockResult result, @Nonnull final OutputStream out,
+            @Nonnull final Statistics statistics) throws IOException {
+        out.write(result.output);
+        statistics.lines += result.lines;
+        statistics.failures += result.failures;
+    }
+
+    /**
+     * Maps the source attributes and the id column to the column positions.
+     *
+     * @param header The column names.
+     * @return The positions of the source attributes, followed by the position of the id column.
+     * @throws IOException If any of the columns is not found.
+     */
+    private int[] mapColumns(@Nonnull final List<String> header) throws IOException {
+        final List<String> srcAttributeNames = dataConnector.getSrcAttributeNames();
+        final int[] columns = new int[srcAttributeNames.size() + 1];
+        for (int i = 0; i < srcAttributeNames.size(); i++) {
+            columns[i] = header.indexOf(srcAttributeNames.get(i));
+            if (columns[i] < 0) {
+                throw new IOException("The column " + srcAttributeNames.get(i) + " was not found");
+            }
+        }
+        columns[columns.length - 1] = idColumn == null ? 0 : header.indexOf(idColumn);
+        if (columns[columns.length - 1] < 0) {
+            throw new IOException("The id column " + idColumn + " was not found");
+        }
+        return columns;
+    }
+
+    /**
+     * Calculates the output line for the given input line.
+     *
+     * @param line The input line, without the line break.
+     * @param columns The positions of the source attributes, followed by the position of the id column.
+     * @param out The buffer where to append the output line.
+     * @return True if the authnID was calculated, false otherwise.
+     */
+    private boolean calculate(@Nonnull final String line, @Nonnull final int[] columns,
+            @Nonnull final StringBuilder out) {
+        final List<String> fields = parseLine(line);
+        final int idIndex = columns[columns.length - 1];
+        appendField(idIndex < fields.size() ? fields.get(idIndex) : "", out);
+        out.append(SEPARATOR);
+        final String[] values = new String[columns.length - 1];
+        for (int i = 0; i < values.length; i++) {
+            if (columns[i] >= fields.size()) {
+                out.append('\n');
+                return false;
+            }
+            values[i] = fields.get(columns[i]);
+        }
+        final String authnId = dataConnector.calculateAuthnId(values);
+        if (authnId != null) {
+            out.append(authnId);
+        }
+        out.append('\n');
+        return authnId != null;
+    }
+
+    /**
+     * Appends the given field to the output, quoted if needed.
+     *
+     * @param field The field.
+     * @param out The output.
+     */
+    private static void appendField(@Nonnull final String field, @Nonnull final StringBuilder out) {
+        if (field.indexOf(SEPARATOR) < 0 && field.indexOf(QUOTE) < 0 && field.indexOf('\n') < 0
+                && field.indexOf('\r') < 0) {
+            out.append(field);
+            return;
+        }
+        out.append(QUOTE);
+        for (int i = 0; i < field.length(); i++) {
+            final char c = field.charAt(i);
+            if (c == QUOTE) {
+                out.append(QUOTE);
+            }
+            out.append(c);
+        }
+        out.append(QUOTE);
+    }
+
+    /**
+     * Splits a CSV line into fields. Quoted fields may contain separators and doubled quotes.
+     *
+     * @param line The line, without the line break.
+     * @return The fields.
+     */
+    @Nonnull
+    protected static List<String> parseLine(@Nonnull final String line) {
+        final List<String> fields = new ArrayList<>();
+        final StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            final char c = line.charAt(i);
+            if (quoted) {
+                if (c != QUOTE) {
+                    field.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == QUOTE) {
+                    field.append(QUOTE);
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == QUOTE) {
+                quoted = true;
+            } else if (c == SEPARATOR) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    /**
+     * Decodes a line from the buffer, without the line break and the byte order mark.
+     *
+     * @param buffer The buffer.
+     * @param start The start of the line.
+     * @param end The end of the line, possibly including the line break.
+     * @return The decoded line.
+     */
+    private static String decode(@Nonnull final ByteBuffer buffer, final int start, final int end) {
+        int from = start;
+        int to = end;
+        while (to > from && (buffer.get(to - 1) == '\n' || buffer.get(to - 1) == '\r')) {
+            to--;
+        }
+        if (to - from >= 3 && buffer.get(from) == (byte) 0xef && buffer.get(from + 1) == (byte) 0xbb
+                && buffer.get(from + 2) == (byte) 0xbf) {
+            from += 3;
+        }
+        final byte[] bytes = new byte[to - from];
+        final ByteBuffer view = buffer.duplicate();
+        view.limit(to).position(from);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Finds the end of the line starting from the given position.
+     *
+     * @param buffer The buffer.
+     * @param from The first position to be checked.
+     * @param to The end of the range to be checked.
+     * @return The position after the next line break, or the end of the range if there are no line breaks.
+     */
+    private static int lineEnd(@Nonnull final ByteBuffer buffer, final int from, final int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+        return to;
+    }
+
+    /**
+     * Finds the end of the last whole line before the given position.
+     *
+     * @param buffer The buffer.
+     * @param to The end of the range to be checked.
+     * @return The position after the last line break, 0 if there are no line breaks.
+     */
+    private static int lastLineEnd(@Nonnull final ByteBuffer buffer, final int to) {
+        for (int i = to - 1; i >= 0; i--) {
+            if (buffer.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * The command line interface, see the class description for the arguments.
+     *
+     * @param args The command line arguments.
+     * @throws Exception If the generation fails.
+     */
+    public static void main(final String[] args) throws Exception {
+        final Map<String, String> options = parseArguments(args);
+        if (options == null || !options.containsKey("input") || !options.containsKey("output")
+                || !options.containsKey("srcAttributeNames")) {
+            System.err.println("Usage: java " + AuthnIdBatchGenerator.class.getName()
+                    + " --input file --output file --srcAttributeNames names [--prefixSalt salt]"
+                    + " [--postfixSalt salt] [--minInputLength length] [--digestAlgorithm name]"
+                    + " [--outputEncoding name] [--hmacKeyFile file] [--idColumn name] [--threads count]"
+                    + " [--config file.properties]");
+            System.exit(1);
+            return;
+        }
+        final EcaAuthnIdDataConnector connector = buildConnector(options);
+        final String threads = options.get("threads");
+        final AuthnIdBatchGenerator generator = new AuthnIdBatchGenerator(connector, options.get("idColumn"),
+                threads == null ? Runtime.getRuntime().availableProcessors() : Integer.parseInt(threads));
+        final Statistics statistics =
+                generator.generate(Paths.get(options.get("input")), Paths.get(options.get("output")));
+        System.out.println("Calculated authnIDs for " + statistics.getLines() + " lines (" 
+                + statistics.getFailures() + " failed) in " + statistics.getElapsed() + " ms");
+        connector.destroy();
+    }
+
+    /**
+     * Parses the command line arguments. The options in the properties file given with --config are overridden by
+     * the other arguments, so that the salts do not need to be given on the command line.
+     *
+     * @param args The command line arguments.
+     * @return The options, null if the arguments are invalid.
+     * @throws IOException If the properties file cannot be read.
+     */
+    @Nullable
+    protected static Map<String, String> parseArguments(@Nonnull final String[] args) throws IOException {
+        final Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i += 2) {
+            if (!args[i].startsWith("--") || i + 1 == args.length) {
+                return null;
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        final String config = options.get("config");
+        if (config != null) {
+            final Properties properties = new Properties();
+            try (final InputStream stream = Files.newInputStream(Paths.get(config))) {
+                properties.load(stream);
+            }
+            for (final String name : properties.stringPropertyNames()) {
+                if (!options.containsKey(name)) {
+                    options.put(name, properties.getProperty(name));
+                }
+            }
+        }
+        return options;
+    }
+
+    /**
+     * Builds and initializes the connector with the given options.
+     *
+     * @param options The options.
+     * @return The initialized connector.
+     * @throws ComponentInitializationException If the connector cannot be initialized.
+     */
+    @Nonnull
+    protected static EcaAuthnIdDataConnector buildConnector(@Nonnull final Map<String, String> options)
+            throws ComponentInitializationException {
+        final EcaAuthnIdDataConnector connector = new EcaAuthnIdDataConnector();
+        connector.setId("batch");
+        connector.setSrcAttributeNames(options.get("srcAttributeNames"));
+        connector.setDestAttributeName("authnid");
+        connector.setPrefixSalt(options.get("prefixSalt"));
+        connector.setPostfixSalt(options.get("postfixSalt"));
+        connector.setMinInputLength(options.get("minInputLength"));
+        connector.setDigestAlgorithm(options.get("digestAlgorithm"));
+        connector.setOutputEncoding(options.get("outputEncoding"));
+        connector.setInputFraming(options.get("inputFraming"));
+        connector.setInputNormalization(options.get("inputNormalization"));
+        connector.setTruncationBits(options.get("truncationBits"));
+        connector.setExpectedPopulation(options.get("expectedPopulation"));
+        connector.setMaxCollisionProbability(options.get("maxCollisionProbability"));
+        connector.setHmacKeyFile(options.get("hmacKeyFile"));
+        connector.setHmacKeyStore(options.get("hmacKeyStore"));
+        connector.setHmacKeyStoreType(options.get("hmacKeyStoreType"));
+        connector.setHmacKeyStorePassword(options.get("hmacKeyStorePassword"));
+        connector.setHmacKeyAlias(options.get("hmacKeyAlias"));
+        connector.setHmacKeyPassword(options.get("hmacKeyPassword"));
+        connector.setHmacOutputFormat(options.get("hmacOutputFormat"));
+        connector.setKdfIterations(options.get("kdfIterations"));
+        connector.initialize();
+        return connector;
+    }
+
+    /**
+     * A task calculating the output for a block of whole lines.
+     */
+    private final class BlockTask extends RecursiveTask<BlockResult> {
+
+        /** Serial version UID. */
+        private static final long serialVersionUID = 1L;
+
+        /** The block of lines. */
+        private final ByteBuffer block;
+
+        /** The positions of the source attributes, followed by the position of the id column. */
+        private final int[] columns;
+
+        /**
+         * Constructor.
+         *
+         * @param lines The block of lines.
+         * @param columnPositions The positions of the source attributes, followed by the position of the id column.
+         */
+        private BlockTask(@Nonnull final ByteBuffer lines, @Nonnull final int[] columnPositions) {
+            block = lines;
+            columns = columnPositions;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        protected BlockResult compute() {
+            final BlockResult result = new BlockResult();
+            final StringBuilder out = new StringBuilder(block.limit() + block.limit() / 2);
+            int start = 0;
+            while (start < block.limit()) {
+                final int end = lineEnd(block, start, block.limit());
+                final String line = decode(block, start, end);
+                if (!line.isEmpty()) {
+                    result.lines++;
+                    if (!calculate(line, columns, out)) {
+                        result.failures++;
+                    }
+                }
+                start = end;
+            }
+            result.output = out.toString().getBytes(StandardCharsets.UTF_8);
+            return result;
+        }
+    }
+
+    /**
+     * The result of a block.
+     */
+    private static final class BlockResult {
+
+        /** The output lines. */
+        private byte[] output;
+
+        /** The number of input lines. */
+        private int lines;
+
+        /** The number of lines without an authnID. */
+        private int failures;
+    }
+
+    /**
+     * The statistics of a generation.
+     */
+    public static final class Statistics {
+
+        /** The number of input lines. */
+        private long lines;
+
+        /** The number of lines without an authnID. */
+        private long failures;
+
+        /** The elapsed time in milliseconds. */
+        private long elapsed;
+
+        /**
+         * Get the number of input lines.
+         *
+         * @return The number of lines.
+         */
+        public long getLines() {
+            return lines;
+        }
+
+        /**
+         * Get the number of lines without an authnID, because of missing or too short input.
+         *
+         * @return The number of failures.
+         */
+        public long getFailures() {
+            return failures;
+        }
+
+        /**
+         * Get the elapsed time.
+         *
+         * @return The elapsed time in milliseconds.
+         */
+        public long getElapsed() {
+            return elapsed;
+        }
+    }
+}
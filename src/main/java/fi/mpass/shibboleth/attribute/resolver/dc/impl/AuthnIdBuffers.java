@@ -0,0 +1,329 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.util.Arrays;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.google.common.hash.HashFunction;
+
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+import org.bouncycastle.crypto.Digest;
+
+/**
+ * Reusable buffers for calculating a single authnID. The source attribute values are encoded with UTF-8 directly
+ * into a growing byte buffer, which is then fed to the digest engine. The digest is encoded (with Base64 by default)
+ * into a preallocated character buffer. The instances are not thread-safe, they are meant to be confined to a single
+ * thread.
+ * 
+ * <p>The buffers constructed without a pool do not reference any salted or keyed state, so they can be kept in a
+ * {@link ThreadLocal} that outlives the pools: the pool is then given to {@link #digest(Digest, byte[],
+ * DigestEnginePool)} on every calculation.</p>
+ */
+public class AuthnIdBuffers {
+
+    /** The initial size of the input buffer. */
+    public static final int DEFAULT_INPUT_CAPACITY = 256;
+
+    /** The length prefix marking a missing value in the framed input. */
+    public static final int MISSING_VALUE_LENGTH = -1;
+
+    /** The size of the length prefix in the framed input. */
+    private static final int LENGTH_PREFIX_SIZE = 4;
+
+    /** The replacement for unmappable characters, as in {@link String#getBytes(java.nio.charset.Charset)}. */
+    private static final byte REPLACEMENT = (byte) '?';
+
+    /** The UTF-8 encoded input. */
+    private byte[] input;
+
+    /** The number of bytes used in the input buffer. */
+    private int inputLength;
+
+    /** The number of characters appended to the input since it was cleared. */
+    private int charCount;
+
+    /** The digest calculated from the input. */
+    private final byte[] digest;
+
+    /** The encoded digest, preceded by the output prefix. */
+    private final char[] output;
+
+    /** The length of the output prefix. */
+    private final int prefixLength;
+
+    /** The pool completing the digests, null if the digests are completed by the engines alone. */
+    private final DigestEnginePool pool;
+
+    /** The encoding of the digests. */
+    private final OutputEncoding encoding;
+
+    /** The number of leading digest bytes included in the output. */
+    private final int outputLength;
+
+    /**
+     * Constructor.
+     *
+     * @param digestSize The size of the digest in bytes.
+     */
+    public AuthnIdBuffers(final int digestSize) {
+        this(digestSize, null, OutputEncoding.BASE64, digestSize, null);
+    }
+
+    /**
+     * Constructor. The pool completing the digests is given to {@link #digest(Digest, byte[], DigestEnginePool)}.
+     *
+     * @param digestSize The size of the digest in bytes.
+     * @param outputEncoding The encoding of the digests.
+     * @param outputBytes The number of leading digest bytes included in the output, at most the digest size.
+     * @param outputPrefix The prefix preceding every encoded digest, null if none.
+     */
+    public AuthnIdBuffers(final int digestSize, @Nonnull final OutputEncoding outputEncoding, final int outputBytes,
+            @Nullable final String outputPrefix) {
+        this(digestSize, null, outputEncoding, outputBytes, outputPrefix);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param digestPool The pool whose engines are used for the calculation. The digests are completed with
+     *            {@link DigestEnginePool#finish(Digest, byte[])}.
+     * @param outputEncoding The encoding of the digests.
+     * @param outputBytes The number of leading digest bytes included in the output, at most the digest size.
+     * @param outputPrefix The prefix preceding every encoded digest, null if none.
+     */
+    public AuthnIdBuffers(@Nonnull final DigestEnginePool digestPool, @Nonnull final OutputEncoding outputEncoding,
+            final int outputBytes, @Nullable final String outputPrefix) {
+        this(digestPool.getDigestSize(), digestPool, outputEncoding, outputBytes, outputPrefix);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param digestSize The size of the digest in bytes.
+     * @param digestPool The pool completing the digests, may be null.
+     * @param outputEncoding The encoding of the digests.
+     * @param outputBytes The number of leading digest bytes included in the output.
+     * @param outputPrefix The prefix preceding every encoded digest, may be null.
+     */
+    private AuthnIdBuffers(final int digestSize, @Nullable final DigestEnginePool digestPool,
+            @Nonnull final OutputEncoding outputEncoding, final int outputBytes, @Nullable final String outputPrefix) {
+        Constraint.isTrue(outputBytes > 0 && outputBytes <= digestSize, "Invalid number of output bytes!");
+        input = new byte[DEFAULT_INPUT_CAPACITY];
+        digest = new byte[digestSize];
+        encoding = outputEncoding;
+        outputLength = outputBytes;
+        prefixLength = outputPrefix == null ? 0 : outputPrefix.length();
+        output = new char[prefixLength + encoding.getEncodedLength(outputLength)];
+        if (outputPrefix != null) {
+            outputPrefix.getChars(0, prefixLength, output, 0);
+        }
+        pool = digestPool;
+    }
+
+    /**
+     * Clears the input buffer.
+     */
+    public void clear() {
+        inputLength = 0;
+        charCount = 0;
+    }
+
+    /**
+     * Get the number of characters appended to the input since it was cleared.
+     *
+     * @return The number of UTF-16 characters.
+     */
+    public int getCharCount() {
+        return charCount;
+    }
+
+    /**
+     * Get the number of bytes in the encoded input.
+     *
+     * @return The number of bytes.
+     */
+    public int getInputLength() {
+        return inputLength;
+    }
+
+    /**
+     * Appends the given value to the input, encoded with UTF-8 and preceded by its length in bytes (4 bytes, big
+     * endian). The values appended this way cannot be confused with each other, unlike the plain concatenation of
+     * {@link #append(String)}.
+     *
+     * @param value What to append, null if the value is missing.
+     */
+    public void appendFramed(@Nullable final String value) {
+        ensureCapacity(inputLength + LENGTH_PREFIX_SIZE);
+        final int prefixPosition = inputLength;
+        inputLength += LENGTH_PREFIX_SIZE;
+        final int length;
+        if (value == null) {
+            length = MISSING_VALUE_LENGTH;
+        } else {
+            append(value);
+            length = inputLength - prefixPosition - LENGTH_PREFIX_SIZE;
+        }
+        input[prefixPosition] = (byte) (length >>> 24);
+        input[prefixPosition + 1] = (byte) (length >>> 16);
+        input[prefixPosition + 2] = (byte) (length >>> 8);
+        input[prefixPosition + 3] = (byte) length;
+    }
+
+    /**
+     * Appends the given value to the input, encoded with UTF-8.
+     *
+     * @param value What to append.
+     */
+    public void append(@Nonnull final String value) {
+        final int length = value.length();
+        ensureCapacity(inputLength + length * 3);
+        final byte[] buffer = input;
+        int position = inputLength;
+        for (int i = 0; i < length; i++) {
+            final char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer[position++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[position++] = (byte) (0xc0 | (c >> 6));
+                buffer[position++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    buffer[position++] = (byte) (0xf0 | (codePoint >> 18));
+                    buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                    buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                    buffer[position++] = (byte) (0x80 | (codePoint & 0x3f));
+                } else {
+                    buffer[position++] = REPLACEMENT;
+                }
+            } else {
+                buffer[position++] = (byte) (0xe0 | (c >> 12));
+                buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buffer[position++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        inputLength = position;
+        charCount += length;
+    }
+
+    /**
+     * Hashes the input with the given function.
+     *
+     * @param function The hash function.
+     * @return The first 64 bits of the hash.
+     */
+    public long hashInput(@Nonnull final HashFunction function) {
+        return function.hashBytes(input, 0, inputLength).asLong();
+    }
+
+    /**
+     * Feeds the input and the given suffix to the digest engine, and encodes the result with the output encoding.
+     * Only the leading output bytes of the digest are encoded, and the encoded digest is preceded by the output
+     * prefix given in the constructor.
+     *
+     * @param engine The digest engine, whose digest size must match the one given in the constructor. If the pool
+     *            was given in the constructor, the engine must have been borrowed from it.
+     * @param suffix The bytes to be fed after the input.
+     * @return The encoded digest.
+     */
+    @Nonnull
+    public String digest(@Nonnull final Digest engine, @Nonnull final byte[] suffix) {
+        return digest(engine, suffix, pool);
+    }
+
+    /**
+     * Feeds the input and the given suffix to the digest engine borrowed from the given pool, and encodes the result
+     * as in {@link #digest(Digest, byte[])}.
+     *
+     * @param engine The digest engine borrowed from the pool.
+     * @param suffix The bytes to be fed after the input.
+     * @param digestPool The pool completing the digest, null if the digest is completed by the engine alone.
+     * @return The encoded digest.
+     */
+    @Nonnull
+    public String digest(@Nonnull final Digest engine, @Nonnull final byte[] suffix,
+            @Nullable final DigestEnginePool digestPool) {
+        engine.update(input, 0, inputLength);
+        engine.update(suffix, 0, suffix.length);
+        if (digestPool == null) {
+            engine.doFinal(digest, 0);
+        } else {
+            digestPool.finish(engine, digest);
+        }
+        return new String(output, 0, prefixLength + encoding.encode(digest, outputLength, output, prefixLength));
+    }
+
+    /**
+     * Copies the input, for instance for deriving the authnID in another thread.
+     *
+     * @return A copy of the UTF-8 encoded input.
+     */
+    @Nonnull
+    public byte[] copyInput() {
+        return Arrays.copyOf(input, inputLength);
+    }
+
+    /**
+     * Encodes the given derived key with the output encoding, as the digests in {@link #digest(Digest, byte[])}.
+     *
+     * @param derivedKey The derived key, at least as long as the number of output bytes given in the constructor.
+     * @return The encoded key.
+     */
+    @Nonnull
+    public String encode(@Nonnull final byte[] derivedKey) {
+        Constraint.isTrue(derivedKey.length >= outputLength, "The derived key is too short!");
+        return new String(output, 0, prefixLength + encoding.encode(derivedKey, outputLength, output, prefixLength));
+    }
+
+    /**
+     * Encodes the given bytes with Base64 (RFC 4648, with padding) into the given character buffer.
+     *
+     * @param bytes The bytes to be encoded.
+     * @param length The number of bytes to be encoded.
+     * @param chars The target buffer, at least <code>(length + 2) / 3 * 4</code> characters long.
+     * @return The number of characters written.
+     */
+    public static int encodeBase64(@Nonnull final byte[] bytes, final int length, @Nonnull final char[] chars) {
+        return OutputEncoding.BASE64.encode(bytes, length, chars, 0);
+    }
+
+    /**
+     * Grows the input buffer if needed.
+     *
+     * @param capacity The required capacity.
+     */
+    private void ensureCapacity(final int capacity) {
+        if (capacity > input.length) {
+            final byte[] grown = new byte[Math.max(capacity, input.length * 2)];
+            System.arraycopy(input, 0, grown, 0, inputLength);
+            input = grown;
+        }
+    }
+}
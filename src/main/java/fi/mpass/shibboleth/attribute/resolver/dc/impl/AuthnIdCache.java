@@ -0,0 +1,193 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * A bounded cache for the calculated authnIDs. The cache is keyed by a 128-bit keyed hash (two SipHash-2-4 functions
+ * with random keys) of the unsalted input, together with the scope of the resolution plan, so the source attribute
+ * values are never stored in plaintext. The keys of the hash functions are generated when the cache is constructed and
+ * never leave the memory.
+ * 
+ * The entries are evicted by size (least recently used first, in concurrent segments) and by the time since they were
+ * written.
+ */
+public class AuthnIdCache {
+
+    /** The first hash function for the keys. */
+    private final HashFunction firstFunction;
+
+    /** The second hash function for the keys. */
+    private final HashFunction secondFunction;
+
+    /** The cached authnIDs. */
+    private final Cache<Key, String> cache;
+
+    /**
+     * Constructor.
+     *
+     * @param maximumSize The maximum number of cached authnIDs.
+     * @param expiration The time in milliseconds after which the authnIDs are evicted.
+     */
+    public AuthnIdCache(final long maximumSize, final long expiration) {
+        Constraint.isGreaterThan(0, maximumSize, "The maximum size of the cache must be positive!");
+        Constraint.isGreaterThan(0, expiration, "The expiration of the cache must be positive!");
+        final SecureRandom random = new SecureRandom();
+        firstFunction = Hashing.sipHash24(random.nextLong(), random.nextLong());
+        secondFunction = Hashing.sipHash24(random.nextLong(), random.nextLong());
+        cache = CacheBuilder.newBuilder().maximumSize(maximumSize).expireAfterWrite(expiration, TimeUnit.MILLISECONDS)
+                .concurrencyLevel(Math.max(4, Runtime.getRuntime().availableProcessors())).recordStats().build();
+    }
+
+    /**
+     * Builds the cache key for the input currently in the given buffers.
+     *
+     * @param buffers The buffers containing the unsalted input.
+     * @param scope The scope separating the inputs calculated with different parameters.
+     * @return The cache key.
+     */
+    @Nonnull
+    public Key buildKey(@Nonnull final AuthnIdBuffers buffers, final int scope) {
+        return new Key(scope, buffers.hashInput(firstFunction), buffers.hashInput(secondFunction));
+    }
+
+    /**
+     * Get the cached authnID for the given key.
+     *
+     * @param key The cache key.
+     * @return The cached authnID, null if it was not found.
+     */
+    @Nullable
+    public String get(@Nonnull final Key key) {
+        return cache.getIfPresent(key);
+    }
+
+    /**
+     * Caches the authnID with the given key.
+     *
+     * @param key The cache key.
+     * @param authnId The authnID to be cached.
+     */
+    public void put(@Nonnull final Key key, @Nonnull final String authnId) {
+        cache.put(key, authnId);
+    }
+
+    /**
+     * Get the hit, miss and eviction counters of the cache.
+     *
+     * @return The cache statistics.
+     */
+    @Nonnull
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    /**
+     * Get the current number of cached authnIDs.
+     *
+     * @return The number of cached authnIDs.
+     */
+    public long size() {
+        return cache.size();
+    }
+
+    /**
+     * Removes all the cached authnIDs.
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * The key of a cached authnID.
+     */
+    public static final class Key {
+
+        /** The scope of the input. */
+        private final int scope;
+
+        /** The first half of the hash. */
+        private final long first;
+
+        /** The second half of the hash. */
+        private final long second;
+
+        /**
+         * Constructor.
+         *
+         * @param inputScope The scope of the input.
+         * @param firstHash The first half of the hash.
+         * @param secondHash The second half of the hash.
+         */
+        Key(final int inputScope, final long firstHash, final long secondHash) {
+            scope = inputScope;
+            first = firstHash;
+            second = secondHash;
+        }
+
+        /**
+         * Builds a key for the same input in another scope.
+         *
+         * @param inputScope The scope of the new key.
+         * @return The new key.
+         */
+        @Nonnull
+        public Key withScope(final int inputScope) {
+            return new Key(inputScope, first, second);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return scope == other.scope && first == other.first && second == other.second;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int hashCode() {
+            return (int) (first ^ (first >>> 32)) + scope;
+        }
+    }
+}
@@ -0,0 +1,738 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+import org.bouncycastle.crypto.Digest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An append-only journal of the issued authnIDs, for mapping an authnID reported by a service provider back to the
+ * principal. Each entry is a line of tab-separated fields: the UTC timestamp, the hex-encoded SHA-256 hash of the
+ * principal name, the tenant (- for the default configuration) and the authnID.
+ * 
+ * <p>The resolving threads only publish the entries to a bounded lock-free ring buffer, and never block: if the
+ * buffer is full, the entry is dropped and counted. A single daemon thread drains the buffer, writes the entries
+ * to the channel of the segment file through a reused write buffer, and forces the written entries to the disk once
+ * per commit interval, so that a single fsync commits all the entries written since the previous one. The commit is
+ * checked after at most {@link #MAX_DRAIN} entries, so a busy buffer does not postpone it. When the buffer is empty,
+ * the thread parks until the commit is due, and an entry published to the empty buffer unparks it.</p>
+ * 
+ * <p>The segment being written has the suffix {@link #OPEN_SEGMENT_SUFFIX}. When the next entry does not fit in
+ * it, the segment is closed and a new one is started. The closed segment is compacted by another daemon thread, so
+ * that the writer keeps draining the buffer: the segment is streamed into a new file without the repeated entries of
+ * the same principal, tenant and authnID (among the last {@link #MAX_COMPACTION_KEYS} distinct ones), keeping the
+ * first one, and the new file is renamed to the {@link #SEGMENT_SUFFIX}. The oldest compacted segments are then
+ * deleted while the segments exceed the maximum total size. When the journal is opened, only the segments still
+ * having the open suffix, i.e. the one left behind by a crash and the ones not compacted yet, are trimmed and
+ * compacted in the same way.</p>
+ */
+public class AuthnIdJournal {
+
+    /** The prefix of the segment file names. */
+    public static final String SEGMENT_PREFIX = "authnid-";
+
+    /** The suffix of the compacted segment file names. */
+    public static final String SEGMENT_SUFFIX = ".journal";
+
+    /** The suffix of the file names of the segment being written and the segments not compacted yet. */
+    public static final String OPEN_SEGMENT_SUFFIX = SEGMENT_SUFFIX + ".open";
+
+    /** The maximum number of distinct entries remembered while compacting a segment. */
+    public static final int MAX_COMPACTION_KEYS = 1 << 16;
+
+    /** Default number of entries the ring buffer can hold. */
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    /** The value of the tenant field for the default configuration. */
+    public static final String DEFAULT_TENANT = "-";
+
+    /**
+     * The maximum number of entries written between the commit checks, so that a steady stream of entries cannot
+     * postpone the commit beyond the interval.
+     */
+    private static final int MAX_DRAIN = 1024;
+
+    /** The size of the buffer collecting the entries before they are written to the segment channel. */
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    /** The time to wait for the writer thread to finish when the journal is closed. */
+    private static final long CLOSE_TIMEOUT = 10 * 1000L;
+
+    /** Class logger. */
+    private final Logger log = LoggerFactory.getLogger(AuthnIdJournal.class);
+
+    /** The directory containing the segments. */
+    private final Path directory;
+
+    /** The size of a segment in bytes. */
+    private final int segmentSize;
+
+    /** The maximum total size of the segments in bytes. */
+    private final long maxSize;
+
+    /** The interval for forcing the written entries to the disk in milliseconds. */
+    private final long commitInterval;
+
+    /** The ring buffer, whose capacity is a power of two. */
+    private final AtomicReferenceArray<Entry> ring;
+
+    /** The mask for mapping a sequence number to an index of the ring buffer. */
+    private final int mask;
+
+    /** The sequence number of the next entry to be published. */
+    private final AtomicLong tail = new AtomicLong();
+
+    /** The sequence number of the next entry to be written, advanced by the writer thread only. */
+    private final AtomicLong head = new AtomicLong();
+
+    /** The number of entries dropped as the ring buffer was full or they could not be written. */
+    private final AtomicLong dropped = new AtomicLong();
+
+    /** The thread writing the entries. */
+    private final Thread writer;
+
+    /** The executor compacting the closed segments and deleting the oldest ones. */
+    private final ExecutorService compactor;
+
+    /** Whether the journal has been closed. */
+    private volatile boolean closed;
+
+    /** The engine hashing the principal names, confined to the writer thread. */
+    private final Digest principalDigest = DigestAlgorithm.SHA256.newEngine();
+
+    /** The buffer for the principal hash, confined to the writer thread. */
+    private final byte[] hashBytes = new byte[principalDigest.getDigestSize()];
+
+    /** The buffer for the encoded principal hash, confined to the writer thread. */
+    private final char[] hashChars = new char[OutputEncoding.HEX.getEncodedLength(hashBytes.length)];
+
+    /** The builder of the entry lines, confined to the writer thread. */
+    private final StringBuilder line = new StringBuilder(256);
+
+    /** The buffer collecting the entries before they are written to the segment channel, confined to the writer. */
+    private final ByteBuffer writeBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+
+    /** The number of entries in the write buffer, dropped if the buffer cannot be written. */
+    private int bufferedEntries;
+
+    /** The timestamp format, confined to the writer thread. */
+    private final SimpleDateFormat timestampFormat;
+
+    /** The sequence number distinguishing the segments started within the same millisecond. */
+    private int segmentSequence;
+
+    /** The current segment file, null if no segment is open. */
+    private Path segmentFile;
+
+    /** The channel of the current segment. */
+    private FileChannel segmentChannel;
+
+    /** The number of bytes written to the current segment, including the ones in the write buffer. */
+    private long segmentLength;
+
+    /** Whether the current segment contains entries that have not been forced to the disk. */
+    private boolean dirty;
+
+    /** The time in milliseconds of the previous commit. */
+    private long lastCommit;
+
+    /**
+     * Constructor.
+     *
+     * @param journalDirectory The directory containing the segments, created if it does not exist.
+     * @param maxSegmentSize The size of a segment in bytes, must be positive.
+     * @param maxTotalSize The maximum total size of the segments in bytes, at least the size of a segment.
+     * @param interval The interval for forcing the written entries to the disk in milliseconds, must be positive.
+     * @throws IOException If the directory cannot be created, or the existing segments cannot be recovered.
+     */
+    public AuthnIdJournal(@Nonnull final Path journalDirectory, final int maxSegmentSize, final long maxTotalSize,
+            final long interval) throws IOException {
+        this(journalDirectory, maxSegmentSize, maxTotalSize, interval, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param journalDirectory The directory containing the segments, created if it does not exist.
+     * @param maxSegmentSize The size of a segment in bytes, must be positive.
+     * @param maxTotalSize The maximum total size of the segments in bytes, at least the size of a segment.
+     * @param interval The interval for forcing the written entries to the disk in milliseconds, must be positive.
+     * @param capacity The number of entries the ring buffer can hold, rounded up to a power of two.
+     * @throws IOException If the directory cannot be created, or the existing segments cannot be recovered.
+     */
+    public AuthnIdJournal(@Nonnull final Path journalDirectory, final int maxSegmentSize, final long maxTotalSize,
+            final long interval, final int capacity) throws IOException {
+        directory = Constraint.isNotNull(journalDirectory, "The journal directory cannot be null!");
+        segmentSize = (int) Constraint.isGreaterThan(0, maxSegmentSize, "The segment size must be positive!");
+        maxSize = Constraint.isGreaterThanOrEqual(maxSegmentSize, maxTotalSize,
+                "The maximum size cannot be smaller than the segment size!");
+        commitInterval = Constraint.isGreaterThan(0, interval, "The commit interval must be positive!");
+        Constraint.isTrue(capacity > 0 && capacity <= 1 << 30, "The capacity must be between 1 and 2^30!");
+        final int ringSize = Integer.highestOneBit(capacity) < capacity ? Integer.highestOneBit(capacity) << 1
+                : capacity;
+        ring = new AtomicReferenceArray<>(ringSize);
+        mask = ringSize - 1;
+        timestampFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        timestampFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        Files.createDirectories(directory);
+        compactor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, "authnid-journal-compactor-" + directory.getFileName());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            for (final Path file : listSegments(OPEN_SEGMENT_SUFFIX)) {
+                recover(file);
+            }
+        } catch (IOException | RuntimeException e) {
+            compactor.shutdownNow();
+            throw e;
+        }
+        lastCommit = System.currentTimeMillis();
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeEntries();
+            }
+        }, "authnid-journal-" + directory.getFileName());
+        writer.setDaemon(true);
+        writer.start();
+        log.info("Journaling the issued authnIDs to {}", directory);
+    }
+
+    /**
+     * Publishes an entry to be written to the journal. The method never blocks: if the ring buffer is full or the
+     * journal has been closed, the entry is dropped.
+     *
+     * @param principal The principal name.
+     * @param tenant The tenant, null for the default configuration.
+     * @param authnId The authnID issued to the principal.
+     * @return True if the entry was published, false if it was dropped.
+     */
+    public boolean append(@Nonnull final String principal, @Nullable final String tenant,
+            @Nonnull final String authnId) {
+        if (closed) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        final Entry entry = new Entry(System.currentTimeMillis(), principal, tenant, authnId);
+        long sequence;
+        do {
+            sequence = tail.get();
+            if (sequence - head.get() > mask) {
+                dropped.incrementAndGet();
+                return false;
+            }
+        } while (!tail.compareAndSet(sequence, sequence + 1));
+        ring.set((int) sequence & mask, entry);
+        if (sequence == head.get()) {
+            // the buffer was empty, so the writer may be parked
+            LockSupport.unpark(writer);
+        }
+        return true;
+    }
+
+    /**
+     * Get the number of entries dropped as the ring buffer was full or they could not be written.
+     *
+     * @return The number of dropped entries.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Get the directory containing the segments.
+     *
+     * @return The journal directory.
+     */
+    @Nonnull
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Closes the journal. The entries published before closing are written and committed, and the current segment
+     * is closed and compacted. The entries published afterwards are dropped.
+     */
+    public void close() {
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(CLOSE_TIMEOUT);
+            if (writer.isAlive()) {
+                log.warn("The journal writer did not finish in {} ms", CLOSE_TIMEOUT);
+            }
+            compactor.shutdown();
+            if (!compactor.awaitTermination(CLOSE_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                log.warn("The journal compaction did not finish in {} ms", CLOSE_TIMEOUT);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The loop of the writer thread: drains the ring buffer and commits the written entries once per interval, until
+     * the journal is closed. When the ring buffer is empty, the thread parks until the next commit is due, or for the
+     * commit interval if there is nothing to commit, unless an entry is published or the journal is closed.
+     */
+    private void writeEntries() {
+        while (true) {
+            final int count = drain();
+            if (count > 0) {
+                flush();
+            }
+            final long now = System.currentTimeMillis();
+            if (dirty && now - lastCommit >= commitInterval) {
+                commit(now);
+            }
+            if (count == 0) {
+                if (closed) {
+                    break;
+                }
+                final long wait = dirty ? Math.max(lastCommit + commitInterval - now, 1L) : commitInterval;
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(wait));
+            }
+        }
+        closeSegment();
+    }
+
+    /**
+     * Writes the published entries to the current segment, at most {@link #MAX_DRAIN} of them.
+     *
+     * @return The number of entries taken from the ring buffer.
+     */
+    private int drain() {
+        long sequence = head.get();
+        int count = 0;
+        while (count < MAX_DRAIN) {
+            final int index = (int) sequence & mask;
+            final Entry entry = ring.get(index);
+            if (entry == null) {
+                return count;
+            }
+            ring.set(index, null);
+            head.set(++sequence);
+            count++;
+            write(entry);
+        }
+        return count;
+    }
+
+    /**
+     * Writes an entry to the write buffer of the current segment, starting a new segment if it does not fit. The
+     * write buffer is written to the segment channel first if the entry does not fit in it.
+     *
+     * @param entry The entry to be written.
+     */
+    private void write(@Nonnull final Entry entry) {
+        final byte[] bytes = format(entry);
+        if (bytes.length > segmentSize) {
+            log.warn("The journal entry is longer than the segment size, dropping it");
+            dropped.incrementAndGet();
+            return;
+        }
+        try {
+            if (segmentChannel != null && segmentSize - segmentLength < bytes.length) {
+                closeSegment();
+            }
+            if (segmentChannel == null) {
+                openSegment(entry.timestamp);
+            }
+            if (writeBuffer.remaining() < bytes.length) {
+                flush();
+            }
+            if (bytes.length > writeBuffer.capacity()) {
+                writeFully(ByteBuffer.wrap(bytes));
+            } else {
+                writeBuffer.put(bytes);
+                bufferedEntries++;
+            }
+            segmentLength += bytes.length;
+            dirty = true;
+        } catch (IOException e) {
+            log.error("Could not write to the journal in {}, dropping the entry", directory, e);
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Writes the contents of the write buffer to the segment channel. If they cannot be written, the entries in the
+     * write buffer are dropped.
+     */
+    private void flush() {
+        if (bufferedEntries == 0) {
+            return;
+        }
+        writeBuffer.flip();
+        try {
+            writeFully(writeBuffer);
+        } catch (IOException e) {
+            log.error("Could not write to the journal in {}, dropping {} entries", directory, bufferedEntries, e);
+            dropped.addAndGet(bufferedEntries);
+        }
+        writeBuffer.clear();
+        bufferedEntries = 0;
+    }
+
+    /**
+     * Writes the remaining bytes of the given buffer to the segment channel.
+     *
+     * @param buffer The buffer.
+     * @throws IOException If the bytes cannot be written.
+     */
+    private void writeFully(@Nonnull final ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            segmentChannel.write(buffer);
+        }
+    }
+
+    /**
+     * Formats an entry into a line of the journal.
+     *
+     * @param entry The entry.
+     * @return The UTF-8 encoded line.
+     */
+    @Nonnull
+    private byte[] format(@Nonnull final Entry entry) {
+        final byte[] principalBytes = entry.principal.getBytes(StandardCharsets.UTF_8);
+        principalDigest.update(principalBytes, 0, principalBytes.length);
+        principalDigest.doFinal(hashBytes, 0);
+        final int hashLength = OutputEncoding.HEX.encode(hashBytes, hashBytes.length, hashChars, 0);
+        line.setLength(0);
+        line.append(timestampFormat.format(new Date(entry.timestamp))).append('\t');
+        line.append(hashChars, 0, hashLength).append('\t');
+        appendField(entry.tenant != null ? entry.tenant : DEFAULT_TENANT);
+        line.append('\t');
+        appendField(entry.authnId);
+        line.append('\n');
+        return line.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Appends a field to the line, replacing the tabs and line breaks with spaces.
+     *
+     * @param field The field.
+     */
+    private void appendField(@Nonnull final String field) {
+        for (int i = 0; i < field.length(); i++) {
+            final char c = field.charAt(i);
+            line.append(c == '\t' || c == '\n' || c == '\r' ? ' ' : c);
+        }
+    }
+
+    /**
+     * Writes the write buffer to the segment channel and forces the written entries to the disk.
+     *
+     * @param now The current time in milliseconds.
+     */
+    private void commit(final long now) {
+        flush();
+        try {
+            segmentChannel.force(false);
+        } catch (IOException e) {
+            log.error("Could not force the journal segment {} to the disk", segmentFile, e);
+        }
+        dirty = false;
+        lastCommit = now;
+    }
+
+    /**
+     * Starts a new segment.
+     *
+     * @param now The current time in milliseconds.
+     * @throws IOException If the segment cannot be created.
+     */
+    private void openSegment(final long now) throws IOException {
+        final Path file = directory.resolve(String.format("%s%013d-%04d%s", SEGMENT_PREFIX, now,
+                segmentSequence++ % 10000, OPEN_SEGMENT_SUFFIX));
+        segmentChannel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        segmentFile = file;
+        segmentLength = 0;
+        log.debug("Started the journal segment {}", file);
+    }
+
+    /**
+     * Commits and closes the current segment and schedules its compaction. Nothing is done if no segment is open.
+     */
+    private void closeSegment() {
+        if (segmentChannel == null) {
+            return;
+        }
+        final Path file = segmentFile;
+        commit(System.currentTimeMillis());
+        try {
+            segmentChannel.close();
+            scheduleCompaction(file);
+        } catch (IOException e) {
+            log.warn("Could not close the journal segment {}", file, e);
+        }
+        segmentChannel = null;
+        segmentFile = null;
+    }
+
+    /**
+     * Schedules the compaction of a closed segment, followed by the deletion of the oldest segments if the maximum
+     * total size is exceeded. A segment whose compaction cannot be scheduled is compacted when the journal is opened
+     * the next time.
+     *
+     * @param file The closed segment.
+     */
+    private void scheduleCompaction(@Nonnull final Path file) {
+        try {
+            compactor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        compact(file);
+                        enforceMaxSize();
+                    } catch (IOException | RuntimeException e) {
+                        log.warn("Could not compact the journal segment {}", file, e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.warn("Could not schedule the compaction of the journal segment {}", file);
+        }
+    }
+
+    /**
+     * Recovers a segment left behind by a crash or an unclean shutdown: a zero-filled end, which a file system may
+     * leave behind when crashing while the file is being extended, is truncated, and the compaction of the segment is
+     * scheduled. A segment whose compacted file already exists (the crash happened after the compaction) is deleted.
+     * Only the end of the segment is read here.
+     *
+     * @param file The segment having the {@link #OPEN_SEGMENT_SUFFIX}.
+     * @throws IOException If the segment cannot be read or written.
+     */
+    private void recover(@Nonnull final Path file) throws IOException {
+        if (Files.exists(compactedFile(file))) {
+            log.info("Deleting the journal segment {}, as it has already been compacted", file);
+            Files.delete(file);
+            return;
+        }
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final long size = channel.size();
+            final ByteBuffer buffer = ByteBuffer.allocate(8192);
+            long end = size;
+            int last = -1;
+            while (end > 0 && last < 0) {
+                final long start = Math.max(0, end - buffer.capacity());
+                buffer.clear();
+                buffer.limit((int) (end - start));
+                while (buffer.hasRemaining() && channel.read(buffer, start + buffer.position()) > 0) {
+                    // read the whole block
+                }
+                last = buffer.position() - 1;
+                while (last >= 0 && buffer.get(last) == 0) {
+                    last--;
+                }
+                end = start + last + 1;
+            }
+            if (end < size) {
+                log.info("Truncating the journal segment {} to {} bytes", file, end);
+                channel.truncate(end);
+            }
+        }
+        scheduleCompaction(file);
+    }
+
+    /**
+     * Compacts a closed segment by removing the repeated entries of the same principal, tenant and authnID. The first
+     * entry is kept. Only the last {@link #MAX_COMPACTION_KEYS} distinct entries are remembered, so the memory used
+     * does not depend on the size of the segment. The segment is streamed to a temporary file, which is then renamed
+     * to the compacted segment, and the segment is deleted.
+     *
+     * @param file The segment having the {@link #OPEN_SEGMENT_SUFFIX}.
+     * @throws IOException If the segment cannot be read or written.
+     */
+    private void compact(@Nonnull final Path file) throws IOException {
+        final Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        final Set<String> keys = Collections.newSetFromMap(new RecentKeys());
+        int count = 0;
+        int compactedCount = 0;
+        try (final BufferedReader reader =
+                new BufferedReader(new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8));
+                final BufferedWriter writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+            String entryLine;
+            while ((entryLine = reader.readLine()) != null) {
+                count++;
+                final int separator = entryLine.indexOf('\t');
+                if (keys.add(separator < 0 ? entryLine : entryLine.substring(separator + 1))) {
+                    writer.write(entryLine);
+                    writer.write('\n');
+                    compactedCount++;
+                }
+            }
+        }
+        Files.move(temporary, compactedFile(file), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        Files.delete(file);
+        log.debug("Compacted the journal segment {} from {} to {} entries", file, count, compactedCount);
+    }
+
+    /**
+     * Get the compacted file of the given open segment.
+     *
+     * @param file The segment having the {@link #OPEN_SEGMENT_SUFFIX}.
+     * @return The file having the {@link #SEGMENT_SUFFIX} instead.
+     */
+    @Nonnull
+    private static Path compactedFile(@Nonnull final Path file) {
+        final String name = file.getFileName().toString();
+        return file.resolveSibling(name.substring(0, name.length() - OPEN_SEGMENT_SUFFIX.length()) + SEGMENT_SUFFIX);
+    }
+
+    /**
+     * Deletes the oldest compacted segments while the total size of the segments exceeds the maximum. The segments
+     * not compacted yet, including the current one, count with the full segment size and are never deleted.
+     *
+     * @throws IOException If the segments cannot be listed.
+     */
+    private void enforceMaxSize() throws IOException {
+        final List<Path> files = listSegments(SEGMENT_SUFFIX);
+        long total = 0;
+        for (final Path file : files) {
+            total += Files.size(file);
+        }
+        total += (long) listSegments(OPEN_SEGMENT_SUFFIX).size() * segmentSize;
+        for (final Path file : files) {
+            if (total <= maxSize) {
+                return;
+            }
+            total -= Files.size(file);
+            Files.delete(file);
+            log.info("Deleted the journal segment {} exceeding the maximum journal size", file);
+        }
+    }
+
+    /**
+     * Lists the segments with the given suffix in the journal directory, oldest first.
+     *
+     * @param suffix The suffix of the segment file names.
+     * @return The segments.
+     * @throws IOException If the directory cannot be read.
+     */
+    @Nonnull
+    private List<Path> listSegments(@Nonnull final String suffix) throws IOException {
+        final List<Path> files = new ArrayList<>();
+        try (final DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + suffix)) {
+            for (final Path file : stream) {
+                files.add(file);
+            }
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    /** The most recently seen keys of the entries, in the access order, evicting the eldest ones. */
+    private static final class RecentKeys extends LinkedHashMap<String, Boolean> {
+
+        /** Serial version UID. */
+        private static final long serialVersionUID = 1L;
+
+        /** Constructor. */
+        private RecentKeys() {
+            super(16, 0.75f, true);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_COMPACTION_KEYS;
+        }
+    }
+
+    /** An entry published to the ring buffer. */
+    private static final class Entry {
+
+        /** The time in milliseconds when the authnID was issued. */
+        private final long timestamp;
+
+        /** The principal name. */
+        private final String principal;
+
+        /** The tenant, null for the default configuration. */
+        private final String tenant;
+
+        /** The authnID. */
+        private final String authnId;
+
+        /**
+         * Constructor.
+         *
+         * @param time The time in milliseconds when the authnID was issued.
+         * @param principalName The principal name.
+         * @param tenantValue The tenant, null for the default configuration.
+         * @param id The authnID.
+         */
+        private Entry(final long time, @Nonnull final String principalName, @Nullable final String tenantValue,
+                @Nonnull final String id) {
+            timestamp = time;
+            principal = principalName;
+            tenant = tenantValue;
+            authnId = id;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.util.Memoable;
+
+/**
+ * Derives the authnIDs with PBKDF2 (RFC 8018), using HMAC with the configured digest algorithm as the pseudorandom
+ * function, so that brute-forcing the authnIDs of known inputs costs the configured number of iterations per guess.
+ * 
+ * <p>The derivations are run in a dedicated, bounded pool of daemon threads, so that the cost is not paid by an
+ * unbounded number of request threads. A derivation is rejected at once if all the workers are busy and the queue is
+ * full, and the caller stops waiting for it after the timeout. A derivation that has timed out is cancelled: the
+ * worker checks for the interruption periodically and gives up.</p>
+ */
+public class AuthnIdKdf {
+
+    /** The number of iterations between the checks for the interruption. */
+    private static final int INTERRUPT_CHECK_INTERVAL = 1024;
+
+    /** The time in seconds after which the idle workers are stopped. */
+    private static final long KEEP_ALIVE_SECONDS = 60L;
+
+    /** The algorithm of the HMAC. */
+    private final DigestAlgorithm algorithm;
+
+    /** The number of iterations. */
+    private final int iterations;
+
+    /** The time in milliseconds to wait for a derivation. */
+    private final long timeout;
+
+    /** The pool of the workers. */
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Constructor.
+     *
+     * @param digestAlgorithm The algorithm of the HMAC.
+     * @param iterationCount The number of iterations, must be positive.
+     * @param threads The number of workers, must be positive.
+     * @param queueSize The number of derivations that can wait for a worker, must be positive.
+     * @param waitTime The time in milliseconds to wait for a derivation, must be positive.
+     * @param name The name of the workers, followed by their number.
+     */
+    public AuthnIdKdf(@Nonnull final DigestAlgorithm digestAlgorithm, final int iterationCount, final int threads,
+            final int queueSize, final long waitTime, @Nonnull final String name) {
+        algorithm = Constraint.isNotNull(digestAlgorithm, "The digest algorithm cannot be null!");
+        iterations = (int) Constraint.isGreaterThan(0, iterationCount, "The number of iterations must be positive!");
+        Constraint.isGreaterThan(0, threads, "The number of threads must be positive!");
+        Constraint.isGreaterThan(0, queueSize, "The queue size must be positive!");
+        timeout = Constraint.isGreaterThan(0, waitTime, "The timeout must be positive!");
+        final AtomicInteger threadNumber = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        final Thread thread = new Thread(runnable, name + "-" + threadNumber.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }, new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Get the number of iterations.
+     *
+     * @return The number of iterations.
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Derives a key in the worker pool, waiting for it at most the timeout.
+     *
+     * @param password The password, not modified.
+     * @param salt The salt, not modified.
+     * @return The derived key, as long as the digest.
+     * @throws RejectedExecutionException If all the workers are busy and the queue is full, or the pool is shut down.
+     * @throws TimeoutException If the derivation did not finish within the timeout.
+     * @throws ExecutionException If the derivation failed.
+     * @throws InterruptedException If the calling thread was interrupted while waiting.
+     */
+    @Nonnull
+    public byte[] derive(@Nonnull final byte[] password, @Nonnull final byte[] salt)
+            throws TimeoutException, ExecutionException, InterruptedException {
+        final Future<byte[]> future = executor.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws InterruptedException {
+                return pbkdf2(algorithm, password, salt, iterations);
+            }
+        });
+        try {
+            return future.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | InterruptedException e) {
+            future.cancel(true);
+            throw e;
+        }
+    }
+
+    /**
+     * Stops the workers. The derivations in progress are interrupted, and the later ones are rejected.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Derives a key with PBKDF2, as long as the digest (a single block). The derivation is run in the calling thread.
+     *
+     * @param digestAlgorithm The algorithm of the HMAC.
+     * @param password The password, not modified.
+     * @param salt The salt, not modified.
+     * @param iterationCount The number of iterations, must be positive.
+     * @return The derived key.
+     * @throws InterruptedException If the calling thread was interrupted during the derivation.
+     */
+    @Nonnull
+    public static byte[] pbkdf2(@Nonnull final DigestAlgorithm digestAlgorithm, @Nonnull final byte[] password,
+            @Nonnull final byte[] salt, final int iterationCount) throws InterruptedException {
+        Constraint.isGreaterThan(0, iterationCount, "The number of iterations must be positive!");
+        final DigestEnginePool hmac = DigestEnginePool.hmac(digestAlgorithm, password);
+        final Memoable innerState = (Memoable) hmac.copyPrototype();
+        final Digest engine = hmac.copyPrototype();
+        final byte[] block = new byte[hmac.getDigestSize()];
+        final byte[] result = new byte[block.length];
+        // U1 = HMAC(password, salt || INT(1))
+        engine.update(salt, 0, salt.length);
+        engine.update((byte) 0);
+        engine.update((byte) 0);
+        engine.update((byte) 0);
+        engine.update((byte) 1);
+        hmac.finish(engine, block);
+        System.arraycopy(block, 0, result, 0, block.length);
+        for (int i = 1; i < iterationCount; i++) {
+            if (i % INTERRUPT_CHECK_INTERVAL == 0 && Thread.interrupted()) {
+                throw new InterruptedException("The key derivation was interrupted");
+            }
+            ((Memoable) engine).reset(innerState);
+            engine.update(block, 0, block.length);
+            hmac.finish(engine, block);
+            for (int j = 0; j < block.length; j++) {
+                result[j] ^= block[j];
+            }
+        }
+        return result;
+    }
+}
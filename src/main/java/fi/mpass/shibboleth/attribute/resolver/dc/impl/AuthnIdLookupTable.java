@@ -0,0 +1,513 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A precomputed table of authnIDs keyed by the principal name, memory-mapped read-only from a file built with
+ * {@link AuthnIdTableBuilder}. The table is an open-addressing hash table with linear probing, so a lookup touches
+ * one or two slots and a single record. The principal name is hashed and compared to the keys as UTF-8 on the fly,
+ * so the only allocation per lookup is the resulting authnID.
+ * 
+ * <p>The file is checked for modifications at most once per check interval, by the first caller after the interval
+ * has elapsed. A replaced file (see {@link AuthnIdTableBuilder}, which renames the new file over the old one) is
+ * mapped and then swapped in atomically. The lookups in progress keep using the old mapping, which is unmapped once it
+ * is no longer referenced. If the new file cannot be mapped, the old one is used until the next check.</p>
+ * 
+ * <p>The header contains the fingerprint of the calculation parameters the authnIDs were calculated with (see
+ * {@link EcaAuthnIdDataConnector#calculateFingerprint(ResolutionPlan)}). A file whose fingerprint differs from the
+ * expected one is rejected like an invalid file, so a table built with other salts or another algorithm, encoding,
+ * framing, normalization or truncation is never served. When the expected fingerprint is changed (as the salts are
+ * reloaded), the lookups return nothing until a file with the new fingerprint is mapped.</p>
+ * 
+ * <p>The file format, in big-endian byte order: the magic number (4 bytes), the format version (4 bytes), the number
+ * of records (4 bytes), the number of slots (4 bytes, a power of two) and the fingerprint (32 bytes), followed by the
+ * slots and the records. A slot contains the hash of the key (4 bytes) and the offset of the record in the file (4
+ * bytes, 0 if the slot is empty). A record contains the length of the key (2 bytes), the UTF-8 encoded key, the length
+ * of the authnID (2 bytes) and the ASCII encoded authnID.</p>
+ */
+public class AuthnIdLookupTable {
+
+    /** The magic number of the table files: "AIDT". */
+    public static final int MAGIC = 0x41494454;
+
+    /** The version of the file format. */
+    public static final int VERSION = 2;
+
+    /** The size of the fingerprint of the calculation parameters in bytes. */
+    public static final int FINGERPRINT_SIZE = 32;
+
+    /** The size of the file header in bytes. */
+    public static final int HEADER_SIZE = 16 + FINGERPRINT_SIZE;
+
+    /** The size of a slot in bytes. */
+    public static final int SLOT_SIZE = 8;
+
+    /** The maximum length of the keys and the authnIDs in bytes. */
+    public static final int MAX_FIELD_LENGTH = 0xffff;
+
+    /** The byte used by the UTF-8 encoder for the unpaired surrogates. */
+    private static final int REPLACEMENT = '?';
+
+    /** Class logger. */
+    private final Logger log = LoggerFactory.getLogger(AuthnIdLookupTable.class);
+
+    /** The table file. */
+    private final Path file;
+
+    /** The interval for checking the file for modifications in milliseconds. */
+    private final long checkInterval;
+
+    /** The fingerprint of the calculation parameters the table must have been built with. */
+    private volatile byte[] expectedFingerprint;
+
+    /** The time in milliseconds when the file is checked next. */
+    private final AtomicLong nextCheck;
+
+    /** The buffers for decoding the authnIDs, confined to their threads. */
+    private final ThreadLocal<char[]> decodeBuffers = new ThreadLocal<char[]>() {
+        @Override
+        protected char[] initialValue() {
+            return new char[128];
+        }
+    };
+
+    /** The current mapping of the file. */
+    private volatile Mapping mapping;
+
+    /**
+     * Constructor.
+     *
+     * @param tableFile The table file.
+     * @param interval The interval for checking the file for modifications in milliseconds, must be positive.
+     * @param fingerprint The fingerprint of the calculation parameters the table must have been built with.
+     * @throws IOException If the file cannot be mapped, it is invalid or its fingerprint differs from the expected.
+     */
+    public AuthnIdLookupTable(@Nonnull final Path tableFile, final long interval,
+            @Nonnull final byte[] fingerprint) throws IOException {
+        file = Constraint.isNotNull(tableFile, "The table file cannot be null!");
+        checkInterval = Constraint.isGreaterThan(0, interval, "The check interval must be positive!");
+        expectedFingerprint = checkFingerprint(fingerprint);
+        mapping = map(file, expectedFingerprint);
+        nextCheck = new AtomicLong(System.currentTimeMillis() + checkInterval);
+        log.info("Mapped {} authnIDs from {}", mapping.count, file);
+    }
+
+    /**
+     * Get the fingerprint of the calculation parameters the mapped table was built with.
+     *
+     * @return A copy of the fingerprint.
+     */
+    @Nonnull
+    public byte[] getFingerprint() {
+        return mapping.fingerprint.clone();
+    }
+
+    /**
+     * Checks whether the mapped table has been built with the calculation parameters of the given fingerprint.
+     *
+     * @param otherFingerprint The fingerprint to be compared.
+     * @return True if the fingerprints are equal, false otherwise.
+     */
+    public boolean matches(@Nullable final byte[] otherFingerprint) {
+        return Arrays.equals(mapping.fingerprint, otherFingerprint);
+    }
+
+    /**
+     * Set the fingerprint of the calculation parameters the table must have been built with. If the mapped table
+     * does not match it, the lookups return nothing, and the file is checked again on the next lookup.
+     *
+     * @param fingerprint The new expected fingerprint.
+     */
+    public void setExpectedFingerprint(@Nonnull final byte[] fingerprint) {
+        expectedFingerprint = checkFingerprint(fingerprint);
+        if (!matches(expectedFingerprint)) {
+            log.warn("The mapped {} was built with different calculation parameters, it is not used until a"
+                    + " matching table is mapped", file);
+            nextCheck.set(0);
+        }
+    }
+
+    /**
+     * Get the number of authnIDs in the current mapping.
+     *
+     * @return The number of authnIDs.
+     */
+    public int size() {
+        return mapping.count;
+    }
+
+    /**
+     * Looks up the authnID of the given principal.
+     *
+     * @param principal The principal name.
+     * @return The authnID, null if the principal is not in the table.
+     */
+    @Nullable
+    public String lookup(@Nonnull final String principal) {
+        reloadIfModified(System.currentTimeMillis());
+        final Mapping current = mapping;
+        if (!Arrays.equals(current.fingerprint, expectedFingerprint)) {
+            return null;
+        }
+        final ByteBuffer buffer = current.buffer;
+        final int hash = hash(principal);
+        int slot = hash & current.slotMask;
+        for (int probe = 0; probe <= current.slotMask; probe++) {
+            final int position = HEADER_SIZE + slot * SLOT_SIZE;
+            final int offset = buffer.getInt(position + 4);
+            if (offset == 0) {
+                return null;
+            }
+            if (buffer.getInt(position) == hash && keyEquals(buffer, offset, principal)) {
+                return readValue(buffer, offset + 2 + (buffer.getShort(offset) & MAX_FIELD_LENGTH));
+            }
+            slot = (slot + 1) & current.slotMask;
+        }
+        return null;
+    }
+
+    /**
+     * Maps the file again if it has been modified since it was mapped or the mapped table does not match the expected
+     * fingerprint, and the check interval has elapsed. Only one of the concurrent callers checks the file.
+     *
+     * @param now The current time in milliseconds.
+     * @return True if the file was mapped again, false otherwise.
+     */
+    public boolean reloadIfModified(final long now) {
+        final long check = nextCheck.get();
+        if (now < check || !nextCheck.compareAndSet(check, now + checkInterval)) {
+            return false;
+        }
+        try {
+            final BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            final Mapping current = mapping;
+            final byte[] fingerprint = expectedFingerprint;
+            if (attributes.lastModifiedTime().equals(current.modified) && attributes.size() == current.size
+                    && (attributes.fileKey() == null || attributes.fileKey().equals(current.fileKey))
+                    && Arrays.equals(current.fingerprint, fingerprint)) {
+                return false;
+            }
+            mapping = map(file, fingerprint);
+            log.info("Mapped {} authnIDs from the modified {}", mapping.count, file);
+            return true;
+        } catch (IOException e) {
+            log.warn("Could not map the modified {}, using the previous table", file, e);
+            return false;
+        }
+    }
+
+    /**
+     * Checks that the given fingerprint has the right size.
+     *
+     * @param fingerprint The fingerprint.
+     * @return A copy of the fingerprint.
+     */
+    @Nonnull
+    private static byte[] checkFingerprint(@Nonnull final byte[] fingerprint) {
+        Constraint.isTrue(fingerprint != null && fingerprint.length == FINGERPRINT_SIZE,
+                "The fingerprint must be " + FINGERPRINT_SIZE + " bytes!");
+        return fingerprint.clone();
+    }
+
+    /**
+     * Checks whether the key of the record at the given offset is equal to the UTF-8 encoded principal name.
+     *
+     * @param buffer The mapped table.
+     * @param offset The offset of the record.
+     * @param principal The principal name.
+     * @return True if the key is equal to the principal name, false otherwise.
+     */
+    private static boolean keyEquals(@Nonnull final ByteBuffer buffer, final int offset,
+            @Nonnull final String principal) {
+        final int end = offset + 2 + (buffer.getShort(offset) & MAX_FIELD_LENGTH);
+        int position = offset + 2;
+        final int length = principal.length();
+        for (int i = 0; i < length; i++) {
+            final int c = principal.charAt(i);
+            if (c < 0x80) {
+                if (position >= end || buffer.get(position++) != (byte) c) {
+                    return false;
+                }
+                continue;
+            }
+            final int codePoint = codePointAt(principal, i);
+            if (codePoint > 0xffff) {
+                i++;
+            }
+            final int bytes = utf8Length(codePoint);
+            if (position + bytes > end) {
+                return false;
+            }
+            for (int j = 0; j < bytes; j++) {
+                if (buffer.get(position++) != (byte) utf8Byte(codePoint, bytes, j)) {
+                    return false;
+                }
+            }
+        }
+        return position == end;
+    }
+
+    /**
+     * Decodes the ASCII encoded authnID at the given position.
+     *
+     * @param buffer The mapped table.
+     * @param position The position of the length of the authnID.
+     * @return The authnID.
+     */
+    @Nonnull
+    private String readValue(@Nonnull final ByteBuffer buffer, final int position) {
+        final int length = buffer.getShort(position) & MAX_FIELD_LENGTH;
+        char[] chars = decodeBuffers.get();
+        if (chars.length < length) {
+            chars = new char[length];
+            decodeBuffers.set(chars);
+        }
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) (buffer.get(position + 2 + i) & 0x7f);
+        }
+        return new String(chars, 0, length);
+    }
+
+    /**
+     * Calculates the hash of the UTF-8 encoding of the given string, without encoding it into an array. The result is
+     * equal to {@link #hash(byte[], int, int)} of the encoded string.
+     *
+     * @param value The string.
+     * @return The hash.
+     */
+    public static int hash(@Nonnull final String value) {
+        int hash = 0x811c9dc5;
+        final int length = value.length();
+        for (int i = 0; i < length; i++) {
+            final int c = value.charAt(i);
+            if (c < 0x80) {
+                hash = (hash ^ c) * 0x01000193;
+                continue;
+            }
+            final int codePoint = codePointAt(value, i);
+            if (codePoint > 0xffff) {
+                i++;
+            }
+            final int bytes = utf8Length(codePoint);
+            for (int j = 0; j < bytes; j++) {
+                hash = (hash ^ utf8Byte(codePoint, bytes, j)) * 0x01000193;
+            }
+        }
+        return mix(hash);
+    }
+
+    /**
+     * Calculates the hash of the given bytes: FNV-1a, followed by the finalization mix of MurmurHash3, so that the
+     * low bits used for the slots are well distributed.
+     *
+     * @param bytes The bytes.
+     * @param offset The offset of the first byte.
+     * @param length The number of bytes.
+     * @return The hash.
+     */
+    public static int hash(@Nonnull final byte[] bytes, final int offset, final int length) {
+        int hash = 0x811c9dc5;
+        for (int i = offset; i < offset + length; i++) {
+            hash = (hash ^ (bytes[i] & 0xff)) * 0x01000193;
+        }
+        return mix(hash);
+    }
+
+    /**
+     * The finalization mix of MurmurHash3.
+     *
+     * @param value The value to be mixed.
+     * @return The mixed value.
+     */
+    private static int mix(final int value) {
+        int h = value;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * Get the code point at the given index, or the replacement character for an unpaired surrogate, as in
+     * {@link String#getBytes(java.nio.charset.Charset)}.
+     *
+     * @param value The string.
+     * @param index The index of the character.
+     * @return The code point.
+     */
+    private static int codePointAt(@Nonnull final String value, final int index) {
+        final char c = value.charAt(index);
+        if (Character.isHighSurrogate(c) && index + 1 < value.length()
+                && Character.isLowSurrogate(value.charAt(index + 1))) {
+            return Character.toCodePoint(c, value.charAt(index + 1));
+        }
+        return Character.isSurrogate(c) ? REPLACEMENT : c;
+    }
+
+    /**
+     * Get the length of the UTF-8 encoding of the given code point.
+     *
+     * @param codePoint The code point.
+     * @return The number of bytes.
+     */
+    private static int utf8Length(final int codePoint) {
+        if (codePoint < 0x80) {
+            return 1;
+        } else if (codePoint < 0x800) {
+            return 2;
+        }
+        return codePoint < 0x10000 ? 3 : 4;
+    }
+
+    /**
+     * Get a byte of the UTF-8 encoding of the given code point.
+     *
+     * @param codePoint The code point.
+     * @param length The length of the encoding.
+     * @param index The index of the byte.
+     * @return The byte, as an unsigned value.
+     */
+    private static int utf8Byte(final int codePoint, final int length, final int index) {
+        if (length == 1) {
+            return codePoint;
+        }
+        if (index == 0) {
+            return (0xff00 >> length) & 0xff | codePoint >> (6 * (length - 1));
+        }
+        return 0x80 | (codePoint >> (6 * (length - 1 - index))) & 0x3f;
+    }
+
+    /**
+     * Maps the given table file and validates its header.
+     *
+     * @param tableFile The table file.
+     * @param expectedFingerprint The fingerprint the file must contain.
+     * @return The mapping.
+     * @throws IOException If the file cannot be mapped, it is invalid or its fingerprint differs from the expected.
+     */
+    @Nonnull
+    private static Mapping map(@Nonnull final Path tableFile, @Nonnull final byte[] expectedFingerprint)
+            throws IOException {
+        try (final FileChannel channel = FileChannel.open(tableFile, StandardOpenOption.READ)) {
+            final BasicFileAttributes attributes = Files.readAttributes(tableFile, BasicFileAttributes.class);
+            final long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException("Invalid size of the table file " + tableFile + ": " + size);
+            }
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Not a table file of version " + VERSION + ": " + tableFile);
+            }
+            final int count = buffer.getInt(8);
+            final int slots = buffer.getInt(12);
+            if (slots <= 0 || Integer.bitCount(slots) != 1 || count < 0 || count >= slots
+                    || HEADER_SIZE + (long) slots * SLOT_SIZE > size) {
+                throw new IOException("Invalid header in the table file " + tableFile);
+            }
+            final byte[] tableFingerprint = new byte[FINGERPRINT_SIZE];
+            for (int i = 0; i < FINGERPRINT_SIZE; i++) {
+                tableFingerprint[i] = buffer.get(16 + i);
+            }
+            if (!Arrays.equals(tableFingerprint, expectedFingerprint)) {
+                throw new IOException("The table file " + tableFile
+                        + " was built with different calculation parameters (salts, algorithm or encoding)");
+            }
+            return new Mapping(buffer, count, slots - 1, tableFingerprint, attributes.lastModifiedTime(), size,
+                    attributes.fileKey());
+        }
+    }
+
+    /**
+     * A mapping of the table file.
+     */
+    private static final class Mapping {
+
+        /** The mapped file. */
+        private final MappedByteBuffer buffer;
+
+        /** The number of records. */
+        private final int count;
+
+        /** The number of slots minus one. */
+        private final int slotMask;
+
+        /** The fingerprint of the calculation parameters the table was built with. */
+        private final byte[] fingerprint;
+
+        /** The modification time of the mapped file. */
+        private final FileTime modified;
+
+        /** The size of the mapped file. */
+        private final long size;
+
+        /** The key of the mapped file, may be null. */
+        private final Object fileKey;
+
+        /**
+         * Constructor.
+         *
+         * @param mapped The mapped file.
+         * @param records The number of records.
+         * @param mask The number of slots minus one.
+         * @param tableFingerprint The fingerprint of the calculation parameters the table was built with.
+         * @param modifiedTime The modification time of the mapped file.
+         * @param fileSize The size of the mapped file.
+         * @param key The key of the mapped file, may be null.
+         */
+        private Mapping(@Nonnull final MappedByteBuffer mapped, final int records, final int mask,
+                @Nonnull final byte[] tableFingerprint, @Nonnull final FileTime modifiedTime, final long fileSize,
+                @Nullable final Object key) {
+            buffer = mapped;
+            count = records;
+            slotMask = mask;
+            fingerprint = tableFingerprint;
+            modified = modifiedTime;
+            size = fileSize;
+            fileKey = key;
+        }
+    }
+}
@@ -0,0 +1,376 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * The metrics of the authnID calculation. If a registry is given, the metrics are registered to it with the given
+ * prefix, otherwise they are only kept in this object. The counters are striped, so updating them is cheap also
+ * under concurrency. The gauges of the authnID cache read the statistics of the cache registered with
+ * {@link #registerCache(AuthnIdCache)}.
+ */
+public class AuthnIdMetrics {
+
+    /** The name of the timer for the attribute resolution. */
+    public static final String RESOLVE = "resolve";
+
+    /** The name of the counter for the skip rule hits. */
+    public static final String SKIPPED = "skipped";
+
+    /** The name of the counter for the inputs rejected by the minimum input length. */
+    public static final String TOO_SHORT = "tooShort";
+
+    /** The name of the counter for the missing source attributes. */
+    public static final String MISSING_SOURCE = "missingSource";
+
+    /** The name of the counter for the failed digest calculations. */
+    public static final String DIGEST_FAILURE = "digestFailure";
+
+    /** The name of the counter for the authnIDs found from the session storage. */
+    public static final String SESSION_HIT = "sessionHit";
+
+    /** The name of the counter for the authnIDs found from the precomputed lookup table. */
+    public static final String TABLE_HIT = "tableHit";
+
+    /** The name of the counter for the issued authnIDs dropped from the journal. */
+    public static final String JOURNAL_DROPPED = "journalDropped";
+
+    /** The name of the counter for the rejected, timed out and failed key derivations. */
+    public static final String KDF_FAILURE = "kdfFailure";
+
+    /** The name of the counter for the tenant attributes matching none of the tenant profiles. */
+    public static final String UNKNOWN_TENANT = "unknownTenant";
+
+    /** The name of the gauge for the authnIDs found from the cache. */
+    public static final String CACHE_HITS = "cacheHits";
+
+    /** The name of the gauge for the authnIDs not found from the cache. */
+    public static final String CACHE_MISSES = "cacheMisses";
+
+    /** The name of the gauge for the authnIDs evicted from the cache. */
+    public static final String CACHE_EVICTIONS = "cacheEvictions";
+
+    /** The registry where the metrics are registered, may be null. */
+    private final MetricRegistry metricRegistry;
+
+    /** The prefix for the metric names in the registry. */
+    private final String metricPrefix;
+
+    /** The timer for the attribute resolution. */
+    private final Timer resolveTimer;
+
+    /** The counter for the skip rule hits. */
+    private final Counter skipped;
+
+    /** The counter for the inputs rejected by the minimum input length. */
+    private final Counter tooShort;
+
+    /** The counter for the missing source attributes. */
+    private final Counter missingSource;
+
+    /** The counter for the failed digest calculations. */
+    private final Counter digestFailure;
+
+    /** The counter for the authnIDs found from the session storage. */
+    private final Counter sessionHit;
+
+    /** The counter for the authnIDs found from the precomputed lookup table. */
+    private final Counter tableHit;
+
+    /** The counter for the issued authnIDs dropped from the journal. */
+    private final Counter journalDropped;
+
+    /** The counter for the rejected, timed out and failed key derivations. */
+    private final Counter kdfFailure;
+
+    /** The counter for the tenant attributes matching none of the tenant profiles. */
+    private final Counter unknownTenant;
+
+    /** The gauge for the authnIDs found from the cache, null if no cache is registered. */
+    private Gauge<Long> cacheHits;
+
+    /** The gauge for the authnIDs not found from the cache, null if no cache is registered. */
+    private Gauge<Long> cacheMisses;
+
+    /** The gauge for the authnIDs evicted from the cache, null if no cache is registered. */
+    private Gauge<Long> cacheEvictions;
+
+    /**
+     * Constructor.
+     *
+     * @param registry The registry where to register the metrics, may be null.
+     * @param prefix The prefix for the metric names in the registry.
+     */
+    public AuthnIdMetrics(@Nullable final MetricRegistry registry, @Nonnull @NotEmpty final String prefix) {
+        metricPrefix = Constraint.isNotNull(prefix, "The prefix for the metric names cannot be null!");
+        metricRegistry = registry;
+        if (registry == null) {
+            resolveTimer = new Timer();
+            skipped = new Counter();
+            tooShort = new Counter();
+            missingSource = new Counter();
+            digestFailure = new Counter();
+            sessionHit = new Counter();
+            tableHit = new Counter();
+            journalDropped = new Counter();
+            kdfFailure = new Counter();
+            unknownTenant = new Counter();
+        } else {
+            // existing metrics are reused, so that the values survive the reloads of the resolver
+            resolveTimer = registry.timer(MetricRegistry.name(prefix, RESOLVE));
+            skipped = registry.counter(MetricRegistry.name(prefix, SKIPPED));
+            tooShort = registry.counter(MetricRegistry.name(prefix, TOO_SHORT));
+            missingSource = registry.counter(MetricRegistry.name(prefix, MISSING_SOURCE));
+            digestFailure = registry.counter(MetricRegistry.name(prefix, DIGEST_FAILURE));
+            sessionHit = registry.counter(MetricRegistry.name(prefix, SESSION_HIT));
+            tableHit = registry.counter(MetricRegistry.name(prefix, TABLE_HIT));
+            journalDropped = registry.counter(MetricRegistry.name(prefix, JOURNAL_DROPPED));
+            kdfFailure = registry.counter(MetricRegistry.name(prefix, KDF_FAILURE));
+            unknownTenant = registry.counter(MetricRegistry.name(prefix, UNKNOWN_TENANT));
+        }
+    }
+
+    /**
+     * Starts timing an attribute resolution.
+     *
+     * @return The context to be stopped when the resolution is finished.
+     */
+    @Nonnull
+    public Timer.Context startResolve() {
+        return resolveTimer.time();
+    }
+
+    /**
+     * Get the timer for the attribute resolution.
+     *
+     * @return The resolve timer.
+     */
+    @Nonnull
+    public Timer getResolveTimer() {
+        return resolveTimer;
+    }
+
+    /**
+     * Get the counter for the skip rule hits.
+     *
+     * @return The skipped counter.
+     */
+    @Nonnull
+    public Counter getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Get the counter for the inputs rejected by the minimum input length.
+     *
+     * @return The too short counter.
+     */
+    @Nonnull
+    public Counter getTooShort() {
+        return tooShort;
+    }
+
+    /**
+     * Get the counter for the missing source attributes.
+     *
+     * @return The missing source counter.
+     */
+    @Nonnull
+    public Counter getMissingSource() {
+        return missingSource;
+    }
+
+    /**
+     * Get the counter for the failed digest calculations.
+     *
+     * @return The digest failure counter.
+     */
+    @Nonnull
+    public Counter getDigestFailure() {
+        return digestFailure;
+    }
+
+    /**
+     * Get the counter for the authnIDs found from the session storage.
+     *
+     * @return The session hit counter.
+     */
+    @Nonnull
+    public Counter getSessionHit() {
+        return sessionHit;
+    }
+
+    /**
+     * Get the counter for the authnIDs found from the precomputed lookup table.
+     *
+     * @return The table hit counter.
+     */
+    @Nonnull
+    public Counter getTableHit() {
+        return tableHit;
+    }
+
+    /**
+     * Get the counter for the issued authnIDs dropped from the journal, as its buffer was full.
+     *
+     * @return The journal dropped counter.
+     */
+    @Nonnull
+    public Counter getJournalDropped() {
+        return journalDropped;
+    }
+
+    /**
+     * Get the counter for the key derivations that were rejected as the workers were busy, timed out or failed.
+     *
+     * @return The key derivation failure counter.
+     */
+    @Nonnull
+    public Counter getKdfFailure() {
+        return kdfFailure;
+    }
+
+    /**
+     * Get the counter for the resolutions whose tenant attribute was missing or matched none of the tenant profiles.
+     *
+     * @return The unknown tenant counter.
+     */
+    @Nonnull
+    public Counter getUnknownTenant() {
+        return unknownTenant;
+    }
+
+    /**
+     * Registers the gauges reading the hit, miss and eviction counts of the given cache. The gauges registered earlier
+     * with the same names (for instance by the connector replaced in a reload of the resolver) are replaced.
+     *
+     * @param cache The cache whose statistics are published.
+     */
+    public synchronized void registerCache(@Nonnull final AuthnIdCache cache) {
+        Constraint.isNotNull(cache, "The cache cannot be null!");
+        cacheHits = new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return cache.getStats().hitCount();
+            }
+        };
+        cacheMisses = new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return cache.getStats().missCount();
+            }
+        };
+        cacheEvictions = new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return cache.getStats().evictionCount();
+            }
+        };
+        if (metricRegistry != null) {
+            registerGauge(CACHE_HITS, cacheHits);
+            registerGauge(CACHE_MISSES, cacheMisses);
+            registerGauge(CACHE_EVICTIONS, cacheEvictions);
+        }
+    }
+
+    /**
+     * Unregisters the gauges of the cache, unless they have already been replaced by other gauges.
+     */
+    public synchronized void unregisterCache() {
+        if (metricRegistry != null) {
+            unregisterGauge(CACHE_HITS, cacheHits);
+            unregisterGauge(CACHE_MISSES, cacheMisses);
+            unregisterGauge(CACHE_EVICTIONS, cacheEvictions);
+        }
+        cacheHits = null;
+        cacheMisses = null;
+        cacheEvictions = null;
+    }
+
+    /**
+     * Registers the given gauge, replacing the metric registered earlier with the same name.
+     *
+     * @param name The name of the gauge, without the prefix.
+     * @param gauge The gauge.
+     */
+    private void registerGauge(@Nonnull final String name, @Nonnull final Gauge<Long> gauge) {
+        final String fullName = MetricRegistry.name(metricPrefix, name);
+        metricRegistry.remove(fullName);
+        metricRegistry.register(fullName, gauge);
+    }
+
+    /**
+     * Unregisters the given gauge, if it is still registered with the given name.
+     *
+     * @param name The name of the gauge, without the prefix.
+     * @param gauge The gauge, may be null.
+     */
+    private void unregisterGauge(@Nonnull final String name, @Nullable final Gauge<Long> gauge) {
+        final String fullName = MetricRegistry.name(metricPrefix, name);
+        if (gauge != null && metricRegistry.getGauges().get(fullName) == gauge) {
+            metricRegistry.remove(fullName);
+        }
+    }
+
+    /**
+     * Get the gauge for the authnIDs found from the cache.
+     *
+     * @return The cache hits gauge, null if no cache is registered.
+     */
+    @Nullable
+    public synchronized Gauge<Long> getCacheHits() {
+        return cacheHits;
+    }
+
+    /**
+     * Get the gauge for the authnIDs not found from the cache.
+     *
+     * @return The cache misses gauge, null if no cache is registered.
+     */
+    @Nullable
+    public synchronized Gauge<Long> getCacheMisses() {
+        return cacheMisses;
+    }
+
+    /**
+     * Get the gauge for the authnIDs evicted from the cache.
+     *
+     * @return The cache evictions gauge, null if no cache is registered.
+     */
+    @Nullable
+    public synchronized Gauge<Long> getCacheEvictions() {
+        return cacheEvictions;
+    }
+}
@@ -0,0 +1,341 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.utilities.java.support.logic.Constraint;
+import net.shibboleth.utilities.java.support.primitive.StringSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The parameters of the authnID calculation for a single tenant. The parameters that are not set are inherited from
+ * the data connector, see {@link #inherit(AuthnIdProfile)}. The previous salts are inherited only if the profile does
+ * not set any salts, so that a profile with its own salts never rotates from the salts of another profile.
+ */
+public class AuthnIdProfile {
+
+    /** Class logger. */
+    private static final Logger LOG = LoggerFactory.getLogger(AuthnIdProfile.class);
+
+    /** The value of the tenant attribute selecting this profile. */
+    private String tenant;
+
+    /** The list of source attribute ids. */
+    private List<String> srcAttributeNames;
+
+    /** The pre-salt to be used together with source attributes before calculating authnID. */
+    private String prefixSalt;
+
+    /** The post-salt to be used together with source attributes before calculating authnID. */
+    private String postfixSalt;
+
+    /** The pre-salt used before the rotation. */
+    private String previousPrefixSalt;
+
+    /** The post-salt used before the rotation. */
+    private String previousPostfixSalt;
+
+    /** The minimum length of source attribute values (without salt). */
+    private Integer minInputLength;
+
+    /** The attribute id vs value map for skipping the authnID calculation. */
+    private Map<String, List<String>> skipCalculation;
+
+    /** The attribute id to be used if calculation has been skipped. */
+    private String skipCalculationSrc;
+
+    /**
+     * Constructor for an empty profile, whose parameters are set with the setters.
+     */
+    public AuthnIdProfile() {
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param tenantValue The value of the tenant attribute selecting this profile, may be null.
+     * @param attributeNames The list of source attribute ids.
+     * @param preSalt The pre-salt, may be null.
+     * @param postSalt The post-salt, may be null.
+     * @param minLength The minimum length of source attribute values (without salt).
+     * @param skipCalc The attribute id vs value map for skipping the authnID calculation, may be null.
+     * @param skipCalcSrc The attribute id to be used if calculation has been skipped, may be null.
+     */
+    public AuthnIdProfile(@Nullable final String tenantValue, @Nonnull final List<String> attributeNames,
+            @Nullable final String preSalt, @Nullable final String postSalt, final int minLength,
+            @Nullable final Map<String, List<String>> skipCalc, @Nullable final String skipCalcSrc) {
+        tenant = tenantValue;
+        srcAttributeNames = attributeNames;
+        prefixSalt = preSalt;
+        postfixSalt = postSalt;
+        minInputLength = minLength;
+        skipCalculation = skipCalc;
+        skipCalculationSrc = skipCalcSrc;
+    }
+
+    /**
+     * Builds a new profile whose parameters are taken from this profile, or from the given one if they are not set in
+     * this profile.
+     *
+     * @param defaults The profile whose parameters are inherited.
+     * @return The new profile.
+     */
+    @Nonnull
+    public AuthnIdProfile inherit(@Nonnull final AuthnIdProfile defaults) {
+        final AuthnIdProfile profile = new AuthnIdProfile(tenant,
+                srcAttributeNames != null ? srcAttributeNames : defaults.getSrcAttributeNames(),
+                prefixSalt != null ? prefixSalt : defaults.getPrefixSalt(),
+                postfixSalt != null ? postfixSalt : defaults.getPostfixSalt(),
+                minInputLength != null ? minInputLength : defaults.getMinInputLength(),
+                skipCalculation != null ? skipCalculation : defaults.getSkipCalculation(),
+                skipCalculationSrc != null ? skipCalculationSrc : defaults.getSkipCalculationSrc());
+        if (prefixSalt == null && postfixSalt == null && previousPrefixSalt == null && previousPostfixSalt == null) {
+            profile.setPreviousPrefixSalt(defaults.getPreviousPrefixSalt());
+            profile.setPreviousPostfixSalt(defaults.getPreviousPostfixSalt());
+        } else {
+            profile.setPreviousPrefixSalt(previousPrefixSalt);
+            profile.setPreviousPostfixSalt(previousPostfixSalt);
+        }
+        return profile;
+    }
+
+    /**
+     * Get the value of the tenant attribute selecting this profile.
+     *
+     * @return The tenant.
+     */
+    public String getTenant() {
+        return tenant;
+    }
+
+    /**
+     * Set the value of the tenant attribute selecting this profile.
+     *
+     * @param tenantValue What to set.
+     */
+    public void setTenant(@Nonnull final String tenantValue) {
+        tenant = Constraint.isNotNull(StringSupport.trimOrNull(tenantValue), "The tenant cannot be empty!");
+    }
+
+    /**
+     * Get the list of source attribute ids.
+     *
+     * @return The srcAttributeNames, null if inherited.
+     */
+    public List<String> getSrcAttributeNames() {
+        return srcAttributeNames;
+    }
+
+    /**
+     * Set the list of source attribute ids.
+     *
+     * @param attributeNames What to set (comma-separated), null if inherited.
+     */
+    public void setSrcAttributeNames(final String attributeNames) {
+        if (StringSupport.trimOrNull(attributeNames) == null) {
+            srcAttributeNames = null;
+        } else {
+            srcAttributeNames = StringSupport.stringToList(attributeNames, ",");
+        }
+    }
+
+    /**
+     * Get the pre-salt to be used together with source attributes before calculating authnID.
+     *
+     * @return The prefixSalt, null if inherited.
+     */
+    public String getPrefixSalt() {
+        return prefixSalt;
+    }
+
+    /**
+     * Set the pre-salt to be used together with source attributes before calculating authnID.
+     *
+     * @param preSalt What to set, null if inherited.
+     */
+    public void setPrefixSalt(final String preSalt) {
+        prefixSalt = preSalt;
+    }
+
+    /**
+     * Get the post-salt to be used together with source attributes before calculating authnID.
+     *
+     * @return The postfixSalt, null if inherited.
+     */
+    public String getPostfixSalt() {
+        return postfixSalt;
+    }
+
+    /**
+     * Set the post-salt to be used together with source attributes before calculating authnID.
+     *
+     * @param postSalt What to set, null if inherited.
+     */
+    public void setPostfixSalt(final String postSalt) {
+        postfixSalt = postSalt;
+    }
+
+    /**
+     * Get the pre-salt used before the rotation.
+     *
+     * @return The previousPrefixSalt, null if not rotating or inherited.
+     */
+    public String getPreviousPrefixSalt() {
+        return previousPrefixSalt;
+    }
+
+    /**
+     * Set the pre-salt used before the rotation.
+     *
+     * @param preSalt What to set, null if not rotating or inherited.
+     */
+    public void setPreviousPrefixSalt(final String preSalt) {
+        previousPrefixSalt = preSalt;
+    }
+
+    /**
+     * Get the post-salt used before the rotation.
+     *
+     * @return The previousPostfixSalt, null if not rotating or inherited.
+     */
+    public String getPreviousPostfixSalt() {
+        return previousPostfixSalt;
+    }
+
+    /**
+     * Set the post-salt used before the rotation.
+     *
+     * @param postSalt What to set, null if not rotating or inherited.
+     */
+    public void setPreviousPostfixSalt(final String postSalt) {
+        previousPostfixSalt = postSalt;
+    }
+
+    /**
+     * Get the minimum length of source attribute values (without salt).
+     *
+     * @return The minInputLength, null if inherited.
+     */
+    public Integer getMinInputLength() {
+        return minInputLength;
+    }
+
+    /**
+     * Set the minimum length of source attribute values (without salt).
+     *
+     * @param minLength What to set (numeric), null if inherited.
+     */
+    public void setMinInputLength(final String minLength) {
+        if (StringSupport.trimOrNull(minLength) == null) {
+            minInputLength = null;
+        } else {
+            minInputLength = Integer.parseInt(minLength.trim());
+        }
+    }
+
+    /**
+     * Get the attribute id vs value map for skipping the authnID calculation.
+     *
+     * @return The skipCalculation, null if inherited.
+     */
+    public Map<String, List<String>> getSkipCalculation() {
+        return skipCalculation;
+    }
+
+    /**
+     * Set the attribute id vs value map for skipping the authnID calculation.
+     *
+     * @param skipCalc What to set (comma-separated 'attribute_name'='attribute_value' pairs), null if inherited.
+     */
+    public void setSkipCalculation(final String skipCalc) {
+        if (skipCalc == null) {
+            skipCalculation = null;
+            return;
+        }
+        skipCalculation = new HashMap<>();
+        final StringTokenizer tokenizer = new StringTokenizer(skipCalc, ",");
+        while (tokenizer.hasMoreTokens()) {
+            addSkipCalculationPair(tokenizer.nextToken(), skipCalculation);
+        }
+    }
+
+    /**
+     * Get the attribute id to be used if calculation has been skipped.
+     *
+     * @return The skipCalculationSrc, null if inherited.
+     */
+    public String getSkipCalculationSrc() {
+        return skipCalculationSrc;
+    }
+
+    /**
+     * Set the attribute id to be used if calculation has been skipped.
+     *
+     * @param skipCalcSrc What to set, null if inherited.
+     */
+    public void setSkipCalculationSrc(final String skipCalcSrc) {
+        skipCalculationSrc = StringSupport.trimOrNull(skipCalcSrc);
+    }
+
+    /**
+     * Parses a single 'attribute_name'='attribute_value' pair and adds it to the given map.
+     * 
+     * @param pair The pair to be parsed.
+     * @param skipCalc The attribute id vs value map where to add the pair.
+     */
+    public static void addSkipCalculationPair(@Nonnull final String pair,
+            @Nonnull final Map<String, List<String>> skipCalc) {
+        LOG.debug("Parsing the skipCalculation token {}", pair);
+        final StringTokenizer pairTokenizer = new StringTokenizer(pair, "=");
+        if (pairTokenizer.countTokens() < 2) {
+            LOG.warn("Could not parse skipCalculation token {}", pair);
+        } else {
+            final String attributeName = pairTokenizer.nextToken();
+            String attributeValue = "";
+            while (pairTokenizer.hasMoreTokens()) {
+                attributeValue = attributeValue.concat(pairTokenizer.nextToken());
+            }
+            if (skipCalc.get(attributeName) != null) {
+                LOG.debug("Adding the value {} to the existing entry {}", attributeValue, attributeName);
+                skipCalc.get(attributeName).add(attributeValue);
+            } else {
+                LOG.debug("Creating a new entry {} with value {}", attributeName, attributeValue);
+                final List<String> newValue = new ArrayList<String>();
+                newValue.add(attributeValue);
+                skipCalc.put(attributeName, newValue);
+            }
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.io.IOException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+import org.opensaml.storage.StorageRecord;
+import org.opensaml.storage.StorageService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the authnIDs calculated during an IdP session in a {@link StorageService}, so that the later resolutions in
+ * the same session (for instance for the other SPs) are a single lookup. The records are keyed by the session id and
+ * the storage scope of the resolution plan in a storage context specific to the connector. As the IdP sessions expire
+ * after a period of inactivity, the records expire after the session lifetime counted from the last activity of the
+ * session, and every read extends the expiration of the record with the session. The records of a session ended
+ * earlier (for instance by a logout) are left until they expire, but they are never read, as the session ids are not
+ * reused. The storage scope is derived from the calculation parameters of the plan, so the records are
+ * shared by the nodes using the same parameters and they survive a restart, but the records stored with the earlier
+ * salts are never read after a salt reload. The authnID calculated with the previous salts, if any, is stored in the
+ * same record.
+ * 
+ * <p>The storage failures are logged, but they never fail the resolution: the authnID is then calculated as
+ * usual.</p>
+ */
+public class AuthnIdSessionStore {
+
+    /** The prefix of the storage context, followed by the connector id. */
+    public static final String CONTEXT_PREFIX = "fi.mpass.authnid:";
+
+    /** The separator of the authnID and the previous authnID in the stored value. */
+    private static final char SEPARATOR = ' ';
+
+    /** The separator of the session id and the storage scope of the plan in the storage key. */
+    private static final char KEY_SEPARATOR = '!';
+
+    /** Class logger. */
+    private final Logger log = LoggerFactory.getLogger(AuthnIdSessionStore.class);
+
+    /** The storage service. */
+    private final StorageService storageService;
+
+    /** The storage context of the connector. */
+    private final String context;
+
+    /** The lifetime of the records after the last activity of the session in milliseconds. */
+    private final long lifetime;
+
+    /**
+     * Constructor.
+     *
+     * @param storage The storage service.
+     * @param connectorId The id of the connector.
+     * @param sessionLifetime The lifetime of the records after the last activity of the session in milliseconds, must
+     *            be positive. Should be equal to the inactivity timeout of the IdP sessions.
+     */
+    public AuthnIdSessionStore(@Nonnull final StorageService storage, @Nonnull @NotEmpty final String connectorId,
+            final long sessionLifetime) {
+        storageService = Constraint.isNotNull(storage, "The storage service cannot be null!");
+        Constraint.isNotNull(connectorId, "The connector id cannot be null!");
+        context = CONTEXT_PREFIX + connectorId;
+        lifetime = Constraint.isGreaterThan(0, sessionLifetime, "The session lifetime must be positive!");
+        Constraint.isTrue(context.length() <= storageService.getCapabilities().getContextSize(),
+                "The connector id is too long for the storage service!");
+    }
+
+    /**
+     * Get the storage context of the connector.
+     *
+     * @return The storage context.
+     */
+    @Nonnull
+    public String getContext() {
+        return context;
+    }
+
+    /**
+     * Reads the authnIDs stored for the given session, and extends the expiration of the record if the session has
+     * been active since the record was stored or last read.
+     *
+     * @param sessionId The session id.
+     * @param scope The storage scope of the resolution plan.
+     * @param lastActivity The last activity instant of the session in milliseconds.
+     * @return The authnID and the previous authnID (null if not calculated), or null if nothing was stored.
+     */
+    @Nullable
+    public String[] read(@Nonnull @NotEmpty final String sessionId, @Nonnull @NotEmpty final String scope,
+            final long lastActivity) {
+        final String key = buildKey(sessionId, scope);
+        if (key == null) {
+            return null;
+        }
+        final StorageRecord<?> record;
+        try {
+            record = storageService.read(context, key);
+        } catch (IOException e) {
+            log.warn("Could not read the authn ID from the storage service {}", storageService.getId(), e);
+            return null;
+        }
+        if (record == null || record.getValue() == null) {
+            return null;
+        }
+        final long expiration = lastActivity + lifetime;
+        if (record.getExpiration() != null && record.getExpiration() < expiration) {
+            try {
+                storageService.updateExpiration(context, key, expiration);
+            } catch (IOException e) {
+                log.warn("Could not extend the authn ID in the storage service {}", storageService.getId(), e);
+            }
+        }
+        final String value = record.getValue();
+        final int separator = value.indexOf(SEPARATOR);
+        if (separator < 0) {
+            return new String[] { value, null };
+        }
+        return new String[] { value.substring(0, separator), value.substring(separator + 1) };
+    }
+
+    /**
+     * Stores the authnIDs for the given session, unless they have already been stored.
+     *
+     * @param sessionId The session id.
+     * @param scope The storage scope of the resolution plan the authnIDs were calculated with.
+     * @param lastActivity The last activity instant of the session in milliseconds.
+     * @param authnId The authnID.
+     * @param previousAuthnId The authnID calculated with the previous salts, may be null.
+     */
+    public void store(@Nonnull @NotEmpty final String sessionId, @Nonnull @NotEmpty final String scope,
+            final long lastActivity, @Nonnull final String authnId, @Nullable final String previousAuthnId) {
+        final String key = buildKey(sessionId, scope);
+        if (key == null) {
+            return;
+        }
+        final String value = previousAuthnId == null ? authnId : authnId + SEPARATOR + previousAuthnId;
+        try {
+            if (!storageService.create(context, key, value, lastActivity + lifetime)) {
+                log.debug("The authn ID was already stored for the session");
+            }
+        } catch (IOException e) {
+            log.warn("Could not store the authn ID to the storage service {}", storageService.getId(), e);
+        }
+    }
+
+    /**
+     * Builds the storage key from the session id and the storage scope of the plan, if it fits the key size of the
+     * storage service.
+     *
+     * @param sessionId The session id.
+     * @param scope The storage scope of the resolution plan.
+     * @return The storage key, null if it is too long for the storage service.
+     */
+    @Nullable
+    private String buildKey(@Nonnull final String sessionId, @Nonnull final String scope) {
+        final String key = sessionId + KEY_SEPARATOR + scope;
+        if (key.length() > storageService.getCapabilities().getKeySize()) {
+            log.debug("The session id is too long for the storage service {}", storageService.getId());
+            return null;
+        }
+        return key;
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Builds the precomputed authnID table served by {@link AuthnIdLookupTable}. The authnIDs are calculated with
+ * {@link AuthnIdBatchGenerator}, i.e. with the connector's own calculation, and the table is keyed by the id column,
+ * which must contain the principal names. The lines whose authnID could not be calculated are left out, and so is
+ * any repeated principal name after its first occurrence.
+ * 
+ * The table is written to a temporary file in the same directory and then renamed over the output, so that a
+ * connector serving the previous table never sees a partially written file. The header contains the fingerprint of
+ * the calculation parameters, which the connector compares to its own before serving the table.
+ * 
+ * Usage: java fi.mpass.shibboleth.attribute.resolver.dc.impl.AuthnIdTableBuilder --input file --output file
+ * --idColumn name [the other options of AuthnIdBatchGenerator]
+ * 
+ * or, with an output of {@link AuthnIdBatchGenerator} and the options it was generated with: java
+ * fi.mpass.shibboleth.attribute.resolver.dc.impl.AuthnIdTableBuilder --authnIds file --output file
+ * [the options of AuthnIdBatchGenerator]
+ */
+public class AuthnIdTableBuilder {
+
+    /** The maximum number of slots, so that the slots fit into a mapped file. */
+    private static final int MAX_SLOTS = 1 << 27;
+
+    /** Class logger. */
+    private final Logger log = LoggerFactory.getLogger(AuthnIdTableBuilder.class);
+
+    /** The encoded records. */
+    private final ByteArrayOutputStream records = new ByteArrayOutputStream();
+
+    /** The hashes of the keys, in the order of the records. */
+    private int[] hashes = new int[1024];
+
+    /** The offsets of the records in the encoded records. */
+    private int[] offsets = new int[1024];
+
+    /** The number of records. */
+    private int count;
+
+    /** The fingerprint of the calculation parameters the authnIDs were calculated with. */
+    private final byte[] fingerprint;
+
+    /**
+     * Constructor.
+     *
+     * @param calculationFingerprint The fingerprint of the calculation parameters the authnIDs were calculated with,
+     *            see {@link EcaAuthnIdDataConnector#calculateFingerprint(ResolutionPlan)}.
+     */
+    public AuthnIdTableBuilder(@Nonnull final byte[] calculationFingerprint) {
+        Constraint.isTrue(calculationFingerprint != null
+                && calculationFingerprint.length == AuthnIdLookupTable.FINGERPRINT_SIZE,
+                "The fingerprint must be " + AuthnIdLookupTable.FINGERPRINT_SIZE + " bytes!");
+        fingerprint = calculationFingerprint.clone();
+    }
+
+    /**
+     * Builds the table from an output of {@link AuthnIdBatchGenerator}.
+     *
+     * @param authnIds The file containing the principal name and the authnID on each line.
+     * @param table The table file to be written.
+     * @return The number of authnIDs in the table.
+     * @throws IOException If the files cannot be read or written, or if the table would be too large.
+     */
+    public int build(@Nonnull final Path authnIds, @Nonnull final Path table) throws IOException {
+        int skipped = 0;
+        try (final BufferedReader reader = Files.newBufferedReader(authnIds, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final List<String> fields = AuthnIdBatchGenerator.parseLine(line);
+                if (fields.size() < 2 || fields.get(0).isEmpty() || fields.get(1).isEmpty()) {
+                    skipped++;
+                } else {
+                    add(fields.get(0), fields.get(1));
+                }
+            }
+        }
+        write(table);
+        log.info("Wrote {} authnIDs to {}, skipped {} lines", count, table, skipped);
+        return count;
+    }
+
+    /**
+     * Adds a record to the table. If the key has already been added, the record is skipped when the table is written.
+     *
+     * @param key The principal name.
+     * @param authnId The authnID.
+     * @throws IOException If the key or the authnID is too long.
+     */
+    protected void add(@Nonnull final String key, @Nonnull final String authnId) throws IOException {
+        final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        final byte[] valueBytes = authnId.getBytes(StandardCharsets.US_ASCII);
+        if (keyBytes.length > AuthnIdLookupTable.MAX_FIELD_LENGTH
+                || valueBytes.length > AuthnIdLookupTable.MAX_FIELD_LENGTH) {
+            throw new IOException("Too long principal name or authnID for " + key);
+        }
+        if (count == hashes.length) {
+            hashes = Arrays.copyOf(hashes, count * 2);
+            offsets = Arrays.copyOf(offsets, count * 2);
+        }
+        hashes[count] = AuthnIdLookupTable.hash(keyBytes, 0, keyBytes.length);
+        offsets[count] = records.size();
+        final DataOutputStream out = new DataOutputStream(records);
+        out.writeShort(keyBytes.length);
+        out.write(keyBytes);
+        out.writeShort(valueBytes.length);
+        out.write(valueBytes);
+        count++;
+    }
+
+    /**
+     * Writes the table to a temporary file, and renames it over the given file.
+     *
+     * @param table The table file to be written.
+     * @throws IOException If the file cannot be written, or if the table would be too large.
+     */
+    protected void write(@Nonnull final Path table) throws IOException {
+        if (count > MAX_SLOTS / 4) {
+            throw new IOException("Too many authnIDs for a table: " + count);
+        }
+        final int slots = Integer.highestOneBit(Math.max(count, 1)) * 4;
+        final long recordsStart = AuthnIdLookupTable.HEADER_SIZE + (long) slots * AuthnIdLookupTable.SLOT_SIZE;
+        if (recordsStart + records.size() > Integer.MAX_VALUE) {
+            throw new IOException("The table would exceed the maximum size of a mapped file");
+        }
+        final byte[] recordBytes = records.toByteArray();
+        final int[] slotHashes = new int[slots];
+        final int[] slotOffsets = new int[slots];
+        int added = 0;
+        for (int i = 0; i < count; i++) {
+            int slot = hashes[i] & (slots - 1);
+            boolean duplicate = false;
+            while (slotOffsets[slot] != 0) {
+                if (slotHashes[slot] == hashes[i] && sameKey(recordBytes, slotOffsets[slot] - (int) recordsStart,
+                        offsets[i])) {
+                    duplicate = true;
+                    break;
+                }
+                slot = (slot + 1) & (slots - 1);
+            }
+            if (duplicate) {
+                log.warn("Skipping a repeated principal name in the record {}", i + 1);
+                continue;
+            }
+            slotHashes[slot] = hashes[i];
+            slotOffsets[slot] = (int) recordsStart + offsets[i];
+            added++;
+        }
+        final Path absolute = table.toAbsolutePath();
+        final Path temporary = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".tmp");
+        try {
+            try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(temporary)))) {
+                out.writeInt(AuthnIdLookupTable.MAGIC);
+                out.writeInt(AuthnIdLookupTable.VERSION);
+                out.writeInt(added);
+                out.writeInt(slots);
+                out.write(fingerprint);
+                for (int i = 0; i < slots; i++) {
+                    out.writeInt(slotHashes[i]);
+                    out.writeInt(slotOffsets[i]);
+                }
+                out.write(recordBytes);
+            }
+            try {
+                Files.move(temporary, absolute, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                log.warn("The file system does not support atomic moves, replacing {} non-atomically", table);
+                Files.move(temporary, absolute, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        count = added;
+    }
+
+    /**
+     * Checks whether the records at the given offsets have the same key.
+     *
+     * @param recordBytes The encoded records.
+     * @param first The offset of the first record.
+     * @param second The offset of the second record.
+     * @return True if the keys are equal, false otherwise.
+     */
+    private static boolean sameKey(@Nonnull final byte[] recordBytes, final int first, final int second) {
+        final int length = ((recordBytes[first] & 0xff) << 8) | (recordBytes[first + 1] & 0xff);
+        for (int i = 0; i < length + 2; i++) {
+            if (recordBytes[first + i] != recordBytes[second + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The command line interface, see the class description for the arguments.
+     *
+     * @param args The command line arguments.
+     * @throws Exception If the building fails.
+     */
+    public static void main(final String[] args) throws Exception {
+        final Map<String, String> options = AuthnIdBatchGenerator.parseArguments(args);
+        if (options == null || !options.containsKey("output") || !options.containsKey("srcAttributeNames")
+                || !(options.containsKey("authnIds") || options.containsKey("input")
+                && options.containsKey("idColumn"))) {
+            System.err.println("Usage: java " + AuthnIdTableBuilder.class.getName()
+                    + " --input file --output file --idColumn name --srcAttributeNames names"
+                    + " [the other options of " + AuthnIdBatchGenerator.class.getSimpleName() + "]"
+                    + "\n   or: java " + AuthnIdTableBuilder.class.getName() + " --authnIds file --output file"
+                    + " --srcAttributeNames names [the other options the authnIDs were generated with]");
+            System.exit(1);
+            return;
+        }
+        final Path table = Paths.get(options.get("output"));
+        final EcaAuthnIdDataConnector connector = AuthnIdBatchGenerator.buildConnector(options);
+        final byte[] fingerprint = connector.calculateFingerprint(connector.getPlans().getDefaultPlan());
+        if (options.containsKey("authnIds")) {
+            connector.destroy();
+            final int count = new AuthnIdTableBuilder(fingerprint).build(Paths.get(options.get("authnIds")), table);
+            System.out.println("Wrote " + count + " authnIDs to " + table);
+            return;
+        }
+        final Path authnIds = Files.createTempFile("authnids", ".csv");
+        try {
+            final String threads = options.get("threads");
+            new AuthnIdBatchGenerator(connector, options.get("idColumn"), threads == null
+                    ? Runtime.getRuntime().availableProcessors() : Integer.parseInt(threads))
+                            .generate(Paths.get(options.get("input")), authnIds);
+            connector.destroy();
+            final int count = new AuthnIdTableBuilder(fingerprint).build(authnIds, table);
+            System.out.println("Wrote " + count + " authnIDs to " + table);
+        } finally {
+            Files.delete(authnIds);
+        }
+    }
+}
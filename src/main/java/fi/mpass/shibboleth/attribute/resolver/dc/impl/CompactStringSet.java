@@ -0,0 +1,153 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.util.Collection;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * An immutable set of strings for fast membership checks against large value lists. The strings are stored in a
+ * single open-addressing table with linear probing, so each entry only costs a reference in the table instead of the
+ * node objects of a {@link java.util.HashSet}. The cached {@link String#hashCode()} of the queried value is used, so a
+ * lookup is usually a single equality check.
+ */
+public final class CompactStringSet {
+
+    /** The maximum capacity of the table. */
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    /** The table of strings, null for empty slots. The length is a power of two. */
+    private final String[] table;
+
+    /** The positions of the strings in the collection given to the constructor, in the same slots as the table. */
+    private final int[] positions;
+
+    /** The number of strings in the set. */
+    private final int size;
+
+    /**
+     * Constructor.
+     *
+     * @param values The strings to be included in the set. Duplicates and nulls are ignored.
+     */
+    public CompactStringSet(@Nonnull final Collection<String> values) {
+        Constraint.isNotNull(values, "The values cannot be null!");
+        Constraint.isTrue(values.size() < MAXIMUM_CAPACITY / 2, "Too many values for the set!");
+        int capacity = 2;
+        while (capacity < values.size() * 2) {
+            capacity <<= 1;
+        }
+        table = new String[capacity];
+        positions = new int[capacity];
+        int count = 0;
+        int position = 0;
+        for (final String value : values) {
+            if (value != null && insert(value, position)) {
+                count++;
+            }
+            position++;
+        }
+        size = count;
+    }
+
+    /**
+     * Checks whether the given string is included in the set.
+     *
+     * @param value The string to be checked.
+     * @return True if included, false otherwise.
+     */
+    public boolean contains(@Nullable final Object value) {
+        return indexOf(value) >= 0;
+    }
+
+    /**
+     * Get the position of the given string in the collection given to the constructor. The position of the first
+     * occurrence is returned for duplicates.
+     *
+     * @param value The string to be searched.
+     * @return The position of the string, -1 if not included.
+     */
+    public int indexOf(@Nullable final Object value) {
+        if (!(value instanceof String)) {
+            return -1;
+        }
+        final int mask = table.length - 1;
+        for (int i = spread(value.hashCode()) & mask;; i = (i + 1) & mask) {
+            final String candidate = table[i];
+            if (candidate == null) {
+                return -1;
+            }
+            if (candidate.equals(value)) {
+                return positions[i];
+            }
+        }
+    }
+
+    /**
+     * Get the number of strings in the set.
+     *
+     * @return The number of strings.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Inserts the given string to the table during the construction.
+     *
+     * @param value The string to be inserted.
+     * @param position The position of the string in the collection given to the constructor.
+     * @return True if the string was inserted, false if it already existed.
+     */
+    private boolean insert(@Nonnull final String value, final int position) {
+        final int mask = table.length - 1;
+        for (int i = spread(value.hashCode()) & mask;; i = (i + 1) & mask) {
+            final String candidate = table[i];
+            if (candidate == null) {
+                table[i] = value;
+                positions[i] = position;
+                return true;
+            }
+            if (candidate.equals(value)) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Spreads the higher bits of the hash code to the lower ones, which are used for indexing the table.
+     *
+     * @param hashCode The hash code.
+     * @return The spread hash code.
+     */
+    private static int spread(final int hashCode) {
+        final int h = hashCode * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches a file with the NIO {@link WatchService} and notifies a listener when the file is created, modified or
+ * renamed over. The directory of the file is watched, so that replacing the file atomically is noticed as well. The
+ * events arriving within the settle time are coalesced into a single notification, so that a file written in several
+ * steps is read only once. The listener is run in the daemon thread of the watcher.
+ */
+public class ConfigurationFileWatcher {
+
+    /** Default time in milliseconds to wait for further events before notifying the listener. */
+    public static final long DEFAULT_SETTLE_TIME = 500L;
+
+    /** Class logger. */
+    private final Logger log = LoggerFactory.getLogger(ConfigurationFileWatcher.class);
+
+    /** The watched file. */
+    private final Path file;
+
+    /** The listener notified of the changes. */
+    private final Runnable listener;
+
+    /** The time in milliseconds to wait for further events before notifying the listener. */
+    private final long settleTime;
+
+    /** The watch service of the directory. */
+    private final WatchService watchService;
+
+    /** The thread waiting for the events. */
+    private final Thread watcher;
+
+    /**
+     * Constructor.
+     *
+     * @param watchedFile The watched file, whose directory must exist.
+     * @param changeListener The listener notified of the changes.
+     * @param settle The time in milliseconds to wait for further events before notifying the listener.
+     * @throws IOException If the directory cannot be watched.
+     */
+    public ConfigurationFileWatcher(@Nonnull final Path watchedFile, @Nonnull final Runnable changeListener,
+            final long settle) throws IOException {
+        file = Constraint.isNotNull(watchedFile, "The watched file cannot be null!").toAbsolutePath();
+        listener = Constraint.isNotNull(changeListener, "The listener cannot be null!");
+        settleTime = Constraint.isGreaterThanOrEqual(0, settle, "The settle time cannot be negative!");
+        watchService = file.getFileSystem().newWatchService();
+        try {
+            file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException | RuntimeException e) {
+            watchService.close();
+            throw e;
+        }
+        watcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                watch();
+            }
+        }, "authnid-config-watcher-" + file.getFileName());
+        watcher.setDaemon(true);
+        watcher.start();
+        log.debug("Watching {} for changes", file);
+    }
+
+    /**
+     * Stops watching the file. The listener is not notified after this method has returned, unless it is already
+     * running.
+     */
+    public void close() {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            log.warn("Could not close the watch service of {}", file, e);
+        }
+    }
+
+    /**
+     * The loop of the watcher thread: waits for the events of the file until the watch service is closed.
+     */
+    private void watch() {
+        try {
+            while (true) {
+                if (!isChanged(watchService.take())) {
+                    continue;
+                }
+                // coalesce the events of a file written in several steps
+                WatchKey key;
+                while ((key = watchService.poll(settleTime, TimeUnit.MILLISECONDS)) != null) {
+                    isChanged(key);
+                }
+                log.debug("Detected a change in {}", file);
+                try {
+                    listener.run();
+                } catch (RuntimeException e) {
+                    log.error("Could not apply the change in {}", file, e);
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            log.debug("Stopped watching {}", file);
+        }
+    }
+
+    /**
+     * Checks whether the events of the key concern the watched file, and resets the key.
+     *
+     * @param key The signalled key.
+     * @return True if the file may have changed, false otherwise.
+     */
+    private boolean isChanged(@Nonnull final WatchKey key) {
+        boolean changed = false;
+        for (final WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || file.getFileName().equals(event.context())) {
+                changed = true;
+            }
+        }
+        key.reset();
+        return changed;
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import javax.annotation.Nonnull;
+
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.crypto.digests.Blake2bDigest;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.digests.SHA3Digest;
+import org.bouncycastle.crypto.digests.SHA512tDigest;
+import org.bouncycastle.util.Memoable;
+
+/**
+ * The digest algorithms supported for calculating the authnIDs. All of them produce 256-bit digests. The engines are
+ * constructed directly from BouncyCastle, so no provider lookups are needed, and every engine returned by
+ * {@link #newEngine()} implements {@link Memoable}, as required by {@link DigestEnginePool}.
+ * 
+ * <p>The SHA-256 and SHA-512/256 engines restore a state by copying it into the existing engine. The SHA3-256 and
+ * BLAKE2b-256 engines of BouncyCastle do not implement {@link Memoable} and keep their state private, so their
+ * adapter restores a state by constructing a copy of the engine: every borrow from the pool allocates a new engine,
+ * which is included in their benchmark results (see {@link #isRestoredInPlace()}).</p>
+ */
+public enum DigestAlgorithm {
+
+    /** SHA-256, the default algorithm. */
+    SHA256("SHA-256", 64) {
+        /** {@inheritDoc} */
+        @Override
+        protected Digest createEngine() {
+            return new SHA256Digest();
+        }
+    },
+
+    /** SHA-512 truncated to 256 bits, faster than SHA-256 on 64-bit platforms. */
+    SHA512_256("SHA-512/256", 128) {
+        /** {@inheritDoc} */
+        @Override
+        protected Digest createEngine() {
+            return new SHA512tDigest(256);
+        }
+    },
+
+    /** SHA3-256. Restoring a state allocates a new engine. */
+    SHA3_256("SHA3-256", 136) {
+        /** {@inheritDoc} */
+        @Override
+        protected Digest createEngine() {
+            return new SHA3Digest(256);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        protected Digest copyEngine(@Nonnull final Digest engine) {
+            return new SHA3Digest((SHA3Digest) engine);
+        }
+    },
+
+    /**
+     * BLAKE2b with a 256-bit digest, faster than SHA-256 on 64-bit platforms for long inputs. Restoring a state
+     * allocates a new engine.
+     */
+    BLAKE2B_256("BLAKE2b-256", 128) {
+        /** {@inheritDoc} */
+        @Override
+        protected Digest createEngine() {
+            return new Blake2bDigest(256);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        protected Digest copyEngine(@Nonnull final Digest engine) {
+            return new Blake2bDigest((Blake2bDigest) engine);
+        }
+    };
+
+    /** The name of the algorithm used in the configuration. */
+    private final String algorithmName;
+
+    /** The size of the internal block of the algorithm in bytes. */
+    private final int blockSize;
+
+    /**
+     * Constructor.
+     *
+     * @param name The name of the algorithm used in the configuration.
+     * @param size The size of the internal block of the algorithm in bytes.
+     */
+    private DigestAlgorithm(@Nonnull final String name, final int size) {
+        algorithmName = name;
+        blockSize = size;
+    }
+
+    /**
+     * Get the name of the algorithm used in the configuration.
+     *
+     * @return The algorithmName.
+     */
+    @Nonnull
+    public String getAlgorithmName() {
+        return algorithmName;
+    }
+
+    /**
+     * Get the size of the internal block of the algorithm, used for padding the HMAC keys.
+     *
+     * @return The block size in bytes.
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Checks whether the engines of this algorithm restore a state without allocating, i.e. whether the BouncyCastle
+     * engine implements {@link Memoable} itself.
+     *
+     * @return True if a state is copied into the existing engine, false if a new engine is constructed.
+     */
+    public boolean isRestoredInPlace() {
+        return createEngine() instanceof Memoable;
+    }
+
+    /**
+     * Constructs a new engine for this algorithm. The engines that do not implement {@link Memoable} themselves are
+     * wrapped into an adapter, which restores the state by copying the engine.
+     *
+     * @return A new engine implementing {@link Memoable}.
+     */
+    @Nonnull
+    public Digest newEngine() {
+        final Digest engine = createEngine();
+        if (engine instanceof Memoable) {
+            return engine;
+        }
+        return new CopyingDigest(this, engine);
+    }
+
+    /**
+     * Constructs a new BouncyCastle engine for this algorithm.
+     *
+     * @return A new engine.
+     */
+    @Nonnull
+    protected abstract Digest createEngine();
+
+    /**
+     * Copies the given engine, including its current state.
+     *
+     * @param engine The engine constructed by {@link #createEngine()}.
+     * @return A copy of the engine.
+     */
+    @Nonnull
+    protected Digest copyEngine(@Nonnull final Digest engine) {
+        return (Digest) ((Memoable) engine).copy();
+    }
+
+    /**
+     * Finds the algorithm by its name, ignoring the case.
+     *
+     * @param name The name of the algorithm, see {@link #getAlgorithmName()}.
+     * @return The algorithm with the given name.
+     * @throws IllegalArgumentException If the algorithm is not supported.
+     */
+    @Nonnull
+    public static DigestAlgorithm forName(@Nonnull final String name) {
+        Constraint.isNotNull(name, "The algorithm name cannot be null!");
+        for (final DigestAlgorithm algorithm : values()) {
+            if (algorithm.getAlgorithmName().equalsIgnoreCase(name)) {
+                return algorithm;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported digest algorithm " + name);
+    }
+
+    /**
+     * An adapter implementing {@link Memoable} for the engines without it. The state is restored by replacing the
+     * wrapped engine with a copy of the other one, as the state of the engines is not accessible otherwise. This costs
+     * an allocation (of about the size of the state) per restore, but keeps the engines usable with the primed states
+     * of {@link DigestEnginePool}.
+     */
+    static final class CopyingDigest implements Digest, Memoable {
+
+        /** The algorithm of the wrapped engine. */
+        private final DigestAlgorithm algorithm;
+
+        /** The wrapped engine. */
+        private Digest engine;
+
+        /**
+         * Constructor.
+         *
+         * @param digestAlgorithm The algorithm of the wrapped engine.
+         * @param digest The engine to be wrapped.
+         */
+        CopyingDigest(@Nonnull final DigestAlgorithm digestAlgorithm, @Nonnull final Digest digest) {
+            algorithm = digestAlgorithm;
+            engine = digest;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public String getAlgorithmName() {
+            return engine.getAlgorithmName();
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int getDigestSize() {
+            return engine.getDigestSize();
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void update(final byte in) {
+            engine.update(in);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void update(final byte[] in, final int inOff, final int len) {
+            engine.update(in, inOff, len);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int doFinal(final byte[] out, final int outOff) {
+            return engine.doFinal(out, outOff);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void reset() {
+            engine.reset();
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public Memoable copy() {
+            return new CopyingDigest(algorithm, algorithm.copyEngine(engine));
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void reset(final Memoable other) {
+            engine = algorithm.copyEngine(((CopyingDigest) other).engine);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.util.Arrays;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.util.Memoable;
+
+/**
+ * A pool of thread-confined digest engines. Each thread gets its own copy of the prototype engine, whose state is
+ * restored from the prototype every time it is borrowed. The prototype may already contain some input (for instance
+ * a salt), which is then hashed only once. The engines are copied from the prototype, so no provider lookups are
+ * needed after the pool has been constructed.
+ * 
+ * <p>A keyed pool (see {@link #hmac(DigestAlgorithm, byte[])}) calculates HMACs: its prototype already contains the
+ * key padded with the inner pad, and {@link #finish(Digest, byte[])} applies the outer state, which already contains
+ * the key padded with the outer pad. The pads are hashed only once, so an HMAC costs a single extra compression of
+ * the inner digest compared to the plain digest.</p>
+ * 
+ * <p>The engines are kept in a {@link ThreadLocal} of the pool, so they stay in the threads until their stale entries
+ * are expunged, also after the pool is no longer referenced. The engines never reference the pool, and
+ * {@link #finish(Digest, byte[])} leaves them in the initial state of the algorithm, so the retained engines contain
+ * neither the prototype state nor the key.</p>
+ */
+public class DigestEnginePool {
+
+    /** The inner pad of HMAC. */
+    private static final byte IPAD = 0x36;
+
+    /** The outer pad of HMAC. */
+    private static final byte OPAD = 0x5c;
+
+    /** The engine whose state is copied to the pooled engines. */
+    private final Memoable prototype;
+
+    /** The state containing the key padded with the outer pad, null if the pool is not keyed. */
+    private final Memoable outerState;
+
+    /** The engines confined to their threads. */
+    private final ThreadLocal<Digest> engines;
+
+    /**
+     * Constructor.
+     *
+     * @param engine The prototype engine, must implement {@link Memoable}. Its current state is copied, so it may be
+     *            modified after the pool has been constructed.
+     */
+    public DigestEnginePool(@Nonnull final Digest engine) {
+        this(engine, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param engine The prototype engine, must implement {@link Memoable}. Its current state is copied, so it may be
+     *            modified after the pool has been constructed.
+     * @param outerEngine The engine whose state is used for hashing the digests of the prototype engine, null if
+     *            the digests are used as such. Must implement {@link Memoable}, and its state is copied.
+     */
+    public DigestEnginePool(@Nonnull final Digest engine, @Nullable final Digest outerEngine) {
+        Constraint.isNotNull(engine, "The prototype engine cannot be null!");
+        Constraint.isTrue(engine instanceof Memoable, "The prototype engine must implement Memoable!");
+        Constraint.isTrue(outerEngine == null || outerEngine instanceof Memoable,
+                "The outer engine must implement Memoable!");
+        prototype = ((Memoable) engine).copy();
+        outerState = outerEngine == null ? null : ((Memoable) outerEngine).copy();
+        engines = new ThreadLocal<Digest>() {
+            @Override
+            protected Digest initialValue() {
+                return (Digest) prototype.copy();
+            }
+        };
+    }
+
+    /**
+     * Creates a pool calculating HMACs (RFC 2104) with the given algorithm and key.
+     *
+     * @param algorithm The digest algorithm.
+     * @param key The key. Keys longer than the block size of the algorithm are hashed first.
+     * @return The keyed pool.
+     */
+    @Nonnull
+    public static DigestEnginePool hmac(@Nonnull final DigestAlgorithm algorithm, @Nonnull final byte[] key) {
+        Constraint.isNotNull(algorithm, "The digest algorithm cannot be null!");
+        Constraint.isNotNull(key, "The key cannot be null!");
+        final int blockSize = algorithm.getBlockSize();
+        final Digest inner = algorithm.newEngine();
+        final Digest outer = algorithm.newEngine();
+        byte[] blockKey = key;
+        if (key.length > blockSize) {
+            blockKey = new byte[inner.getDigestSize()];
+            inner.update(key, 0, key.length);
+            inner.doFinal(blockKey, 0);
+        }
+        final byte[] pad = new byte[blockSize];
+        for (int i = 0; i < blockSize; i++) {
+            pad[i] = (byte) ((i < blockKey.length ? blockKey[i] : 0) ^ IPAD);
+        }
+        inner.update(pad, 0, blockSize);
+        for (int i = 0; i < blockSize; i++) {
+            pad[i] = (byte) ((i < blockKey.length ? blockKey[i] : 0) ^ OPAD);
+        }
+        outer.update(pad, 0, blockSize);
+        Arrays.fill(pad, (byte) 0);
+        if (blockKey != key) {
+            Arrays.fill(blockKey, (byte) 0);
+        }
+        return new DigestEnginePool(inner, outer);
+    }
+
+    /**
+     * Checks whether the pool calculates HMACs.
+     *
+     * @return True if the pool is keyed, false otherwise.
+     */
+    public boolean isKeyed() {
+        return outerState != null;
+    }
+
+    /**
+     * Get the algorithm name of the pooled engines.
+     *
+     * @return The algorithm name.
+     */
+    public String getAlgorithmName() {
+        return ((Digest) prototype).getAlgorithmName();
+    }
+
+    /**
+     * Get the size of the digest produced by the pooled engines.
+     *
+     * @return The digest size in bytes.
+     */
+    public int getDigestSize() {
+        return ((Digest) prototype).getDigestSize();
+    }
+
+    /**
+     * Borrows the engine confined to the current thread. The state of the prototype is copied to the engine before it
+     * is returned. The engine must not be shared with other threads.
+     *
+     * @return The engine in the state of the prototype.
+     */
+    @Nonnull
+    public Digest borrow() {
+        final Digest engine = engines.get();
+        ((Memoable) engine).reset(prototype);
+        return engine;
+    }
+
+    /**
+     * Borrows the engine confined to the current thread, restored to the given state. The state must have been copied
+     * from this pool, see {@link #copyPrototype()}, and it must not be modified after it has been shared.
+     *
+     * @param state The state to be copied to the engine.
+     * @return The engine in the given state.
+     */
+    @Nonnull
+    public Digest borrow(@Nonnull final Memoable state) {
+        final Digest engine = engines.get();
+        ((Memoable) engine).reset(state);
+        return engine;
+    }
+
+    /**
+     * Completes the calculation with an engine borrowed from this pool. For a keyed pool, the digest is hashed again
+     * with the same engine, restored to the outer state. The engine is left in the initial state of the algorithm.
+     *
+     * @param engine The engine borrowed from this pool.
+     * @param output The buffer for the result, at least {@link #getDigestSize()} bytes long.
+     * @return The number of bytes written.
+     */
+    public int finish(@Nonnull final Digest engine, @Nonnull final byte[] output) {
+        final int length = engine.doFinal(output, 0);
+        if (outerState == null) {
+            return length;
+        }
+        ((Memoable) engine).reset(outerState);
+        engine.update(output, 0, length);
+        return engine.doFinal(output, 0);
+    }
+
+    /**
+     * Creates a new engine in the state of the prototype. The engine is not confined to any thread, and it can be
+     * used for priming further states.
+     *
+     * @return A copy of the prototype engine.
+     */
+    @Nonnull
+    public Digest copyPrototype() {
+        return (Digest) prototype.copy();
+    }
+
+    /**
+     * Releases the engine confined to the current thread. The engines of the other threads are released when the
+     * threads expunge their stale entries, which may happen much later, but they no longer contain any state copied
+     * from the pool.
+     */
+    public void release() {
+        engines.remove();
+    }
+}
@@ -23,19 +23,36 @@
 
 package fi.mpass.shibboleth.attribute.resolver.dc.impl;
 
-import java.io.UnsupportedEncodingException;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.base.Function;
+import com.google.common.cache.CacheStats;
+
 import net.shibboleth.idp.attribute.IdPAttribute;
 import net.shibboleth.idp.attribute.IdPAttributeValue;
 import net.shibboleth.idp.attribute.StringAttributeValue;
@@ -45,13 +62,21 @@ import net.shibboleth.idp.attribute.resolver.ResolvedAttributeDefinition;
 import net.shibboleth.idp.attribute.resolver.context.AttributeResolutionContext;
 import net.shibboleth.idp.attribute.resolver.context.AttributeResolverWorkContext;
 import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.component.ComponentSupport;
 import net.shibboleth.utilities.java.support.logic.Constraint;
 import net.shibboleth.utilities.java.support.primitive.StringSupport;
+import net.shibboleth.utilities.java.support.xml.DOMTypeSupport;
 
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.util.Pack;
 import org.bouncycastle.util.encoders.Base64;
+import org.opensaml.storage.StorageService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import fi.mpass.shibboleth.attribute.resolver.dc.impl.AggregatingProblemLog.Reason;
+
 /**
  * This class implements a {@link DataConnector} (resolver plugin) that calculates the ECA authn ID with the configured
  * parameters.
@@ -66,382 +91,2369 @@ public class EcaAuthnIdDataConnector extends AbstractDataConnector {
     /** Default minimum input length if it's not set. */
     public static final int DEFAULT_MINIMUM_INPUT_LENGTH = 10;
 
+    /** Default maximum number of relying parties whose pairwise digest states are kept in memory. */
+    public static final int DEFAULT_PAIRWISE_MAX_RELYING_PARTIES = 1000;
+
+    /** Default expiration for the cached authnIDs if it's not set: one hour. */
+    public static final long DEFAULT_CACHE_EXPIRATION = 60 * 60 * 1000L;
+
+    /** Default interval for summarizing the recurring problems in the logs if it's not set: one minute. */
+    public static final long DEFAULT_PROBLEM_LOG_INTERVAL = 60 * 1000L;
+
+    /** Default lifetime for the authnIDs in the session storage if it's not set: one hour, as idp.session.timeout. */
+    public static final long DEFAULT_SESSION_LIFETIME = 60 * 60 * 1000L;
+
+    /** Default interval for checking the lookup table file for modifications if it's not set: one minute. */
+    public static final long DEFAULT_LOOKUP_TABLE_CHECK_INTERVAL = 60 * 1000L;
+
+    /** Default size of the journal segments if it's not set: 64 MiB. */
+    public static final int DEFAULT_JOURNAL_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    /** Default maximum total size of the journal segments if it's not set: 1 GiB. */
+    public static final long DEFAULT_JOURNAL_MAX_SIZE = 1024 * 1024 * 1024L;
+
+    /** Default interval for forcing the journal entries to the disk if it's not set: one second. */
+    public static final long DEFAULT_JOURNAL_COMMIT_INTERVAL = 1000L;
+
+    /** Default number of key derivations that can wait for a worker if it's not set. */
+    public static final int DEFAULT_KDF_QUEUE_SIZE = 100;
+
+    /** Default time to wait for a key derivation if it's not set: five seconds. */
+    public static final long DEFAULT_KDF_TIMEOUT = 5000L;
+
+    /** Default maximum number of cached authnIDs in the key derivation mode if cacheMaxSize is not set. */
+    public static final long DEFAULT_KDF_CACHE_MAX_SIZE = 100000L;
+
+    /** Default digest algorithm if it's not set: SHA-256. */
+    public static final DigestAlgorithm DEFAULT_DIGEST_ALGORITHM = DigestAlgorithm.SHA256;
+
+    /** Default encoding of the authnIDs if it's not set: Base64. */
+    public static final OutputEncoding DEFAULT_OUTPUT_ENCODING = OutputEncoding.BASE64;
+
+    /** The input framing where the source values are concatenated as such. */
+    public static final String INPUT_FRAMING_LEGACY = "legacy";
+
+    /** The input framing where each source value is preceded by its length. */
+    public static final String INPUT_FRAMING_V2 = "v2";
+
+    /** The minimum number of bits the authnIDs can be truncated to. */
+    public static final int MINIMUM_TRUNCATION_BITS = 64;
+
+    /** Default expected number of distinct users if it's not set: 10 million. */
+    public static final long DEFAULT_EXPECTED_POPULATION = 10000000L;
+
+    /** Default maximum accepted probability of any collision in the expected population if it's not set. */
+    public static final double DEFAULT_MAX_COLLISION_PROBABILITY = 1e-6;
+
+    /** The HMAC output format equal to the output of the salted digest: the Base64-encoded HMAC. */
+    public static final String HMAC_OUTPUT_FORMAT_LEGACY = "legacy";
+
+    /** The HMAC output format where the Base64-encoded HMAC is preceded by the algorithm, e.g. {HMAC-SHA-256}. */
+    public static final String HMAC_OUTPUT_FORMAT_TAGGED = "tagged";
+
+    /** Default type of the keystore containing the HMAC key if it's not set. */
+    public static final String DEFAULT_HMAC_KEYSTORE_TYPE = "JCEKS";
+
+    /** The empty suffix. */
+    private static final byte[] EMPTY = new byte[0];
+
+    /**
+     * The source value of the authnID whose digest is the fingerprint of the calculation parameters. It contains
+     * whitespace, upper case, composed and decomposed characters and a compatibility ligature, so that every input
+     * normalization step changes it.
+     */
+    private static final String FINGERPRINT_VALUE = " Fingerprint\u00c5A\u030a\ufb01 ";
+
+    /** The number of digest bytes in the storage scope of the plans. */
+    private static final int STORAGE_SCOPE_SIZE = 16;
+
     /** Class logger. */
     private final Logger log = LoggerFactory.getLogger(EcaAuthnIdDataConnector.class);
 
     /** The list of source attribute ids. */
     private List<String> srcAttributeNames;
 
-    /** The attribute id where to put the value of calculated authnID. */
-    private String destAttributeName;
+    /** The attribute id where to put the value of calculated authnID. */
+    private String destAttributeName;
+
+    /** The attribute id where to put the value of calculated pairwise authnID, null if disabled. */
+    private String pairwiseAttributeName;
+
+    /** The maximum number of relying parties whose pairwise digest states are kept in memory. */
+    private int pairwiseMaxRelyingParties = DEFAULT_PAIRWISE_MAX_RELYING_PARTIES;
+
+    /** The digest algorithm used for calculating the authnIDs. */
+    private DigestAlgorithm digestAlgorithm = DEFAULT_DIGEST_ALGORITHM;
+
+    /** The encoding of the authnIDs. */
+    private OutputEncoding outputEncoding = DEFAULT_OUTPUT_ENCODING;
+
+    /** Whether the source values are framed with their lengths (v2), instead of the legacy concatenation. */
+    private boolean framedInput;
+
+    /** Whether a missing source value is marked in the v2 input, instead of failing the calculation. */
+    private boolean allowMissingSources;
+
+    /** The normalization of the source values before hashing, null if the values are hashed as such. */
+    private InputNormalizer inputNormalizer;
+
+    /** The number of leading digest bits included in the authnIDs, 0 if not truncated. */
+    private int truncationBits;
+
+    /** The expected number of distinct users, used for checking the collision probability. */
+    private long expectedPopulation = DEFAULT_EXPECTED_POPULATION;
+
+    /** The maximum accepted probability of any collision in the expected population. */
+    private double maxCollisionProbability = DEFAULT_MAX_COLLISION_PROBABILITY;
+
+    /** The pre-salt to be used together with source attributes before calculating authnID. */
+    private String prefixSalt;
+
+    /** The post-salt to be used together with source attributes before calculating authnID. */
+    private String postfixSalt;
+
+    /** The pre-salt used before the rotation, null if not rotating. */
+    private String previousPrefixSalt;
+
+    /** The post-salt used before the rotation, null if not rotating. */
+    private String previousPostfixSalt;
+
+    /** The attribute id where to put the authnID calculated with the previous salts, destAttributeName if null. */
+    private String previousDestAttributeName;
+
+    /** The minimum length of source attribute values (without salt). */
+    private int minInputLength;
+
+    /** The attribute id vs value map for skipping the authnID calculation. */
+    private Map<String, List<String>> skipCalculation;
+
+    /** The attribute id to be used if calculation has been skipped. */
+    private String skipCalculationSrc;
+
+    /** The file containing additional 'attribute_name'='attribute_value' pairs for skipping the calculation. */
+    private String skipCalculationFile;
+
+    /** The attribute id vs value map read from the skipCalculationFile. */
+    private Map<String, List<String>> fileSkipCalculation;
+
+    /** The properties file overriding the salts and the skip rules, reloaded when modified, null if not used. */
+    private String reloadableConfigurationFile;
+
+    /** The salts and the skip rules read from the reloadableConfigurationFile, null if not used. */
+    private volatile ReloadableConfiguration reloadableConfiguration;
+
+    /** The watcher of the reloadableConfigurationFile, null if not used. */
+    private ConfigurationFileWatcher configurationWatcher;
+
+    /** The first scope of the next compiled plans, so that the cached authnIDs of the earlier plans never match. */
+    private int nextScope;
+
+    /** The file containing the Base64-encoded HMAC key, null if not used. */
+    private String hmacKeyFile;
+
+    /** The keystore containing the HMAC key, null if not used. */
+    private String hmacKeyStore;
+
+    /** The type of the keystore containing the HMAC key. */
+    private String hmacKeyStoreType = DEFAULT_HMAC_KEYSTORE_TYPE;
+
+    /** The password of the keystore containing the HMAC key. */
+    private String hmacKeyStorePassword;
+
+    /** The alias of the HMAC key in the keystore. */
+    private String hmacKeyAlias;
+
+    /** The password of the HMAC key in the keystore, the keystore password if null. */
+    private String hmacKeyPassword;
+
+    /** The output format of the HMACs. */
+    private String hmacOutputFormat = HMAC_OUTPUT_FORMAT_LEGACY;
+
+    /** The maximum number of cached authnIDs, 0 if the cache is disabled. */
+    private long cacheMaxSize;
+
+    /** The time in milliseconds after which the cached authnIDs are evicted. */
+    private long cacheExpiration = DEFAULT_CACHE_EXPIRATION;
+
+    /** The cache for the calculated authnIDs, null if disabled. */
+    private AuthnIdCache authnIdCache;
+
+    /** The number of PBKDF2 iterations for deriving the authnIDs, 0 if the authnIDs are digests. */
+    private int kdfIterations;
+
+    /** The number of workers deriving the authnIDs. */
+    private int kdfThreads = Runtime.getRuntime().availableProcessors();
+
+    /** The number of key derivations that can wait for a worker. */
+    private int kdfQueueSize = DEFAULT_KDF_QUEUE_SIZE;
+
+    /** The time in milliseconds to wait for a key derivation. */
+    private long kdfTimeout = DEFAULT_KDF_TIMEOUT;
+
+    /** The key derivation function, null if the authnIDs are digests. */
+    private AuthnIdKdf kdf;
+
+    /** The digest engines used for calculating the authnID from a salted input. */
+    private DigestEnginePool digestPool;
+
+    /**
+     * The reusable buffers confined to the resolving threads. The buffers do not reference the digest pool, so the
+     * entries left in the threads after the connector is destroyed retain only the scratch buffers, not the salted or
+     * keyed states.
+     */
+    private ThreadLocal<AuthnIdBuffers> buffers;
+
+    /** The attribute id whose value selects the tenant profile, null if there are no profiles. */
+    private String tenantAttributeName;
+
+    /** The tenant profiles. */
+    private List<AuthnIdProfile> profiles;
+
+    /** Whether the resolution fails if the tenant attribute matches none of the profiles. */
+    private boolean requireTenant = true;
+
+    /** The configuration compiled during the initialization. */
+    private volatile TenantPlanTable plans;
+
+    /** The registry where to publish the metrics, may be null. */
+    private MetricRegistry metricRegistry;
+
+    /** The metrics of this connector. */
+    private AuthnIdMetrics metrics;
+
+    /** The file containing the precomputed authnIDs keyed by the principal name, null if not used. */
+    private String lookupTableFile;
+
+    /** The interval for checking the lookup table file for modifications in milliseconds. */
+    private long lookupTableCheckInterval = DEFAULT_LOOKUP_TABLE_CHECK_INTERVAL;
+
+    /** The precomputed authnIDs, null if the lookup table is not used. */
+    private AuthnIdLookupTable lookupTable;
+
+    /** The directory for the journal of the issued authnIDs, null if not used. */
+    private String journalDirectory;
+
+    /** The size of the journal segments in bytes. */
+    private int journalSegmentSize = DEFAULT_JOURNAL_SEGMENT_SIZE;
+
+    /** The maximum total size of the journal segments in bytes. */
+    private long journalMaxSize = DEFAULT_JOURNAL_MAX_SIZE;
+
+    /** The interval for forcing the journal entries to the disk in milliseconds. */
+    private long journalCommitInterval = DEFAULT_JOURNAL_COMMIT_INTERVAL;
+
+    /** The journal of the issued authnIDs, null if not used. */
+    private AuthnIdJournal journal;
+
+    /** The storage service for reusing the authnIDs within an IdP session, null if not used. */
+    private StorageService storageService;
+
+    /** The lifetime of the authnIDs in the session storage after the last activity of the session in milliseconds. */
+    private long sessionLifetime = DEFAULT_SESSION_LIFETIME;
+
+    /** The strategy for looking up the IdP session id. */
+    private Function<AttributeResolutionContext, String> sessionIdLookupStrategy = new SessionIdLookupFunction();
+
+    /** The strategy for looking up the last activity instant of the IdP session. */
+    private Function<AttributeResolutionContext, Long> sessionActivityLookupStrategy =
+            new SessionActivityLookupFunction();
+
+    /** The authnIDs stored per IdP session, null if the session storage is not used. */
+    private AuthnIdSessionStore sessionStore;
+
+    /** The log aggregating the recurring problems, such as missing source attributes. */
+    private AggregatingProblemLog problemLog = new AggregatingProblemLog(log, DEFAULT_PROBLEM_LOG_INTERVAL);
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doInitialize() throws ComponentInitializationException {
+        super.doInitialize();
+        if (srcAttributeNames == null || destAttributeName == null) {
+            throw new ComponentInitializationException("srcAttributeNames and destAttributeName must be set");
+        }
+        if (allowMissingSources && !framedInput) {
+            throw new ComponentInitializationException("allowMissingSources requires the v2 inputFraming");
+        }
+        if (hmacKeyFile != null && hmacKeyStore != null) {
+            throw new ComponentInitializationException("Only one of hmacKeyFile and hmacKeyStore can be set");
+        }
+        if (hmacKeyStore != null && hmacKeyAlias == null) {
+            throw new ComponentInitializationException("hmacKeyAlias must be set if hmacKeyStore is set");
+        }
+        if (kdfIterations > 0 && (hmacKeyFile != null || hmacKeyStore != null)) {
+            throw new ComponentInitializationException("kdfIterations cannot be combined with an HMAC key");
+        }
+        if (kdfIterations > 0 && pairwiseAttributeName != null) {
+            throw new ComponentInitializationException("kdfIterations cannot be combined with pairwiseAttributeName");
+        }
+        final byte[] hmacKey;
+        try {
+            hmacKey = readHmacKey();
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            throw new ComponentInitializationException("Could not read the HMAC key", e);
+        }
+        final String outputPrefix;
+        if (hmacKey == null) {
+            digestPool = new DigestEnginePool(digestAlgorithm.newEngine());
+            outputPrefix = null;
+        } else {
+            digestPool = DigestEnginePool.hmac(digestAlgorithm, hmacKey);
+            Arrays.fill(hmacKey, (byte) 0);
+            outputPrefix = HMAC_OUTPUT_FORMAT_TAGGED.equals(hmacOutputFormat)
+                    ? "{HMAC-" + digestAlgorithm.getAlgorithmName() + "}" : null;
+        }
+        final int digestSize = digestPool.getDigestSize();
+        final int outputBytes = checkOutputLength(digestSize);
+        final OutputEncoding encoding = outputEncoding;
+        buffers = new ThreadLocal<AuthnIdBuffers>() {
+            @Override
+            protected AuthnIdBuffers initialValue() {
+                return new AuthnIdBuffers(digestSize, encoding, outputBytes, outputPrefix);
+            }
+        };
+        if (kdfIterations > 0) {
+            kdf = new AuthnIdKdf(digestAlgorithm, kdfIterations, kdfThreads, kdfQueueSize, kdfTimeout,
+                    "authnid-kdf-" + getId());
+        }
+        if (cacheMaxSize > 0) {
+            authnIdCache = new AuthnIdCache(cacheMaxSize, cacheExpiration);
+        } else if (kdf != null) {
+            log.debug("Caching up to {} derived authn IDs", DEFAULT_KDF_CACHE_MAX_SIZE);
+            authnIdCache = new AuthnIdCache(DEFAULT_KDF_CACHE_MAX_SIZE, cacheExpiration);
+        }
+        if (skipCalculationFile != null) {
+            try {
+                fileSkipCalculation = readSkipCalculationFile();
+            } catch (IOException e) {
+                throw new ComponentInitializationException("Could not read the skipCalculationFile", e);
+            }
+        }
+        if (reloadableConfigurationFile != null) {
+            try {
+                reloadableConfiguration = ReloadableConfiguration.load(Paths.get(reloadableConfigurationFile));
+            } catch (IOException | IllegalArgumentException e) {
+                throw new ComponentInitializationException("Could not read the reloadableConfigurationFile", e);
+            }
+        }
+        if (profiles != null && !profiles.isEmpty() && tenantAttributeName == null) {
+            throw new ComponentInitializationException("tenantAttributeName must be set if profiles are configured");
+        }
+        if (storageService != null) {
+            if (pairwiseAttributeName != null) {
+                log.warn("The session storage is not used, as the pairwise authn IDs depend on the relying party");
+            } else {
+                sessionStore = new AuthnIdSessionStore(storageService, getId(), sessionLifetime);
+            }
+        }
+        if (journalDirectory != null) {
+            try {
+                journal = new AuthnIdJournal(Paths.get(journalDirectory), journalSegmentSize, journalMaxSize,
+                        journalCommitInterval);
+            } catch (IOException e) {
+                throw new ComponentInitializationException("Could not open the journalDirectory", e);
+            }
+        }
+        plans = compilePlans();
+        if (lookupTableFile != null) {
+            if (pairwiseAttributeName != null) {
+                log.warn("The lookup table is not used, as the pairwise authn IDs depend on the relying party");
+            } else {
+                try {
+                    lookupTable = new AuthnIdLookupTable(Paths.get(lookupTableFile), lookupTableCheckInterval,
+                            calculateFingerprint(plans.getDefaultPlan()));
+                } catch (IOException e) {
+                    throw new ComponentInitializationException("Could not map the lookupTableFile", e);
+                }
+            }
+        }
+        metrics = new AuthnIdMetrics(metricRegistry, MetricRegistry.name(EcaAuthnIdDataConnector.class, getId()));
+        if (authnIdCache != null) {
+            metrics.registerCache(authnIdCache);
+        }
+        if (reloadableConfigurationFile != null) {
+            try {
+                configurationWatcher = new ConfigurationFileWatcher(Paths.get(reloadableConfigurationFile),
+                        new Runnable() {
+                            @Override
+                            public void run() {
+                                reloadConfiguration();
+                            }
+                        }, ConfigurationFileWatcher.DEFAULT_SETTLE_TIME);
+            } catch (IOException e) {
+                throw new ComponentInitializationException("Could not watch the reloadableConfigurationFile", e);
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void doDestroy() {
+        if (configurationWatcher != null) {
+            configurationWatcher.close();
+            configurationWatcher = null;
+        }
+        if (digestPool != null) {
+            digestPool.release();
+            digestPool = null;
+        }
+        plans = null;
+        if (buffers != null) {
+            buffers.remove();
+            buffers = null;
+        }
+        if (authnIdCache != null) {
+            if (metrics != null) {
+                metrics.unregisterCache();
+            }
+            authnIdCache.invalidateAll();
+            authnIdCache = null;
+        }
+        if (kdf != null) {
+            kdf.shutdown();
+            kdf = null;
+        }
+        sessionStore = null;
+        lookupTable = null;
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+        super.doDestroy();
+    }
+
+    /**
+     * Checks the truncation of the authnIDs and the collision probability in the expected population.
+     * 
+     * @param digestSize The size of the digest in bytes.
+     * @return The number of leading digest bytes included in the authnIDs.
+     * @throws ComponentInitializationException If the truncation is invalid, or if the collision probability
+     *             exceeds the maxCollisionProbability.
+     */
+    private int checkOutputLength(final int digestSize) throws ComponentInitializationException {
+        final int bits = truncationBits == 0 ? digestSize * 8 : truncationBits;
+        if (bits % 8 != 0 || bits < MINIMUM_TRUNCATION_BITS || bits > digestSize * 8) {
+            throw new ComponentInitializationException("truncationBits must be a multiple of 8 between "
+                    + MINIMUM_TRUNCATION_BITS + " and " + digestSize * 8);
+        }
+        final double probability = collisionProbability(expectedPopulation, bits);
+        if (probability > maxCollisionProbability) {
+            throw new ComponentInitializationException("The probability of a collision in " + expectedPopulation
+                    + " authnIDs of " + bits + " bits is " + probability + ", exceeding " + maxCollisionProbability);
+        }
+        log.debug("The probability of a collision in {} authnIDs of {} bits is {}", expectedPopulation, bits,
+                probability);
+        return bits / 8;
+    }
+
+    /**
+     * Approximates the probability of any collision among the given number of random values with the birthday
+     * bound n(n-1)/2^(bits+1).
+     * 
+     * @param population The number of values.
+     * @param bits The number of bits in the values.
+     * @return The approximate probability of a collision, at most 1.
+     */
+    public static double collisionProbability(final long population, final int bits) {
+        final double pairs = (double) population * (population - 1) / 2;
+        return Math.min(1.0, pairs * Math.pow(2, -bits));
+    }
+
+    /**
+     * Compiles the current configuration into an immutable table of plans. The connector's own configuration is
+     * compiled into the default plan, and each tenant profile into its own plan, inheriting the parameters it does not
+     * set from the connector. The rules in the skipCalculationFile apply to all the plans. The salts and the skip
+     * rules in the reloadableConfigurationFile override the connector's own. Each compilation uses new scopes, so
+     * that the authnIDs cached by the resolutions still using the earlier plans are never returned for the new ones.
+     * 
+     * @return The compiled plans.
+     */
+    protected TenantPlanTable compilePlans() {
+        final ReloadableConfiguration overrides = reloadableConfiguration;
+        final AuthnIdProfile defaultProfile;
+        if (overrides == null) {
+            defaultProfile = new AuthnIdProfile(null, srcAttributeNames, prefixSalt, postfixSalt, minInputLength,
+                    skipCalculation, skipCalculationSrc);
+            defaultProfile.setPreviousPrefixSalt(previousPrefixSalt);
+            defaultProfile.setPreviousPostfixSalt(previousPostfixSalt);
+        } else {
+            defaultProfile = new AuthnIdProfile(null, srcAttributeNames,
+                    overrides.getPrefixSalt() != null ? overrides.getPrefixSalt() : prefixSalt,
+                    overrides.getPostfixSalt() != null ? overrides.getPostfixSalt() : postfixSalt, minInputLength,
+                    overrides.getSkipCalculation() != null ? overrides.getSkipCalculation() : skipCalculation,
+                    skipCalculationSrc);
+            defaultProfile.setPreviousPrefixSalt(overrides.getPreviousPrefixSalt() != null
+                    ? overrides.getPreviousPrefixSalt() : previousPrefixSalt);
+            defaultProfile.setPreviousPostfixSalt(overrides.getPreviousPostfixSalt() != null
+                    ? overrides.getPreviousPostfixSalt() : previousPostfixSalt);
+        }
+        final int firstScope = nextScope;
+        nextScope += 2 * (1 + (profiles != null ? profiles.size() : 0));
+        final ResolutionPlan defaultPlan = compilePlan(firstScope, defaultProfile);
+        final List<String> tenants = new ArrayList<>();
+        final List<ResolutionPlan> tenantPlans = new ArrayList<>();
+        if (profiles != null) {
+            for (final AuthnIdProfile profile : profiles) {
+                tenants.add(profile.getTenant());
+                tenantPlans.add(compilePlan(firstScope + 2 * (tenantPlans.size() + 1),
+                        profile.inherit(defaultProfile)));
+            }
+        }
+        return new TenantPlanTable(defaultPlan, tenantAttributeName, tenants, tenantPlans);
+    }
+
+    /**
+     * Compiles the given profile into an immutable plan. If the profile has previous salts, they are compiled into a
+     * plan of their own, using the next scope. A previous salt that is not set is equal to the current one. If the
+     * session storage is used, the storage scope of the plan is calculated with {@link #calculateStorageScope}.
+     * 
+     * @param scope The scope separating the cached authnIDs of the plan from the other plans, an even number.
+     * @param profile The profile whose all parameters are set.
+     * @return The compiled plan.
+     */
+    protected ResolutionPlan compilePlan(final int scope, @Nonnull final AuthnIdProfile profile) {
+        final Map<String, List<String>> skipCalc = new HashMap<>();
+        if (profile.getSkipCalculation() != null) {
+            for (final Map.Entry<String, List<String>> entry : profile.getSkipCalculation().entrySet()) {
+                skipCalc.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+            }
+        }
+        if (fileSkipCalculation != null) {
+            for (final Map.Entry<String, List<String>> entry : fileSkipCalculation.entrySet()) {
+                if (skipCalc.containsKey(entry.getKey())) {
+                    skipCalc.get(entry.getKey()).addAll(entry.getValue());
+                } else {
+                    skipCalc.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        ResolutionPlan previousPlan = null;
+        if (profile.getPreviousPrefixSalt() != null || profile.getPreviousPostfixSalt() != null) {
+            previousPlan = new ResolutionPlan(scope + 1, new AuthnIdProfile(profile.getTenant(),
+                    profile.getSrcAttributeNames(),
+                    profile.getPreviousPrefixSalt() != null ? profile.getPreviousPrefixSalt() : profile.getPrefixSalt(),
+                    profile.getPreviousPostfixSalt() != null ? profile.getPreviousPostfixSalt()
+                            : profile.getPostfixSalt(),
+                    profile.getMinInputLength(), skipCalc, profile.getSkipCalculationSrc()), digestPool,
+                    pairwiseMaxRelyingParties, null);
+        }
+        final ResolutionPlan plan = new ResolutionPlan(scope, new AuthnIdProfile(profile.getTenant(),
+                profile.getSrcAttributeNames(), profile.getPrefixSalt(), profile.getPostfixSalt(),
+                profile.getMinInputLength(), skipCalc, profile.getSkipCalculationSrc()), digestPool,
+                pairwiseMaxRelyingParties, previousPlan);
+        return sessionStore != null ? plan.withStorageScope(calculateStorageScope(plan)) : plan;
+    }
+
+    /**
+     * Calculates the scope of the authnIDs of the given plan in the session storage: the Base64url-encoded first 16
+     * bytes of the SHA-256 digest of the tenant, the source attribute ids, the minimum input length and the
+     * fingerprints of the plan and its previous plan. Unlike the scope of the plan, the storage scope is equal on all
+     * the nodes and restarts using the same parameters, and it changes when a reload changes the salts.
+     * 
+     * @param resolutionPlan The plan whose storage scope is calculated.
+     * @return The storage scope.
+     */
+    @Nonnull
+    protected String calculateStorageScope(@Nonnull final ResolutionPlan resolutionPlan) {
+        final Digest engine = DigestAlgorithm.SHA256.newEngine();
+        updateFramed(engine, resolutionPlan.getTenant());
+        for (int i = 0; i < resolutionPlan.getSourceCount(); i++) {
+            updateFramed(engine, resolutionPlan.getSourceName(i));
+        }
+        engine.update(Pack.intToBigEndian(resolutionPlan.getMinInputLength()), 0, 4);
+        final byte[] fingerprint = calculateFingerprint(resolutionPlan);
+        engine.update(fingerprint, 0, fingerprint.length);
+        if (resolutionPlan.getPreviousPlan() != null) {
+            final byte[] previousFingerprint = calculateFingerprint(resolutionPlan.getPreviousPlan());
+            engine.update(previousFingerprint, 0, previousFingerprint.length);
+        }
+        final byte[] digest = new byte[engine.getDigestSize()];
+        engine.doFinal(digest, 0);
+        final char[] chars = new char[OutputEncoding.BASE64URL.getEncodedLength(STORAGE_SCOPE_SIZE)];
+        return new String(chars, 0, OutputEncoding.BASE64URL.encode(digest, STORAGE_SCOPE_SIZE, chars, 0));
+    }
+
+    /**
+     * Updates the given digest with the length-prefixed UTF-8 encoding of the given value.
+     * 
+     * @param engine The digest engine.
+     * @param value The value, its length is -1 if null.
+     */
+    private static void updateFramed(@Nonnull final Digest engine, @Nullable final String value) {
+        if (value == null) {
+            engine.update(Pack.intToBigEndian(-1), 0, 4);
+        } else {
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            engine.update(Pack.intToBigEndian(bytes.length), 0, 4);
+            engine.update(bytes, 0, bytes.length);
+        }
+    }
+
+    /**
+     * Recompiles the plan if the configuration is changed after the initialization. The cached authnIDs are
+     * invalidated, as they may have been calculated with the previous configuration, and the session-stored ones are
+     * bound to the storage scopes of the previous plans. The lookup table is expected to match the new default plan
+     * before the new plans are published, so that a table built with the previous salts is never used with them.
+     */
+    private synchronized void refreshPlan() {
+        if (isInitialized()) {
+            final TenantPlanTable newPlans = compilePlans();
+            if (lookupTable != null) {
+                lookupTable.setExpectedFingerprint(calculateFingerprint(newPlans.getDefaultPlan()));
+            }
+            plans = newPlans;
+            if (authnIdCache != null) {
+                authnIdCache.invalidateAll();
+            }
+        }
+    }
+
+    /**
+     * Reads the modified reloadableConfigurationFile and swaps in the plans compiled with it. The resolutions in
+     * progress finish with the previous plans. If the file cannot be read or it is invalid, the previous
+     * configuration is kept.
+     */
+    protected void reloadConfiguration() {
+        final ReloadableConfiguration configuration;
+        try {
+            configuration = ReloadableConfiguration.load(Paths.get(reloadableConfigurationFile));
+        } catch (IOException | IllegalArgumentException e) {
+            log.error("Could not reload {}, keeping the previous configuration", reloadableConfigurationFile, e);
+            return;
+        }
+        synchronized (this) {
+            if (isDestroyed()) {
+                return;
+            }
+            reloadableConfiguration = configuration;
+            refreshPlan();
+        }
+        log.info("Reloaded the salts and the skip rules from {}", reloadableConfigurationFile);
+    }
+
+    @Nullable
+    @Override
+    /** {@inheritDoc} */
+    protected Map<String, IdPAttribute> doDataConnectorResolve(
+            @Nonnull final AttributeResolutionContext attributeResolutionContext,
+            @Nonnull final AttributeResolverWorkContext attributeResolverWorkContext) throws ResolutionException {
+        final Timer.Context timerContext = metrics.startResolve();
+        try {
+            return resolveAuthnId(attributeResolutionContext, attributeResolverWorkContext);
+        } finally {
+            timerContext.stop();
+        }
+    }
+
+    /**
+     * Resolves the authnID attribute from the attribute definitions in the work context.
+     * 
+     * @param attributeResolutionContext The attribute resolution context.
+     * @param attributeResolverWorkContext The attribute resolver work context.
+     * @return The resolved attribute in a Map, empty if it could not be resolved.
+     * @throws ResolutionException If the key derivation fails.
+     */
+    private Map<String, IdPAttribute> resolveAuthnId(
+            @Nonnull final AttributeResolutionContext attributeResolutionContext,
+            @Nonnull final AttributeResolverWorkContext attributeResolverWorkContext) throws ResolutionException {
+        final String uid = attributeResolutionContext.getPrincipal();
+        log.debug("Calculating authnID for {}", uid);
+
+        final Map<String, ResolvedAttributeDefinition> attributeDefinitions =
+                attributeResolverWorkContext.getResolvedIdPAttributeDefinitions();
+        if (log.isTraceEnabled()) {
+            log.trace("Listing attribute definitions ({}) from the work context", attributeDefinitions.size());
+            final Iterator<String> iterator = attributeDefinitions.keySet().iterator();
+            while (iterator.hasNext()) {
+                final String key = iterator.next();
+                log.trace("Attribute key {}, value {}", key, attributeDefinitions.get(key).getResolvedAttribute());
+            }
+        }
+
+        final TenantPlanTable currentPlans = plans;
+        ResolutionPlan currentPlan = currentPlans.select(attributeDefinitions);
+        if (currentPlan == null) {
+            metrics.getUnknownTenant().inc();
+            if (requireTenant) {
+                problemLog.record(Reason.UNKNOWN_TENANT, tenantAttributeName,
+                        "The attribute {} matches none of the tenant profiles, cannot continue", tenantAttributeName);
+                return new HashMap<String, IdPAttribute>();
+            }
+            problemLog.record(Reason.UNKNOWN_TENANT, tenantAttributeName,
+                    "The attribute {} matches none of the tenant profiles, using the default configuration",
+                    tenantAttributeName);
+            currentPlan = currentPlans.getDefaultPlan();
+        }
+        if (currentPlan.isSkipped(attributeDefinitions)) {
+            log.debug("skipCalculation configuration matched");
+            final String skipSourceName = currentPlan.getSkipSourceName();
+            final ResolvedAttributeDefinition skipDefinition = attributeDefinitions.get(skipSourceName);
+            final String skipValue = skipDefinition == null || skipDefinition.getResolvedAttribute() == null ? null
+                    : collectSingleAttributeValue(skipDefinition.getResolvedAttribute().getValues());
+            if (skipValue == null) {
+                problemLog.record(Reason.MISSING_ATTRIBUTE, skipSourceName,
+                        "No single value found for the attribute {} replacing the authn ID, cannot continue",
+                        skipSourceName);
+                metrics.getMissingSource().inc();
+                return new HashMap<String, IdPAttribute>();
+            }
+            metrics.getSkipped().inc();
+            return buildResponse(skipValue);
+        }
+
+        if (lookupTable != null && uid != null && currentPlan == currentPlans.getDefaultPlan()
+                && currentPlan.getPreviousPlan() == null) {
+            final String tableAuthnId = lookupAuthnId(uid);
+            if (tableAuthnId != null) {
+                log.debug("Authn ID found from the lookup table");
+                metrics.getTableHit().inc();
+                journalAuthnId(uid, currentPlan, tableAuthnId);
+                return buildResponse(tableAuthnId);
+            }
+        }
+
+        final String sessionId =
+                sessionStore != null ? sessionIdLookupStrategy.apply(attributeResolutionContext) : null;
+        final long sessionActivity = sessionId != null ? lookupSessionActivity(attributeResolutionContext) : 0;
+        if (sessionId != null) {
+            final String[] storedAuthnIds =
+                    sessionStore.read(sessionId, currentPlan.getStorageScope(), sessionActivity);
+            if (storedAuthnIds != null) {
+                log.debug("Authn ID found from the session storage");
+                metrics.getSessionHit().inc();
+                return buildResponse(storedAuthnIds[0], storedAuthnIds[1], null);
+            }
+        }
+
+        final AuthnIdBuffers authnIdBuffers = buffers.get();
+        if (!collectAuthnIdInput(currentPlan, attributeDefinitions, authnIdBuffers)) {
+            problemLog.record(Reason.INCOMPLETE_INPUT, destAttributeName,
+                    "The input for the authn ID calculation is incomplete, cannot continue", null);
+            metrics.getMissingSource().inc();
+            return new HashMap<String, IdPAttribute>();
+        }
+        if (authnIdBuffers.getCharCount() < currentPlan.getMinInputLength()) {
+            problemLog.record(Reason.TOO_SHORT_INPUT, destAttributeName,
+                    "The input for the authn ID calculation is too simple (length = {}), cannot continue",
+                    authnIdBuffers.getCharCount());
+            metrics.getTooShort().inc();
+            return new HashMap<String, IdPAttribute>();
+        }
+
+        final AuthnIdCache.Key cacheKey = authnIdCache != null ? authnIdCache.buildKey(authnIdBuffers,
+                currentPlan.getScope()) : null;
+        final String authnId = digestAuthnId(currentPlan, authnIdBuffers, cacheKey);
+        if (authnId == null) {
+            return new HashMap<String, IdPAttribute>();
+        }
+        log.debug("Authn ID successfully calculated and included in the attribute {}", destAttributeName);
+        problemLog.flushIfDue(System.currentTimeMillis());
+        journalAuthnId(uid, currentPlan, authnId);
+        String previousAuthnId = null;
+        final ResolutionPlan previousPlan = currentPlan.getPreviousPlan();
+        if (previousPlan != null) {
+            previousAuthnId = digestAuthnId(previousPlan, authnIdBuffers,
+                    cacheKey != null ? cacheKey.withScope(previousPlan.getScope()) : null);
+        }
+        String pairwiseAuthnId = null;
+        if (pairwiseAttributeName != null) {
+            pairwiseAuthnId = calculatePairwiseAuthnId(currentPlan, authnIdBuffers,
+                    attributeResolutionContext.getAttributeRecipientID());
+        }
+        if (sessionId != null) {
+            sessionStore.store(sessionId, currentPlan.getStorageScope(), sessionActivity, authnId, previousAuthnId);
+        }
+        return buildResponse(authnId, previousAuthnId, pairwiseAuthnId);
+    }
+
+    /**
+     * Looks up the last activity instant of the IdP session.
+     *
+     * @param attributeResolutionContext The attribute resolution context.
+     * @return The last activity instant in milliseconds, the current time if not found.
+     */
+    private long lookupSessionActivity(@Nonnull final AttributeResolutionContext attributeResolutionContext) {
+        final Long lastActivity = sessionActivityLookupStrategy.apply(attributeResolutionContext);
+        return lastActivity != null ? lastActivity : System.currentTimeMillis();
+    }
+
+    /**
+     * Publishes the issued authnID to the journal, if it is used, counting the dropped entries.
+     *
+     * @param principal The principal name, nothing is journaled if null.
+     * @param resolutionPlan The plan the authnID was issued with.
+     * @param authnId The issued authnID.
+     */
+    private void journalAuthnId(@Nullable final String principal, @Nonnull final ResolutionPlan resolutionPlan,
+            @Nonnull final String authnId) {
+        if (journal != null && principal != null && !journal.append(principal, resolutionPlan.getTenant(), authnId)) {
+            metrics.getJournalDropped().inc();
+        }
+    }
+
+    /**
+     * Looks up the precomputed authnID of the given principal from the lookup table.
+     * 
+     * @param principal The principal name.
+     * @return The authnID, null if the principal is not in the table or the lookup failed.
+     */
+    @Nullable
+    private String lookupAuthnId(@Nonnull final String principal) {
+        try {
+            return lookupTable.lookup(principal);
+        } catch (RuntimeException e) {
+            log.error("Authn ID lookup from the table failed, calculating it instead", e);
+            return null;
+        }
+    }
+
+    /**
+     * Calculates the authnID from the input already collected into the given buffers, or gets it from the cache.
+     * 
+     * @param resolutionPlan The plan whose salts are used.
+     * @param authnIdBuffers The buffers containing the input.
+     * @param cacheKey The cache key in the scope of the plan, null if the cache is disabled.
+     * @return The authnID, null if it could not be calculated.
+     * @throws ResolutionException If the key derivation fails.
+     */
+    @Nullable
+    private String digestAuthnId(@Nonnull final ResolutionPlan resolutionPlan,
+            @Nonnull final AuthnIdBuffers authnIdBuffers, @Nullable final AuthnIdCache.Key cacheKey)
+                    throws ResolutionException {
+        if (cacheKey != null) {
+            final String cachedAuthnId = authnIdCache.get(cacheKey);
+            if (cachedAuthnId != null) {
+                log.debug("Authn ID found from the cache");
+                return cachedAuthnId;
+            }
+        }
+        final String authnId;
+        if (kdf != null) {
+            authnId = authnIdBuffers.encode(deriveAuthnId(authnIdBuffers.copyInput(),
+                    resolutionPlan.getKdfSaltBytes()));
+        } else {
+            try {
+                authnId = authnIdBuffers.digest(resolutionPlan.borrowSaltedDigest(),
+                        resolutionPlan.getPostfixSaltBytes(), digestPool);
+            } catch (RuntimeException e) {
+                log.error("Authn ID calculation failed", e);
+                metrics.getDigestFailure().inc();
+                return null;
+            }
+        }
+        if (cacheKey != null) {
+            authnIdCache.put(cacheKey, authnId);
+        }
+        return authnId;
+    }
+
+    /**
+     * Derives the authnID with the key derivation function in its worker pool.
+     * 
+     * @param input The input, cleared after the derivation.
+     * @param salt The salt of the plan.
+     * @return The derived key.
+     * @throws ResolutionException If the derivation is rejected, times out or fails.
+     */
+    @Nonnull
+    private byte[] deriveAuthnId(@Nonnull final byte[] input, @Nonnull final byte[] salt)
+            throws ResolutionException {
+        try {
+            return kdf.derive(input, salt);
+        } catch (RejectedExecutionException e) {
+            metrics.getKdfFailure().inc();
+            throw new ResolutionException("The authn ID derivation was rejected, all the workers are busy", e);
+        } catch (TimeoutException e) {
+            metrics.getKdfFailure().inc();
+            throw new ResolutionException("The authn ID derivation did not finish in " + kdfTimeout + " ms", e);
+        } catch (ExecutionException e) {
+            metrics.getKdfFailure().inc();
+            throw new ResolutionException("The authn ID derivation failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ResolutionException("Interrupted while waiting for the authn ID derivation", e);
+        } finally {
+            Arrays.fill(input, (byte) 0);
+        }
+    }
+
+    /**
+     * Calculates the pairwise authnID from the input already collected into the given buffers.
+     * 
+     * @param resolutionPlan The plan used for collecting the input.
+     * @param authnIdBuffers The buffers containing the input.
+     * @param relyingPartyId The relying party id, may be null.
+     * @return The pairwise authnID, null if it could not be calculated.
+     */
+    @Nullable
+    protected String calculatePairwiseAuthnId(@Nonnull final ResolutionPlan resolutionPlan,
+            @Nonnull final AuthnIdBuffers authnIdBuffers, @Nullable final String relyingPartyId) {
+        if (relyingPartyId == null) {
+            problemLog.record(Reason.MISSING_RECIPIENT, pairwiseAttributeName,
+                    "No attribute recipient found, cannot calculate the pairwise authn ID for {}",
+                    pairwiseAttributeName);
+            return null;
+        }
+        try {
+            final String pairwiseId = authnIdBuffers.digest(resolutionPlan.borrowPairwiseDigest(relyingPartyId),
+                    resolutionPlan.getPostfixSaltBytes(), digestPool);
+            log.debug("Pairwise authn ID calculated for {}", relyingPartyId);
+            return pairwiseId;
+        } catch (RuntimeException e) {
+            log.error("Pairwise authn ID calculation failed", e);
+            metrics.getDigestFailure().inc();
+            return null;
+        }
+    }
+
+    /**
+     * Builds a response map with the given contents. The attribute id will be taken from the global destAttributeName
+     * variable.
+     * 
+     * @param value The value for destAttributeName.
+     * @return The response in a Map.
+     */
+    protected Map<String, IdPAttribute> buildResponse(final String value) {
+        return buildResponse(value, null, null);
+    }
+
+    /**
+     * Builds a response map with the given contents. The attribute ids will be taken from the global
+     * destAttributeName, previousDestAttributeName and pairwiseAttributeName variables. If previousDestAttributeName
+     * is not set, the previous value is added as the second value of destAttributeName.
+     * 
+     * @param value The value for destAttributeName.
+     * @param previousValue The value calculated with the previous salts, not included if null or equal to the value.
+     * @param pairwiseValue The value for pairwiseAttributeName, not included if null.
+     * @return The response in a Map.
+     */
+    protected Map<String, IdPAttribute> buildResponse(final String value, @Nullable final String previousValue,
+            @Nullable final String pairwiseValue) {
+        final Map<String, IdPAttribute> attributes = new HashMap<>();
+        final IdPAttribute idpAttribute = new IdPAttribute(getDestAttributeName());
+        final boolean rotated = previousValue != null && !previousValue.equals(value);
+        if (rotated && previousDestAttributeName == null) {
+            final List<IdPAttributeValue<String>> values = new ArrayList<>(2);
+            values.add(new StringAttributeValue(value));
+            values.add(new StringAttributeValue(previousValue));
+            idpAttribute.setValues(values);
+        } else {
+            idpAttribute.setValues(Collections.singletonList(new StringAttributeValue(value)));
+        }
+        attributes.put(getDestAttributeName(), idpAttribute);
+        if (rotated && previousDestAttributeName != null) {
+            final IdPAttribute previousAttribute = new IdPAttribute(previousDestAttributeName);
+            previousAttribute.setValues(Collections.singletonList(new StringAttributeValue(previousValue)));
+            attributes.put(previousDestAttributeName, previousAttribute);
+        }
+        if (pairwiseValue != null) {
+            final IdPAttribute pairwiseAttribute = new IdPAttribute(getPairwiseAttributeName());
+            pairwiseAttribute.setValues(Collections.singletonList(new StringAttributeValue(pairwiseValue)));
+            attributes.put(getPairwiseAttributeName(), pairwiseAttribute);
+        }
+        return attributes;
+    }
+
+    /**
+     * Helper method for checking whether any values in the source list exist in the target list (using
+     * getDisplayValue).
+     * 
+     * @param source The source list.
+     * @param targetValues The target list.
+     * @return True if exists, false otherwise.
+     * @deprecated The resolution matches the skip rules with {@link ResolutionPlan#isSkipped(Map)}.
+     */
+    @Deprecated
+    protected boolean sourceExistsInAnother(final List<String> source, final List<IdPAttributeValue<?>> targetValues) {
+        for (int i = 0; i < source.size(); i++) {
+            for (int j = 0; j < targetValues.size(); j++) {
+                log.trace("Comparing {} to {}", source.get(i), targetValues.get(j).getDisplayValue());
+                final Object targetValue = targetValues.get(j).getValue();
+                if (targetValue instanceof String && source.get(i).equals((String) targetValue)) {
+                    log.debug("Strings are corresponding, returning true");
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Collects the attribute values corresponding to the source attribute configuration. The attribute values are
+     * concatenated to the resulting string in the same order as they are included in the source array. If any value is
+     * not found, it'll be warned in the logs. Only single value attributes are accepted.
+     * 
+     * @param attributeDefinitions the resolved attribute definitions.
+     * @return The concatenated attribute values, null if any value was not found.
+     * @deprecated The resolution collects the input into the buffers with
+     *             {@link #collectAuthnIdInput(ResolutionPlan, Map, AuthnIdBuffers)}.
+     */
+    @Deprecated
+    @Nullable
+    protected String collectAuthnIdInput(@Nonnull final Map<String, ResolvedAttributeDefinition> attributeDefinitions) {
+        final StringBuilder authnIdInput = new StringBuilder();
+        for (int i = 0; i < srcAttributeNames.size(); i++) {
+            final String value =
+                    normalizeValue(collectSingleAttributeValue(attributeDefinitions, srcAttributeNames.get(i)));
+            if (value == null) {
+                return null;
+            }
+            authnIdInput.append(value);
+        }
+        return authnIdInput.toString();
+    }
+
+    /**
+     * Collects the attribute values corresponding to the source attribute configuration into the given buffers. The
+     * values are encoded in the same order as they are included in the source array, without building intermediate
+     * strings. Only single value attributes are accepted.
+     * 
+     * <p>With the v2 input framing, each value is preceded by its length. The input is incomplete if any of the
+     * values is missing, unless the missing sources are allowed: a missing value is then encoded with the missing
+     * value marker, and the input is complete as long as any of the values was found.</p>
+     * 
+     * @param resolutionPlan The compiled configuration.
+     * @param attributeDefinitions the resolved attribute definitions.
+     * @param authnIdBuffers The buffers where to encode the values, cleared before use.
+     * @return True if the input is complete, false otherwise.
+     */
+    protected boolean collectAuthnIdInput(@Nonnull final ResolutionPlan resolutionPlan,
+            @Nonnull final Map<String, ResolvedAttributeDefinition> attributeDefinitions,
+            @Nonnull final AuthnIdBuffers authnIdBuffers) {
+        authnIdBuffers.clear();
+        boolean found = false;
+        for (int i = 0; i < resolutionPlan.getSourceCount(); i++) {
+            final String value =
+                    normalizeValue(collectSingleAttributeValue(attributeDefinitions, resolutionPlan.getSourceName(i)));
+            if (value == null && !allowMissingSources) {
+                return false;
+            }
+            if (framedInput) {
+                authnIdBuffers.appendFramed(value);
+            } else {
+                authnIdBuffers.append(value);
+            }
+            found |= value != null;
+        }
+        return found;
+    }
+
+    /**
+     * Collects a single {@link String} value from the list of {@link IdPAttributeValue}s.
+     * 
+     * @param values The list of values.
+     * @return The value if single was found, null otherwise.
+     */
+    protected String collectSingleAttributeValue(@Nonnull final List<IdPAttributeValue<?>> values) {
+        if (values.size() == 0 || values.size() > 1) {
+            log.debug("No single value found for the attribute, the set size was {}", values.size());
+            return null;
+        }
+        return (String) values.get(0).getValue();
+    }
+
+    /**
+     * Normalizes the given source attribute value with the configured input normalization.
+     * 
+     * @param value The value to be normalized.
+     * @return The normalized value, or the value as such if the normalization is not configured.
+     */
+    @Nullable
+    protected String normalizeValue(@Nullable final String value) {
+        return inputNormalizer == null ? value : inputNormalizer.normalize(value);
+    }
+
+    /**
+     * Collects a single {@link String} value from the map of attributes with given parameters.
+     * 
+     * @param attributeDefinitions The map of attributes.
+     * @param attributeName The attribute id whose value is to be collected.
+     * @return The value if single was found, null otherwise.
+     */
+    protected String collectSingleAttributeValue(
+            @Nonnull final Map<String, ResolvedAttributeDefinition> attributeDefinitions,
+            @Nonnull final String attributeName) {
+        final ResolvedAttributeDefinition definition = attributeDefinitions.get(attributeName);
+        if (definition == null || definition.getResolvedAttribute() == null) {
+            problemLog.record(Reason.MISSING_ATTRIBUTE, attributeName,
+                    "Could not find an attribute {} from the context", attributeName);
+            return null;
+        } else {
+            return collectSingleAttributeValue(definition.getResolvedAttribute().getValues());
+        }
+    }
+
+    /**
+     * Adds the prefix- and postfix-salts to the given string.
+     * 
+     * @param preSaltInput the input to be salted.
+     * @return The salted result.
+     */
+    protected String saltAuthnIdInput(@NotEmpty final String preSaltInput) {
+        return prefixSalt + preSaltInput + postfixSalt;
+    }
+
+    /**
+     * Get the plans compiled from the current configuration.
+     * 
+     * @return The plans, null if the connector has not been initialized.
+     */
+    @Nullable
+    protected TenantPlanTable getPlans() {
+        return plans;
+    }
+
+    /**
+     * Calculates the authn ID with the given input. The configured digest algorithm (SHA-256 by default) is used, and
+     * UTF-8 as character encoding. If the HMAC key is configured, the HMAC is calculated with the key. The digest
+     * engine is borrowed from the pool that is created during the initialization.
+     * 
+     * @param input The input for the calculation.
+     * @return The calculated authn ID.
+     */
+    protected String calculateAuthnId(@Nonnull @NotEmpty final String input) {
+        final AuthnIdBuffers authnIdBuffers = buffers.get();
+        authnIdBuffers.clear();
+        authnIdBuffers.append(input);
+        return authnIdBuffers.digest(digestPool.borrow(), EMPTY, digestPool);
+    }
+
+    /**
+     * Calculates the authn ID with the given unsalted input. The result is equal to
+     * <code>calculateAuthnId(saltAuthnIdInput(preSaltInput))</code>, but the prefixSalt has already been hashed
+     * during the initialization and the postfixSalt has already been encoded.
+     * 
+     * @param preSaltInput The unsalted input for the calculation.
+     * @return The calculated authn ID.
+     */
+    protected String calculateSaltedAuthnId(@Nonnull @NotEmpty final String preSaltInput) {
+        final ResolutionPlan currentPlan = plans.getDefaultPlan();
+        final AuthnIdBuffers authnIdBuffers = buffers.get();
+        authnIdBuffers.clear();
+        authnIdBuffers.append(preSaltInput);
+        return authnIdBuffers.digest(currentPlan.borrowSaltedDigest(), currentPlan.getPostfixSaltBytes(), digestPool);
+    }
+
+    /**
+     * Calculates the authn ID from the given source attribute values, using the connector's own configuration. The
+     * values are framed and salted exactly as in the attribute resolution, but the skip rules are not applied. In the
+     * key derivation mode, the key is derived in the calling thread.
+     * 
+     * @param values The values of the source attributes, in the same order as the srcAttributeNames.
+     * @return The calculated authn ID, null if a value is missing (and the missing sources are not allowed) or the
+     *         input is shorter than the minInputLength.
+     */
+    @Nullable
+    protected String calculateAuthnId(@Nonnull final String[] values) {
+        final ResolutionPlan currentPlan = plans.getDefaultPlan();
+        return calculateAuthnId(currentPlan, values, currentPlan.getMinInputLength());
+    }
+
+    /**
+     * Calculates the fingerprint of the calculation parameters of the given plan: the SHA-256 digest of the authnID
+     * calculated from a fixed input. The fingerprint changes with the salts, the number of sources, the algorithm,
+     * the HMAC key, the key derivation, the input framing and normalization, the truncation and the output encoding,
+     * but it does not reveal any of them.
+     * 
+     * @param resolutionPlan The plan whose salts are used.
+     * @return The fingerprint, {@link AuthnIdLookupTable#FINGERPRINT_SIZE} bytes.
+     */
+    @Nonnull
+    protected byte[] calculateFingerprint(@Nonnull final ResolutionPlan resolutionPlan) {
+        final String[] values = new String[resolutionPlan.getSourceCount()];
+        Arrays.fill(values, FINGERPRINT_VALUE);
+        final byte[] authnId = calculateAuthnId(resolutionPlan, values, 0).getBytes(StandardCharsets.UTF_8);
+        final Digest engine = DigestAlgorithm.SHA256.newEngine();
+        engine.update(authnId, 0, authnId.length);
+        final byte[] fingerprint = new byte[engine.getDigestSize()];
+        engine.doFinal(fingerprint, 0);
+        return fingerprint;
+    }
+
+    /**
+     * Calculates the authn ID from the given source attribute values with the given plan.
+     * 
+     * @param resolutionPlan The plan whose salts are used.
+     * @param values The values of the source attributes, in the same order as the sources of the plan.
+     * @param minLength The minimum length of the input.
+     * @return The calculated authn ID, null if a value is missing (and the missing sources are not allowed) or the
+     *         input is shorter than the minimum length.
+     */
+    @Nullable
+    private String calculateAuthnId(@Nonnull final ResolutionPlan resolutionPlan, @Nonnull final String[] values,
+            final int minLength) {
+        Constraint.isTrue(values.length == resolutionPlan.getSourceCount(), "A value is needed for each source!");
+        final AuthnIdBuffers authnIdBuffers = buffers.get();
+        authnIdBuffers.clear();
+        for (final String value : values) {
+            if (value == null && !allowMissingSources) {
+                return null;
+            }
+            if (framedInput) {
+                authnIdBuffers.appendFramed(normalizeValue(value));
+            } else {
+                authnIdBuffers.append(normalizeValue(value));
+            }
+        }
+        if (authnIdBuffers.getCharCount() < minLength) {
+            return null;
+        }
+        if (kdf != null) {
+            try {
+                return authnIdBuffers.encode(AuthnIdKdf.pbkdf2(digestAlgorithm, authnIdBuffers.copyInput(),
+                        resolutionPlan.getKdfSaltBytes(), kdfIterations));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("The authn ID derivation was interrupted", e);
+            }
+        }
+        return authnIdBuffers.digest(resolutionPlan.borrowSaltedDigest(), resolutionPlan.getPostfixSaltBytes(),
+                digestPool);
+    }
+
+    /**
+     * Set the list of source attribute ids.
+     * 
+     * @param attributeNames What to set in comma-separated list.
+     */
+    public void setSrcAttributeNames(@Nonnull final String attributeNames) {
+        log.debug("Converting string {} to the array", attributeNames);
+        srcAttributeNames =
+                StringSupport.stringToList(
+                        Constraint.isNotEmpty(attributeNames, "The srcAttributeNames configuration cannot be empty!"),
+                        ",");
+        refreshPlan();
+    }
+
+    /**
+     * Get the list of source attribute ids.
+     * 
+     * @return The srcAttributeNames.
+     */
+    public List<String> getSrcAttributeNames() {
+        return this.srcAttributeNames;
+    }
+
+    /**
+     * Set the attribute id where to put the value of calculated authnID.
+     * 
+     * @param attributeName What to set.
+     */
+    public void setDestAttributeName(@Nonnull final String attributeName) {
+        this.destAttributeName =
+                Constraint.isNotEmpty(attributeName, "The destAttributeName configuration may not be empty!");
+    }
+
+    /**
+     * Get the attribute id where to put the value of calculated authnID.
+     * 
+     * @return The destAtributeName.
+     */
+    public String getDestAttributeName() {
+        return this.destAttributeName;
+    }
+
+    /**
+     * Set the attribute id where to put the value of calculated pairwise authnID. The pairwise authnID is calculated
+     * from the same input as the authnID, salted additionally with the attribute recipient id.
+     * 
+     * @param attributeName What to set, null disables the pairwise authnID.
+     */
+    public void setPairwiseAttributeName(final String attributeName) {
+        pairwiseAttributeName = StringSupport.trimOrNull(attributeName);
+    }
+
+    /**
+     * Get the attribute id where to put the value of calculated pairwise authnID.
+     * 
+     * @return The pairwiseAttributeName, null if disabled.
+     */
+    public String getPairwiseAttributeName() {
+        return pairwiseAttributeName;
+    }
+
+    /**
+     * Set the maximum number of relying parties whose pairwise digest states are kept in memory.
+     * 
+     * @param maxRelyingParties What to set (numeric).
+     */
+    public void setPairwiseMaxRelyingParties(final String maxRelyingParties) {
+        if (maxRelyingParties == null) {
+            pairwiseMaxRelyingParties = DEFAULT_PAIRWISE_MAX_RELYING_PARTIES;
+        } else {
+            pairwiseMaxRelyingParties = Integer.parseInt(maxRelyingParties);
+        }
+        refreshPlan();
+    }
+
+    /**
+     * Get the maximum number of relying parties whose pairwise digest states are kept in memory.
+     * 
+     * @return The pairwiseMaxRelyingParties.
+     */
+    public int getPairwiseMaxRelyingParties() {
+        return pairwiseMaxRelyingParties;
+    }
+
+    /**
+     * Set the digest algorithm used for calculating the authnIDs. The algorithm cannot be changed after the
+     * initialization.
+     * 
+     * @param algorithm What to set, see {@link DigestAlgorithm#forName(String)}. SHA-256 if null.
+     */
+    public void setDigestAlgorithm(final String algorithm) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        if (algorithm == null) {
+            digestAlgorithm = DEFAULT_DIGEST_ALGORITHM;
+        } else {
+            digestAlgorithm = DigestAlgorithm.forName(algorithm);
+        }
+    }
+
+    /**
+     * Get the digest algorithm used for calculating the authnIDs.
+     * 
+     * @return The digestAlgorithm.
+     */
+    public DigestAlgorithm getDigestAlgorithm() {
+        return digestAlgorithm;
+    }
+
+    /**
+     * Set the encoding of the authnIDs. The encoding cannot be changed after the initialization.
+     * 
+     * @param encoding What to set, see {@link OutputEncoding#forName(String)}. Base64 if null.
+     */
+    public void setOutputEncoding(final String encoding) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        if (encoding == null) {
+            outputEncoding = DEFAULT_OUTPUT_ENCODING;
+        } else {
+            outputEncoding = OutputEncoding.forName(encoding);
+        }
+    }
+
+    /**
+     * Get the encoding of the authnIDs.
+     * 
+     * @return The outputEncoding.
+     */
+    public OutputEncoding getOutputEncoding() {
+        return outputEncoding;
+    }
+
+    /**
+     * Set the framing of the source values in the input: legacy (the values are concatenated as such) or v2 (each
+     * value is preceded by its length in bytes).
+     * 
+     * @param framing What to set, legacy if null.
+     */
+    public void setInputFraming(final String framing) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        if (framing == null || INPUT_FRAMING_LEGACY.equalsIgnoreCase(framing)) {
+            framedInput = false;
+        } else if (INPUT_FRAMING_V2.equalsIgnoreCase(framing)) {
+            framedInput = true;
+        } else {
+            throw new IllegalArgumentException("Unsupported input framing " + framing);
+        }
+    }
+
+    /**
+     * Get the framing of the source values in the input.
+     * 
+     * @return The inputFraming, legacy or v2.
+     */
+    public String getInputFraming() {
+        return framedInput ? INPUT_FRAMING_V2 : INPUT_FRAMING_LEGACY;
+    }
+
+    /**
+     * Set whether a missing source value is marked in the v2 input (as the length -1), instead of failing the
+     * calculation. The authnID of a user then changes silently if a source attribute is no longer released, so this
+     * is only meant for sources that are optional by design. Requires the v2 input framing.
+     * 
+     * @param allow What to set (true or false), false if null.
+     */
+    public void setAllowMissingSources(final String allow) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        if (allow == null || "false".equalsIgnoreCase(allow)) {
+            allowMissingSources = false;
+        } else if ("true".equalsIgnoreCase(allow)) {
+            allowMissingSources = true;
+        } else {
+            throw new IllegalArgumentException("Unsupported allowMissingSources value " + allow);
+        }
+    }
+
+    /**
+     * Get whether a missing source value is marked in the v2 input, instead of failing the calculation.
+     * 
+     * @return The allowMissingSources.
+     */
+    public boolean isAllowMissingSources() {
+        return allowMissingSources;
+    }
+
+    /**
+     * Set the normalization of the source values before hashing, as a comma-separated list of steps: nfc or nfkc
+     * (the Unicode normalization form), trim and casefold. The normalization cannot be changed after the
+     * initialization.
+     * 
+     * @param steps What to set, null or empty if the values are hashed as such.
+     */
+    public void setInputNormalization(final String steps) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        inputNormalizer = InputNormalizer.parse(steps);
+    }
+
+    /**
+     * Get the normalization of the source values before hashing.
+     * 
+     * @return The inputNormalization, null if the values are hashed as such.
+     */
+    @Nullable
+    public InputNormalizer getInputNormalization() {
+        return inputNormalizer;
+    }
+
+    /**
+     * Set the number of leading digest bits included in the authnIDs. The value must be a multiple of 8, between 64
+     * and the digest size. The truncation cannot be changed after the initialization.
+     * 
+     * @param bits What to set (numeric), the whole digest if null.
+     */
+    public void setTruncationBits(final String bits) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        if (bits == null) {
+            truncationBits = 0;
+        } else {
+            truncationBits = Integer.parseInt(bits);
+        }
+    }
+
+    /**
+     * Get the number of leading digest bits included in the authnIDs.
+     * 
+     * @return The truncationBits, 0 if the authnIDs are not truncated.
+     */
+    public int getTruncationBits() {
+        return truncationBits;
+    }
+
+    /**
+     * Set the expected number of distinct users, used for checking the collision probability during the
+     * initialization.
+     * 
+     * @param population What to set (numeric), 10 million if null.
+     */
+    public void setExpectedPopulation(final String population) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        if (population == null) {
+            expectedPopulation = DEFAULT_EXPECTED_POPULATION;
+        } else {
+            expectedPopulation = Long.parseLong(population);
+        }
+    }
+
+    /**
+     * Get the expected number of distinct users.
+     * 
+     * @return The expectedPopulation.
+     */
+    public long getExpectedPopulation() {
+        return expectedPopulation;
+    }
+
+    /**
+     * Set the maximum accepted probability of any collision in the expected population. The initialization fails if
+     * the probability with the configured truncation exceeds it.
+     * 
+     * @param probability What to set (numeric), 1e-6 if null.
+     */
+    public void setMaxCollisionProbability(final String probability) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        if (probability == null) {
+            maxCollisionProbability = DEFAULT_MAX_COLLISION_PROBABILITY;
+        } else {
+            maxCollisionProbability = Double.parseDouble(probability);
+        }
+    }
+
+    /**
+     * Get the maximum accepted probability of any collision in the expected population.
+     * 
+     * @return The maxCollisionProbability.
+     */
+    public double getMaxCollisionProbability() {
+        return maxCollisionProbability;
+    }
+
+    /**
+     * Set the pre-salt used before the salt rotation. If either of the previous salts is set, the authnID is also
+     * calculated with the previous salts.
+     * 
+     * @param preSalt What to set, null if not rotating.
+     */
+    public void setPreviousPrefixSalt(final String preSalt) {
+        previousPrefixSalt = preSalt;
+        refreshPlan();
+    }
+
+    /**
+     * Get the pre-salt used before the salt rotation.
+     * 
+     * @return The previousPrefixSalt, null if not rotating.
+     */
+    public String getPreviousPrefixSalt() {
+        return previousPrefixSalt;
+    }
+
+    /**
+     * Set the post-salt used before the salt rotation. If either of the previous salts is set, the authnID is also
+     * calculated with the previous salts.
+     * 
+     * @param postSalt What to set, null if not rotating.
+     */
+    public void setPreviousPostfixSalt(final String postSalt) {
+        previousPostfixSalt = postSalt;
+        refreshPlan();
+    }
+
+    /**
+     * Get the post-salt used before the salt rotation.
+     * 
+     * @return The previousPostfixSalt, null if not rotating.
+     */
+    public String getPreviousPostfixSalt() {
+        return previousPostfixSalt;
+    }
+
+    /**
+     * Set the attribute id where to put the authnID calculated with the previous salts.
+     * 
+     * @param attributeName What to set, null if the previous authnID is added to the destAttributeName.
+     */
+    public void setPreviousDestAttributeName(final String attributeName) {
+        previousDestAttributeName = StringSupport.trimOrNull(attributeName);
+    }
+
+    /**
+     * Get the attribute id where to put the authnID calculated with the previous salts.
+     * 
+     * @return The previousDestAttributeName, null if the previous authnID is added to the destAttributeName.
+     */
+    public String getPreviousDestAttributeName() {
+        return previousDestAttributeName;
+    }
+
+    /**
+     * Set the pre-salt to be used together with source attributes before calculating authnID.
+     * 
+     * @param preSalt What to set.
+     */
+    public void setPrefixSalt(final String preSalt) {
+        if (preSalt == null) {
+            this.prefixSalt = "";
+        } else {
+            this.prefixSalt = preSalt;
+        }
+        refreshPlan();
+    }
+
+    /**
+     * Get the pre-salt to be used together with source attributes before calculating authnID.
+     * 
+     * @return The prefixSalt.
+     */
+    public String getPrefixSalt() {
+        return this.prefixSalt;
+    }
+
+    /**
+     * Set the post-salt to be used together with source attributes before calculating authnID.
+     * 
+     * @param postSalt What to set.
+     */
+    public void setPostfixSalt(final String postSalt) {
+        if (postSalt == null) {
+            this.postfixSalt = "";
+        } else {
+            this.postfixSalt = postSalt;
+        }
+        refreshPlan();
+    }
+
+    /**
+     * Get the post-salt to be used together with source attributes before calculating authnID.
+     * 
+     * @return The postfixSalt.
+     */
+    public String getPostfixSalt() {
+        return this.postfixSalt;
+    }
+
+    /**
+     * Set the minimum length of source attribute values (without salt).
+     * 
+     * @param minLength What to set (numeric).
+     */
+    public void setMinInputLength(final String minLength) {
+        if (minLength == null) {
+            minInputLength = DEFAULT_MINIMUM_INPUT_LENGTH;
+        } else {
+            minInputLength = Integer.parseInt(minLength);
+        }
+        refreshPlan();
+    }
+
+    /**
+     * Get the minimum length of source attribute values (without salt).
+     * 
+     * @return The minInputLength.
+     */
+    public int getMinInputLength() {
+        return this.minInputLength;
+    }
+
+    /**
+     * Get the attribute id vs value map for skipping the authnID calculation.
+     * 
+     * @return the skipCalculation.
+     */
+    public Map<String, List<String>> getSkipCalculation() {
+        return skipCalculation;
+    }
+
+    /**
+     * Set the attribute id vs value map for skipping the authnID calculation.
+     * 
+     * @param skipCalc What to set.
+     */
+    public void setSkipCalculation(String skipCalc) {
+        skipCalculation = new HashMap<String, List<String>>();
+        if (StringSupport.trimOrNull(skipCalc) == null) {
+            refreshPlan();
+            return;
+        }
+        final StringTokenizer tokenizer = new StringTokenizer(skipCalc, ",");
+        while (tokenizer.hasMoreTokens()) {
+            parseSkipCalculationPair(tokenizer.nextToken(), skipCalculation);
+        }
+        refreshPlan();
+    }
+
+    /**
+     * Parses a single 'attribute_name'='attribute_value' pair and adds it to the given map.
+     * 
+     * @param pair The pair to be parsed.
+     * @param skipCalc The attribute id vs value map where to add the pair.
+     */
+    protected void parseSkipCalculationPair(final String pair, final Map<String, List<String>> skipCalc) {
+        AuthnIdProfile.addSkipCalculationPair(pair, skipCalc);
+    }
+
+    /**
+     * Reads the 'attribute_name'='attribute_value' pairs from the skipCalculationFile, one pair per line. Empty lines
+     * and lines starting with '#' are ignored.
+     * 
+     * @return The attribute id vs value map read from the file.
+     * @throws IOException If the file cannot be read.
+     */
+    protected Map<String, List<String>> readSkipCalculationFile() throws IOException {
+        final Map<String, List<String>> skipCalc = new HashMap<>();
+        try (final BufferedReader reader = Files.newBufferedReader(Paths.get(skipCalculationFile), 
+                StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final String pair = StringSupport.trimOrNull(line);
+                if (pair != null && !pair.startsWith("#")) {
+                    parseSkipCalculationPair(pair, skipCalc);
+                }
+            }
+        }
+        log.info("Read skipCalculation values for {} attributes from {}", skipCalc.size(), skipCalculationFile);
+        return skipCalc;
+    }
+
+    /**
+     * Reads the HMAC key from the hmacKeyFile or the hmacKeyStore.
+     * 
+     * @return The HMAC key, null if neither is set.
+     * @throws IOException If the file cannot be read.
+     * @throws GeneralSecurityException If the key cannot be read from the keystore.
+     */
+    @Nullable
+    protected byte[] readHmacKey() throws IOException, GeneralSecurityException {
+        if (hmacKeyFile != null) {
+            final String encoded = new String(Files.readAllBytes(Paths.get(hmacKeyFile)), StandardCharsets.UTF_8);
+            final byte[] key = Base64.decode(encoded.trim());
+            if (key.length == 0) {
+                throw new KeyStoreException("The hmacKeyFile " + hmacKeyFile + " is empty");
+            }
+            log.info("Read the HMAC key from {}", hmacKeyFile);
+            return key;
+        }
+        if (hmacKeyStore != null) {
+            final KeyStore keyStore = KeyStore.getInstance(hmacKeyStoreType);
+            try (final InputStream stream = Files.newInputStream(Paths.get(hmacKeyStore))) {
+                keyStore.load(stream, toPassword(hmacKeyStorePassword));
+            }
+            final Key key = keyStore.getKey(hmacKeyAlias,
+                    toPassword(hmacKeyPassword != null ? hmacKeyPassword : hmacKeyStorePassword));
+            if (key == null || key.getEncoded() == null) {
+                throw new KeyStoreException("No secret key found with the alias " + hmacKeyAlias);
+            }
+            log.info("Read the HMAC key {} from {}", hmacKeyAlias, hmacKeyStore);
+            return key.getEncoded();
+        }
+        return null;
+    }
+
+    /**
+     * Converts the given password into a character array.
+     * 
+     * @param password The password, may be null.
+     * @return The password as a character array, null if the password is null.
+     */
+    @Nullable
+    private static char[] toPassword(@Nullable final String password) {
+        return password == null ? null : password.toCharArray();
+    }
+
+    /**
+     * Get the file containing additional 'attribute_name'='attribute_value' pairs for skipping the calculation.
+     * 
+     * @return The skipCalculationFile.
+     */
+    public String getSkipCalculationFile() {
+        return skipCalculationFile;
+    }
+
+    /**
+     * Set the properties file overriding the salts and the skip rules, see {@link ReloadableConfiguration}. The file
+     * is read during the initialization, and again whenever it is modified.
+     * 
+     * @param file What to set, null if the salts and the skip rules are not reloaded.
+     */
+    public void setReloadableConfigurationFile(final String file) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        reloadableConfigurationFile = StringSupport.trimOrNull(file);
+    }
+
+    /**
+     * Get the properties file overriding the salts and the skip rules.
+     * 
+     * @return The reloadableConfigurationFile, null if not set.
+     */
+    @Nullable
+    public String getReloadableConfigurationFile() {
+        return reloadableConfigurationFile;
+    }
+
+    /**
+     * Set the file containing additional 'attribute_name'='attribute_value' pairs for skipping the calculation. The
+     * file is read during the initialization.
+     * 
+     * @param file What to set.
+     */
+    public void setSkipCalculationFile(final String file) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        skipCalculationFile = StringSupport.trimOrNull(file);
+    }
+
+    /**
+     * Set the file containing the Base64-encoded HMAC key. If set, the authnIDs are HMACs calculated with the key.
+     * The file is read during the initialization.
+     * 
+     * @param file What to set.
+     */
+    public void setHmacKeyFile(final String file) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        hmacKeyFile = StringSupport.trimOrNull(file);
+    }
+
+    /**
+     * Get the file containing the Base64-encoded HMAC key.
+     * 
+     * @return The hmacKeyFile.
+     */
+    public String getHmacKeyFile() {
+        return hmacKeyFile;
+    }
+
+    /**
+     * Set the keystore containing the HMAC key. If set, the authnIDs are HMACs calculated with the key. The keystore
+     * is read during the initialization.
+     * 
+     * @param keyStore What to set.
+     */
+    public void setHmacKeyStore(final String keyStore) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        hmacKeyStore = StringSupport.trimOrNull(keyStore);
+    }
+
+    /**
+     * Get the keystore containing the HMAC key.
+     * 
+     * @return The hmacKeyStore.
+     */
+    public String getHmacKeyStore() {
+        return hmacKeyStore;
+    }
+
+    /**
+     * Set the type of the keystore containing the HMAC key.
+     * 
+     * @param type What to set, JCEKS if null.
+     */
+    public void setHmacKeyStoreType(final String type) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        hmacKeyStoreType = type == null ? DEFAULT_HMAC_KEYSTORE_TYPE : type;
+    }
+
+    /**
+     * Get the type of the keystore containing the HMAC key.
+     * 
+     * @return The hmacKeyStoreType.
+     */
+    public String getHmacKeyStoreType() {
+        return hmacKeyStoreType;
+    }
+
+    /**
+     * Set the password of the keystore containing the HMAC key.
+     * 
+     * @param password What to set.
+     */
+    public void setHmacKeyStorePassword(final String password) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        hmacKeyStorePassword = password;
+    }
+
+    /**
+     * Set the alias of the HMAC key in the keystore.
+     * 
+     * @param alias What to set.
+     */
+    public void setHmacKeyAlias(final String alias) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        hmacKeyAlias = StringSupport.trimOrNull(alias);
+    }
+
+    /**
+     * Get the alias of the HMAC key in the keystore.
+     * 
+     * @return The hmacKeyAlias.
+     */
+    public String getHmacKeyAlias() {
+        return hmacKeyAlias;
+    }
+
+    /**
+     * Set the password of the HMAC key in the keystore.
+     * 
+     * @param password What to set, the keystore password is used if null.
+     */
+    public void setHmacKeyPassword(final String password) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        hmacKeyPassword = password;
+    }
+
+    /**
+     * Set the output format of the HMACs: legacy (the Base64-encoded HMAC, as the salted digest) or tagged (the
+     * Base64-encoded HMAC preceded by the algorithm, e.g. {HMAC-SHA-256}).
+     * 
+     * @param format What to set, legacy if null.
+     */
+    public void setHmacOutputFormat(final String format) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        if (format == null) {
+            hmacOutputFormat = HMAC_OUTPUT_FORMAT_LEGACY;
+        } else if (HMAC_OUTPUT_FORMAT_LEGACY.equalsIgnoreCase(format)) {
+            hmacOutputFormat = HMAC_OUTPUT_FORMAT_LEGACY;
+        } else if (HMAC_OUTPUT_FORMAT_TAGGED.equalsIgnoreCase(format)) {
+            hmacOutputFormat = HMAC_OUTPUT_FORMAT_TAGGED;
+        } else {
+            throw new IllegalArgumentException("Unsupported HMAC output format " + format);
+        }
+    }
+
+    /**
+     * Get the output format of the HMACs.
+     * 
+     * @return The hmacOutputFormat.
+     */
+    public String getHmacOutputFormat() {
+        return hmacOutputFormat;
+    }
+
+    /**
+     * Get the attribute id to be used if calculation has been skipped.
+     * 
+     * @return The skipCalculationSrc.
+     */
+    public String getSkipCalculationSrc() {
+        return skipCalculationSrc;
+    }
+
+    /**
+     * Set the attribute id to be used if calculation has been skipped.
+     * 
+     * @param skipCalcSrc What to set.
+     */
+    public void setSkipCalculationSrc(String skipCalcSrc) {
+        this.skipCalculationSrc = skipCalcSrc;
+        refreshPlan();
+    }
+
+    /**
+     * Get the attribute id whose value selects the tenant profile.
+     * 
+     * @return The tenantAttributeName.
+     */
+    public String getTenantAttributeName() {
+        return tenantAttributeName;
+    }
+
+    /**
+     * Set the attribute id whose value selects the tenant profile.
+     * 
+     * @param attributeName What to set.
+     */
+    public void setTenantAttributeName(final String attributeName) {
+        tenantAttributeName = StringSupport.trimOrNull(attributeName);
+        refreshPlan();
+    }
+
+    /**
+     * Set whether the resolution fails if the tenant attribute is missing or it matches none of the tenant profiles,
+     * instead of calculating the authnID with the connector's own configuration.
+     * 
+     * @param require What to set (true or false), true if null.
+     */
+    public void setRequireTenant(final String require) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        if (require == null || "true".equalsIgnoreCase(require)) {
+            requireTenant = true;
+        } else if ("false".equalsIgnoreCase(require)) {
+            requireTenant = false;
+        } else {
+            throw new IllegalArgumentException("Unsupported requireTenant value " + require);
+        }
+    }
+
+    /**
+     * Get whether the resolution fails if the tenant attribute matches none of the tenant profiles.
+     * 
+     * @return The requireTenant.
+     */
+    public boolean isRequireTenant() {
+        return requireTenant;
+    }
+
+    /**
+     * Get the tenant profiles.
+     * 
+     * @return The profiles.
+     */
+    public List<AuthnIdProfile> getProfiles() {
+        return profiles;
+    }
+
+    /**
+     * Set the tenant profiles. The profile is selected by the value of the tenantAttributeName, the connector's own
+     * configuration is used if none of the profiles match.
+     * 
+     * @param tenantProfiles What to set.
+     */
+    public void setProfiles(@Nullable final List<AuthnIdProfile> tenantProfiles) {
+        profiles = tenantProfiles;
+        refreshPlan();
+    }
+
+    /**
+     * Set the maximum number of cached authnIDs. The cache is disabled if the value is not positive. The size cannot
+     * be changed after the initialization.
+     * 
+     * @param maxSize What to set (numeric).
+     */
+    public void setCacheMaxSize(final String maxSize) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        if (maxSize == null) {
+            cacheMaxSize = 0;
+        } else {
+            cacheMaxSize = Long.parseLong(maxSize);
+        }
+    }
+
+    /**
+     * Get the maximum number of cached authnIDs.
+     * 
+     * @return The cacheMaxSize, 0 if the cache is disabled.
+     */
+    public long getCacheMaxSize() {
+        return cacheMaxSize;
+    }
+
+    /**
+     * Set the time after which the cached authnIDs are evicted. The expiration cannot be changed after the
+     * initialization.
+     * 
+     * @param expiration What to set (ISO 8601 duration, for instance PT1H).
+     */
+    public void setCacheExpiration(final String expiration) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        if (expiration == null) {
+            cacheExpiration = DEFAULT_CACHE_EXPIRATION;
+        } else {
+            cacheExpiration = DOMTypeSupport.durationToLong(expiration);
+        }
+    }
+
+    /**
+     * Get the time in milliseconds after which the cached authnIDs are evicted.
+     * 
+     * @return The cacheExpiration.
+     */
+    public long getCacheExpiration() {
+        return cacheExpiration;
+    }
 
-    /** The pre-salt to be used together with source attributes before calculating authnID. */
-    private String prefixSalt;
+    /**
+     * Get the hit, miss and eviction counters of the authnID cache.
+     * 
+     * @return The cache statistics, null if the cache is disabled.
+     */
+    @Nullable
+    public CacheStats getCacheStats() {
+        return authnIdCache != null ? authnIdCache.getStats() : null;
+    }
 
-    /** The post-salt to be used together with source attributes before calculating authnID. */
-    private String postfixSalt;
+    /**
+     * Set the number of PBKDF2 iterations for deriving the authnIDs. The authnIDs are salted digests if the value is
+     * not positive.
+     * 
+     * @param iterations What to set (numeric).
+     */
+    public void setKdfIterations(final String iterations) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        kdfIterations = iterations == null ? 0 : Integer.parseInt(iterations);
+    }
 
-    /** The minimum length of source attribute values (without salt). */
-    private int minInputLength;
+    /**
+     * Get the number of PBKDF2 iterations for deriving the authnIDs.
+     * 
+     * @return The kdfIterations, 0 if the authnIDs are digests.
+     */
+    public int getKdfIterations() {
+        return kdfIterations;
+    }
 
-    /** The attribute id vs value map for skipping the authnID calculation. */
-    private Map<String, List<String>> skipCalculation;
+    /**
+     * Set the number of workers deriving the authnIDs.
+     * 
+     * @param threads What to set (numeric).
+     */
+    public void setKdfThreads(final String threads) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        kdfThreads = threads == null ? Runtime.getRuntime().availableProcessors() : Integer.parseInt(threads);
+    }
 
-    /** The attribute id to be used if calculation has been skipped. */
-    private String skipCalculationSrc;
+    /**
+     * Get the number of workers deriving the authnIDs.
+     * 
+     * @return The kdfThreads.
+     */
+    public int getKdfThreads() {
+        return kdfThreads;
+    }
 
-    @Nullable
-    @Override
-    /** {@inheritDoc} */
-    protected Map<String, IdPAttribute> doDataConnectorResolve(
-            @Nonnull final AttributeResolutionContext attributeResolutionContext,
-            @Nonnull final AttributeResolverWorkContext attributeResolverWorkContext) throws ResolutionException {
+    /**
+     * Set the number of key derivations that can wait for a worker before the further ones are rejected.
+     * 
+     * @param queueSize What to set (numeric).
+     */
+    public void setKdfQueueSize(final String queueSize) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        kdfQueueSize = queueSize == null ? DEFAULT_KDF_QUEUE_SIZE : Integer.parseInt(queueSize);
+    }
 
-        final String uid = attributeResolutionContext.getPrincipal();
-        log.debug("Calculating authnID for {}", uid);
+    /**
+     * Get the number of key derivations that can wait for a worker.
+     * 
+     * @return The kdfQueueSize.
+     */
+    public int getKdfQueueSize() {
+        return kdfQueueSize;
+    }
 
-        final Map<String, ResolvedAttributeDefinition> attributeDefinitions =
-                attributeResolverWorkContext.getResolvedIdPAttributeDefinitions();
-        if (log.isTraceEnabled()) {
-            log.trace("Listing attribute definitions ({}) from the work context", attributeDefinitions.size());
-            final Iterator<String> iterator = attributeDefinitions.keySet().iterator();
-            while (iterator.hasNext()) {
-                final String key = iterator.next();
-                log.trace("Attribute key {}, value {}", key, attributeDefinitions.get(key).getResolvedAttribute());
-            }
-        }
+    /**
+     * Set the time to wait for a key derivation before the resolution fails.
+     * 
+     * @param timeout What to set (ISO 8601 duration, for instance PT5S).
+     */
+    public void setKdfTimeout(final String timeout) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        kdfTimeout = timeout == null ? DEFAULT_KDF_TIMEOUT : DOMTypeSupport.durationToLong(timeout);
+    }
 
-        if (skipCalculation.size() > 0) {
-            log.debug("Checking whether request meets skipCalculation configuration");
-            final Iterator<String> iterator = getSkipCalculation().keySet().iterator();
-            while (iterator.hasNext()) {
-                final String key = iterator.next();
-                log.trace("Inspecting skipCalculation setting {}", key);
-                if (attributeDefinitions.get(key) != null) {
-                    log.trace("Attribute {} found from the context", key);
-                    if (sourceExistsInAnother(getSkipCalculation().get(key), attributeDefinitions.get(key)
-                            .getResolvedAttribute().getValues())) {
-                        log.debug("skipCalculation configuration matched");
-                        // First source attribute is used
-                        return buildResponse(collectSingleAttributeValue(attributeDefinitions, 
-                                srcAttributeNames.get(0)));
-                    }
-                } else {
-                    log.trace("Attribute {} was not found in the context", key);
-                }
-            }
-        } else {
-            log.debug("No skipCalculation attribute defined");
-        }
+    /**
+     * Get the time in milliseconds to wait for a key derivation.
+     * 
+     * @return The kdfTimeout.
+     */
+    public long getKdfTimeout() {
+        return kdfTimeout;
+    }
 
-        final String preSaltInput = collectAuthnIdInput(attributeDefinitions);
-        if (preSaltInput.length() < minInputLength) {
-            log.error("The input for the authn ID calculation is too simple (length = {}), cannot continue",
-                    preSaltInput.length());
-            return new HashMap<String, IdPAttribute>();
-        }
+    /**
+     * Set the file containing the precomputed authnIDs keyed by the principal name, built with
+     * {@link AuthnIdTableBuilder}.
+     * 
+     * @param file What to set, null if the authnIDs are always calculated.
+     */
+    public void setLookupTableFile(final String file) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        lookupTableFile = file;
+    }
 
-        final String authnIdInput = saltAuthnIdInput(preSaltInput);
+    /**
+     * Get the file containing the precomputed authnIDs keyed by the principal name.
+     * 
+     * @return The lookupTableFile, null if not set.
+     */
+    @Nullable
+    public String getLookupTableFile() {
+        return lookupTableFile;
+    }
 
-        final String authnId = calculateAuthnId(authnIdInput);
-        if (authnId != null) {
-            log.info("Authn ID successfully calculated and included in the attribute {}", destAttributeName);
-            return buildResponse(authnId);
-        } else {
-            log.error("Authn ID calculation failed.");
-            return new HashMap<String, IdPAttribute>();
-        }
+    /**
+     * Set the interval for checking the lookup table file for modifications.
+     * 
+     * @param interval What to set (ISO 8601 duration, for instance PT1M).
+     */
+    public void setLookupTableCheckInterval(final String interval) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        lookupTableCheckInterval =
+                interval == null ? DEFAULT_LOOKUP_TABLE_CHECK_INTERVAL : DOMTypeSupport.durationToLong(interval);
     }
 
     /**
-     * Builds a response map with the given contents. The attribute id will be taken from the global destAttributeName
-     * variable.
+     * Get the interval in milliseconds for checking the lookup table file for modifications.
      * 
-     * @param value The value for destAttributeName.
-     * @return The response in a Map.
+     * @return The lookupTableCheckInterval.
      */
-    protected Map<String, IdPAttribute> buildResponse(final String value) {
-        final Map<String, IdPAttribute> attributes = new HashMap<>();
-        final IdPAttribute idpAttribute = new IdPAttribute(getDestAttributeName());
-        final List<IdPAttributeValue<String>> values = new ArrayList<>();
-        values.add(new StringAttributeValue(value));
-        idpAttribute.setValues(values);
-        attributes.put(getDestAttributeName(), idpAttribute);
-        return attributes;
+    public long getLookupTableCheckInterval() {
+        return lookupTableCheckInterval;
     }
 
     /**
-     * Helper method for checking whether any values in the source list exist in the target list (using
-     * getDisplayValue).
+     * Set the directory for the journal of the issued authnIDs, see {@link AuthnIdJournal}.
      * 
-     * @param source The source list.
-     * @param targetValues The target list.
-     * @return True if exists, false otherwise.
+     * @param directory What to set, null if the issued authnIDs are not journaled.
      */
-    protected boolean sourceExistsInAnother(final List<String> source, final List<IdPAttributeValue<?>> targetValues) {
-        for (int i = 0; i < source.size(); i++) {
-            for (int j = 0; j < targetValues.size(); j++) {
-                log.trace("Comparing {} to {}", source.get(i), targetValues.get(j).getDisplayValue());
-                final Object targetValue = targetValues.get(j).getValue();
-                if (targetValue instanceof String && source.get(i).equals((String) targetValue)) {
-                    log.debug("Strings are corresponding, returning true");
-                    return true;
-                }
-            }
-        }
-        return false;
+    public void setJournalDirectory(final String directory) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        journalDirectory = directory;
     }
 
     /**
-     * Collects the attribute values corresponding to the source attribute configuration. The attribute values are
-     * concatenated to the resulting string in the same order as they are included in the source array. If any value is
-     * not found, it'll be warned in the logs. Only single value attributes are accepted.
+     * Get the directory for the journal of the issued authnIDs.
      * 
-     * @param attributeDefinitions the resolved attribute definitions.
-     * @return The concatenated attribute values.
+     * @return The journalDirectory, null if not set.
      */
-    protected String collectAuthnIdInput(@Nonnull final Map<String, ResolvedAttributeDefinition> attributeDefinitions) {
-        String authnIdInput = "";
-        for (int i = 0; i < srcAttributeNames.size(); i++) {
-            final String srcAttributeName = srcAttributeNames.get(i);
-            authnIdInput = authnIdInput.concat(collectSingleAttributeValue(attributeDefinitions, srcAttributeName));
-        }
-        return authnIdInput;
+    @Nullable
+    public String getJournalDirectory() {
+        return journalDirectory;
     }
 
     /**
-     * Collects a single {@link String} value from the list of {@link IdPAttributeValue}s.
+     * Set the size of the journal segments.
      * 
-     * @param values The list of values.
-     * @return The value if single was found, null otherwise.
+     * @param size What to set (numeric, in bytes).
      */
-    protected String collectSingleAttributeValue(@Nonnull final List<IdPAttributeValue<?>> values) {
-        if (values.size() == 0 || values.size() > 1) {
-            log.debug("No single value found for the attribute, the set size was {}", values.size());
-            return null;
-        }
-        return (String) values.get(0).getValue();
+    public void setJournalSegmentSize(final String size) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        journalSegmentSize = size == null ? DEFAULT_JOURNAL_SEGMENT_SIZE : Integer.parseInt(size);
     }
 
     /**
-     * Collects a single {@link String} value from the map of attributes with given parameters.
+     * Get the size of the journal segments in bytes.
      * 
-     * @param attributeDefinitions The map of attributes.
-     * @param attributeName The attribute id whose value is to be collected.
-     * @return The value if single was found, null otherwise.
+     * @return The journalSegmentSize.
      */
-    protected String collectSingleAttributeValue(
-            @Nonnull final Map<String, ResolvedAttributeDefinition> attributeDefinitions,
-            @Nonnull final String attributeName) {
-        final ResolvedAttributeDefinition definition = attributeDefinitions.get(attributeName);
-        if (definition == null || definition.getResolvedAttribute() == null) {
-            log.warn("Could not find an attribute {} from the context", attributeName);
-            return null;
-        } else {
-            return collectSingleAttributeValue(definition.getResolvedAttribute().getValues());
-        }
+    public int getJournalSegmentSize() {
+        return journalSegmentSize;
     }
 
     /**
-     * Adds the prefix- and postfix-salts to the given string.
+     * Set the maximum total size of the journal segments. The oldest segments are deleted when it's exceeded.
      * 
-     * @param preSaltInput the input to be salted.
-     * @return The salted result.
+     * @param size What to set (numeric, in bytes).
      */
-    protected String saltAuthnIdInput(@NotEmpty final String preSaltInput) {
-        return prefixSalt + preSaltInput + postfixSalt;
+    public void setJournalMaxSize(final String size) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        journalMaxSize = size == null ? DEFAULT_JOURNAL_MAX_SIZE : Long.parseLong(size);
     }
 
     /**
-     * Calculates the authn ID with the given input. SHA-256 is used as a digest algorithm and UTF-8 as character
-     * encoding.
+     * Get the maximum total size of the journal segments in bytes.
      * 
-     * @param input The input for the calculation.
-     * @return The calculated authn ID.
+     * @return The journalMaxSize.
      */
-    protected String calculateAuthnId(@Nonnull @NotEmpty final String input) {
-        MessageDigest md;
-        try {
-            md = MessageDigest.getInstance("SHA-256");
-            md.update(input.getBytes("UTF-8"));
-        } catch (NoSuchAlgorithmException e) {
-            log.error("Could not use the configured digest algorithm", e);
-            return null;
-        } catch (UnsupportedEncodingException e) {
-            log.error("Could not encode the input for the digest algorithm", e);
-            return null;
-        }
-        byte[] digest = md.digest();
-        return new String(Base64.encode(digest));
+    public long getJournalMaxSize() {
+        return journalMaxSize;
     }
 
     /**
-     * Set the list of source attribute ids.
+     * Set the interval for forcing the journal entries to the disk.
      * 
-     * @param attributeNames What to set in comma-separated list.
+     * @param interval What to set (ISO 8601 duration, for instance PT1S).
      */
-    public void setSrcAttributeNames(@Nonnull final String attributeNames) {
-        log.debug("Converting string {} to the array", attributeNames);
-        srcAttributeNames =
-                StringSupport.stringToList(
-                        Constraint.isNotEmpty(attributeNames, "The srcAttributeNames configuration cannot be empty!"),
-                        ",");
+    public void setJournalCommitInterval(final String interval) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        journalCommitInterval =
+                interval == null ? DEFAULT_JOURNAL_COMMIT_INTERVAL : DOMTypeSupport.durationToLong(interval);
     }
 
     /**
-     * Get the list of source attribute ids.
+     * Get the interval in milliseconds for forcing the journal entries to the disk.
      * 
-     * @return The srcAttributeNames.
+     * @return The journalCommitInterval.
      */
-    public List<String> getSrcAttributeNames() {
-        return this.srcAttributeNames;
+    public long getJournalCommitInterval() {
+        return journalCommitInterval;
     }
 
     /**
-     * Set the attribute id where to put the value of calculated authnID.
+     * Get the journal of the issued authnIDs.
      * 
-     * @param attributeName What to set.
+     * @return The journal, null if not used or the connector has not been initialized.
      */
-    public void setDestAttributeName(@Nonnull final String attributeName) {
-        this.destAttributeName =
-                Constraint.isNotEmpty(attributeName, "The destAttributeName configuration may not be empty!");
+    @Nullable
+    protected AuthnIdJournal getJournal() {
+        return journal;
     }
 
     /**
-     * Get the attribute id where to put the value of calculated authnID.
+     * Set the storage service for reusing the calculated authnIDs within an IdP session.
      * 
-     * @return The destAtributeName.
+     * @param storage What to set, null if the authnIDs are calculated in every resolution.
      */
-    public String getDestAttributeName() {
-        return this.destAttributeName;
+    public void setStorageService(@Nullable final StorageService storage) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        storageService = storage;
     }
 
     /**
-     * Set the pre-salt to be used together with source attributes before calculating authnID.
+     * Get the storage service for reusing the calculated authnIDs within an IdP session.
      * 
-     * @param preSalt What to set.
+     * @return The storageService, null if not set.
      */
-    public void setPrefixSalt(final String preSalt) {
-        if (preSalt == null) {
-            this.prefixSalt = "";
-        } else {
-            this.prefixSalt = preSalt;
-        }
+    @Nullable
+    public StorageService getStorageService() {
+        return storageService;
     }
 
     /**
-     * Get the pre-salt to be used together with source attributes before calculating authnID.
+     * Set the lifetime of the authnIDs in the session storage after the last activity of the IdP session, normally
+     * the inactivity timeout of the IdP sessions (idp.session.timeout).
      * 
-     * @return The prefixSalt.
+     * @param lifetime What to set (ISO 8601 duration, for instance PT1H).
      */
-    public String getPrefixSalt() {
-        return this.prefixSalt;
+    public void setSessionLifetime(final String lifetime) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        sessionLifetime = lifetime == null ? DEFAULT_SESSION_LIFETIME : DOMTypeSupport.durationToLong(lifetime);
     }
 
     /**
-     * Set the post-salt to be used together with source attributes before calculating authnID.
+     * Get the lifetime of the authnIDs in the session storage after the last activity of the session in milliseconds.
      * 
-     * @param postSalt What to set.
+     * @return The sessionLifetime.
      */
-    public void setPostfixSalt(final String postSalt) {
-        if (postSalt == null) {
-            this.postfixSalt = "";
-        } else {
-            this.postfixSalt = postSalt;
-        }
+    public long getSessionLifetime() {
+        return sessionLifetime;
     }
 
     /**
-     * Get the post-salt to be used together with source attributes before calculating authnID.
+     * Set the strategy for looking up the IdP session id from the attribute resolution context.
      * 
-     * @return The postfixSalt.
+     * @param strategy What to set.
      */
-    public String getPostfixSalt() {
-        return this.postfixSalt;
+    public void setSessionIdLookupStrategy(@Nonnull final Function<AttributeResolutionContext, String> strategy) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        sessionIdLookupStrategy = Constraint.isNotNull(strategy, "The session id lookup strategy cannot be null!");
     }
 
     /**
-     * Set the minimum length of source attribute values (without salt).
+     * Set the strategy for looking up the last activity instant of the IdP session (in milliseconds) from the
+     * attribute resolution context. The current time is used if the strategy returns null.
      * 
-     * @param minLength What to set (numeric).
+     * @param strategy What to set.
      */
-    public void setMinInputLength(final String minLength) {
-        if (minLength == null) {
-            minInputLength = DEFAULT_MINIMUM_INPUT_LENGTH;
-        } else {
-            minInputLength = Integer.parseInt(minLength);
-        }
+    public void setSessionActivityLookupStrategy(@Nonnull final Function<AttributeResolutionContext, Long> strategy) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        sessionActivityLookupStrategy =
+                Constraint.isNotNull(strategy, "The session activity lookup strategy cannot be null!");
     }
 
     /**
-     * Get the minimum length of source attribute values (without salt).
+     * Set the interval for summarizing the recurring problems, such as missing source attributes, in the logs.
      * 
-     * @return The minInputLength.
+     * @param interval What to set (ISO 8601 duration, for instance PT5M).
      */
-    public int getMinInputLength() {
-        return this.minInputLength;
+    public void setProblemLogInterval(final String interval) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        problemLog = new AggregatingProblemLog(log,
+                interval == null ? DEFAULT_PROBLEM_LOG_INTERVAL : DOMTypeSupport.durationToLong(interval));
     }
 
     /**
-     * Get the attribute id vs value map for skipping the authnID calculation.
+     * Get the interval in milliseconds for summarizing the recurring problems in the logs.
      * 
-     * @return the skipCalculation.
+     * @return The problemLogInterval.
      */
-    public Map<String, List<String>> getSkipCalculation() {
-        return skipCalculation;
+    public long getProblemLogInterval() {
+        return problemLog.getInterval();
     }
 
     /**
-     * Set the attribute id vs value map for skipping the authnID calculation.
+     * Get the log aggregating the recurring problems.
      * 
-     * @param skipCalc What to set.
+     * @return The problem log.
      */
-    public void setSkipCalculation(String skipCalc) {
-        skipCalculation = new HashMap<String, List<String>>();
-        if (StringSupport.trimOrNull(skipCalc) == null) {
-            return;
-        }
-        final StringTokenizer tokenizer = new StringTokenizer(skipCalc, ",");
-        while (tokenizer.hasMoreTokens()) {
-            final String pair = tokenizer.nextToken();
-            log.debug("Parsing the skipCalculation token {}", pair);
-            final StringTokenizer pairTokenizer = new StringTokenizer(pair, "=");
-            if (pairTokenizer.countTokens() < 2) {
-                log.warn("Could not parse skipCalculation token {}", pair);
-            } else {
-                final String attributeName = pairTokenizer.nextToken();
-                String attributeValue = "";
-                while (pairTokenizer.hasMoreTokens()) {
-                    attributeValue = attributeValue.concat(pairTokenizer.nextToken());
-                }
-                if (skipCalculation.get(attributeName) != null) {
-                    log.debug("Adding the value {} to the existing entry {}", attributeValue, attributeName);
-                    skipCalculation.get(attributeName).add(attributeValue);
-                } else {
-                    log.debug("Creating a new entry {} with value {}", attributeName, attributeValue);
-                    final List<String> newValue = new ArrayList<String>();
-                    newValue.add(attributeValue);
-                    skipCalculation.put(attributeName, newValue);
-                }
-            }
-        }
+    @Nonnull
+    protected AggregatingProblemLog getProblemLog() {
+        return problemLog;
     }
 
     /**
-     * Get the attribute id to be used if calculation has been skipped.
+     * Set the registry where to publish the metrics of this connector.
      * 
-     * @return The skipCalculationSrc.
+     * @param registry What to set.
      */
-    public String getSkipCalculationSrc() {
-        return skipCalculationSrc;
+    public void setMetricRegistry(@Nullable final MetricRegistry registry) {
+        ComponentSupport.ifInitializedThrowUnmodifiabledComponentException(this);
+        metricRegistry = registry;
     }
 
     /**
-     * Set the attribute id to be used if calculation has been skipped.
+     * Get the registry where the metrics of this connector are published.
      * 
-     * @param skipCalcSrc What to set.
+     * @return The metricRegistry, null if not set.
      */
-    public void setSkipCalculationSrc(String skipCalcSrc) {
-        this.skipCalculationSrc = skipCalcSrc;
+    @Nullable
+    public MetricRegistry getMetricRegistry() {
+        return metricRegistry;
+    }
+
+    /**
+     * Get the metrics of this connector.
+     * 
+     * @return The metrics, null if the connector has not been initialized.
+     */
+    @Nullable
+    public AuthnIdMetrics getMetrics() {
+        return metrics;
     }
-}
\ No newline at end of file
+}
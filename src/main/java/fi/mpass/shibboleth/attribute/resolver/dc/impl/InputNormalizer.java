@@ -0,0 +1,258 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.text.Normalizer;
+import java.util.Locale;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.utilities.java.support.primitive.StringSupport;
+
+/**
+ * Normalizes the source attribute values before they are hashed, so that the same value gets the same authnID
+ * regardless of the Unicode form and case used by the upstream IdP. The supported steps are the Unicode normalization
+ * (NFC or NFKC), trimming the leading and trailing whitespace and case folding.
+ * 
+ * <p>Pure ASCII values, the common case, are invariant under both the normalization forms, so they are trimmed and
+ * folded without {@link Normalizer}. The ASCII check is a branch-free reduction over the characters, which the JIT can
+ * vectorize, and the value is returned as such if no step changes it.</p>
+ */
+public final class InputNormalizer {
+
+    /** The step for the canonical composition (NFC). */
+    public static final String STEP_NFC = "nfc";
+
+    /** The step for the compatibility composition (NFKC). */
+    public static final String STEP_NFKC = "nfkc";
+
+    /** The step for trimming the leading and trailing whitespace. */
+    public static final String STEP_TRIM = "trim";
+
+    /** The step for case folding. */
+    public static final String STEP_CASE_FOLD = "casefold";
+
+    /** The mask for the bits that are set only in the non-ASCII characters. */
+    private static final int NON_ASCII_MASK = 0xff80;
+
+    /** The Unicode normalization form, null if the values are not normalized. */
+    private final Normalizer.Form form;
+
+    /** Whether the values are trimmed. */
+    private final boolean trim;
+
+    /** Whether the values are case folded. */
+    private final boolean caseFold;
+
+    /**
+     * Constructor.
+     *
+     * @param normalizationForm The Unicode normalization form, null if the values are not normalized.
+     * @param trimValues Whether the values are trimmed.
+     * @param caseFoldValues Whether the values are case folded.
+     */
+    public InputNormalizer(@Nullable final Normalizer.Form normalizationForm, final boolean trimValues,
+            final boolean caseFoldValues) {
+        form = normalizationForm;
+        trim = trimValues;
+        caseFold = caseFoldValues;
+    }
+
+    /**
+     * Parses the comma-separated list of normalization steps. The steps are always applied in the same order:
+     * normalization, trimming and case folding.
+     *
+     * @param steps The comma-separated steps: nfc or nfkc, trim and casefold.
+     * @return The normalizer, null if no steps were given.
+     */
+    @Nullable
+    public static InputNormalizer parse(@Nullable final String steps) {
+        Normalizer.Form normalizationForm = null;
+        boolean trimValues = false;
+        boolean caseFoldValues = false;
+        boolean empty = true;
+        if (steps != null) {
+            for (final String token : steps.split(",")) {
+                final String step = StringSupport.trimOrNull(token);
+                if (step == null) {
+                    continue;
+                }
+                empty = false;
+                if (STEP_NFC.equalsIgnoreCase(step) || STEP_NFKC.equalsIgnoreCase(step)) {
+                    if (normalizationForm != null) {
+                        throw new IllegalArgumentException("Only one normalization form can be used: " + steps);
+                    }
+                    normalizationForm = STEP_NFC.equalsIgnoreCase(step) ? Normalizer.Form.NFC : Normalizer.Form.NFKC;
+                } else if (STEP_TRIM.equalsIgnoreCase(step)) {
+                    trimValues = true;
+                } else if (STEP_CASE_FOLD.equalsIgnoreCase(step)) {
+                    caseFoldValues = true;
+                } else {
+                    throw new IllegalArgumentException("Unsupported normalization step " + step);
+                }
+            }
+        }
+        return empty ? null : new InputNormalizer(normalizationForm, trimValues, caseFoldValues);
+    }
+
+    /**
+     * Get the Unicode normalization form.
+     *
+     * @return The normalization form, null if the values are not normalized.
+     */
+    @Nullable
+    public Normalizer.Form getForm() {
+        return form;
+    }
+
+    /**
+     * Checks whether the values are trimmed.
+     *
+     * @return True if the values are trimmed, false otherwise.
+     */
+    public boolean isTrim() {
+        return trim;
+    }
+
+    /**
+     * Checks whether the values are case folded.
+     *
+     * @return True if the values are case folded, false otherwise.
+     */
+    public boolean isCaseFold() {
+        return caseFold;
+    }
+
+    /**
+     * Normalizes the given value.
+     *
+     * @param value The value to be normalized.
+     * @return The normalized value, null if the value was null.
+     */
+    @Nullable
+    public String normalize(@Nullable final String value) {
+        if (value == null) {
+            return null;
+        }
+        if (isAscii(value)) {
+            return normalizeAscii(value);
+        }
+        String result = form == null ? value : Normalizer.normalize(value, form);
+        if (trim) {
+            result = trim(result);
+        }
+        if (caseFold) {
+            final String folded = result.toUpperCase(Locale.ROOT).toLowerCase(Locale.ROOT);
+            if (form != null && !folded.equals(result)) {
+                result = Normalizer.normalize(folded, form);
+            } else {
+                result = folded;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Trims and folds the given ASCII value.
+     *
+     * @param value The value containing only ASCII characters.
+     * @return The normalized value, the same instance if nothing was changed.
+     */
+    @Nonnull
+    private String normalizeAscii(@Nonnull final String value) {
+        int start = 0;
+        int end = value.length();
+        if (trim) {
+            while (start < end && value.charAt(start) <= ' ') {
+                start++;
+            }
+            while (end > start && value.charAt(end - 1) <= ' ') {
+                end--;
+            }
+        }
+        if (caseFold) {
+            for (int i = start; i < end; i++) {
+                final char c = value.charAt(i);
+                if (c >= 'A' && c <= 'Z') {
+                    final char[] chars = new char[end - start];
+                    value.getChars(start, end, chars, 0);
+                    for (int j = i - start; j < chars.length; j++) {
+                        if (chars[j] >= 'A' && chars[j] <= 'Z') {
+                            chars[j] += 'a' - 'A';
+                        }
+                    }
+                    return new String(chars);
+                }
+            }
+        }
+        return start == 0 && end == value.length() ? value : value.substring(start, end);
+    }
+
+    /**
+     * Trims the leading and trailing whitespace, including the non-ASCII whitespace.
+     *
+     * @param value The value to be trimmed.
+     * @return The trimmed value.
+     */
+    @Nonnull
+    private static String trim(@Nonnull final String value) {
+        int start = 0;
+        int end = value.length();
+        while (start < end && isWhitespace(value.charAt(start))) {
+            start++;
+        }
+        while (end > start && isWhitespace(value.charAt(end - 1))) {
+            end--;
+        }
+        return value.substring(start, end);
+    }
+
+    /**
+     * Checks whether the given character is whitespace, including the no-break spaces.
+     *
+     * @param c The character.
+     * @return True if the character is whitespace, false otherwise.
+     */
+    private static boolean isWhitespace(final char c) {
+        return c <= ' ' || Character.isWhitespace(c) || Character.isSpaceChar(c);
+    }
+
+    /**
+     * Checks whether the given value contains only ASCII characters. The characters are combined without branches,
+     * so that the loop can be vectorized.
+     *
+     * @param value The value to be checked.
+     * @return True if the value contains only ASCII characters, false otherwise.
+     */
+    static boolean isAscii(@Nonnull final String value) {
+        int bits = 0;
+        final int length = value.length();
+        for (int i = 0; i < length; i++) {
+            bits |= value.charAt(i);
+        }
+        return (bits & NON_ASCII_MASK) == 0;
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import javax.annotation.Nonnull;
+
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * The encodings of the calculated digests. The encoders use lookup tables and write directly into the given character
+ * buffer, so that the only allocation per authnID is the resulting string.
+ */
+public enum OutputEncoding {
+
+    /** Base64 (RFC 4648, with padding), the default and legacy encoding. */
+    BASE64("base64") {
+        /** {@inheritDoc} */
+        @Override
+        public int getEncodedLength(final int length) {
+            return (length + 2) / 3 * 4;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int encode(@Nonnull final byte[] bytes, final int length, @Nonnull final char[] chars,
+                final int offset) {
+            return encodeBase64(BASE64_ALPHABET, true, bytes, length, chars, offset);
+        }
+    },
+
+    /** Base64 with the URL and filename safe alphabet (RFC 4648, section 5), without padding. */
+    BASE64URL("base64url") {
+        /** {@inheritDoc} */
+        @Override
+        public int getEncodedLength(final int length) {
+            return (length * 8 + 5) / 6;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int encode(@Nonnull final byte[] bytes, final int length, @Nonnull final char[] chars,
+                final int offset) {
+            return encodeBase64(BASE64URL_ALPHABET, false, bytes, length, chars, offset);
+        }
+    },
+
+    /** Base32 (RFC 4648, upper case), without padding. Suitable for case-insensitive consumers. */
+    BASE32("base32") {
+        /** {@inheritDoc} */
+        @Override
+        public int getEncodedLength(final int length) {
+            return (length * 8 + 4) / 5;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int encode(@Nonnull final byte[] bytes, final int length, @Nonnull final char[] chars,
+                final int offset) {
+            int position = offset;
+            int i = 0;
+            for (; i + 4 < length; i += 5) {
+                final long block = (bytes[i] & 0xffL) << 32 | (bytes[i + 1] & 0xffL) << 24
+                        | (bytes[i + 2] & 0xffL) << 16 | (bytes[i + 3] & 0xffL) << 8 | (bytes[i + 4] & 0xffL);
+                for (int shift = 35; shift >= 0; shift -= 5) {
+                    chars[position++] = BASE32_ALPHABET[(int) (block >>> shift) & 0x1f];
+                }
+            }
+            final int remaining = length - i;
+            if (remaining > 0) {
+                long block = 0;
+                for (int j = 0; j < remaining; j++) {
+                    block = block << 8 | (bytes[i + j] & 0xffL);
+                }
+                final int bits = remaining * 8;
+                block <<= (5 - bits % 5) % 5;
+                for (int shift = (bits + 4) / 5 * 5 - 5; shift >= 0; shift -= 5) {
+                    chars[position++] = BASE32_ALPHABET[(int) (block >>> shift) & 0x1f];
+                }
+            }
+            return position - offset;
+        }
+    },
+
+    /** Hexadecimal, lower case. */
+    HEX("hex") {
+        /** {@inheritDoc} */
+        @Override
+        public int getEncodedLength(final int length) {
+            return length * 2;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int encode(@Nonnull final byte[] bytes, final int length, @Nonnull final char[] chars,
+                final int offset) {
+            int position = offset;
+            for (int i = 0; i < length; i++) {
+                final int pair = (bytes[i] & 0xff) << 1;
+                chars[position++] = HEX_PAIRS[pair];
+                chars[position++] = HEX_PAIRS[pair + 1];
+            }
+            return position - offset;
+        }
+    };
+
+    /** The Base64 alphabet. */
+    private static final char[] BASE64_ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    /** The URL and filename safe Base64 alphabet. */
+    private static final char[] BASE64URL_ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+
+    /** The Base32 alphabet. */
+    private static final char[] BASE32_ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZ234567".toCharArray();
+
+    /** The two hexadecimal digits of every byte value. */
+    private static final char[] HEX_PAIRS = new char[512];
+
+    static {
+        final char[] digits = "0123456789abcdef".toCharArray();
+        for (int i = 0; i < 256; i++) {
+            HEX_PAIRS[i << 1] = digits[i >>> 4];
+            HEX_PAIRS[(i << 1) + 1] = digits[i & 0x0f];
+        }
+    }
+
+    /** The name of the encoding used in the configuration. */
+    private final String encodingName;
+
+    /**
+     * Constructor.
+     *
+     * @param name The name of the encoding used in the configuration.
+     */
+    private OutputEncoding(@Nonnull final String name) {
+        encodingName = name;
+    }
+
+    /**
+     * Get the name of the encoding used in the configuration.
+     *
+     * @return The encodingName.
+     */
+    @Nonnull
+    public String getEncodingName() {
+        return encodingName;
+    }
+
+    /**
+     * Get the number of characters needed for encoding the given number of bytes.
+     *
+     * @param length The number of bytes.
+     * @return The number of characters.
+     */
+    public abstract int getEncodedLength(int length);
+
+    /**
+     * Encodes the given bytes into the given character buffer.
+     *
+     * @param bytes The bytes to be encoded.
+     * @param length The number of bytes to be encoded.
+     * @param chars The target buffer, at least <code>offset + getEncodedLength(length)</code> characters long.
+     * @param offset The position of the first character to be written.
+     * @return The number of characters written.
+     */
+    public abstract int encode(@Nonnull byte[] bytes, int length, @Nonnull char[] chars, int offset);
+
+    /**
+     * Finds the encoding by its name, ignoring the case.
+     *
+     * @param name The name of the encoding, see {@link #getEncodingName()}.
+     * @return The encoding with the given name.
+     * @throws IllegalArgumentException If the encoding is not supported.
+     */
+    @Nonnull
+    public static OutputEncoding forName(@Nonnull final String name) {
+        Constraint.isNotNull(name, "The encoding name cannot be null!");
+        for (final OutputEncoding encoding : values()) {
+            if (encoding.getEncodingName().equalsIgnoreCase(name)) {
+                return encoding;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported output encoding " + name);
+    }
+
+    /**
+     * Encodes the given bytes with Base64 into the given character buffer.
+     *
+     * @param alphabet The Base64 alphabet.
+     * @param padding Whether the output is padded.
+     * @param bytes The bytes to be encoded.
+     * @param length The number of bytes to be encoded.
+     * @param chars The target buffer.
+     * @param offset The position of the first character to be written.
+     * @return The number of characters written.
+     */
+    private static int encodeBase64(@Nonnull final char[] alphabet, final boolean padding,
+            @Nonnull final byte[] bytes, final int length, @Nonnull final char[] chars, final int offset) {
+        int position = offset;
+        int i = 0;
+        for (; i + 2 < length; i += 3) {
+            final int block = (bytes[i] & 0xff) << 16 | (bytes[i + 1] & 0xff) << 8 | (bytes[i + 2] & 0xff);
+            chars[position++] = alphabet[block >>> 18];
+            chars[position++] = alphabet[(block >>> 12) & 0x3f];
+            chars[position++] = alphabet[(block >>> 6) & 0x3f];
+            chars[position++] = alphabet[block & 0x3f];
+        }
+        final int remaining = length - i;
+        if (remaining > 0) {
+            final int block = (bytes[i] & 0xff) << 16 | (remaining == 2 ? (bytes[i + 1] & 0xff) << 8 : 0);
+            chars[position++] = alphabet[block >>> 18];
+            chars[position++] = alphabet[(block >>> 12) & 0x3f];
+            if (remaining == 2) {
+                chars[position++] = alphabet[(block >>> 6) & 0x3f];
+            } else if (padding) {
+                chars[position++] = '=';
+            }
+            if (padding) {
+                chars[position++] = '=';
+            }
+        }
+        return position - offset;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nonnull;
+
+import net.shibboleth.utilities.java.support.annotation.constraint.NotEmpty;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.util.Memoable;
+
+/**
+ * The digest states primed for the relying parties. A state contains the given base state followed by the length of
+ * the UTF-8 encoded relying party id (4 bytes, big endian) and the id itself, so the relying party id is hashed only
+ * once. The length prefix keeps the id apart from the source attribute values, whatever characters they contain.
+ * The states are kept in a concurrent map, which is bounded: the states for the relying parties exceeding the
+ * maximum are calculated on every request.
+ */
+public class PairwiseDigestStates {
+
+    /** The pool whose engines are used for the calculation. */
+    private final DigestEnginePool pool;
+
+    /** The state on which the relying party states are based. */
+    private final Memoable baseState;
+
+    /** The maximum number of states kept in the map. */
+    private final int maxSize;
+
+    /** The states primed for the relying parties, keyed by the relying party id. */
+    private final ConcurrentMap<String, Memoable> states;
+
+    /**
+     * Constructor.
+     *
+     * @param digestPool The pool whose engines are used for the calculation.
+     * @param state The state on which the relying party states are based, copied from the pool. It must not be
+     *            modified after the construction.
+     * @param maximumSize The maximum number of states kept in memory.
+     */
+    public PairwiseDigestStates(@Nonnull final DigestEnginePool digestPool, @Nonnull final Memoable state,
+            final int maximumSize) {
+        pool = Constraint.isNotNull(digestPool, "The digest pool cannot be null!");
+        baseState = Constraint.isNotNull(state, "The base state cannot be null!");
+        maxSize = maximumSize;
+        states = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Borrows the digest engine of the current thread, primed for the given relying party.
+     *
+     * @param relyingPartyId The relying party id.
+     * @return The digest engine.
+     */
+    @Nonnull
+    public Digest borrow(@Nonnull @NotEmpty final String relyingPartyId) {
+        Memoable state = states.get(relyingPartyId);
+        if (state == null) {
+            state = prime(relyingPartyId);
+            if (states.size() < maxSize) {
+                final Memoable existing = states.putIfAbsent(relyingPartyId, state);
+                if (existing != null) {
+                    state = existing;
+                }
+            }
+        }
+        return pool.borrow(state);
+    }
+
+    /**
+     * Get the number of states kept in memory.
+     *
+     * @return The number of states.
+     */
+    public int size() {
+        return states.size();
+    }
+
+    /**
+     * Primes a new state for the given relying party.
+     *
+     * @param relyingPartyId The relying party id.
+     * @return The primed state.
+     */
+    private Memoable prime(@Nonnull final String relyingPartyId) {
+        final Digest engine = (Digest) baseState.copy();
+        final byte[] id = relyingPartyId.getBytes(StandardCharsets.UTF_8);
+        engine.update((byte) (id.length >>> 24));
+        engine.update((byte) (id.length >>> 16));
+        engine.update((byte) (id.length >>> 8));
+        engine.update((byte) id.length);
+        engine.update(id, 0, id.length);
+        return (Memoable) engine;
+    }
+}
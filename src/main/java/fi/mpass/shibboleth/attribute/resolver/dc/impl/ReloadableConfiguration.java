@@ -0,0 +1,183 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.StringTokenizer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * An immutable snapshot of the salts and the skip rules read from a properties file, overriding the ones configured
+ * for the connector. The file may contain the keys {@link #PREFIX_SALT}, {@link #POSTFIX_SALT},
+ * {@link #PREVIOUS_PREFIX_SALT}, {@link #PREVIOUS_POSTFIX_SALT} and {@link #SKIP_CALCULATION}, with the same values as
+ * the corresponding attributes of the connector. The keys that are not in the file do not override anything.
+ */
+public final class ReloadableConfiguration {
+
+    /** The key of the prefix salt. */
+    public static final String PREFIX_SALT = "prefixSalt";
+
+    /** The key of the postfix salt. */
+    public static final String POSTFIX_SALT = "postfixSalt";
+
+    /** The key of the prefix salt used before the rotation. */
+    public static final String PREVIOUS_PREFIX_SALT = "previousPrefixSalt";
+
+    /** The key of the postfix salt used before the rotation. */
+    public static final String PREVIOUS_POSTFIX_SALT = "previousPostfixSalt";
+
+    /** The key of the comma-separated 'attribute_name'='attribute_value' pairs for skipping the calculation. */
+    public static final String SKIP_CALCULATION = "skipCalculation";
+
+    /** The supported keys. */
+    private static final Set<String> KEYS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(PREFIX_SALT,
+            POSTFIX_SALT, PREVIOUS_PREFIX_SALT, PREVIOUS_POSTFIX_SALT, SKIP_CALCULATION)));
+
+    /** The prefix salt, null if not overridden. */
+    private final String prefixSalt;
+
+    /** The postfix salt, null if not overridden. */
+    private final String postfixSalt;
+
+    /** The prefix salt used before the rotation, null if not overridden. */
+    private final String previousPrefixSalt;
+
+    /** The postfix salt used before the rotation, null if not overridden. */
+    private final String previousPostfixSalt;
+
+    /** The attribute id vs value map for skipping the calculation, null if not overridden. */
+    private final Map<String, List<String>> skipCalculation;
+
+    /**
+     * Constructor.
+     *
+     * @param properties The properties containing the overridden values.
+     */
+    public ReloadableConfiguration(@Nonnull final Properties properties) {
+        Constraint.isNotNull(properties, "The properties cannot be null!");
+        for (final String key : properties.stringPropertyNames()) {
+            if (!KEYS.contains(key)) {
+                throw new IllegalArgumentException("Unsupported key " + key + ", supported keys are " + KEYS);
+            }
+        }
+        prefixSalt = properties.getProperty(PREFIX_SALT);
+        postfixSalt = properties.getProperty(POSTFIX_SALT);
+        previousPrefixSalt = properties.getProperty(PREVIOUS_PREFIX_SALT);
+        previousPostfixSalt = properties.getProperty(PREVIOUS_POSTFIX_SALT);
+        final String skipCalc = properties.getProperty(SKIP_CALCULATION);
+        if (skipCalc == null) {
+            skipCalculation = null;
+        } else {
+            final Map<String, List<String>> pairs = new HashMap<>();
+            final StringTokenizer tokenizer = new StringTokenizer(skipCalc, ",");
+            while (tokenizer.hasMoreTokens()) {
+                AuthnIdProfile.addSkipCalculationPair(tokenizer.nextToken(), pairs);
+            }
+            skipCalculation = Collections.unmodifiableMap(pairs);
+        }
+    }
+
+    /**
+     * Reads the configuration from a UTF-8 encoded properties file.
+     *
+     * @param file The properties file.
+     * @return The configuration.
+     * @throws IOException If the file cannot be read.
+     * @throws IllegalArgumentException If the file contains unsupported keys.
+     */
+    @Nonnull
+    public static ReloadableConfiguration load(@Nonnull final Path file) throws IOException {
+        final Properties properties = new Properties();
+        try (final Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        return new ReloadableConfiguration(properties);
+    }
+
+    /**
+     * Get the prefix salt.
+     *
+     * @return The prefix salt, null if not overridden.
+     */
+    @Nullable
+    public String getPrefixSalt() {
+        return prefixSalt;
+    }
+
+    /**
+     * Get the postfix salt.
+     *
+     * @return The postfix salt, null if not overridden.
+     */
+    @Nullable
+    public String getPostfixSalt() {
+        return postfixSalt;
+    }
+
+    /**
+     * Get the prefix salt used before the rotation.
+     *
+     * @return The previous prefix salt, null if not overridden.
+     */
+    @Nullable
+    public String getPreviousPrefixSalt() {
+        return previousPrefixSalt;
+    }
+
+    /**
+     * Get the postfix salt used before the rotation.
+     *
+     * @return The previous postfix salt, null if not overridden.
+     */
+    @Nullable
+    public String getPreviousPostfixSalt() {
+        return previousPostfixSalt;
+    }
+
+    /**
+     * Get the attribute id vs value map for skipping the calculation.
+     *
+     * @return The unmodifiable skipCalculation, null if not overridden.
+     */
+    @Nullable
+    public Map<String, List<String>> getSkipCalculation() {
+        return skipCalculation;
+    }
+}
@@ -0,0 +1,373 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.idp.attribute.IdPAttribute;
+import net.shibboleth.idp.attribute.IdPAttributeValue;
+import net.shibboleth.idp.attribute.resolver.ResolvedAttributeDefinition;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.util.Memoable;
+
+/**
+ * The configuration of {@link EcaAuthnIdDataConnector} compiled into an immutable form. The plan is built once when
+ * the connector is initialized, and it can be safely shared between the resolving threads without synchronization.
+ * The plans only hold the primed digest states, the engines are borrowed from the pool shared by all the plans of the
+ * connector.
+ */
+public final class ResolutionPlan {
+
+    /** The scope separating the cached authnIDs of this plan from the other plans of the connector. */
+    private final int scope;
+
+    /** The value of the tenant attribute selecting this plan, null for the default plan. */
+    private final String tenant;
+
+    /** The source attribute ids. */
+    private final String[] sourceNames;
+
+    /** The minimum length of source attribute values (without salt). */
+    private final int minInputLength;
+
+    /** The rules for skipping the authnID calculation. */
+    private final SkipRule[] skipRules;
+
+    /** The attribute id to be used if calculation has been skipped. */
+    private final String skipSourceName;
+
+    /** The digest engines used for the calculation. */
+    private final DigestEnginePool digestPool;
+
+    /** The digest state already containing the prefix salt. */
+    private final Memoable saltedState;
+
+    /** The postfix salt encoded with UTF-8. */
+    private final byte[] postfixSaltBytes;
+
+    /** The salt for the key derivation function: the length-prefixed prefix salt followed by the postfix salt. */
+    private final byte[] kdfSaltBytes;
+
+    /** The digest states primed with the prefix salt and the relying party ids. */
+    private final PairwiseDigestStates pairwiseStates;
+
+    /** The plan with the salts used before the rotation, null if not rotating. */
+    private final ResolutionPlan previousPlan;
+
+    /** The scope of the authnIDs of this plan in the session storage, null if not set. */
+    private final String storageScope;
+
+    /**
+     * Constructor.
+     *
+     * @param planScope The scope separating the cached authnIDs of this plan from the other plans.
+     * @param profile The profile whose parameters are compiled. All the parameters, except the skipCalculation and
+     *            skipCalculationSrc, must be set. The first source attribute is used if skipCalculationSrc is null.
+     * @param pool The pool whose engines are used for the calculation.
+     * @param pairwiseMaxSize The maximum number of relying parties whose digest states are kept in memory.
+     * @param previous The plan with the salts used before the rotation, null if not rotating.
+     */
+    public ResolutionPlan(final int planScope, @Nonnull final AuthnIdProfile profile,
+            @Nonnull final DigestEnginePool pool, final int pairwiseMaxSize, @Nullable final ResolutionPlan previous) {
+        Constraint.isNotNull(profile, "The profile cannot be null!");
+        final List<String> srcAttributeNames = profile.getSrcAttributeNames();
+        Constraint.isNotNull(srcAttributeNames, "The source attribute names cannot be null!");
+        Constraint.isTrue(!srcAttributeNames.isEmpty(), "The source attribute names cannot be empty!");
+        Constraint.isNotNull(profile.getMinInputLength(), "The minimum input length cannot be null!");
+        scope = planScope;
+        tenant = profile.getTenant();
+        sourceNames = srcAttributeNames.toArray(new String[srcAttributeNames.size()]);
+        minInputLength = profile.getMinInputLength();
+        final List<SkipRule> rules = new ArrayList<>();
+        if (profile.getSkipCalculation() != null) {
+            for (final Map.Entry<String, List<String>> entry : profile.getSkipCalculation().entrySet()) {
+                rules.add(new SkipRule(entry.getKey(), entry.getValue()));
+            }
+        }
+        skipRules = rules.toArray(new SkipRule[rules.size()]);
+        skipSourceName = profile.getSkipCalculationSrc() != null ? profile.getSkipCalculationSrc() : sourceNames[0];
+        digestPool = Constraint.isNotNull(pool, "The digest pool cannot be null!");
+        final Digest engine = pool.copyPrototype();
+        final byte[] prefixSaltBytes = encode(profile.getPrefixSalt());
+        engine.update(prefixSaltBytes, 0, prefixSaltBytes.length);
+        saltedState = (Memoable) engine;
+        postfixSaltBytes = encode(profile.getPostfixSalt());
+        kdfSaltBytes = ByteBuffer.allocate(4 + prefixSaltBytes.length + postfixSaltBytes.length)
+                .putInt(prefixSaltBytes.length).put(prefixSaltBytes).put(postfixSaltBytes).array();
+        pairwiseStates = new PairwiseDigestStates(pool, saltedState, pairwiseMaxSize);
+        previousPlan = previous;
+        storageScope = null;
+    }
+
+    /**
+     * Constructor for a copy of the given plan with the given storage scope. The copy shares the digest states of the
+     * plan.
+     *
+     * @param plan The plan to be copied.
+     * @param planStorageScope The scope of the authnIDs of the plan in the session storage.
+     */
+    private ResolutionPlan(@Nonnull final ResolutionPlan plan, @Nonnull final String planStorageScope) {
+        scope = plan.scope;
+        tenant = plan.tenant;
+        sourceNames = plan.sourceNames;
+        minInputLength = plan.minInputLength;
+        skipRules = plan.skipRules;
+        skipSourceName = plan.skipSourceName;
+        digestPool = plan.digestPool;
+        saltedState = plan.saltedState;
+        postfixSaltBytes = plan.postfixSaltBytes;
+        kdfSaltBytes = plan.kdfSaltBytes;
+        pairwiseStates = plan.pairwiseStates;
+        previousPlan = plan.previousPlan;
+        storageScope = Constraint.isNotNull(planStorageScope, "The storage scope cannot be null!");
+    }
+
+    /**
+     * Builds a copy of this plan with the given scope in the session storage. Unlike the {@link #getScope()}, the
+     * storage scope is expected to be derived from the calculation parameters, so that it is equal on every node
+     * and after a restart.
+     *
+     * @param planStorageScope The scope of the authnIDs of the plan in the session storage.
+     * @return The copy of this plan.
+     */
+    @Nonnull
+    public ResolutionPlan withStorageScope(@Nonnull final String planStorageScope) {
+        return new ResolutionPlan(this, planStorageScope);
+    }
+
+    /**
+     * Get the plan with the salts used before the rotation. The previous plan has the same source attributes, so the
+     * input collected for this plan can be used for it as well.
+     *
+     * @return The previous plan, null if not rotating.
+     */
+    @Nullable
+    public ResolutionPlan getPreviousPlan() {
+        return previousPlan;
+    }
+
+    /**
+     * Get the scope separating the cached authnIDs of this plan from the other plans of the connector.
+     *
+     * @return The scope.
+     */
+    public int getScope() {
+        return scope;
+    }
+
+    /**
+     * Get the scope of the authnIDs of this plan in the session storage.
+     *
+     * @return The storage scope, null if not set.
+     */
+    @Nullable
+    public String getStorageScope() {
+        return storageScope;
+    }
+
+    /**
+     * Get the value of the tenant attribute selecting this plan.
+     *
+     * @return The tenant, null for the default plan.
+     */
+    @Nullable
+    public String getTenant() {
+        return tenant;
+    }
+
+    /**
+     * Get the number of source attributes.
+     *
+     * @return The number of source attributes.
+     */
+    public int getSourceCount() {
+        return sourceNames.length;
+    }
+
+    /**
+     * Get the source attribute id in the given position.
+     *
+     * @param index The position of the source attribute.
+     * @return The source attribute id.
+     */
+    @Nonnull
+    public String getSourceName(final int index) {
+        return sourceNames[index];
+    }
+
+    /**
+     * Get the minimum length of source attribute values (without salt).
+     *
+     * @return The minimum length.
+     */
+    public int getMinInputLength() {
+        return minInputLength;
+    }
+
+    /**
+     * Get the attribute id to be used if calculation has been skipped.
+     *
+     * @return The attribute id.
+     */
+    @Nonnull
+    public String getSkipSourceName() {
+        return skipSourceName;
+    }
+
+    /**
+     * Checks whether any of the skip rules matches the given attributes.
+     *
+     * @param attributeDefinitions The resolved attribute definitions.
+     * @return True if the calculation should be skipped, false otherwise.
+     */
+    public boolean isSkipped(@Nonnull final Map<String, ResolvedAttributeDefinition> attributeDefinitions) {
+        for (final SkipRule rule : skipRules) {
+            final ResolvedAttributeDefinition definition = attributeDefinitions.get(rule.attributeName);
+            if (definition != null) {
+                final IdPAttribute attribute = definition.getResolvedAttribute();
+                if (attribute != null && rule.matches(attribute.getValues())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Borrows the digest engine of the current thread, primed with the prefix salt.
+     *
+     * @return The digest engine.
+     */
+    @Nonnull
+    public Digest borrowSaltedDigest() {
+        return digestPool.borrow(saltedState);
+    }
+
+    /**
+     * Borrows the digest engine of the current thread, primed with the prefix salt and the given relying party id.
+     *
+     * @param relyingPartyId The relying party id.
+     * @return The digest engine.
+     */
+    @Nonnull
+    public Digest borrowPairwiseDigest(@Nonnull final String relyingPartyId) {
+        return pairwiseStates.borrow(relyingPartyId);
+    }
+
+    /**
+     * Get the salt for the key derivation function: the length of the UTF-8 encoded prefix salt (4 bytes, big-endian),
+     * followed by the UTF-8 encoded prefix and postfix salts. The array must not be modified.
+     *
+     * @return The salt for the key derivation function.
+     */
+    @Nonnull
+    public byte[] getKdfSaltBytes() {
+        return kdfSaltBytes;
+    }
+
+    /**
+     * Get the postfix salt encoded with UTF-8. The array must not be modified.
+     *
+     * @return The encoded postfix salt.
+     */
+    @Nonnull
+    public byte[] getPostfixSaltBytes() {
+        return postfixSaltBytes;
+    }
+
+    /**
+     * Encodes the given salt with UTF-8.
+     *
+     * @param salt The salt, may be null.
+     * @return The encoded salt.
+     */
+    private static byte[] encode(@Nullable final String salt) {
+        return salt == null ? new byte[0] : salt.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A rule for skipping the authnID calculation when the attribute has any of the given values. The values are
+     * hashed, and the prefix and suffix patterns (see {@link AffixPatternSet}) are compiled into tries, so the cost of
+     * a check does not depend on the number of configured values.
+     */
+    private static final class SkipRule {
+
+        /** The attribute id. */
+        private final String attributeName;
+
+        /** The values causing the calculation to be skipped. */
+        private final CompactStringSet values;
+
+        /** The patterns of the values causing the calculation to be skipped, null if there are none. */
+        private final AffixPatternSet patterns;
+
+        /**
+         * Constructor.
+         *
+         * @param name The attribute id.
+         * @param skipValues The values and the patterns causing the calculation to be skipped.
+         */
+        private SkipRule(@Nonnull final String name, @Nonnull final List<String> skipValues) {
+            attributeName = name;
+            final List<String> exactValues = new ArrayList<>();
+            final List<String> patternValues = new ArrayList<>();
+            for (final String value : skipValues) {
+                if (AffixPatternSet.isPattern(value)) {
+                    patternValues.add(value);
+                } else {
+                    exactValues.add(value);
+                }
+            }
+            values = new CompactStringSet(exactValues);
+            patterns = patternValues.isEmpty() ? null : new AffixPatternSet(patternValues);
+        }
+
+        /**
+         * Checks whether any of the given attribute values matches this rule.
+         *
+         * @param attributeValues The attribute values.
+         * @return True if any of the values matches, false otherwise.
+         */
+        private boolean matches(@Nonnull final List<IdPAttributeValue<?>> attributeValues) {
+            for (int i = 0; i < attributeValues.size(); i++) {
+                final Object value = attributeValues.get(i).getValue();
+                if (values.contains(value) || patterns != null && value instanceof String
+                        && patterns.matches((String) value)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Function;
+
+import net.shibboleth.idp.attribute.resolver.context.AttributeResolutionContext;
+import net.shibboleth.idp.session.IdPSession;
+import net.shibboleth.idp.session.context.SessionContext;
+
+import org.opensaml.messaging.context.BaseContext;
+
+/**
+ * Looks up the id of the IdP session from the {@link SessionContext} next to the {@link AttributeResolutionContext},
+ * i.e. from the child of its parent (normally the profile request context).
+ */
+public class SessionIdLookupFunction implements Function<AttributeResolutionContext, String> {
+
+    /** {@inheritDoc} */
+    @Override
+    @Nullable
+    public String apply(@Nullable final AttributeResolutionContext input) {
+        final IdPSession session = lookupSession(input);
+        return session != null ? session.getId() : null;
+    }
+
+    /**
+     * Looks up the IdP session from the {@link SessionContext} next to the given context.
+     * 
+     * @param input The attribute resolution context.
+     * @return The IdP session, null if not found.
+     */
+    @Nullable
+    static IdPSession lookupSession(@Nullable final AttributeResolutionContext input) {
+        final BaseContext parent = input == null ? null : input.getParent();
+        if (parent == null) {
+            return null;
+        }
+        final SessionContext sessionContext = parent.getSubcontext(SessionContext.class);
+        return sessionContext != null ? sessionContext.getIdPSession() : null;
+    }
+}
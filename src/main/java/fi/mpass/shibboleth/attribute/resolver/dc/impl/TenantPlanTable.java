@@ -0,0 +1,123 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.idp.attribute.IdPAttribute;
+import net.shibboleth.idp.attribute.IdPAttributeValue;
+import net.shibboleth.idp.attribute.resolver.ResolvedAttributeDefinition;
+import net.shibboleth.utilities.java.support.logic.Constraint;
+
+/**
+ * An immutable table of the resolution plans of the tenants. The plan is selected by the value of the tenant
+ * attribute, the default plan is used if there are no tenants. The tenants are kept in a {@link CompactStringSet},
+ * whose positions index the plans.
+ */
+public final class TenantPlanTable {
+
+    /** The plan used if there are no tenants, or if no tenant matches and the tenant is not required. */
+    private final ResolutionPlan defaultPlan;
+
+    /** The attribute id whose value selects the tenant, may be null. */
+    private final String tenantAttributeName;
+
+    /** The values of the tenant attribute. */
+    private final CompactStringSet tenants;
+
+    /** The plans of the tenants, in the same order as the tenants were given. */
+    private final ResolutionPlan[] plans;
+
+    /**
+     * Constructor.
+     *
+     * @param plan The plan used if there are no tenants.
+     * @param attributeName The attribute id whose value selects the tenant, may be null if there are no tenants.
+     * @param tenantValues The values of the tenant attribute, must be unique.
+     * @param tenantPlans The plans of the tenants, in the same order as the values.
+     */
+    public TenantPlanTable(@Nonnull final ResolutionPlan plan, @Nullable final String attributeName,
+            @Nonnull final List<String> tenantValues, @Nonnull final List<ResolutionPlan> tenantPlans) {
+        defaultPlan = Constraint.isNotNull(plan, "The default plan cannot be null!");
+        Constraint.isTrue(tenantValues.size() == tenantPlans.size(), "Each tenant must have a plan!");
+        Constraint.isTrue(tenantValues.isEmpty() || attributeName != null,
+                "The tenant attribute must be set if there are tenants!");
+        tenantAttributeName = attributeName;
+        tenants = new CompactStringSet(tenantValues);
+        Constraint.isTrue(tenants.size() == tenantValues.size(), "The tenants must be unique and non-null!");
+        plans = tenantPlans.toArray(new ResolutionPlan[tenantPlans.size()]);
+    }
+
+    /**
+     * Get the plan used if there are no tenants, or if no tenant matches and the tenant is not required.
+     *
+     * @return The default plan.
+     */
+    @Nonnull
+    public ResolutionPlan getDefaultPlan() {
+        return defaultPlan;
+    }
+
+    /**
+     * Get the number of tenant plans.
+     *
+     * @return The number of tenant plans.
+     */
+    public int size() {
+        return plans.length;
+    }
+
+    /**
+     * Selects the plan by the value of the tenant attribute.
+     *
+     * @param attributeDefinitions The resolved attribute definitions.
+     * @return The plan of the first tenant matching the attribute values, the default plan if there are no tenants,
+     *         or null if the attribute has no value matching any of the tenants.
+     */
+    @Nullable
+    public ResolutionPlan select(@Nonnull final Map<String, ResolvedAttributeDefinition> attributeDefinitions) {
+        if (plans.length == 0) {
+            return defaultPlan;
+        }
+        final ResolvedAttributeDefinition definition = attributeDefinitions.get(tenantAttributeName);
+        if (definition != null) {
+            final IdPAttribute attribute = definition.getResolvedAttribute();
+            if (attribute != null) {
+                final List<IdPAttributeValue<?>> values = attribute.getValues();
+                for (int i = 0; i < values.size(); i++) {
+                    final int index = tenants.indexOf(values.get(i).getValue());
+                    if (index >= 0) {
+                        return plans[index];
+                    }
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -23,17 +23,23 @@
 
 package fi.mpass.shibboleth.attribute.resolver.spring.dc;
 
+import java.util.List;
+
 import javax.xml.namespace.QName;
 
 import net.shibboleth.idp.attribute.resolver.spring.dc.impl.AbstractDataConnectorParser;
 import net.shibboleth.utilities.java.support.primitive.StringSupport;
+import net.shibboleth.utilities.java.support.xml.ElementSupport;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.config.BeanDefinition;
 import org.springframework.beans.factory.support.BeanDefinitionBuilder;
+import org.springframework.beans.factory.support.ManagedList;
 import org.springframework.beans.factory.xml.ParserContext;
 import org.w3c.dom.Element;
 
+import fi.mpass.shibboleth.attribute.resolver.dc.impl.AuthnIdProfile;
 import fi.mpass.shibboleth.attribute.resolver.dc.impl.EcaAuthnIdDataConnector;
 
 /**
@@ -46,6 +52,14 @@ public class EcaAuthnIdDataConnectorParser extends AbstractDataConnectorParser {
     public static final QName SCHEMA_NAME = new QName(EcaAuthnIdDataConnectorNamespaceHandler.NAMESPACE,
             "AuthnIdDataConnector");
 
+    /** Element name for the tenant profiles. */
+    public static final QName PROFILE_ELEMENT_NAME = new QName(EcaAuthnIdDataConnectorNamespaceHandler.NAMESPACE,
+            "Profile");
+
+    /** The attributes of the tenant profile element, equal to the property names of {@link AuthnIdProfile}. */
+    private static final String[] PROFILE_ATTRIBUTES = {"tenant", "srcAttributeNames", "prefixSalt", "postfixSalt",
+        "previousPrefixSalt", "previousPostfixSalt", "minInputLength", "skipCalculation", "skipCalculationSrc", };
+
     /** Class logger. */
     private final Logger log = LoggerFactory.getLogger(EcaAuthnIdDataConnectorParser.class);
     
@@ -63,12 +77,55 @@ public class EcaAuthnIdDataConnectorParser extends AbstractDataConnectorParser {
         String destAttributeName = element.getAttributeNS(null, "destAttributeName");
         log.debug("Using destAttributeName={}", destAttributeName);
         builder.addPropertyValue("destAttributeName", destAttributeName);
+        String pairwiseAttributeName =
+                StringSupport.trimOrNull(element.getAttributeNS(null, "pairwiseAttributeName"));
+        log.debug("Using pairwiseAttributeName={}", pairwiseAttributeName);
+        builder.addPropertyValue("pairwiseAttributeName", pairwiseAttributeName);
+        String pairwiseMaxRelyingParties =
+                StringSupport.trimOrNull(element.getAttributeNS(null, "pairwiseMaxRelyingParties"));
+        log.debug("Using pairwiseMaxRelyingParties={}", pairwiseMaxRelyingParties);
+        builder.addPropertyValue("pairwiseMaxRelyingParties", pairwiseMaxRelyingParties);
         String prefixSalt = StringSupport.trimOrNull(element.getAttributeNS(null, "prefixSalt"));
         log.debug("Using prefixSalt={}", prefixSalt);
         builder.addPropertyValue("prefixSalt", prefixSalt);
         String postfixSalt = StringSupport.trimOrNull(element.getAttributeNS(null, "postfixSalt"));
         log.debug("Using postfixSalt={}", postfixSalt);
         builder.addPropertyValue("postfixSalt", postfixSalt);
+        String previousPrefixSalt = StringSupport.trimOrNull(element.getAttributeNS(null, "previousPrefixSalt"));
+        log.debug("Using previousPrefixSalt={}", previousPrefixSalt);
+        builder.addPropertyValue("previousPrefixSalt", previousPrefixSalt);
+        String previousPostfixSalt = StringSupport.trimOrNull(element.getAttributeNS(null, "previousPostfixSalt"));
+        log.debug("Using previousPostfixSalt={}", previousPostfixSalt);
+        builder.addPropertyValue("previousPostfixSalt", previousPostfixSalt);
+        String previousDestAttributeName =
+                StringSupport.trimOrNull(element.getAttributeNS(null, "previousDestAttributeName"));
+        log.debug("Using previousDestAttributeName={}", previousDestAttributeName);
+        builder.addPropertyValue("previousDestAttributeName", previousDestAttributeName);
+        String digestAlgorithm = StringSupport.trimOrNull(element.getAttributeNS(null, "digestAlgorithm"));
+        log.debug("Using digestAlgorithm={}", digestAlgorithm);
+        builder.addPropertyValue("digestAlgorithm", digestAlgorithm);
+        String outputEncoding = StringSupport.trimOrNull(element.getAttributeNS(null, "outputEncoding"));
+        log.debug("Using outputEncoding={}", outputEncoding);
+        builder.addPropertyValue("outputEncoding", outputEncoding);
+        String inputFraming = StringSupport.trimOrNull(element.getAttributeNS(null, "inputFraming"));
+        log.debug("Using inputFraming={}", inputFraming);
+        builder.addPropertyValue("inputFraming", inputFraming);
+        String allowMissingSources = StringSupport.trimOrNull(element.getAttributeNS(null, "allowMissingSources"));
+        log.debug("Using allowMissingSources={}", allowMissingSources);
+        builder.addPropertyValue("allowMissingSources", allowMissingSources);
+        String inputNormalization = StringSupport.trimOrNull(element.getAttributeNS(null, "inputNormalization"));
+        log.debug("Using inputNormalization={}", inputNormalization);
+        builder.addPropertyValue("inputNormalization", inputNormalization);
+        String truncationBits = StringSupport.trimOrNull(element.getAttributeNS(null, "truncationBits"));
+        log.debug("Using truncationBits={}", truncationBits);
+        builder.addPropertyValue("truncationBits", truncationBits);
+        String expectedPopulation = StringSupport.trimOrNull(element.getAttributeNS(null, "expectedPopulation"));
+        log.debug("Using expectedPopulation={}", expectedPopulation);
+        builder.addPropertyValue("expectedPopulation", expectedPopulation);
+        String maxCollisionProbability =
+                StringSupport.trimOrNull(element.getAttributeNS(null, "maxCollisionProbability"));
+        log.debug("Using maxCollisionProbability={}", maxCollisionProbability);
+        builder.addPropertyValue("maxCollisionProbability", maxCollisionProbability);
         String minInputLength = StringSupport.trimOrNull(element.getAttributeNS(null, "minInputLength"));
         log.debug("Using minInputLength={}", minInputLength);
         builder.addPropertyValue("minInputLength", minInputLength);
@@ -78,5 +135,119 @@ public class EcaAuthnIdDataConnectorParser extends AbstractDataConnectorParser {
         String skipCalculationSrc = StringSupport.trimOrNull(element.getAttributeNS(null, "skipCalculationSrc"));
         log.debug("Using skipCalculationSrc={}", skipCalculationSrc);
         builder.addPropertyValue("skipCalculationSrc", skipCalculationSrc);
+        String skipCalculationFile = StringSupport.trimOrNull(element.getAttributeNS(null, "skipCalculationFile"));
+        log.debug("Using skipCalculationFile={}", skipCalculationFile);
+        builder.addPropertyValue("skipCalculationFile", skipCalculationFile);
+        String reloadableConfigurationFile =
+                StringSupport.trimOrNull(element.getAttributeNS(null, "reloadableConfigurationFile"));
+        log.debug("Using reloadableConfigurationFile={}", reloadableConfigurationFile);
+        builder.addPropertyValue("reloadableConfigurationFile", reloadableConfigurationFile);
+        String hmacKeyFile = StringSupport.trimOrNull(element.getAttributeNS(null, "hmacKeyFile"));
+        log.debug("Using hmacKeyFile={}", hmacKeyFile);
+        builder.addPropertyValue("hmacKeyFile", hmacKeyFile);
+        String hmacKeyStore = StringSupport.trimOrNull(element.getAttributeNS(null, "hmacKeyStore"));
+        log.debug("Using hmacKeyStore={}", hmacKeyStore);
+        builder.addPropertyValue("hmacKeyStore", hmacKeyStore);
+        String hmacKeyStoreType = StringSupport.trimOrNull(element.getAttributeNS(null, "hmacKeyStoreType"));
+        log.debug("Using hmacKeyStoreType={}", hmacKeyStoreType);
+        builder.addPropertyValue("hmacKeyStoreType", hmacKeyStoreType);
+        String hmacKeyStorePassword = StringSupport.trimOrNull(element.getAttributeNS(null, "hmacKeyStorePassword"));
+        builder.addPropertyValue("hmacKeyStorePassword", hmacKeyStorePassword);
+        String hmacKeyAlias = StringSupport.trimOrNull(element.getAttributeNS(null, "hmacKeyAlias"));
+        log.debug("Using hmacKeyAlias={}", hmacKeyAlias);
+        builder.addPropertyValue("hmacKeyAlias", hmacKeyAlias);
+        String hmacKeyPassword = StringSupport.trimOrNull(element.getAttributeNS(null, "hmacKeyPassword"));
+        builder.addPropertyValue("hmacKeyPassword", hmacKeyPassword);
+        String hmacOutputFormat = StringSupport.trimOrNull(element.getAttributeNS(null, "hmacOutputFormat"));
+        log.debug("Using hmacOutputFormat={}", hmacOutputFormat);
+        builder.addPropertyValue("hmacOutputFormat", hmacOutputFormat);
+        String cacheMaxSize = StringSupport.trimOrNull(element.getAttributeNS(null, "cacheMaxSize"));
+        log.debug("Using cacheMaxSize={}", cacheMaxSize);
+        builder.addPropertyValue("cacheMaxSize", cacheMaxSize);
+        String cacheExpiration = StringSupport.trimOrNull(element.getAttributeNS(null, "cacheExpiration"));
+        log.debug("Using cacheExpiration={}", cacheExpiration);
+        builder.addPropertyValue("cacheExpiration", cacheExpiration);
+        String problemLogInterval = StringSupport.trimOrNull(element.getAttributeNS(null, "problemLogInterval"));
+        log.debug("Using problemLogInterval={}", problemLogInterval);
+        builder.addPropertyValue("problemLogInterval", problemLogInterval);
+        String metricRegistryRef = StringSupport.trimOrNull(element.getAttributeNS(null, "metricRegistryRef"));
+        log.debug("Using metricRegistryRef={}", metricRegistryRef);
+        if (metricRegistryRef != null) {
+            builder.addPropertyReference("metricRegistry", metricRegistryRef);
+        }
+        String kdfIterations = StringSupport.trimOrNull(element.getAttributeNS(null, "kdfIterations"));
+        log.debug("Using kdfIterations={}", kdfIterations);
+        builder.addPropertyValue("kdfIterations", kdfIterations);
+        String kdfThreads = StringSupport.trimOrNull(element.getAttributeNS(null, "kdfThreads"));
+        log.debug("Using kdfThreads={}", kdfThreads);
+        builder.addPropertyValue("kdfThreads", kdfThreads);
+        String kdfQueueSize = StringSupport.trimOrNull(element.getAttributeNS(null, "kdfQueueSize"));
+        log.debug("Using kdfQueueSize={}", kdfQueueSize);
+        builder.addPropertyValue("kdfQueueSize", kdfQueueSize);
+        String kdfTimeout = StringSupport.trimOrNull(element.getAttributeNS(null, "kdfTimeout"));
+        log.debug("Using kdfTimeout={}", kdfTimeout);
+        builder.addPropertyValue("kdfTimeout", kdfTimeout);
+        String lookupTableFile = StringSupport.trimOrNull(element.getAttributeNS(null, "lookupTableFile"));
+        log.debug("Using lookupTableFile={}", lookupTableFile);
+        builder.addPropertyValue("lookupTableFile", lookupTableFile);
+        String lookupTableCheckInterval =
+                StringSupport.trimOrNull(element.getAttributeNS(null, "lookupTableCheckInterval"));
+        log.debug("Using lookupTableCheckInterval={}", lookupTableCheckInterval);
+        builder.addPropertyValue("lookupTableCheckInterval", lookupTableCheckInterval);
+        String journalDirectory = StringSupport.trimOrNull(element.getAttributeNS(null, "journalDirectory"));
+        log.debug("Using journalDirectory={}", journalDirectory);
+        builder.addPropertyValue("journalDirectory", journalDirectory);
+        String journalSegmentSize = StringSupport.trimOrNull(element.getAttributeNS(null, "journalSegmentSize"));
+        log.debug("Using journalSegmentSize={}", journalSegmentSize);
+        builder.addPropertyValue("journalSegmentSize", journalSegmentSize);
+        String journalMaxSize = StringSupport.trimOrNull(element.getAttributeNS(null, "journalMaxSize"));
+        log.debug("Using journalMaxSize={}", journalMaxSize);
+        builder.addPropertyValue("journalMaxSize", journalMaxSize);
+        String journalCommitInterval =
+                StringSupport.trimOrNull(element.getAttributeNS(null, "journalCommitInterval"));
+        log.debug("Using journalCommitInterval={}", journalCommitInterval);
+        builder.addPropertyValue("journalCommitInterval", journalCommitInterval);
+        String storageServiceRef = StringSupport.trimOrNull(element.getAttributeNS(null, "storageServiceRef"));
+        log.debug("Using storageServiceRef={}", storageServiceRef);
+        if (storageServiceRef != null) {
+            builder.addPropertyReference("storageService", storageServiceRef);
+        }
+        String sessionLifetime = StringSupport.trimOrNull(element.getAttributeNS(null, "sessionLifetime"));
+        log.debug("Using sessionLifetime={}", sessionLifetime);
+        builder.addPropertyValue("sessionLifetime", sessionLifetime);
+        String tenantAttributeName = StringSupport.trimOrNull(element.getAttributeNS(null, "tenantAttributeName"));
+        log.debug("Using tenantAttributeName={}", tenantAttributeName);
+        builder.addPropertyValue("tenantAttributeName", tenantAttributeName);
+        String requireTenant = StringSupport.trimOrNull(element.getAttributeNS(null, "requireTenant"));
+        log.debug("Using requireTenant={}", requireTenant);
+        builder.addPropertyValue("requireTenant", requireTenant);
+        final List<Element> profileElements = ElementSupport.getChildElements(element, PROFILE_ELEMENT_NAME);
+        if (!profileElements.isEmpty()) {
+            log.debug("Parsing {} tenant profiles", profileElements.size());
+            final ManagedList<BeanDefinition> profiles = new ManagedList<>(profileElements.size());
+            for (final Element profileElement : profileElements) {
+                profiles.add(parseProfile(profileElement));
+            }
+            builder.addPropertyValue("profiles", profiles);
+        }
+    }
+
+    /**
+     * Parses a tenant profile element. The attributes that are not set are inherited from the data connector, an
+     * empty value overrides the inherited one (for instance an empty salt or an empty list of skip rules).
+     * 
+     * @param element The profile element.
+     * @return The bean definition of the {@link AuthnIdProfile}.
+     */
+    protected BeanDefinition parseProfile(final Element element) {
+        final BeanDefinitionBuilder builder = BeanDefinitionBuilder.genericBeanDefinition(AuthnIdProfile.class);
+        for (final String attribute : PROFILE_ATTRIBUTES) {
+            if (element.hasAttributeNS(null, attribute)) {
+                final String value = StringSupport.trim(element.getAttributeNS(null, attribute));
+                log.trace("Using profile {}={}", attribute, value);
+                builder.addPropertyValue(attribute, value);
+            }
+        }
+        return builder.getBeanDefinition();
     }
 }
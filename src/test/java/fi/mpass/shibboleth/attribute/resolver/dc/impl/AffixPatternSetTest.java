@@ -0,0 +1,109 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link AffixPatternSet}.
+ */
+public class AffixPatternSetTest {
+
+    /**
+     * Tests the recognition of the patterns.
+     */
+    @Test public void testIsPattern() {
+        Assert.assertTrue(AffixPatternSet.isPattern("guest-*"));
+        Assert.assertTrue(AffixPatternSet.isPattern("*.test.example"));
+        Assert.assertTrue(AffixPatternSet.isPattern("*"));
+        Assert.assertFalse(AffixPatternSet.isPattern("guest"));
+        Assert.assertFalse(AffixPatternSet.isPattern("gu*est"));
+        Assert.assertFalse(AffixPatternSet.isPattern("*guest*"));
+        Assert.assertFalse(AffixPatternSet.isPattern(""));
+        Assert.assertFalse(AffixPatternSet.isPattern(null));
+    }
+
+    /**
+     * Tests the matching of the prefix and suffix patterns.
+     */
+    @Test public void testMatches() {
+        final AffixPatternSet set = new AffixPatternSet(Arrays.asList("guest-*", "gue*", "test-*", "*.test.example",
+                "*@example.org", "guest-*"));
+        Assert.assertEquals(set.size(), 4);
+        Assert.assertTrue(set.matches("guest-1"));
+        Assert.assertTrue(set.matches("gue"));
+        Assert.assertTrue(set.matches("test-"));
+        Assert.assertTrue(set.matches("a.b.test.example"));
+        Assert.assertTrue(set.matches("user@example.org"));
+        Assert.assertFalse(set.matches("gu"));
+        Assert.assertFalse(set.matches("test"));
+        Assert.assertFalse(set.matches("tester"));
+        Assert.assertFalse(set.matches("test.example"));
+        Assert.assertFalse(set.matches("user@example.org.evil"));
+        Assert.assertFalse(set.matches(""));
+        Assert.assertFalse(set.matches(null));
+    }
+
+    /**
+     * Tests that the wildcard alone matches any value.
+     */
+    @Test public void testMatchAll() {
+        final AffixPatternSet set = new AffixPatternSet(Arrays.asList("guest-*", "*"));
+        Assert.assertEquals(set.size(), 1);
+        Assert.assertTrue(set.matches(""));
+        Assert.assertTrue(set.matches("anything"));
+    }
+
+    /**
+     * Tests a large set of patterns.
+     */
+    @Test public void testLarge() {
+        final List<String> patterns = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            patterns.add("school" + i + "-*");
+            patterns.add("*.school" + i + ".example");
+        }
+        final AffixPatternSet set = new AffixPatternSet(patterns);
+        Assert.assertEquals(set.size(), 20000);
+        for (int i = 0; i < 10000; i++) {
+            Assert.assertTrue(set.matches("school" + i + "-student"));
+            Assert.assertTrue(set.matches("www.school" + i + ".example"));
+            Assert.assertFalse(set.matches("school" + i));
+            Assert.assertFalse(set.matches("school" + i + ".example"));
+        }
+    }
+
+    /**
+     * Tests that a value without the wildcard is rejected.
+     */
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testNotPattern() {
+        new AffixPatternSet(Arrays.asList("guest"));
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import net.shibboleth.utilities.java.support.logic.ConstraintViolationException;
+
+import org.slf4j.LoggerFactory;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import fi.mpass.shibboleth.attribute.resolver.dc.impl.AggregatingProblemLog.Reason;
+
+/**
+ * Unit tests for {@link AggregatingProblemLog}.
+ */
+public class AggregatingProblemLogTest {
+
+    /**
+     * Tests that the occurrences are summarized once per interval.
+     */
+    @Test public void testSummary() {
+        final AggregatingProblemLog problemLog =
+                new AggregatingProblemLog(LoggerFactory.getLogger(AggregatingProblemLogTest.class), 60000L);
+        final long start = System.currentTimeMillis();
+        for (int i = 0; i < 3; i++) {
+            problemLog.record(Reason.MISSING_ATTRIBUTE, "testingSrc", "Could not find an attribute {}", "testingSrc");
+        }
+        problemLog.record(Reason.TOO_SHORT_INPUT, "testingDest", "The input is too short (length = {})", 5);
+        Assert.assertNull(problemLog.flushIfDue(start));
+        final String summary = problemLog.flushIfDue(start + 120000L);
+        Assert.assertNotNull(summary);
+        Assert.assertTrue(summary.contains("missing attribute testingSrc x 3"), summary);
+        Assert.assertTrue(summary.contains("too short input testingDest x 1"), summary);
+        Assert.assertNull(problemLog.flushIfDue(start + 120000L));
+
+        problemLog.record(Reason.MISSING_ATTRIBUTE, "testingSrc", "Could not find an attribute {}", "testingSrc");
+        final String next = problemLog.flushIfDue(start + 240000L);
+        Assert.assertTrue(next.contains("missing attribute testingSrc x 1"), next);
+        Assert.assertFalse(next.contains("too short input"), next);
+        Assert.assertNull(problemLog.flushIfDue(start + 360000L));
+    }
+
+    /**
+     * Tests that the interval must be positive.
+     */
+    @Test(expectedExceptions = ConstraintViolationException.class) public void testInvalidInterval() {
+        new AggregatingProblemLog(LoggerFactory.getLogger(AggregatingProblemLogTest.class), 0L);
+    }
+}
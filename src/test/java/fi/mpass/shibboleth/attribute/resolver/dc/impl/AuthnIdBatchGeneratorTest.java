@@ -0,0 +1,138 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link AuthnIdBatchGenerator}.
+ */
+public class AuthnIdBatchGeneratorTest {
+
+    /**
+     * Tests the generation with known authnIDs, quoted fields and too short inputs.
+     * 
+     * @throws ComponentInitializationException If component cannot be initialized.
+     * @throws IOException If the files cannot be read or written.
+     */
+    @Test public void testKnownValues() throws ComponentInitializationException, IOException {
+        final List<String> output = generate(Arrays.asList("\uFEFFname,testingSrc", 
+                "\"Doe, John\",testingInputSource\r", "", "Short,short", "Missing"), 1, 1024, 1024);
+        Assert.assertEquals(output, Arrays.asList("\"Doe, John\",/koIA2Xy/utNm9/f6c4HPnGb2bZ/0nRKOTd2BAQfFL8=", 
+                "Short,", "Missing,"));
+    }
+
+    /**
+     * Tests that the output is in the input order when the input is split into many blocks and regions.
+     * 
+     * @throws ComponentInitializationException If component cannot be initialized.
+     * @throws IOException If the files cannot be read or written.
+     */
+    @Test public void testOrder() throws ComponentInitializationException, IOException {
+        final EcaAuthnIdDataConnector connector = initializeDataConnector();
+        final List<String> input = new ArrayList<>();
+        final List<String> expected = new ArrayList<>();
+        input.add("testingSrc,name");
+        for (int i = 0; i < 5000; i++) {
+            input.add("testingInputSource" + i + ",user" + i);
+            expected.add("user" + i + "," + connector.calculateAuthnId(new String[] {"testingInputSource" + i}));
+        }
+        Assert.assertEquals(generate(input, 4, 100, 1000), expected);
+    }
+
+    /**
+     * Tests the parsing of the command line arguments.
+     * 
+     * @throws IOException If the properties file cannot be read.
+     */
+    @Test public void testArguments() throws IOException {
+        final Path config = Files.createTempFile("authnid", ".properties");
+        try {
+            Files.write(config, Arrays.asList("prefixSalt=testPre", "srcAttributeNames=uid"), StandardCharsets.UTF_8);
+            final Map<String, String> options = AuthnIdBatchGenerator.parseArguments(new String[] {"--config", 
+                    config.toString(), "--srcAttributeNames", "testingSrc"});
+            Assert.assertEquals(options.get("prefixSalt"), "testPre");
+            Assert.assertEquals(options.get("srcAttributeNames"), "testingSrc");
+            Assert.assertNull(AuthnIdBatchGenerator.parseArguments(new String[] {"--input"}));
+        } finally {
+            Files.delete(config);
+        }
+    }
+
+    /**
+     * Helper method for running the generator with the given input.
+     * 
+     * @param input The input lines.
+     * @param threads The number of threads.
+     * @param blockSize The block size.
+     * @param regionSize The region size.
+     * @return The output lines.
+     * @throws ComponentInitializationException If component cannot be initialized.
+     * @throws IOException If the files cannot be read or written.
+     */
+    protected List<String> generate(final List<String> input, final int threads, final int blockSize,
+            final int regionSize) throws ComponentInitializationException, IOException {
+        final Path inputFile = Files.createTempFile("authnid", ".csv");
+        final Path outputFile = Files.createTempFile("authnid", ".csv");
+        try {
+            Files.write(inputFile, input, StandardCharsets.UTF_8);
+            final AuthnIdBatchGenerator generator = 
+                    new AuthnIdBatchGenerator(initializeDataConnector(), "name", threads);
+            generator.setBlockSize(blockSize);
+            generator.setRegionSize(regionSize);
+            generator.generate(inputFile, outputFile);
+            return Files.readAllLines(outputFile, StandardCharsets.UTF_8);
+        } finally {
+            Files.delete(inputFile);
+            Files.delete(outputFile);
+        }
+    }
+
+    /**
+     * Helper method for initializing the data connector with the salts used in testing.
+     * 
+     * @return The initialized data connector.
+     * @throws ComponentInitializationException If component cannot be initialized.
+     */
+    protected EcaAuthnIdDataConnector initializeDataConnector() throws ComponentInitializationException {
+        final Map<String, String> options = new HashMap<>();
+        options.put("srcAttributeNames", "testingSrc");
+        options.put("prefixSalt", "testPre");
+        options.put("postfixSalt", "testPost");
+        return AuthnIdBatchGenerator.buildConnector(options);
+    }
+}
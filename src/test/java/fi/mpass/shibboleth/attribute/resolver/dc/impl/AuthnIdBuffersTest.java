@@ -0,0 +1,137 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.nio.charset.StandardCharsets;
+
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.util.encoders.Base64;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link AuthnIdBuffers}.
+ */
+public class AuthnIdBuffersTest {
+
+    /**
+     * Tests that the encoded input and its digest correspond to the String-based calculation.
+     */
+    @Test public void testDigest() {
+        final AuthnIdBuffers buffers = new AuthnIdBuffers(32);
+        final String[] values = { "testingInputSource", "\u00e4\u00f6\u20ac", "\ud83d\ude00", "\ud800x", "" };
+        final StringBuilder concatenated = new StringBuilder();
+        for (final String value : values) {
+            buffers.append(value);
+            concatenated.append(value);
+        }
+        Assert.assertEquals(buffers.getCharCount(), concatenated.length());
+        final byte[] expectedInput = (concatenated.toString() + "post").getBytes(StandardCharsets.UTF_8);
+        Assert.assertEquals(buffers.getInputLength() + 4, expectedInput.length);
+        final Digest engine = new SHA256Digest();
+        engine.update(expectedInput, 0, expectedInput.length);
+        final byte[] expected = new byte[32];
+        engine.doFinal(expected, 0);
+        Assert.assertEquals(buffers.digest(new SHA256Digest(), "post".getBytes(StandardCharsets.UTF_8)),
+                new String(Base64.encode(expected)));
+    }
+
+    /**
+     * Tests that the input buffer grows and is cleared.
+     */
+    @Test public void testGrowAndClear() {
+        final AuthnIdBuffers buffers = new AuthnIdBuffers(32);
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < AuthnIdBuffers.DEFAULT_INPUT_CAPACITY; i++) {
+            builder.append("\u20ac");
+        }
+        buffers.append(builder.toString());
+        Assert.assertEquals(buffers.getInputLength(), AuthnIdBuffers.DEFAULT_INPUT_CAPACITY * 3);
+        buffers.clear();
+        Assert.assertEquals(buffers.getInputLength(), 0);
+        Assert.assertEquals(buffers.getCharCount(), 0);
+    }
+
+    /**
+     * Tests that the framed values are preceded by their lengths, and the missing values are marked.
+     */
+    @Test public void testAppendFramed() {
+        final AuthnIdBuffers buffers = new AuthnIdBuffers(32);
+        buffers.appendFramed("ab");
+        buffers.appendFramed("c");
+        final String first = buffers.digest(new SHA256Digest(), new byte[0]);
+        Assert.assertEquals(buffers.getInputLength(), 2 * 4 + 3);
+        Assert.assertEquals(buffers.getCharCount(), 3);
+        buffers.clear();
+        buffers.appendFramed("a");
+        buffers.appendFramed("bc");
+        Assert.assertNotEquals(buffers.digest(new SHA256Digest(), new byte[0]), first);
+
+        buffers.clear();
+        buffers.appendFramed("\u20ac");
+        buffers.appendFramed(null);
+        Assert.assertEquals(buffers.getCharCount(), 1);
+        final byte[] expectedInput = new byte[] { 0, 0, 0, 3, (byte) 0xe2, (byte) 0x82, (byte) 0xac,
+            (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff };
+        Assert.assertEquals(buffers.getInputLength(), expectedInput.length);
+        final Digest engine = new SHA256Digest();
+        engine.update(expectedInput, 0, expectedInput.length);
+        final byte[] expected = new byte[32];
+        engine.doFinal(expected, 0);
+        Assert.assertEquals(buffers.digest(new SHA256Digest(), new byte[0]), new String(Base64.encode(expected)));
+    }
+
+    /**
+     * Tests that the buffers constructed without a pool calculate the same HMAC as the pooled ones when the pool is
+     * given with the engine.
+     */
+    @Test public void testDigestWithGivenPool() {
+        final DigestEnginePool pool = DigestEnginePool.hmac(DigestAlgorithm.SHA256, "key".getBytes());
+        final AuthnIdBuffers pooled = new AuthnIdBuffers(pool, OutputEncoding.BASE64, 32, "{HMAC}");
+        final AuthnIdBuffers unpooled = new AuthnIdBuffers(32, OutputEncoding.BASE64, 32, "{HMAC}");
+        pooled.append("testingInputSource");
+        unpooled.append("testingInputSource");
+        final byte[] suffix = "post".getBytes(StandardCharsets.UTF_8);
+        final String expected = pooled.digest(pool.borrow(), suffix);
+        Assert.assertTrue(expected.startsWith("{HMAC}"));
+        Assert.assertEquals(unpooled.digest(pool.borrow(), suffix, pool), expected);
+        Assert.assertNotEquals(unpooled.digest(pool.borrow(), suffix, null), expected);
+    }
+
+    /**
+     * Tests the Base64 encoding with all the padding variants.
+     */
+    @Test public void testBase64() {
+        final byte[] bytes = new byte[] { (byte) 0xfb, (byte) 0xff, 0x00, 0x10, (byte) 0x83 };
+        final char[] chars = new char[8];
+        for (int i = 0; i <= bytes.length; i++) {
+            final byte[] prefix = new byte[i];
+            System.arraycopy(bytes, 0, prefix, 0, i);
+            final int length = AuthnIdBuffers.encodeBase64(bytes, i, chars);
+            Assert.assertEquals(new String(chars, 0, length), new String(Base64.encode(prefix)));
+        }
+    }
+}
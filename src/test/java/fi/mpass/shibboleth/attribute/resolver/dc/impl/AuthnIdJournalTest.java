@@ -0,0 +1,200 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link AuthnIdJournal}.
+ */
+public class AuthnIdJournalTest {
+
+    /** The hex-encoded SHA-256 hash of "user". */
+    private static final String USER_HASH = "04f8996da763b7a969b1028ee3007569eaf3a635486ddab211d512c85b9df8fb";
+
+    /** The journal directory used in testing. */
+    private Path directory;
+
+    /**
+     * Creates the journal directory.
+     * @throws IOException If the directory cannot be created.
+     */
+    @BeforeMethod public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("authnid-journal");
+    }
+
+    /**
+     * Deletes the journal directory.
+     * @throws IOException If the directory cannot be deleted.
+     */
+    @AfterMethod public void deleteDirectory() throws IOException {
+        for (final Path file : listFiles(directory)) {
+            Files.delete(file);
+        }
+        Files.delete(directory);
+    }
+
+    /**
+     * Tests the format of the entries and the compaction of the closed segment.
+     * @throws IOException If the journal cannot be written or read.
+     */
+    @Test public void testAppend() throws IOException {
+        final AuthnIdJournal journal = new AuthnIdJournal(directory, 4096, 8192, 1000L);
+        Assert.assertTrue(journal.append("user", null, "id1"));
+        Assert.assertTrue(journal.append("user", "tenant\ta", "id2"));
+        Assert.assertTrue(journal.append("user", null, "id1"));
+        journal.close();
+        Assert.assertFalse(journal.append("user", null, "id3"));
+        Assert.assertEquals(journal.getDropped(), 1);
+
+        final List<Path> segments = listFiles(directory);
+        Assert.assertEquals(segments.size(), 1);
+        final String name = segments.get(0).getFileName().toString();
+        Assert.assertTrue(name.startsWith(AuthnIdJournal.SEGMENT_PREFIX));
+        Assert.assertTrue(name.endsWith(AuthnIdJournal.SEGMENT_SUFFIX));
+        final List<String> lines = Files.readAllLines(segments.get(0), StandardCharsets.UTF_8);
+        Assert.assertEquals(lines.size(), 2);
+        final String[] first = lines.get(0).split("\t");
+        Assert.assertEquals(first.length, 4);
+        Assert.assertTrue(first[0].matches("\\d{4}-\\d{2}-\\d{2}T\\d{2}:\\d{2}:\\d{2}\\.\\d{3}Z"), first[0]);
+        Assert.assertEquals(first[1], USER_HASH);
+        Assert.assertEquals(first[2], AuthnIdJournal.DEFAULT_TENANT);
+        Assert.assertEquals(first[3], "id1");
+        Assert.assertTrue(lines.get(1).endsWith("\t" + USER_HASH + "\ttenant a\tid2"), lines.get(1));
+    }
+
+    /**
+     * Tests that a burst of entries larger than a single drain batch is written completely.
+     * @throws IOException If the journal cannot be written or read.
+     */
+    @Test public void testBurst() throws IOException {
+        final AuthnIdJournal journal = new AuthnIdJournal(directory, 1 << 20, 1 << 21, 1L, 4096);
+        for (int i = 0; i < 3000; i++) {
+            Assert.assertTrue(journal.append("user", null, "id" + i));
+        }
+        journal.close();
+        Assert.assertEquals(journal.getDropped(), 0);
+        final List<Path> segments = listFiles(directory);
+        Assert.assertEquals(segments.size(), 1);
+        final List<String> lines = Files.readAllLines(segments.get(0), StandardCharsets.UTF_8);
+        Assert.assertEquals(lines.size(), 3000);
+        Assert.assertTrue(lines.get(2999).endsWith("\tid2999"), lines.get(2999));
+    }
+
+    /**
+     * Tests that the segments are rotated and the oldest ones are deleted when the maximum size is exceeded.
+     * @throws IOException If the journal cannot be written or read.
+     */
+    @Test public void testRotation() throws IOException {
+        // each entry is 96 bytes, so two entries fit in a segment
+        final AuthnIdJournal journal = new AuthnIdJournal(directory, 200, 400, 1000L);
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(journal.append("user", null, "id" + i));
+        }
+        journal.close();
+        final List<Path> segments = listFiles(directory);
+        Assert.assertEquals(segments.size(), 2);
+        final List<String> ids = new ArrayList<>();
+        for (final Path segment : segments) {
+            Assert.assertEquals(Files.size(segment), 192L);
+            for (final String line : Files.readAllLines(segment, StandardCharsets.UTF_8)) {
+                ids.add(line.substring(line.lastIndexOf('\t') + 1));
+            }
+        }
+        Assert.assertEquals(ids.toString(), "[id6, id7, id8, id9]");
+    }
+
+    /**
+     * Tests that a segment left behind by a crash is trimmed and compacted, and that a new segment is started.
+     * @throws IOException If the journal cannot be written or read.
+     */
+    @Test public void testRecover() throws IOException {
+        final String line = "2017-01-01T00:00:00.000Z\t" + USER_HASH + "\t-\tid1\n";
+        final byte[] bytes = (line + line).getBytes(StandardCharsets.UTF_8);
+        final String name = AuthnIdJournal.SEGMENT_PREFIX + "0000000000000-0000";
+        final Path segment = directory.resolve(name + AuthnIdJournal.OPEN_SEGMENT_SUFFIX);
+        Files.write(segment, new byte[20000]);
+        final byte[] padded = Files.readAllBytes(segment);
+        System.arraycopy(bytes, 0, padded, 0, bytes.length);
+        Files.write(segment, padded);
+
+        final AuthnIdJournal journal = new AuthnIdJournal(directory, 4096, 8192, 1000L);
+        journal.append("user", null, "id2");
+        journal.close();
+        final Path compacted = directory.resolve(name + AuthnIdJournal.SEGMENT_SUFFIX);
+        Assert.assertFalse(Files.exists(segment));
+        Assert.assertEquals(Files.readAllLines(compacted, StandardCharsets.UTF_8).size(), 1);
+        Assert.assertEquals(Files.size(compacted), (long) line.length());
+        final List<Path> segments = listFiles(directory);
+        Assert.assertEquals(segments.size(), 2);
+        for (final Path file : segments) {
+            Assert.assertTrue(file.getFileName().toString().endsWith(AuthnIdJournal.SEGMENT_SUFFIX), file.toString());
+        }
+    }
+
+    /**
+     * Tests that the already compacted segments are not rewritten when the journal is opened.
+     * @throws IOException If the journal cannot be written or read.
+     */
+    @Test public void testCompactedNotRewritten() throws IOException {
+        final String line = "2017-01-01T00:00:00.000Z\t" + USER_HASH + "\t-\tid1\n";
+        final Path segment = directory.resolve(AuthnIdJournal.SEGMENT_PREFIX + "0000000000000-0000"
+                + AuthnIdJournal.SEGMENT_SUFFIX);
+        Files.write(segment, (line + line).getBytes(StandardCharsets.UTF_8));
+
+        final AuthnIdJournal journal = new AuthnIdJournal(directory, 4096, 8192, 1000L);
+        journal.close();
+        Assert.assertEquals(Files.readAllLines(segment, StandardCharsets.UTF_8).size(), 2);
+        Assert.assertEquals(listFiles(directory).size(), 1);
+    }
+
+    /**
+     * Lists the files in the directory, sorted by name.
+     * @param dir The directory.
+     * @return The files.
+     * @throws IOException If the directory cannot be read.
+     */
+    private static List<Path> listFiles(final Path dir) throws IOException {
+        final List<Path> files = new ArrayList<>();
+        try (final DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (final Path file : stream) {
+                files.add(file);
+            }
+        }
+        Collections.sort(files);
+        return files;
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link AuthnIdKdf}.
+ */
+public class AuthnIdKdfTest {
+
+    /** The number of iterations taking much longer than the tests wait. */
+    private static final int SLOW_ITERATIONS = Integer.MAX_VALUE;
+
+    /**
+     * Tests PBKDF2-HMAC-SHA256 against the published test vectors.
+     * @throws Exception If the derivation fails.
+     */
+    @Test public void testPbkdf2() throws Exception {
+        Assert.assertEquals(pbkdf2("password", "salt", 1),
+                "120fb6cffcf8b32c43e7225256c4f837a86548c92ccc35480805987cb70be17b");
+        Assert.assertEquals(pbkdf2("password", "salt", 2),
+                "ae4d0c95af6b46d32d0adff928f06dd02a303f8ef3c251dfd6e2d85a95474c43");
+        Assert.assertEquals(pbkdf2("password", "salt", 4096),
+                "c5e478d59288c841aa530db6845c4c8d962893a001ce4e11a4963873aa98134a");
+        // a password longer than the block size is hashed first
+        final char[] longPassword = new char[100];
+        Arrays.fill(longPassword, 'p');
+        Assert.assertEquals(pbkdf2(new String(longPassword), "salt", 3),
+                "f598272d35e2ca276ac07694cf01636c4d643ad3075956477cfdd83eda46d9f6");
+    }
+
+    /**
+     * Tests that the derivation in the worker pool equals the one in the calling thread.
+     * @throws Exception If the derivation fails.
+     */
+    @Test public void testDerive() throws Exception {
+        final AuthnIdKdf kdf = new AuthnIdKdf(DigestAlgorithm.SHA256, 4096, 2, 10, 10000L, "test-kdf");
+        Assert.assertEquals(kdf.getIterations(), 4096);
+        final byte[] password = "password".getBytes(StandardCharsets.UTF_8);
+        final byte[] salt = "salt".getBytes(StandardCharsets.UTF_8);
+        Assert.assertEquals(kdf.derive(password, salt), AuthnIdKdf.pbkdf2(DigestAlgorithm.SHA256, password, salt,
+                4096));
+        kdf.shutdown();
+    }
+
+    /**
+     * Tests that a derivation taking too long times out.
+     * @throws Exception If the derivation fails unexpectedly.
+     */
+    @Test(expectedExceptions = TimeoutException.class)
+    public void testTimeout() throws Exception {
+        final AuthnIdKdf kdf = new AuthnIdKdf(DigestAlgorithm.SHA256, SLOW_ITERATIONS, 1, 1, 50L, "test-kdf");
+        try {
+            kdf.derive(new byte[1], new byte[1]);
+        } finally {
+            kdf.shutdown();
+        }
+    }
+
+    /**
+     * Tests that a derivation is rejected when the worker is busy and the queue is full.
+     * @throws Exception If the derivation fails unexpectedly.
+     */
+    @Test(expectedExceptions = RejectedExecutionException.class)
+    public void testRejected() throws Exception {
+        final AuthnIdKdf kdf = new AuthnIdKdf(DigestAlgorithm.SHA256, SLOW_ITERATIONS, 1, 1, 2000L, "test-kdf");
+        try {
+            for (int i = 0; i < 2; i++) {
+                final Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            kdf.derive(new byte[1], new byte[1]);
+                        } catch (Exception e) {
+                            // expected, the derivations are cancelled
+                        }
+                    }
+                });
+                thread.setDaemon(true);
+                thread.start();
+            }
+            Thread.sleep(500);
+            kdf.derive(new byte[1], new byte[1]);
+        } finally {
+            kdf.shutdown();
+        }
+    }
+
+    /**
+     * Derives a key with PBKDF2-HMAC-SHA256.
+     * @param password The password.
+     * @param salt The salt.
+     * @param iterations The number of iterations.
+     * @return The hex-encoded key.
+     * @throws InterruptedException If the derivation is interrupted.
+     */
+    private static String pbkdf2(final String password, final String salt, final int iterations)
+            throws InterruptedException {
+        final byte[] key = AuthnIdKdf.pbkdf2(DigestAlgorithm.SHA256, password.getBytes(StandardCharsets.UTF_8),
+                salt.getBytes(StandardCharsets.UTF_8), iterations);
+        final char[] chars = new char[OutputEncoding.HEX.getEncodedLength(key.length)];
+        return new String(chars, 0, OutputEncoding.HEX.encode(key, key.length, chars, 0));
+    }
+}
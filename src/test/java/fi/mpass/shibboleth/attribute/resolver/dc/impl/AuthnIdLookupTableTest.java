@@ -0,0 +1,206 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link AuthnIdLookupTable}.
+ */
+public class AuthnIdLookupTableTest {
+
+    /** The principal names used in testing, including multi-byte and unpaired surrogate characters. */
+    private static final String[] PRINCIPALS = { "user", "", "J\u00e4rvinen", "\u20ac\u4e2d", "\ud83d\ude00x",
+        "bad\ud800", "bad\udc00end" };
+
+    /** The fingerprint of the calculation parameters used in testing. */
+    public static final byte[] FINGERPRINT = new byte[AuthnIdLookupTable.FINGERPRINT_SIZE];
+
+    /** The table file used in testing. */
+    private Path tableFile;
+
+    /**
+     * Creates the table file.
+     * @throws IOException If the file cannot be created.
+     */
+    @BeforeMethod public void createTable() throws IOException {
+        tableFile = Files.createTempFile("authnid", ".idx");
+    }
+
+    /**
+     * Deletes the table file.
+     * @throws IOException If the file cannot be deleted.
+     */
+    @AfterMethod public void deleteTable() throws IOException {
+        Files.deleteIfExists(tableFile);
+    }
+
+    /**
+     * Tests that the string hash is equal to the hash of the UTF-8 encoding.
+     */
+    @Test public void testHash() {
+        for (final String principal : PRINCIPALS) {
+            final byte[] bytes = principal.getBytes(StandardCharsets.UTF_8);
+            Assert.assertEquals(AuthnIdLookupTable.hash(principal), AuthnIdLookupTable.hash(bytes, 0, bytes.length),
+                    principal);
+        }
+    }
+
+    /**
+     * Tests the lookups of existing and missing principals.
+     * @throws IOException If the table cannot be written or mapped.
+     */
+    @Test public void testLookup() throws IOException {
+        final AuthnIdTableBuilder builder = new AuthnIdTableBuilder(FINGERPRINT);
+        for (int i = 0; i < 1000; i++) {
+            builder.add("principal" + i, "id" + i);
+        }
+        for (int i = 1; i < PRINCIPALS.length; i++) {
+            builder.add(PRINCIPALS[i], "id-" + i);
+        }
+        builder.write(tableFile);
+        final AuthnIdLookupTable table = new AuthnIdLookupTable(tableFile, 60000L, FINGERPRINT);
+        Assert.assertEquals(table.size(), 1000 + PRINCIPALS.length - 1);
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertEquals(table.lookup("principal" + i), "id" + i);
+        }
+        for (int i = 1; i < PRINCIPALS.length; i++) {
+            Assert.assertEquals(table.lookup(PRINCIPALS[i]), "id-" + i, PRINCIPALS[i]);
+        }
+        Assert.assertNull(table.lookup(PRINCIPALS[0]));
+        Assert.assertNull(table.lookup("principal1000"));
+        Assert.assertNull(table.lookup("J\u00e4rvine"));
+        Assert.assertNull(table.lookup("J\u00e4rvinenn"));
+    }
+
+    /**
+     * Tests that a replaced table is mapped after the check interval.
+     * @throws IOException If the table cannot be written or mapped.
+     */
+    @Test public void testReload() throws IOException {
+        final AuthnIdTableBuilder builder = new AuthnIdTableBuilder(FINGERPRINT);
+        builder.add("user", "first");
+        builder.write(tableFile);
+        final AuthnIdLookupTable table = new AuthnIdLookupTable(tableFile, 60000L, FINGERPRINT);
+        Assert.assertEquals(table.lookup("user"), "first");
+        final AuthnIdTableBuilder builder2 = new AuthnIdTableBuilder(FINGERPRINT);
+        builder2.add("user", "second");
+        builder2.add("other", "third");
+        builder2.write(tableFile);
+        Files.setLastModifiedTime(tableFile, FileTime.fromMillis(System.currentTimeMillis() + 10000L));
+        Assert.assertEquals(table.lookup("user"), "first");
+        Assert.assertTrue(table.reloadIfModified(System.currentTimeMillis() + 120000L));
+        Assert.assertEquals(table.lookup("user"), "second");
+        Assert.assertEquals(table.lookup("other"), "third");
+        Assert.assertFalse(table.reloadIfModified(System.currentTimeMillis() + 240000L));
+
+        final Path invalid = Files.createTempFile(tableFile.toAbsolutePath().getParent(), "invalid", ".idx");
+        Files.write(invalid, new byte[] { 1, 2, 3 });
+        Files.move(invalid, tableFile, StandardCopyOption.REPLACE_EXISTING);
+        Assert.assertFalse(table.reloadIfModified(System.currentTimeMillis() + 360000L));
+        Assert.assertEquals(table.lookup("user"), "second");
+
+        final AuthnIdTableBuilder other = new AuthnIdTableBuilder(otherFingerprint());
+        other.add("user", "other");
+        other.write(tableFile);
+        Files.setLastModifiedTime(tableFile, FileTime.fromMillis(System.currentTimeMillis() + 20000L));
+        Assert.assertFalse(table.reloadIfModified(System.currentTimeMillis() + 480000L));
+        Assert.assertEquals(table.lookup("user"), "second");
+    }
+
+    /**
+     * Tests that a table built with other calculation parameters is rejected.
+     * @throws IOException If the table cannot be written or mapped.
+     */
+    @Test public void testFingerprint() throws IOException {
+        final AuthnIdTableBuilder builder = new AuthnIdTableBuilder(otherFingerprint());
+        builder.add("user", "first");
+        builder.write(tableFile);
+        final AuthnIdLookupTable table = new AuthnIdLookupTable(tableFile, 60000L, otherFingerprint());
+        Assert.assertTrue(table.matches(otherFingerprint()));
+        Assert.assertFalse(table.matches(FINGERPRINT));
+        Assert.assertTrue(Arrays.equals(table.getFingerprint(), otherFingerprint()));
+        try {
+            new AuthnIdLookupTable(tableFile, 60000L, FINGERPRINT);
+            Assert.fail("The table should have been rejected");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage().contains("different calculation parameters"));
+        }
+    }
+
+    /**
+     * Tests that the table is not used after the expected fingerprint changes, until a matching table is mapped.
+     * @throws IOException If the table cannot be written or mapped.
+     */
+    @Test public void testExpectedFingerprint() throws IOException {
+        final AuthnIdTableBuilder builder = new AuthnIdTableBuilder(FINGERPRINT);
+        builder.add("user", "first");
+        builder.write(tableFile);
+        final AuthnIdLookupTable table = new AuthnIdLookupTable(tableFile, 60000L, FINGERPRINT);
+        table.setExpectedFingerprint(FINGERPRINT);
+        Assert.assertEquals(table.lookup("user"), "first");
+        table.setExpectedFingerprint(otherFingerprint());
+        Assert.assertNull(table.lookup("user"));
+        Assert.assertTrue(table.matches(FINGERPRINT));
+
+        final AuthnIdTableBuilder other = new AuthnIdTableBuilder(otherFingerprint());
+        other.add("user", "second");
+        other.write(tableFile);
+        Assert.assertTrue(table.reloadIfModified(System.currentTimeMillis() + 120000L));
+        Assert.assertEquals(table.lookup("user"), "second");
+        Assert.assertTrue(table.matches(otherFingerprint()));
+    }
+
+    /**
+     * Builds a fingerprint different from the {@link #FINGERPRINT}.
+     * 
+     * @return The fingerprint.
+     */
+    protected static byte[] otherFingerprint() {
+        final byte[] fingerprint = new byte[AuthnIdLookupTable.FINGERPRINT_SIZE];
+        Arrays.fill(fingerprint, (byte) 1);
+        return fingerprint;
+    }
+
+    /**
+     * Tests that an invalid file is rejected.
+     * @throws IOException If the file cannot be written.
+     */
+    @Test(expectedExceptions = IOException.class) public void testInvalidFile() throws IOException {
+        Files.write(tableFile, "not a table file".getBytes(StandardCharsets.US_ASCII));
+        new AuthnIdLookupTable(tableFile, 60000L, FINGERPRINT);
+    }
+}
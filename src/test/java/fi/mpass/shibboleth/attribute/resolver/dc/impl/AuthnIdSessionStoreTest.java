@@ -0,0 +1,115 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.io.IOException;
+
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+
+import org.opensaml.storage.impl.MemoryStorageService;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link AuthnIdSessionStore}.
+ */
+public class AuthnIdSessionStoreTest {
+
+    /** The storage service used in testing. */
+    private MemoryStorageService storageService;
+
+    /**
+     * Initializes the storage service.
+     * @throws ComponentInitializationException If the storage service cannot be initialized.
+     */
+    @BeforeMethod public void initStorage() throws ComponentInitializationException {
+        storageService = new MemoryStorageService();
+        storageService.setId("test");
+        storageService.initialize();
+    }
+
+    /**
+     * Destroys the storage service.
+     */
+    @AfterMethod public void destroyStorage() {
+        storageService.destroy();
+    }
+
+    /**
+     * Tests storing and reading the authnIDs.
+     * @throws IOException If the storage service fails.
+     */
+    @Test public void testStoreAndRead() throws IOException {
+        final AuthnIdSessionStore store = new AuthnIdSessionStore(storageService, "authnid", 60000L);
+        final long now = System.currentTimeMillis();
+        Assert.assertEquals(store.getContext(), AuthnIdSessionStore.CONTEXT_PREFIX + "authnid");
+        Assert.assertNull(store.read("session1", "scopeA", now));
+        store.store("session1", "scopeA", now, "currentId=", null);
+        store.store("session2", "scopeA", now, "currentId=", "previousId=");
+        Assert.assertEquals(store.read("session1", "scopeA", now), new String[] { "currentId=", null });
+        Assert.assertEquals(store.read("session2", "scopeA", now), new String[] { "currentId=", "previousId=" });
+        store.store("session1", "scopeA", now, "otherId=", null);
+        Assert.assertEquals(store.read("session1", "scopeA", now)[0], "currentId=");
+        Assert.assertEquals(storageService.read(store.getContext(), "session1!scopeA").getExpiration(),
+                Long.valueOf(now + 60000L));
+        Assert.assertNull(new AuthnIdSessionStore(storageService, "other", 60000L).read("session1", "scopeA", now));
+    }
+
+    /**
+     * Tests that the records stored with another plan scope are not read.
+     */
+    @Test public void testScope() {
+        final AuthnIdSessionStore store = new AuthnIdSessionStore(storageService, "authnid", 60000L);
+        final long now = System.currentTimeMillis();
+        store.store("session1", "scopeA", now, "oldId=", null);
+        Assert.assertNull(store.read("session1", "scopeB", now));
+        store.store("session1", "scopeB", now, "newId=", null);
+        Assert.assertEquals(store.read("session1", "scopeB", now)[0], "newId=");
+        Assert.assertEquals(store.read("session1", "scopeA", now)[0], "oldId=");
+    }
+
+    /**
+     * Tests that the records expire after the lifetime counted from the last activity of the session, and that
+     * reading a record extends it with the session.
+     * @throws IOException If the storage service fails.
+     */
+    @Test public void testExpiration() throws IOException {
+        final AuthnIdSessionStore store = new AuthnIdSessionStore(storageService, "authnid", 60000L);
+        final long now = System.currentTimeMillis();
+        store.store("session1", "scopeA", now - 30000L, "currentId=", null);
+        Assert.assertEquals(storageService.read(store.getContext(), "session1!scopeA").getExpiration(),
+                Long.valueOf(now + 30000L));
+        Assert.assertEquals(store.read("session1", "scopeA", now)[0], "currentId=");
+        Assert.assertEquals(storageService.read(store.getContext(), "session1!scopeA").getExpiration(),
+                Long.valueOf(now + 60000L));
+        Assert.assertEquals(store.read("session1", "scopeA", now - 30000L)[0], "currentId=");
+        Assert.assertEquals(storageService.read(store.getContext(), "session1!scopeA").getExpiration(),
+                Long.valueOf(now + 60000L));
+        store.store("session2", "scopeA", now - 61000L, "expiredId=", null);
+        Assert.assertNull(store.read("session2", "scopeA", now));
+    }
+}
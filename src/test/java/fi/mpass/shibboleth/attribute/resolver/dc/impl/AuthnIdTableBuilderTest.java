@@ -0,0 +1,80 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link AuthnIdTableBuilder}.
+ */
+public class AuthnIdTableBuilderTest {
+
+    /**
+     * Tests building the table from an output of the batch generation, with failed and repeated lines.
+     * @throws IOException If the files cannot be read or written.
+     */
+    @Test public void testBuild() throws IOException {
+        final Path authnIds = Files.createTempFile("authnid", ".csv");
+        final Path table = Files.createTempFile("authnid", ".idx");
+        try {
+            Files.write(authnIds, Arrays.asList("\"Doe, John\",/koIA2Xy/utNm9/f6c4HPnGb2bZ/0nRKOTd2BAQfFL8=", 
+                    "Short,", "user,first", "user,second", ",orphan"), StandardCharsets.UTF_8);
+            Assert.assertEquals(new AuthnIdTableBuilder(AuthnIdLookupTableTest.FINGERPRINT).build(authnIds, table), 2);
+            final AuthnIdLookupTable lookupTable =
+                    new AuthnIdLookupTable(table, 60000L, AuthnIdLookupTableTest.FINGERPRINT);
+            Assert.assertEquals(lookupTable.size(), 2);
+            Assert.assertEquals(lookupTable.lookup("Doe, John"), "/koIA2Xy/utNm9/f6c4HPnGb2bZ/0nRKOTd2BAQfFL8=");
+            Assert.assertEquals(lookupTable.lookup("user"), "first");
+            Assert.assertNull(lookupTable.lookup("Short"));
+        } finally {
+            Files.delete(authnIds);
+            Files.delete(table);
+        }
+    }
+
+    /**
+     * Tests building an empty table.
+     * @throws IOException If the files cannot be read or written.
+     */
+    @Test public void testEmpty() throws IOException {
+        final Path table = Files.createTempFile("authnid", ".idx");
+        try {
+            new AuthnIdTableBuilder(AuthnIdLookupTableTest.FINGERPRINT).write(table);
+            final AuthnIdLookupTable lookupTable =
+                    new AuthnIdLookupTable(table, 60000L, AuthnIdLookupTableTest.FINGERPRINT);
+            Assert.assertEquals(lookupTable.size(), 0);
+            Assert.assertNull(lookupTable.lookup("user"));
+        } finally {
+            Files.delete(table);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link CompactStringSet}.
+ */
+public class CompactStringSetTest {
+
+    /**
+     * Tests an empty set.
+     */
+    @Test public void testEmpty() {
+        final CompactStringSet set = new CompactStringSet(new ArrayList<String>());
+        Assert.assertEquals(set.size(), 0);
+        Assert.assertFalse(set.contains("mock"));
+        Assert.assertFalse(set.contains(null));
+    }
+
+    /**
+     * Tests a small set with duplicates and nulls.
+     */
+    @Test public void testSmall() {
+        final CompactStringSet set = new CompactStringSet(Arrays.asList("mock1", "mock2", "mock1", null));
+        Assert.assertEquals(set.size(), 2);
+        Assert.assertTrue(set.contains("mock1"));
+        Assert.assertTrue(set.contains(new String("mock2")));
+        Assert.assertFalse(set.contains("mock3"));
+        Assert.assertFalse(set.contains(Integer.valueOf(1)));
+        Assert.assertEquals(set.indexOf("mock1"), 0);
+        Assert.assertEquals(set.indexOf("mock2"), 1);
+        Assert.assertEquals(set.indexOf("mock3"), -1);
+        Assert.assertEquals(set.indexOf(null), -1);
+    }
+
+    /**
+     * Tests a large set.
+     */
+    @Test public void testLarge() {
+        final List<String> values = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            values.add("school" + i);
+        }
+        final CompactStringSet set = new CompactStringSet(values);
+        Assert.assertEquals(set.size(), values.size());
+        for (int i = 0; i < 10000; i++) {
+            Assert.assertTrue(set.contains("school" + i));
+            Assert.assertEquals(set.indexOf("school" + i), i);
+            Assert.assertFalse(set.contains("student" + i));
+        }
+    }
+}
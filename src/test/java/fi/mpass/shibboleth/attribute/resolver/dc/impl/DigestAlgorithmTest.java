@@ -0,0 +1,119 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.nio.charset.StandardCharsets;
+
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.crypto.ExtendedDigest;
+import org.bouncycastle.util.Memoable;
+import org.bouncycastle.util.encoders.Hex;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link DigestAlgorithm}.
+ */
+public class DigestAlgorithmTest {
+
+    /**
+     * Tests the engines against the known digests of "abc".
+     */
+    @Test public void testKnownValues() {
+        Assert.assertEquals(digest(DigestAlgorithm.SHA256.newEngine(), "abc"),
+                "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad");
+        Assert.assertEquals(digest(DigestAlgorithm.SHA512_256.newEngine(), "abc"),
+                "53048e2681941ef99b2e29b76b4c7dabe4c2d0c634fc6d46e0e2f13107e7af23");
+        Assert.assertEquals(digest(DigestAlgorithm.SHA3_256.newEngine(), "abc"),
+                "3a985da74fe225b2045c172d6bd390bd855f086e3e9d525b46bfe24511431532");
+        Assert.assertEquals(digest(DigestAlgorithm.BLAKE2B_256.newEngine(), "abc"),
+                "bddd813c634239723171ef3fee98579b94964e3bb1cb3e427262c8c068d52319");
+    }
+
+    /**
+     * Tests that all the engines can be used with primed states in {@link DigestEnginePool}.
+     */
+    @Test public void testPrimedState() {
+        for (final DigestAlgorithm algorithm : DigestAlgorithm.values()) {
+            final Digest engine = algorithm.newEngine();
+            Assert.assertTrue(engine instanceof Memoable);
+            Assert.assertEquals(engine.getDigestSize(), 32);
+            final String expected = digest(algorithm.newEngine(), "prefix-input");
+            final DigestEnginePool pool = new DigestEnginePool(engine);
+            final Digest primed = pool.copyPrototype();
+            primed.update("prefix-".getBytes(StandardCharsets.UTF_8), 0, "prefix-".length());
+            final Memoable state = ((Memoable) primed).copy();
+            Assert.assertEquals(digest(pool.borrow(state), "input"), expected, algorithm.getAlgorithmName());
+            Assert.assertEquals(digest(pool.borrow(state), "input"), expected, algorithm.getAlgorithmName());
+            Assert.assertEquals(digest(pool.borrow(), "prefix-input"), expected, algorithm.getAlgorithmName());
+        }
+    }
+
+    /**
+     * Tests that the block sizes match the engines, and which engines restore the states in place.
+     */
+    @Test public void testBlockSize() {
+        for (final DigestAlgorithm algorithm : DigestAlgorithm.values()) {
+            Assert.assertEquals(algorithm.getBlockSize(), ((ExtendedDigest) algorithm.createEngine()).getByteLength(),
+                    algorithm.getAlgorithmName());
+        }
+        Assert.assertTrue(DigestAlgorithm.SHA256.isRestoredInPlace());
+        Assert.assertTrue(DigestAlgorithm.SHA512_256.isRestoredInPlace());
+        Assert.assertFalse(DigestAlgorithm.SHA3_256.isRestoredInPlace());
+        Assert.assertFalse(DigestAlgorithm.BLAKE2B_256.isRestoredInPlace());
+    }
+
+    /**
+     * Tests finding the algorithms by their names.
+     */
+    @Test public void testForName() {
+        Assert.assertEquals(DigestAlgorithm.forName("SHA-256"), DigestAlgorithm.SHA256);
+        Assert.assertEquals(DigestAlgorithm.forName("sha-512/256"), DigestAlgorithm.SHA512_256);
+        Assert.assertEquals(DigestAlgorithm.forName("SHA3-256"), DigestAlgorithm.SHA3_256);
+        Assert.assertEquals(DigestAlgorithm.forName("blake2b-256"), DigestAlgorithm.BLAKE2B_256);
+    }
+
+    /**
+     * Tests that unsupported algorithms are rejected.
+     */
+    @Test(expectedExceptions = IllegalArgumentException.class) public void testUnsupported() {
+        DigestAlgorithm.forName("MD5");
+    }
+
+    /**
+     * Helper method for calculating a hex-encoded digest with the given engine.
+     * 
+     * @param engine The engine to be used.
+     * @param input The input.
+     * @return The hex-encoded digest.
+     */
+    protected String digest(final Digest engine, final String input) {
+        final byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+        engine.update(bytes, 0, bytes.length);
+        final byte[] result = new byte[engine.getDigestSize()];
+        engine.doFinal(result, 0);
+        return Hex.toHexString(result);
+    }
+}
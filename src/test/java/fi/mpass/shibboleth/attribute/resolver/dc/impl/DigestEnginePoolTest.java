@@ -0,0 +1,143 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import net.shibboleth.utilities.java.support.logic.ConstraintViolationException;
+
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.crypto.ExtendedDigest;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.macs.HMac;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.util.Memoable;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link DigestEnginePool}.
+ */
+public class DigestEnginePoolTest {
+
+    /**
+     * Tests that the same thread gets the same engine in a reset state.
+     */
+    @Test public void testSameThread() {
+        final DigestEnginePool pool = new DigestEnginePool(new SHA256Digest());
+        Assert.assertEquals(pool.getAlgorithmName(), "SHA-256");
+        Assert.assertEquals(pool.getDigestSize(), 32);
+        final Digest engine = pool.borrow();
+        final byte[] first = digest(engine, "mock");
+        final Digest engine2 = pool.borrow();
+        Assert.assertSame(engine2, engine);
+        engine2.update((byte) 'x');
+        Assert.assertEquals(digest(pool.borrow(), "mock"), first);
+    }
+
+    /**
+     * Tests that the state of a primed prototype is restored to the borrowed engines.
+     */
+    @Test public void testPrimedPrototype() {
+        final Digest prototype = new SHA256Digest();
+        prototype.update((byte) 'm');
+        final DigestEnginePool pool = new DigestEnginePool(prototype);
+        prototype.update((byte) 'x');
+        final byte[] expected = digest(new SHA256Digest(), "mock");
+        Assert.assertEquals(digest(pool.borrow(), "ock"), expected);
+        Assert.assertEquals(digest(pool.borrow(), "ock"), expected);
+    }
+
+    /**
+     * Tests that different threads get their own engines.
+     * 
+     * @throws InterruptedException If the thread is interrupted.
+     */
+    @Test public void testOtherThread() throws InterruptedException {
+        final DigestEnginePool pool = new DigestEnginePool(new SHA256Digest());
+        final Digest engine = pool.borrow();
+        final Digest[] other = new Digest[1];
+        final Thread thread = new Thread(new Runnable() {
+            public void run() {
+                other[0] = pool.borrow();
+            }
+        });
+        thread.start();
+        thread.join();
+        Assert.assertNotNull(other[0]);
+        Assert.assertNotSame(other[0], engine);
+    }
+
+    /**
+     * Tests that the keyed pools calculate the same HMACs as the BouncyCastle implementation, with short and long
+     * keys, also when the engines are restored to a primed state.
+     */
+    @Test public void testHmac() {
+        final byte[][] keys = { "key".getBytes(), new byte[200] };
+        for (final DigestAlgorithm algorithm : DigestAlgorithm.values()) {
+            for (final byte[] key : keys) {
+                final HMac hmac = new HMac((ExtendedDigest) algorithm.createEngine());
+                hmac.init(new KeyParameter(key));
+                final byte[] input = "prefix-input".getBytes();
+                hmac.update(input, 0, input.length);
+                final byte[] expected = new byte[hmac.getMacSize()];
+                hmac.doFinal(expected, 0);
+
+                final DigestEnginePool pool = DigestEnginePool.hmac(algorithm, key);
+                Assert.assertTrue(pool.isKeyed());
+                final Digest primed = pool.copyPrototype();
+                primed.update(input, 0, "prefix-".length());
+                final Memoable state = ((Memoable) primed).copy();
+                for (int i = 0; i < 2; i++) {
+                    final Digest engine = pool.borrow(state);
+                    engine.update(input, "prefix-".length(), "input".length());
+                    final byte[] result = new byte[pool.getDigestSize()];
+                    pool.finish(engine, result);
+                    Assert.assertEquals(result, expected, algorithm.getAlgorithmName());
+                }
+            }
+        }
+        Assert.assertFalse(new DigestEnginePool(new SHA256Digest()).isKeyed());
+    }
+
+    /**
+     * Tests that the prototype engine is required.
+     */
+    @Test(expectedExceptions = ConstraintViolationException.class) public void testNullPrototype() {
+        new DigestEnginePool(null);
+    }
+
+    /**
+     * Helper method for calculating a digest with the given engine.
+     * 
+     * @param engine The engine to be used.
+     * @param input The input.
+     * @return The digest.
+     */
+    protected byte[] digest(final Digest engine, final String input) {
+        final byte[] bytes = input.getBytes();
+        engine.update(bytes, 0, bytes.length);
+        final byte[] result = new byte[engine.getDigestSize()];
+        engine.doFinal(result, 0);
+        return result;
+    }
+}
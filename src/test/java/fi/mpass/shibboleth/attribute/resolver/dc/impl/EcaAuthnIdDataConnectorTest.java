@@ -23,11 +23,20 @@
 
 package fi.mpass.shibboleth.attribute.resolver.dc.impl;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Function;
+
 import net.shibboleth.idp.attribute.EmptyAttributeValue;
 import net.shibboleth.idp.attribute.IdPAttribute;
 import net.shibboleth.idp.attribute.IdPAttributeValue;
@@ -40,7 +49,10 @@ import net.shibboleth.idp.attribute.resolver.context.AttributeResolutionContext;
 import net.shibboleth.idp.attribute.resolver.context.AttributeResolverWorkContext;
 import net.shibboleth.idp.saml.impl.TestSources;
 import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.component.UnmodifiableComponentException;
 
+import org.opensaml.storage.StorageService;
+import org.opensaml.storage.impl.MemoryStorageService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.testng.Assert;
@@ -246,6 +258,352 @@ public class EcaAuthnIdDataConnectorTest {
                 "/koIA2Xy/utNm9/f6c4HPnGb2bZ/0nRKOTd2BAQfFL8=");
     }
     
+    /**
+     * Tests {@link EcaAuthnIdDataConnector} with configuration that sets the digest algorithm.
+     * @throws ComponentInitializationException If component cannot be initialized.
+     * @throws ResolutionException If attribute resolution fails.
+     */
+    @Test public void testDigestAlgorithm() throws ComponentInitializationException, ResolutionException {
+        final EcaAuthnIdDataConnector dataConnector = 
+                EcaAuthnIdDataConnectorParserTest.initializeDataConnector("authnid-blake2b.xml");
+        Assert.assertEquals(dataConnector.getDigestAlgorithm(), DigestAlgorithm.BLAKE2B_256);
+        final AttributeResolutionContext context =
+                TestSources.createResolutionContext(TestSources.PRINCIPAL_ID, TestSources.IDP_ENTITY_ID,
+                        TestSources.SP_ENTITY_ID);
+        final AttributeResolverWorkContext workContext = 
+                context.getSubcontext(AttributeResolverWorkContext.class, false);
+        recordWorkContextAttribute(srcAttributeName, srcAttributeValues.get(0), workContext); 
+        final Map<String, IdPAttribute> resolvedAttributes = dataConnector.resolve(context);
+        Assert.assertEquals(resolvedAttributes.size(), 1);
+        Assert.assertEquals(resolvedAttributes.get(destAttributeName).getValues().get(0).getValue(), 
+                "CUDgGaz4r3kyt+AYRL1ozbUN+DkkPTrM016BzwLpnUA=");
+        Assert.assertEquals(dataConnector.calculateSaltedAuthnId(srcAttributeValues.get(0)),
+                dataConnector.calculateAuthnId(dataConnector.saltAuthnIdInput(srcAttributeValues.get(0))));
+    }
+
+    /**
+     * Tests {@link EcaAuthnIdDataConnector} with configuration that calculates HMACs with the key read from a file.
+     * @throws ComponentInitializationException If component cannot be initialized.
+     * @throws ResolutionException If attribute resolution fails.
+     */
+    @Test public void testHmacKeyFile() throws ComponentInitializationException, ResolutionException {
+        final EcaAuthnIdDataConnector dataConnector = 
+                EcaAuthnIdDataConnectorParserTest.initializeDataConnector("authnid-hmac.xml");
+        Assert.assertNotNull(dataConnector.getHmacKeyFile());
+        Assert.assertEquals(dataConnector.getHmacOutputFormat(), EcaAuthnIdDataConnector.HMAC_OUTPUT_FORMAT_LEGACY);
+        Assert.assertEquals(resolveAuthnId(dataConnector), "wAMLM26iHOQZSQwK9Y/HiGTZAebW3IGV8JJ+DNuq+AM=");
+        Assert.assertEquals(dataConnector.calculateAuthnId(srcAttributeValues.get(0)),
+                "t80xk7xk7YbFEEqo4zzyvTrFb9hYHimv2Bw/RFADLIY=");
+        Assert.assertEquals(dataConnector.calculateSaltedAuthnId(srcAttributeValues.get(0)),
+                "wAMLM26iHOQZSQwK9Y/HiGTZAebW3IGV8JJ+DNuq+AM=");
+    }
+
+    /**
+     * Tests {@link EcaAuthnIdDataConnector} with configuration that calculates HMACs with the key read from a
+     * keystore, in the tagged output format.
+     * @throws ComponentInitializationException If component cannot be initialized.
+     * @throws ResolutionException If attribute resolution fails.
+     */
+    @Test public void testHmacKeyStore() throws ComponentInitializationException, ResolutionException {
+        final EcaAuthnIdDataConnector dataConnector = 
+                EcaAuthnIdDataConnectorParserTest.initializeDataConnector("authnid-hmac-keystore.xml");
+        Assert.assertEquals(dataConnector.getHmacKeyAlias(), "authnid");
+        Assert.assertEquals(dataConnector.getHmacKeyStoreType(), EcaAuthnIdDataConnector.DEFAULT_HMAC_KEYSTORE_TYPE);
+        Assert.assertEquals(dataConnector.getHmacOutputFormat(), EcaAuthnIdDataConnector.HMAC_OUTPUT_FORMAT_TAGGED);
+        Assert.assertEquals(resolveAuthnId(dataConnector),
+                "{HMAC-SHA-256}wAMLM26iHOQZSQwK9Y/HiGTZAebW3IGV8JJ+DNuq+AM=");
+    }
+
+    /**
+     * Tests that a keystore without the key alias is rejected.
+     * @throws ComponentInitializationException If component cannot be initialized.
+     */
+    @Test(expectedExceptions = ComponentInitializationException.class) 
+    public void testHmacKeyStoreWithoutAlias() throws ComponentInitializationException {
+        final EcaAuthnIdDataConnector dataConnector = new EcaAuthnIdDataConnector();
+        dataConnector.setId("hmac");
+        dataConnector.setSrcAttributeNames(srcAttributeName);
+        dataConnector.setDestAttributeName(destAttributeName);
+        dataConnector.setHmacKeyStore("src/test/resources/net/shibboleth/idp/attribute/resolver/spring/dc/hmac.jceks");
+        dataConnector.initialize();
+    }
+
+    /**
+     * Helper method for resolving the authnID with the given connector.
+     * @param dataConnector The connector to be used for resolution.
+     * @return The resolved authnID.
+     * @throws ComponentInitializationException If component cannot be initialized.
+     * @throws ResolutionException If attribute resolution fails.
+     */
+    protected String resolveAuthnId(final EcaAuthnIdDataConnector dataConnector)
+            throws ComponentInitializationException, ResolutionException {
+        final AttributeResolutionContext context =
+                TestSources.createResolutionContext(TestSources.PRINCIPAL_ID, TestSources.IDP_ENTITY_ID,
+                        TestSources.SP_ENTITY_ID);
+        final AttributeResolverWorkContext workContext = 
+                context.getSubcontext(AttributeResolverWorkContext.class, false);
+        recordWorkContextAttribute(srcAttributeName, srcAttributeValues.get(0), workContext); 
+        final Map<String, IdPAttribute> resolvedAttributes = dataConnector.resolve(context);
+        Assert.assertEquals(resolvedAttributes.size(), 1);
+        return (String) resolvedAttributes.get(destAttributeName).getValues().get(0).getValue();
+    }
+
+    /**
+     * Tests {@link EcaAuthnIdDataConnector} with configuration that sets the output encoding.
+     * @throws ComponentInitializationException If component cannot be initialized.
+     * @throws ResolutionException If attribute resolution fails.
+     */
+    @Test public void testOutputEncoding() throws ComponentInitializationException, ResolutionException {
+        final EcaAuthnIdDataConnector dataConnector = 
+                EcaAuthnIdDataConnectorParserTest.initializeDataConnector("authnid-base32.xml");
+        Assert.assertEquals(dataConnector.getOutputEncoding(), OutputEncoding.BASE32);
+        Assert.assertEquals(resolveAuthnId(dataConnector), "7ZFAQA3F6L7OWTM337P6TTQHHZYZXWNWP7JHISRZG53AIBA7CS7Q");
+        Assert.assertEquals(dataConnector.calculateAuthnId(dataConnector.saltAuthnIdInput(srcAttributeValues.get(0))),
+                "7ZFAQA3F6L7OWTM337P6TTQHHZYZXWNWP7JHISRZG53AIBA7CS7Q");
+    }
+
+    /**
+     * Tests {@link EcaAuthnIdDataConnector} with configuration that truncates the authnIDs.
+     * @throws ComponentInitializationException If component cannot be initialized.
+     * @throws ResolutionException If attribute resolution fails.
+     */
+    @Test public void testTruncated() throws ComponentInitializationException, ResolutionException {
+        final EcaAuthnIdDataConnector dataConnector = 
+                EcaAuthnIdDataConnectorParserTest.initializeDataConnector("authnid-truncated.xml");
+        Assert.assertEquals(dataConnector.getTruncationBits(), 128);
+        Assert.assertEquals(dataConnector.getExpectedPopulation(), 1000000L);
+        Assert.assertEquals(dataConnector.getMaxCollisionProbability(),
+                EcaAuthnIdDataConnector.DEFAULT_MAX_COLLISION_PROBABILITY);
+        Assert.assertEquals(resolveAuthnId(dataConnector), "_koIA2Xy_utNm9_f6c4HPg");
+    }
+
+    /**
+     * Tests that the v2 input framing does not calculate the authnID when one of the sources is missing.
+     * @throws ComponentInitializationException If component cannot be initialized.
+     * @throws ResolutionException If attribute resolution fails.
+     */
+    @Test public void testFramedInputMissingSource() throws ComponentInitializationException, ResolutionException {
+        final EcaAuthnIdDataConnector dataConnector = 
+                EcaAuthnIdDataConnectorParserTest.initializeDataConnector("authnid-framed.xml");
+        Assert.assertEquals(dataConnector.getInputFraming(), EcaAuthnIdDataConnector.INPUT_FRAMING_V2);
+        Assert.assertFalse(dataConnector.isAllowMissingSources());
+        final AttributeResolutionContext context =
+                TestSources.createResolutionContext(TestSources.PRINCIPAL_ID, TestSources.IDP_ENTITY_ID,
+                        TestSources.SP_ENTITY_ID);
+        final AttributeResolverWorkContext workContext = 
+                context.getSubcontext(AttributeResolverWorkContext.class, false);
+        recordWorkContextAttribute(srcAttributeNames.get(0), srcAttributeValues.get(0), workContext);
+        recordWorkContextAttribute(srcAttributeNames.get(2), srcAttributeValues.get(2), workContext);
+        Assert.assertTrue(dataConnector.resolve(context).isEmpty());
+        Assert.assertEquals(dataConnector.getMetrics().getMissingSource().getCount(), 1);
+        Assert.assertNull(dataConnector.calculateAuthnId(
+                new String[] { srcAttributeValues.get(0), null, srcAttributeValues.get(2) }));
+    }
+
+    /**
+     * Tests that the missing sources cannot be allowed without the v2 input framing.
+     * @throws ComponentInitializationException If component cannot be initialized.
+     */
+    @Test(expectedExceptions = ComponentInitializationException.class)
+    public void testAllowMissingSourcesWithoutFraming() throws ComponentInitializationException {
+        final EcaAuthnIdDataConnector dataConnector = new EcaAuthnIdDataConnector();
+        dataConnector.setId("framing");
+        dataConnector.setSrcAttributeNames(srcAttributeName);
+        dataConnector.setDestAttributeName(destAttributeName);
+        dataConnector.setAllowMissingSources("true");
+        dataConnector.initialize();
+    }
+
+    /**
+     * Tests {@link EcaAuthnIdDataConnector} with the v2 input framing and the missing sources allowed, when one of
+     * the sources is missing.
+     * @throws ComponentInitializationException If component cannot be initialized.
+     * @throws ResolutionException If attribute resolution fails.
+     */
+    @Test public void testFramedInput() throws ComponentInitializationException, ResolutionException {
+        final EcaAuthnIdDataConnector dataConnector = 
+                EcaAuthnIdDataConnectorParserTest.initializeDataConnector("authnid-framed-missing.xml");
+        Assert.assertEquals(dataConnector.getInputFraming(), EcaAuthnIdDataConnector.INPUT_FRAMING_V2);
+        Assert.assertTrue(dataConnector.isAllowMissingSources());
+        final AttributeResolutionContext context =
+                TestSources.createResolutionContext(TestSources.PRINCIPAL_ID, TestSources.IDP_ENTITY_ID,
+                        TestSources.SP_ENTITY_ID);
+        final AttributeResolverWorkContext workContext = 
+                context.getSubcontext(AttributeResolverWorkContext.class, false);
+        recordWorkContextAttribute(srcAttributeNames.get(0), srcAttributeValues.get(0), workContext);
+        recordWorkContextAttribute(srcAttributeNames.get(2), srcAttributeValues.get(2), workContext);
+        final Map<String, IdPAttribute> resolvedAttributes = dataConnector.resolve(context);
+        Assert.assertEquals(resolvedAttributes.size(), 1);
+        Assert.assertEquals(resolvedAttributes.get(destAttributeName).getValues().get(0).getValue(), 
+                "KLMTEVV+R9TQjNpMRSBaug3s2Zya2nZZuEdxenxpi0U=");
+        Assert.assertEquals(dataConnector.calculateAuthnId(
+                new String[] { srcAttributeValues.get(0), null, srcAttributeValues.get(2) }),
+                "KLMTEVV+R9TQjNpMRSBaug3s2Zya2nZZuEdxenxpi0U=");
+    }
+
+    /**
+     * Tests {@link EcaAuthnIdDataConnector} with the input normalization, using both ASCII and decomposed values, and
+     * that the normalization cannot be changed after the initialization.
+     * @throws ComponentInitializationException If component cannot be initialized.
+     * @throws ResolutionException If attribute resolution fails.
+     */
+    @Test public void testInputNormalization() throws ComponentInitializationException, ResolutionException {
+        final EcaAuthnIdDataConnector dataConnector = 
+                EcaAuthnIdDataConnectorParserTest.initializeDataConnector("authnid-normalized.xml");
+        Assert.assertNotNull(dataConnector.getInputNormalization());
+        final String expected = "6eruOezuhgLTgCLja6qcMjcbVfd8ZheG/4dnLfJ5VNo=";
+        final String[] values = { " TESTING\u00c5InputSource\t", "testingA\u030ainputsource", 
+                "\u00a0testing\u00e5inputsource" };
+        for (final String value : values) {
+            final AttributeResolutionContext context =
+                    TestSources.createResolutionContext(TestSources.PRINCIPAL_ID, TestSources.IDP_ENTITY_ID,
+                            TestSources.SP_ENTITY_ID);
+            recordWorkContextAttribute(srcAttributeName, value,
+                    context.getSubcontext(AttributeResolverWorkContext.class, false));
+            final Map<String, IdPAttribute> resolvedAttributes = dataConnector.resolve(context);
+            Assert.assertEquals(resolvedAttributes.get(destAttributeName).getValues().get(0).getValue(), expected);
+        }
+        Assert.assertEquals(dataConnector.calculateAuthnId(new String[] { "  TestingInputSource " }),
+                dataConnector.calculateAuthnId(new String[] { "testinginputsource" }));
+        try {
+            dataConnector.setInputNormalization(null);
+            Assert.fail("The input normalization should not be modifiable after the initialization");
+        } catch (UnmodifiableComponentException e) {
+            // expected
+        }
+        Assert.assertNotNull(dataConnector.getInputNormalization());
+    }
+
+    /**
+     * Tests that the v2 input framing separates the values that the legacy concatenation mixes up.
+     * @throws ComponentInitializationException If component cannot be initialized.
+     */
+    @Test public void testInputFramingAmbiguity() throws ComponentInitializationException {
+        final EcaAuthnIdDataConnector legacyConnector = initFramingConnector(null);
+        Assert.assertEquals(legacyConnector.getInputFraming(), EcaAuthnIdDataConnector.INPUT_FRAMING_LEGACY);
+        Assert.assertEquals(legacyConnector.calculateAuthnId(new String[] { "ab", "c" }),
+                legacyConnector.calculateAuthnId(new String[] { "a", "bc" }));
+        final EcaAuthnIdDataConnector dataConnector = initFramingConnector("v2");
+        Assert.assertNotEquals(dataConnector.calculateAuthnId(new String[] { "ab", "c" }),
+                dataConnector.calculateAuthnId(new String[] { "a", "bc" }));
+        Assert.assertNotEquals(dataConnector.calculateAuthnId(new String[] { "", "abc" }),
+                dataConnector.calculateAuthnId(new String[] { null, "abc" }));
+        try {
+            new EcaAuthnIdDataConnector().setInputFraming("v3");
+            Assert.fail("The input framing should have been rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Tests that neither the input framing nor the missing sources can be changed after the initialization.
+     * @throws ComponentInitializationException If component cannot be initialized.
+     */
+    @Test public void testInputFramingInitialized() throws ComponentInitializationException {
+        final EcaAuthnIdDataConnector dataConnector = initFramingConnector("v2");
+        try {
+            dataConnector.setInputFraming("legacy");
+            Assert.fail("The input framing should not be modifiable after the initialization");
+        } catch (UnmodifiableComponentException e) {
+            // expected
+        }
+        try {
+            dataConnector.setAllowMissingSources("false");
+            Assert.fail("The missing sources should not be modifiable after the initialization");
+        } catch (UnmodifiableComponentException e) {
+            // expected
+        }
+        Assert.assertEquals(dataConnector.getInputFraming(), EcaAuthnIdDataConnector.INPUT_FRAMING_V2);
+        Assert.assertTrue(dataConnector.isAllowMissingSources());
+    }
+
+    /**
+     * Initializes a connector with two sources and the given input framing. The missing sources are allowed with the
+     * v2 framing.
+     * @param framing The input framing, legacy if null.
+     * @return The initialized connector.
+     * @throws ComponentInitializationException If component cannot be initialized.
+     */
+    protected EcaAuthnIdDataConnector initFramingConnector(final String framing)
+            throws ComponentInitializationException {
+        final EcaAuthnIdDataConnector dataConnector = new EcaAuthnIdDataConnector();
+        dataConnector.setId("framing");
+        dataConnector.setSrcAttributeNames("testingSrc1,testingSrc2");
+        dataConnector.setDestAttributeName(destAttributeName);
+        dataConnector.setMinInputLength("1");
+        dataConnector.setInputFraming(framing);
+        dataConnector.setAllowMissingSources(Boolean.toString(framing != null));
+        dataConnector.initialize();
+        return dataConnector;
+    }
+
+    /**
+     * Tests that a truncation exceeding the maximum collision probability is rejected.
+     * @throws ComponentInitializationException If component cannot be initialized.
+     */
+    @Test public void testTruncationCollisionRisk() throws ComponentInitializationException {
+        Assert.assertTrue(EcaAuthnIdDataConnector.collisionProbability(10000000L, 64) > 1e-6);
+        Assert.assertTrue(EcaAuthnIdDataConnector.collisionProbability(10000000L, 128) < 1e-24);
+        Assert.assertEquals(EcaAuthnIdDataConnector.collisionProbability(1L << 40, 64), 1.0);
+        final EcaAuthnIdDataConnector dataConnector = new EcaAuthnIdDataConnector();
+        dataConnector.setId("truncated");
+        dataConnector.setSrcAttributeNames(srcAttributeName);
+        dataConnector.setDestAttributeName(destAttributeName);
+        dataConnector.setTruncationBits("64");
+        try {
+            dataConnector.initialize();
+            Assert.fail("The collision probability should have been exceeded");
+        } catch (ComponentInitializationException e) {
+            // expected
+        }
+        final EcaAuthnIdDataConnector dataConnector2 = new EcaAuthnIdDataConnector();
+        dataConnector2.setId("truncated");
+        dataConnector2.setSrcAttributeNames(srcAttributeName);
+        dataConnector2.setDestAttributeName(destAttributeName);
+        dataConnector2.setTruncationBits("64");
+        dataConnector2.setExpectedPopulation("1000");
+        dataConnector2.initialize();
+        Assert.assertEquals(dataConnector2.calculateAuthnId("testingInputSource").length(), 12);
+    }
+
+    /**
+     * Tests that a truncation that is not a multiple of 8 is rejected.
+     * @throws ComponentInitializationException If component cannot be initialized.
+     */
+    @Test(expectedExceptions = ComponentInitializationException.class) 
+    public void testInvalidTruncation() throws ComponentInitializationException {
+        final EcaAuthnIdDataConnector dataConnector = new EcaAuthnIdDataConnector();
+        dataConnector.setId("truncated");
+        dataConnector.setSrcAttributeNames(srcAttributeName);
+        dataConnector.setDestAttributeName(destAttributeName);
+        dataConnector.setTruncationBits("100");
+        dataConnector.initialize();
+    }
+
+    /**
+     * Tests that the digest algorithm cannot be changed after the initialization.
+     */
+    @Test(expectedExceptions = UnmodifiableComponentException.class) public void testDigestAlgorithmInitialized() {
+        final EcaAuthnIdDataConnector dataConnector = 
+                EcaAuthnIdDataConnectorParserTest.initializeDataConnector("authnid-min.xml");
+        Assert.assertEquals(dataConnector.getDigestAlgorithm(), DigestAlgorithm.SHA256);
+        dataConnector.setDigestAlgorithm("SHA-512/256");
+    }
+
+    /**
+     * Tests that the pre-salted digest state produces the same authnID as salting the input.
+     */
+    @Test public void testPreSaltedDigest() {
+        final EcaAuthnIdDataConnector dataConnector = 
+                EcaAuthnIdDataConnectorParserTest.initializeDataConnector("authnid-salted.xml");
+        final String input = srcAttributeValues.get(0);
+        Assert.assertEquals(dataConnector.calculateSaltedAuthnId(input), 
+                dataConnector.calculateAuthnId(dataConnector.saltAuthnIdInput(input)));
+        Assert.assertEquals(dataConnector.calculateSaltedAuthnId(input), 
+                "/koIA2Xy/utNm9/f6c4HPnGb2bZ/0nRKOTd2BAQfFL8=");
+    }
+    
     /**
      * Tests {@link EcaAuthnIdDataConnector} with configuration using all parameters.
      * @throws ComponentInitializationException If component cannot be initialized.
@@ -301,6 +659,48 @@ public class EcaAuthnIdDataConnectorTest {
                 srcAttributeValues.get(0));
     }
     
+    /**
+     * Tests the prefix and suffix patterns in the skipCalculation.
+     * @throws ComponentInitializationException If component cannot be initialized.
+     * @throws ResolutionException If attribute resolution fails.
+     */
+    @Test public void testSkipPatterns() throws ComponentInitializationException, ResolutionException {
+        final EcaAuthnIdDataConnector dataConnector = new EcaAuthnIdDataConnector();
+        dataConnector.setId("patterns");
+        dataConnector.setSrcAttributeNames(srcAttributeName);
+        dataConnector.setDestAttributeName(destAttributeName);
+        dataConnector.setSkipCalculation("idpId=guest-*,idpId=*.test.example,idpId=exact*id");
+        dataConnector.initialize();
+        final String[] skipped = { "guest-1", "host.test.example", "exact*id" };
+        final String[] calculated = { "guest", "test.example", "exactid" };
+        for (final String value : skipped) {
+            Assert.assertEquals(resolveWithIdpId(dataConnector, value), srcAttributeValues.get(0), value);
+        }
+        for (final String value : calculated) {
+            Assert.assertNotEquals(resolveWithIdpId(dataConnector, value), srcAttributeValues.get(0), value);
+        }
+        Assert.assertEquals(dataConnector.getMetrics().getSkipped().getCount(), skipped.length);
+    }
+
+    /**
+     * Resolves the authnID with the first source value and the given idpId.
+     * @param dataConnector The data connector.
+     * @param idpId The value of the idpId attribute.
+     * @return The resolved value.
+     * @throws ComponentInitializationException If component cannot be initialized.
+     * @throws ResolutionException If attribute resolution fails.
+     */
+    private String resolveWithIdpId(final EcaAuthnIdDataConnector dataConnector, final String idpId)
+            throws ComponentInitializationException, ResolutionException {
+        final AttributeResolutionContext context = TestSources.createResolutionContext(TestSources.PRINCIPAL_ID,
+                TestSources.IDP_ENTITY_ID, TestSources.SP_ENTITY_ID);
+        final AttributeResolverWorkContext workContext =
+                context.getSubcontext(AttributeResolverWorkContext.class, false);
+        recordWorkContextAttribute(srcAttributeName, srcAttributeValues.get(0), workContext);
+        recordWorkContextAttribute("idpId", idpId, workContext);
+        return (String) dataConnector.resolve(context).get(destAttributeName).getValues().get(0).getValue();
+    }
+
     /**
      * Tests {@link EcaAuthnIdDataConnector} with configuration that skips calculation.
      * @throws ComponentInitializationException If component cannot be initialized.
@@ -328,6 +728,87 @@ public class EcaAuthnIdDataConnectorTest {
                 srcAttributeValues.get(0));
     }
     
+    /**
+     * Tests {@link EcaAuthnIdDataConnector} with configuration that skips calculation using a dedicated source.
+     * @throws ComponentInitializationException If component cannot be initialized.
+     * @throws ResolutionException If attribute resolution fails.
+     */
+    @Test public void testSkipSource() throws ComponentInitializationException, ResolutionException {
+        final EcaAuthnIdDataConnector dataConnector = 
+                EcaAuthnIdDataConnectorParserTest.initializeDataConnector("authnid-skipsrc.xml");
+        final AttributeResolutionContext context =
+                TestSources.createResolutionContext(TestSources.PRINCIPAL_ID, TestSources.IDP_ENTITY_ID,
+                        TestSources.SP_ENTITY_ID);
+        final AttributeResolverWorkContext workContext = 
+                context.getSubcontext(AttributeResolverWorkContext.class, false);
+        recordWorkContextAttribute(srcAttributeName, srcAttributeValues.get(0), workContext);
+        recordWorkContextAttribute("testingSkipSrc", srcAttributeValues.get(1), workContext);
+        recordWorkContextAttribute("idpId", "skipId", workContext);
+        final Map<String, IdPAttribute> resolvedAttributes = dataConnector.resolve(context);
+        Assert.assertEquals(dataConnector.getSkipCalculationSrc(), "testingSkipSrc");
+        Assert.assertEquals(resolvedAttributes.size(), 1);
+        Assert.assertEquals(resolvedAttributes.get(destAttributeName).getValues().get(0).getValue(), 
+                srcAttributeValues.get(1));
+    }
+    
+    /**
+     * Tests that the resolution fails without an exception when the calculation is skipped but the dedicated source
+     * has no value.
+     * @throws ComponentInitializationException If component cannot be initialized.
+     * @throws ResolutionException If attribute resolution fails.
+     */
+    @Test public void testSkipSourceMissing() throws ComponentInitializationException, ResolutionException {
+        final EcaAuthnIdDataConnector dataConnector = 
+                EcaAuthnIdDataConnectorParserTest.initializeDataConnector("authnid-skipsrc.xml");
+        final AttributeResolutionContext context =
+                TestSources.createResolutionContext(TestSources.PRINCIPAL_ID, TestSources.IDP_ENTITY_ID,
+                        TestSources.SP_ENTITY_ID);
+        final AttributeResolverWorkContext workContext = 
+                context.getSubcontext(AttributeResolverWorkContext.class, false);
+        recordWorkContextAttribute(srcAttributeName, srcAttributeValues.get(0), workContext);
+        recordWorkContextAttribute("idpId", "skipId", workContext);
+        Assert.assertTrue(dataConnector.resolve(context).isEmpty());
+        Assert.assertEquals(dataConnector.getMetrics().getMissingSource().getCount(), 1);
+        Assert.assertEquals(dataConnector.getMetrics().getSkipped().getCount(), 0);
+        final String summary = dataConnector.getProblemLog().flushIfDue(System.currentTimeMillis() + 600000L);
+        Assert.assertTrue(summary.contains("missing attribute testingSkipSrc x 1"), summary);
+    }
+    
+    /**
+     * Tests {@link EcaAuthnIdDataConnector} with configuration that reads skip values from a file.
+     * @throws ComponentInitializationException If component cannot be initialized.
+     * @throws ResolutionException If attribute resolution fails.
+     */
+    @Test public void testSkipFile() throws ComponentInitializationException, ResolutionException {
+        final EcaAuthnIdDataConnector dataConnector = 
+                EcaAuthnIdDataConnectorParserTest.initializeDataConnector("authnid-skipfile.xml");
+        Assert.assertNotNull(dataConnector.getSkipCalculationFile());
+        final String[][] skipAttributes = { { "schoolCode", "00002" }, { "idpId", "skipId3" }, 
+                { "idpId", "skipId" } };
+        for (final String[] skipAttribute : skipAttributes) {
+            final AttributeResolutionContext context =
+                    TestSources.createResolutionContext(TestSources.PRINCIPAL_ID, TestSources.IDP_ENTITY_ID,
+                            TestSources.SP_ENTITY_ID);
+            final AttributeResolverWorkContext workContext = 
+                    context.getSubcontext(AttributeResolverWorkContext.class, false);
+            recordWorkContextAttribute(srcAttributeName, srcAttributeValues.get(0), workContext);
+            recordWorkContextAttribute(skipAttribute[0], skipAttribute[1], workContext);
+            final Map<String, IdPAttribute> resolvedAttributes = dataConnector.resolve(context);
+            Assert.assertEquals(resolvedAttributes.get(destAttributeName).getValues().get(0).getValue(), 
+                    srcAttributeValues.get(0));
+        }
+        final AttributeResolutionContext context =
+                TestSources.createResolutionContext(TestSources.PRINCIPAL_ID, TestSources.IDP_ENTITY_ID,
+                        TestSources.SP_ENTITY_ID);
+        final AttributeResolverWorkContext workContext = 
+                context.getSubcontext(AttributeResolverWorkContext.class, false);
+        recordWorkContextAttribute(srcAttributeName, srcAttributeValues.get(0), workContext);
+        recordWorkContextAttribute("schoolCode", "00004", workContext);
+        final Map<String, IdPAttribute> resolvedAttributes = dataConnector.resolve(context);
+        Assert.assertEquals(resolvedAttributes.get(destAttributeName).getValues().get(0).getValue(), 
+                "9MRUli6t2hQIhLKlVK/n2IAwVzZpCreaZ6dAyE7CHL8=");
+    }
+    
     /**
      * Tests {@link EcaAuthnIdDataConnector} with configuration that has too short authnId.
      * @throws ComponentInitializationException If component cannot be initialized.
@@ -347,6 +828,886 @@ public class EcaAuthnIdDataConnectorTest {
         Assert.assertEquals(resolvedAttributes.size(), 0);
     }
     
+    /**
+     * Tests {@link EcaAuthnIdDataConnector} with configuration whose source attribute is missing.
+     * @throws ComponentInitializationException If component cannot be initialized.
+     * @throws ResolutionException If attribute resolution fails.
+     */
+    @Test public void testMissingSource() throws ComponentInitializationException, ResolutionException {
+        final EcaAuthnIdDataConnector dataConnector = 
+                EcaAuthnIdDataConnectorParserTest.initializeDataConnector("authnid-3sources.xml");
+        final AttributeResolutionContext context =
+                TestSources.createResolutionContext(TestSources.PRINCIPAL_ID, TestSources.IDP_ENTITY_ID,
+                        TestSources.SP_ENTITY_ID);
+        final AttributeResolverWorkContext workContext = 
+                context.getSubcontext(AttributeResolverWorkContext.class, false);
+        recordWorkContextAttribute(srcAttributeNames.get(0), srcAttributeValues.get(0), workContext);
+        recordWorkContextAttribute(srcAttributeNames.get(2), srcAttributeValues.get(2), workContext);
+        final Map<String, IdPAttribute> resolvedAttributes = dataConnector.resolve(context);
+        Assert.assertEquals(resolvedAttributes.size(), 0);
+    }
+    
+    /**
+     * Tests {@link EcaAuthnIdDataConnector} with configuration that caches the calculated authnIDs.
+     * @throws ComponentInitializationException If component cannot be initialized.
+     * @throws ResolutionException If attribute resolution fails.
+     */
+    @Test public void testCached() throws ComponentInitializationException, ResolutionException {
+        final EcaAuthnIdDataConnector dataConnector = 
+                EcaAuthnIdDataConnectorParserTest.initializeDataConnector("authnid-cached.xml");
+        Assert.assertEquals(dataConnector.getCacheMaxSize(), 100);
+        Assert.assertEquals(dataConnector.getCacheExpiration(), 10 * 60 * 1000L);
+        for (int i = 0; i < 2; i++) {
+            final AttributeResolutionContext context =
+                    TestSources.createResolutionContext(TestSources.PRINCIPAL_ID, TestSources.IDP_ENTITY_ID,
+                            TestSources.SP_ENTITY_ID);
+            final AttributeResolverWorkContext workContext = 
+                    context.getSubcontext(AttributeResolverWorkContext.class, false);
+            recordWorkContextAttribute(srcAttributeName, srcAttributeValues.get(0), workContext); 
+            final Map<String, IdPAttribute> resolvedAttributes = dataConnector.resolve(context);
+            Assert.assertEquals(resolvedAttributes.size(), 1);
+            Assert.assertEquals(resolvedAttributes.get(destAttributeName).getValues().get(0).getValue(), 
+                    "/koIA2Xy/utNm9/f6c4HPnGb2bZ/0nRKOTd2BAQfFL8=");
+        }
+        Assert.assertEquals(dataConnector.getCacheStats().missCount(), 1);
+        Assert.assertEquals(dataConnector.getCacheStats().hitCount(), 1);
+    }
+
+    /**
+     * Tests {@link EcaAuthnIdDataConnector} with configuration that calculates pairwise authnIDs.
+     * @throws ComponentInitializationException If component cannot be initialized.
+     * @throws ResolutionException If attribute resolution fails.
+     */
+    @Test public void testPairwise() throws ComponentInitializationException, ResolutionException {
+        final EcaAuthnIdDataConnector dataConnector = 
+                EcaAuthnIdDataConnectorParserTest.initializeDataConnector("authnid-pairwise.xml");
+        Assert.assertEquals(dataConnector.getPairwiseAttributeName(), "testingPairwise");
+        Assert.assertEquals(dataConnector.getPairwiseMaxRelyingParties(), 1);
+        final String[] relyingParties = { TestSources.SP_ENTITY_ID, "https://sp2.example.org/sp/shibboleth",
+                TestSources.SP_ENTITY_ID, "https://sp2.example.org/sp/shibboleth" };
+        final String[] pairwiseIds = { "kZLYpihfartmqUlwuRx2RmNvXWnxcFivD4ZesG1UTik=",
+                "D/9SuRVVYYPfYzpmFY91KQilZFk2bBlYeWOKcSfhWfI=" };
+        for (int i = 0; i < relyingParties.length; i++) {
+            final AttributeResolutionContext context =
+                    TestSources.createResolutionContext(TestSources.PRINCIPAL_ID, TestSources.IDP_ENTITY_ID,
+                            relyingParties[i]);
+            final AttributeResolverWorkContext workContext = 
+                    context.getSubcontext(AttributeResolverWorkContext.class, false);
+            recordWorkContextAttribute(srcAttributeName, srcAttributeValues.get(0), workContext); 
+            final Map<String, IdPAttribute> resolvedAttributes = dataConnector.resolve(context);
+            Assert.assertEquals(resolvedAttributes.size(), 2);
+            Assert.assertEquals(resolvedAttributes.get(destAttributeName).getValues().get(0).getValue(), 
+                    "/koIA2Xy/utNm9/f6c4HPnGb2bZ/0nRKOTd2BAQfFL8=");
+            Assert.assertEquals(resolvedAttributes.get("testingPairwise").getValues().get(0).getValue(), 
+                    pairwiseIds[i % 2]);
+        }
+    }
+
+    /**
+     * Tests {@link EcaAuthnIdDataConnector} with configuration that selects the profile by the tenant attribute. The
+     * resolution fails if the tenant is missing or unknown.
+     * @throws ComponentInitializationException If component cannot be initialized.
+     * @throws ResolutionException If attribute resolution fails.
+     */
+    @Test public void testTenants() throws ComponentInitializationException, ResolutionException {
+        final EcaAuthnIdDataConnector dataConnector = 
+                EcaAuthnIdDataConnectorParserTest.initializeDataConnector("authnid-tenants.xml");
+        Assert.assertEquals(dataConnector.getTenantAttributeName(), "testingTenant");
+        Assert.assertEquals(dataConnector.getProfiles().size(), 2);
+        Assert.assertTrue(dataConnector.isRequireTenant());
+        final String[] tenants = { null, "tenant1", "tenant2", "unknown", "tenant1" };
+        final String[] authnIds = { null, "9MRUli6t2hQIhLKlVK/n2IAwVzZpCreaZ6dAyE7CHL8=",
+                "w/AW7WOwjcS/8ibBkbD91eVhb7Kh73tRZhHS+u6AVkM=", null, "9MRUli6t2hQIhLKlVK/n2IAwVzZpCreaZ6dAyE7CHL8=" };
+        for (int i = 0; i < tenants.length; i++) {
+            Assert.assertEquals(resolveTenantAuthnId(dataConnector, tenants[i]), authnIds[i]);
+        }
+        Assert.assertEquals(dataConnector.getMetrics().getUnknownTenant().getCount(), 2);
+        Assert.assertEquals(dataConnector.getCacheStats().hitCount(), 1);
+    }
+
+    /**
+     * Tests {@link EcaAuthnIdDataConnector} with configuration that selects the profile by the tenant attribute, and
+     * uses the connector's own configuration if the tenant is missing or unknown.
+     * @throws ComponentInitializationException If component cannot be initialized.
+     * @throws ResolutionException If attribute resolution fails.
+     */
+    @Test public void testTenantFallback() throws ComponentInitializationException, ResolutionException {
+        final EcaAuthnIdDataConnector dataConnector = 
+                EcaAuthnIdDataConnectorParserTest.initializeDataConnector("authnid-tenants-fallback.xml");
+        Assert.assertFalse(dataConnector.isRequireTenant());
+        final String[] tenants = { null, "tenant1", "tenant2", "unknown", "tenant1" };
+        final String[] authnIds = { "/koIA2Xy/utNm9/f6c4HPnGb2bZ/0nRKOTd2BAQfFL8=",
+                "9MRUli6t2hQIhLKlVK/n2IAwVzZpCreaZ6dAyE7CHL8=", "w/AW7WOwjcS/8ibBkbD91eVhb7Kh73tRZhHS+u6AVkM=",
+                "/koIA2Xy/utNm9/f6c4HPnGb2bZ/0nRKOTd2BAQfFL8=", "9MRUli6t2hQIhLKlVK/n2IAwVzZpCreaZ6dAyE7CHL8=" };
+        for (int i = 0; i < tenants.length; i++) {
+            Assert.assertEquals(resolveTenantAuthnId(dataConnector, tenants[i]), authnIds[i]);
+        }
+        Assert.assertEquals(dataConnector.getMetrics().getUnknownTenant().getCount(), 2);
+        Assert.assertEquals(dataConnector.getCacheStats().hitCount(), 2);
+    }
+
+    /**
+     * Resolves the authnID with the given tenant and all the source attributes.
+     * @param dataConnector The data connector.
+     * @param tenant The value of the tenant attribute, not recorded if null.
+     * @return The authnID, null if it was not resolved.
+     * @throws ResolutionException If attribute resolution fails.
+     */
+    protected String resolveTenantAuthnId(final EcaAuthnIdDataConnector dataConnector, final String tenant)
+            throws ResolutionException {
+        final AttributeResolutionContext context =
+                TestSources.createResolutionContext(TestSources.PRINCIPAL_ID, TestSources.IDP_ENTITY_ID,
+                        TestSources.SP_ENTITY_ID);
+        final AttributeResolverWorkContext workContext = 
+                context.getSubcontext(AttributeResolverWorkContext.class, false);
+        if (tenant != null) {
+            recordWorkContextAttribute("testingTenant", tenant, workContext);
+        }
+        recordWorkContextAttribute(srcAttributeName, srcAttributeValues.get(0), workContext);
+        for (int j = 0; j < srcAttributeNames.size(); j++) {
+            recordWorkContextAttribute(srcAttributeNames.get(j), srcAttributeValues.get(j), workContext);
+        }
+        final Map<String, IdPAttribute> resolvedAttributes = dataConnector.resolve(context);
+        if (resolvedAttributes.isEmpty()) {
+            return null;
+        }
+        Assert.assertEquals(resolvedAttributes.size(), 1);
+        return (String) resolvedAttributes.get(destAttributeName).getValues().get(0).getValue();
+    }
+
+    /**
+     * Tests {@link EcaAuthnIdDataConnector} with configuration that releases the authnIDs calculated with both the
+     * current and the previous salts.
+     * @throws ComponentInitializationException If component cannot be initialized.
+     * @throws ResolutionException If attribute resolution fails.
+     */
+    @Test public void testRotation() throws ComponentInitializationException, ResolutionException {
+        final EcaAuthnIdDataConnector dataConnector = 
+                EcaAuthnIdDataConnectorParserTest.initializeDataConnector("authnid-rotation.xml");
+        Assert.assertEquals(dataConnector.getPreviousPrefixSalt(), "testPre");
+        Assert.assertNull(dataConnector.getPreviousPostfixSalt());
+        Assert.assertNull(dataConnector.getPreviousDestAttributeName());
+        String pairwiseId = null;
+        for (int i = 0; i < 2; i++) {
+            final Map<String, IdPAttribute> resolvedAttributes = resolveRotation(dataConnector);
+            Assert.assertEquals(resolvedAttributes.size(), 2);
+            final List<IdPAttributeValue<?>> values = resolvedAttributes.get(destAttributeName).getValues();
+            Assert.assertEquals(values.size(), 2);
+            Assert.assertEquals(values.get(0).getValue(), "/yJYIeq26RlX2/IkgvWsrWvaJuqgtjP5naIwPMIvHL0=");
+            Assert.assertEquals(values.get(1).getValue(), "/koIA2Xy/utNm9/f6c4HPnGb2bZ/0nRKOTd2BAQfFL8=");
+            final String pairwise = (String) resolvedAttributes.get("testingPairwise").getValues().get(0).getValue();
+            if (pairwiseId != null) {
+                Assert.assertEquals(pairwise, pairwiseId);
+            }
+            pairwiseId = pairwise;
+        }
+        Assert.assertEquals(dataConnector.getCacheStats().missCount(), 2);
+        Assert.assertEquals(dataConnector.getCacheStats().hitCount(), 2);
+
+        dataConnector.setPreviousDestAttributeName("testingPrevious");
+        final Map<String, IdPAttribute> resolvedAttributes = resolveRotation(dataConnector);
+        Assert.assertEquals(resolvedAttributes.size(), 3);
+        Assert.assertEquals(resolvedAttributes.get(destAttributeName).getValues().size(), 1);
+        Assert.assertEquals(resolvedAttributes.get(destAttributeName).getValues().get(0).getValue(), 
+                "/yJYIeq26RlX2/IkgvWsrWvaJuqgtjP5naIwPMIvHL0=");
+        Assert.assertEquals(resolvedAttributes.get("testingPrevious").getValues().get(0).getValue(), 
+                "/koIA2Xy/utNm9/f6c4HPnGb2bZ/0nRKOTd2BAQfFL8=");
+
+        dataConnector.setPreviousPrefixSalt("newPre");
+        Assert.assertEquals(resolveRotation(dataConnector).size(), 2);
+    }
+
+    /**
+     * Helper method for resolving the rotation test attributes with the given connector.
+     * @param dataConnector The connector to be used for resolution.
+     * @return The resolved attributes.
+     * @throws ComponentInitializationException If component cannot be initialized.
+     * @throws ResolutionException If attribute resolution fails.
+     */
+    protected Map<String, IdPAttribute> resolveRotation(final EcaAuthnIdDataConnector dataConnector)
+            throws ComponentInitializationException, ResolutionException {
+        final AttributeResolutionContext context =
+                TestSources.createResolutionContext(TestSources.PRINCIPAL_ID, TestSources.IDP_ENTITY_ID,
+                        TestSources.SP_ENTITY_ID);
+        final AttributeResolverWorkContext workContext = 
+                context.getSubcontext(AttributeResolverWorkContext.class, false);
+        recordWorkContextAttribute(srcAttributeName, srcAttributeValues.get(0), workContext); 
+        return dataConnector.resolve(context);
+    }
+
+    /**
+     * Tests that {@link EcaAuthnIdDataConnector} publishes its metrics to the given registry.
+     * @throws ComponentInitializationException If component cannot be initialized.
+     * @throws ResolutionException If attribute resolution fails.
+     */
+    @Test public void testMetrics() throws ComponentInitializationException, ResolutionException {
+        final MetricRegistry registry = new MetricRegistry();
+        final EcaAuthnIdDataConnector dataConnector = new EcaAuthnIdDataConnector();
+        dataConnector.setId("metrics");
+        dataConnector.setSrcAttributeNames(srcAttributeName);
+        dataConnector.setDestAttributeName(destAttributeName);
+        dataConnector.setMetricRegistry(registry);
+        dataConnector.initialize();
+        final String prefix = MetricRegistry.name(EcaAuthnIdDataConnector.class, "metrics");
+
+        AttributeResolutionContext context = TestSources.createResolutionContext(TestSources.PRINCIPAL_ID,
+                TestSources.IDP_ENTITY_ID, TestSources.SP_ENTITY_ID);
+        recordWorkContextAttribute(srcAttributeName, srcAttributeValues.get(0),
+                context.getSubcontext(AttributeResolverWorkContext.class, false));
+        Assert.assertEquals(dataConnector.resolve(context).size(), 1);
+
+        context = TestSources.createResolutionContext(TestSources.PRINCIPAL_ID, TestSources.IDP_ENTITY_ID,
+                TestSources.SP_ENTITY_ID);
+        Assert.assertTrue(dataConnector.resolve(context).isEmpty());
+
+        dataConnector.setMinInputLength("1000");
+        context = TestSources.createResolutionContext(TestSources.PRINCIPAL_ID, TestSources.IDP_ENTITY_ID,
+                TestSources.SP_ENTITY_ID);
+        recordWorkContextAttribute(srcAttributeName, srcAttributeValues.get(0),
+                context.getSubcontext(AttributeResolverWorkContext.class, false));
+        Assert.assertTrue(dataConnector.resolve(context).isEmpty());
+
+        Assert.assertSame(dataConnector.getMetrics().getResolveTimer(), 
+                registry.getTimers().get(MetricRegistry.name(prefix, AuthnIdMetrics.RESOLVE)));
+        Assert.assertEquals(dataConnector.getMetrics().getResolveTimer().getCount(), 3);
+        Assert.assertEquals(registry.getCounters().get(MetricRegistry.name(prefix, AuthnIdMetrics.MISSING_SOURCE))
+                .getCount(), 1);
+        Assert.assertEquals(registry.getCounters().get(MetricRegistry.name(prefix, AuthnIdMetrics.TOO_SHORT))
+                .getCount(), 1);
+        Assert.assertEquals(registry.getCounters().get(MetricRegistry.name(prefix, AuthnIdMetrics.SKIPPED))
+                .getCount(), 0);
+        Assert.assertEquals(registry.getCounters().get(MetricRegistry.name(prefix, AuthnIdMetrics.DIGEST_FAILURE))
+                .getCount(), 0);
+    }
+    
+    /**
+     * Tests that {@link EcaAuthnIdDataConnector} publishes the statistics of its cache to the given registry, and
+     * removes them when destroyed, and that the cache cannot be reconfigured after the initialization.
+     * @throws ComponentInitializationException If component cannot be initialized.
+     * @throws ResolutionException If attribute resolution fails.
+     */
+    @Test public void testCacheMetrics() throws ComponentInitializationException, ResolutionException {
+        final MetricRegistry registry = new MetricRegistry();
+        final EcaAuthnIdDataConnector dataConnector = new EcaAuthnIdDataConnector();
+        dataConnector.setId("cacheMetrics");
+        dataConnector.setSrcAttributeNames(srcAttributeName);
+        dataConnector.setDestAttributeName(destAttributeName);
+        dataConnector.setCacheMaxSize("1");
+        dataConnector.setMetricRegistry(registry);
+        dataConnector.initialize();
+        final String prefix = MetricRegistry.name(EcaAuthnIdDataConnector.class, "cacheMetrics");
+
+        final String[] values = { srcAttributeValues.get(0), srcAttributeValues.get(0), srcAttributeValues.get(1) };
+        for (final String value : values) {
+            final AttributeResolutionContext context = TestSources.createResolutionContext(
+                    TestSources.PRINCIPAL_ID, TestSources.IDP_ENTITY_ID, TestSources.SP_ENTITY_ID);
+            recordWorkContextAttribute(srcAttributeName, value,
+                    context.getSubcontext(AttributeResolverWorkContext.class, false));
+            Assert.assertEquals(dataConnector.resolve(context).size(), 1);
+        }
+
+        Assert.assertSame(dataConnector.getMetrics().getCacheHits(),
+                registry.getGauges().get(MetricRegistry.name(prefix, AuthnIdMetrics.CACHE_HITS)));
+        Assert.assertEquals(registry.getGauges().get(MetricRegistry.name(prefix, AuthnIdMetrics.CACHE_HITS))
+                .getValue(), Long.valueOf(1));
+        Assert.assertEquals(registry.getGauges().get(MetricRegistry.name(prefix, AuthnIdMetrics.CACHE_MISSES))
+                .getValue(), Long.valueOf(2));
+        Assert.assertEquals(registry.getGauges().get(MetricRegistry.name(prefix, AuthnIdMetrics.CACHE_EVICTIONS))
+                .getValue(), Long.valueOf(1));
+        try {
+            dataConnector.setCacheMaxSize("100");
+            Assert.fail("The cache size should not be modifiable after the initialization");
+        } catch (UnmodifiableComponentException e) {
+            // expected
+        }
+        try {
+            dataConnector.setCacheExpiration("PT1M");
+            Assert.fail("The cache expiration should not be modifiable after the initialization");
+        } catch (UnmodifiableComponentException e) {
+            // expected
+        }
+        Assert.assertEquals(dataConnector.getCacheMaxSize(), 1L);
+        dataConnector.destroy();
+        Assert.assertTrue(registry.getGauges().isEmpty());
+    }
+
+    /**
+     * Tests that the missing source attributes are aggregated into the problem log summary.
+     * @throws ComponentInitializationException If component cannot be initialized.
+     * @throws ResolutionException If attribute resolution fails.
+     */
+    @Test public void testProblemLog() throws ComponentInitializationException, ResolutionException {
+        final EcaAuthnIdDataConnector dataConnector = new EcaAuthnIdDataConnector();
+        dataConnector.setId("problems");
+        dataConnector.setSrcAttributeNames(srcAttributeName);
+        dataConnector.setDestAttributeName(destAttributeName);
+        Assert.assertEquals(dataConnector.getProblemLogInterval(),
+                EcaAuthnIdDataConnector.DEFAULT_PROBLEM_LOG_INTERVAL);
+        dataConnector.setProblemLogInterval("PT5M");
+        Assert.assertEquals(dataConnector.getProblemLogInterval(), 300000L);
+        dataConnector.initialize();
+        for (int i = 0; i < 2; i++) {
+            final AttributeResolutionContext context = TestSources.createResolutionContext(TestSources.PRINCIPAL_ID,
+                    TestSources.IDP_ENTITY_ID, TestSources.SP_ENTITY_ID);
+            Assert.assertTrue(dataConnector.resolve(context).isEmpty());
+        }
+        final String summary = dataConnector.getProblemLog().flushIfDue(System.currentTimeMillis() + 600000L);
+        Assert.assertTrue(summary.contains("missing attribute testingSrc x 2"), summary);
+        Assert.assertTrue(summary.contains("incomplete input testingDest x 2"), summary);
+        try {
+            dataConnector.setProblemLogInterval("PT1M");
+            Assert.fail("The interval should not be modifiable after the initialization");
+        } catch (UnmodifiableComponentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Tests that the authnIDs are reused from the session storage within the same session.
+     * @throws ComponentInitializationException If component cannot be initialized.
+     * @throws ResolutionException If attribute resolution fails.
+     */
+    @Test public void testSessionStorage() throws ComponentInitializationException, ResolutionException {
+        final MemoryStorageService storageService = new MemoryStorageService();
+        storageService.setId("sessionStorage");
+        storageService.initialize();
+        final EcaAuthnIdDataConnector dataConnector = new EcaAuthnIdDataConnector();
+        dataConnector.setId("session");
+        dataConnector.setSrcAttributeNames(srcAttributeName);
+        dataConnector.setDestAttributeName(destAttributeName);
+        dataConnector.setPrefixSalt("testPre");
+        dataConnector.setPostfixSalt("testPost");
+        dataConnector.setStorageService(storageService);
+        dataConnector.setSessionLifetime("PT30M");
+        Assert.assertEquals(dataConnector.getSessionLifetime(), 30 * 60 * 1000L);
+        dataConnector.setSessionIdLookupStrategy(new Function<AttributeResolutionContext, String>() {
+            @Override
+            public String apply(final AttributeResolutionContext input) {
+                return input.getPrincipal() != null ? "session-" + input.getPrincipal() : null;
+            }
+        });
+        dataConnector.initialize();
+        Assert.assertEquals(resolveAuthnId(dataConnector), "/koIA2Xy/utNm9/f6c4HPnGb2bZ/0nRKOTd2BAQfFL8=");
+        Assert.assertEquals(dataConnector.getMetrics().getSessionHit().getCount(), 0);
+
+        // the source attribute is not needed anymore within the same session
+        final AttributeResolutionContext context = TestSources.createResolutionContext(TestSources.PRINCIPAL_ID,
+                TestSources.IDP_ENTITY_ID, TestSources.SP_ENTITY_ID);
+        final Map<String, IdPAttribute> resolvedAttributes = dataConnector.resolve(context);
+        Assert.assertEquals(resolvedAttributes.get(destAttributeName).getValues().get(0).getValue(),
+                "/koIA2Xy/utNm9/f6c4HPnGb2bZ/0nRKOTd2BAQfFL8=");
+        Assert.assertEquals(dataConnector.getMetrics().getSessionHit().getCount(), 1);
+
+        final AttributeResolutionContext otherSession = TestSources.createResolutionContext("other",
+                TestSources.IDP_ENTITY_ID, TestSources.SP_ENTITY_ID);
+        Assert.assertTrue(dataConnector.resolve(otherSession).isEmpty());
+        dataConnector.destroy();
+
+        // another node or a restart with the same salts finds the record
+        final EcaAuthnIdDataConnector restarted = initSessionConnector(storageService, "testPre");
+        Assert.assertEquals(restarted.resolve(TestSources.createResolutionContext(TestSources.PRINCIPAL_ID,
+                TestSources.IDP_ENTITY_ID, TestSources.SP_ENTITY_ID)).get(destAttributeName).getValues().get(0)
+                .getValue(), "/koIA2Xy/utNm9/f6c4HPnGb2bZ/0nRKOTd2BAQfFL8=");
+        Assert.assertEquals(restarted.getMetrics().getSessionHit().getCount(), 1);
+        restarted.destroy();
+
+        // but the one with other salts does not
+        final EcaAuthnIdDataConnector otherSalts = initSessionConnector(storageService, "otherPre");
+        Assert.assertNotEquals(resolveAuthnId(otherSalts), "/koIA2Xy/utNm9/f6c4HPnGb2bZ/0nRKOTd2BAQfFL8=");
+        Assert.assertEquals(otherSalts.getMetrics().getSessionHit().getCount(), 0);
+        otherSalts.destroy();
+        storageService.destroy();
+    }
+
+    /**
+     * Initializes a connector using the given session storage, with the session id derived from the principal.
+     * @param storageService The storage service.
+     * @param prefixSalt The prefix salt.
+     * @return The initialized connector.
+     * @throws ComponentInitializationException If component cannot be initialized.
+     */
+    protected EcaAuthnIdDataConnector initSessionConnector(final StorageService storageService,
+            final String prefixSalt) throws ComponentInitializationException {
+        final EcaAuthnIdDataConnector dataConnector = new EcaAuthnIdDataConnector();
+        dataConnector.setId("session");
+        dataConnector.setSrcAttributeNames(srcAttributeName);
+        dataConnector.setDestAttributeName(destAttributeName);
+        dataConnector.setPrefixSalt(prefixSalt);
+        dataConnector.setPostfixSalt("testPost");
+        dataConnector.setStorageService(storageService);
+        dataConnector.setSessionIdLookupStrategy(new Function<AttributeResolutionContext, String>() {
+            @Override
+            public String apply(final AttributeResolutionContext input) {
+                return input.getPrincipal() != null ? "session-" + input.getPrincipal() : null;
+            }
+        });
+        dataConnector.initialize();
+        return dataConnector;
+    }
+
+    /**
+     * Tests that the authnIDs are served from the lookup table, and calculated for the principals not in it.
+     * @throws ComponentInitializationException If component cannot be initialized.
+     * @throws ResolutionException If attribute resolution fails.
+     * @throws IOException If the table cannot be written.
+     */
+    @Test public void testLookupTable() throws ComponentInitializationException, ResolutionException, IOException {
+        final Path tableFile = Files.createTempFile("authnid", ".idx");
+        try {
+            final AuthnIdTableBuilder builder =
+                    new AuthnIdTableBuilder(calculateTableFingerprint("testPre", "testPost"));
+            builder.add(TestSources.PRINCIPAL_ID, "precomputedId");
+            builder.write(tableFile);
+            final EcaAuthnIdDataConnector dataConnector = new EcaAuthnIdDataConnector();
+            dataConnector.setId("table");
+            dataConnector.setSrcAttributeNames(srcAttributeName);
+            dataConnector.setDestAttributeName(destAttributeName);
+            dataConnector.setPrefixSalt("testPre");
+            dataConnector.setPostfixSalt("testPost");
+            dataConnector.setLookupTableFile(tableFile.toString());
+            dataConnector.setLookupTableCheckInterval("PT5M");
+            Assert.assertEquals(dataConnector.getLookupTableCheckInterval(), 300000L);
+            dataConnector.initialize();
+
+            // the source attribute is not needed for the principals in the table
+            final AttributeResolutionContext context = TestSources.createResolutionContext(
+                    TestSources.PRINCIPAL_ID, TestSources.IDP_ENTITY_ID, TestSources.SP_ENTITY_ID);
+            Assert.assertEquals(dataConnector.resolve(context).get(destAttributeName).getValues().get(0).getValue(),
+                    "precomputedId");
+            Assert.assertEquals(dataConnector.getMetrics().getTableHit().getCount(), 1);
+
+            final AttributeResolutionContext other = TestSources.createResolutionContext("other",
+                    TestSources.IDP_ENTITY_ID, TestSources.SP_ENTITY_ID);
+            recordWorkContextAttribute(srcAttributeName, srcAttributeValues.get(0),
+                    other.getSubcontext(AttributeResolverWorkContext.class, false));
+            Assert.assertEquals(dataConnector.resolve(other).get(destAttributeName).getValues().get(0).getValue(),
+                    "/koIA2Xy/utNm9/f6c4HPnGb2bZ/0nRKOTd2BAQfFL8=");
+            Assert.assertEquals(dataConnector.getMetrics().getTableHit().getCount(), 1);
+            dataConnector.destroy();
+        } finally {
+            Files.delete(tableFile);
+        }
+    }
+
+    /**
+     * Tests that a lookup table built with other salts fails the initialization.
+     * @throws ComponentInitializationException If component cannot be initialized.
+     * @throws IOException If the table cannot be written.
+     */
+    @Test public void testLookupTableFingerprint() throws ComponentInitializationException, IOException {
+        final Path tableFile = Files.createTempFile("authnid", ".idx");
+        try {
+            final AuthnIdTableBuilder builder =
+                    new AuthnIdTableBuilder(calculateTableFingerprint("testPre", "otherPost"));
+            builder.add(TestSources.PRINCIPAL_ID, "precomputedId");
+            builder.write(tableFile);
+            final EcaAuthnIdDataConnector dataConnector = new EcaAuthnIdDataConnector();
+            dataConnector.setId("table");
+            dataConnector.setSrcAttributeNames(srcAttributeName);
+            dataConnector.setDestAttributeName(destAttributeName);
+            dataConnector.setPrefixSalt("testPre");
+            dataConnector.setPostfixSalt("testPost");
+            dataConnector.setLookupTableFile(tableFile.toString());
+            try {
+                dataConnector.initialize();
+                Assert.fail("The lookup table should have been rejected");
+            } catch (ComponentInitializationException e) {
+                Assert.assertTrue(e.getCause().getMessage().contains("different calculation parameters"));
+            }
+        } finally {
+            Files.delete(tableFile);
+        }
+    }
+
+    /**
+     * Calculates the lookup table fingerprint for the given salts and the other parameters used in the lookup table
+     * tests.
+     * 
+     * @param prefixSalt The prefix salt.
+     * @param postfixSalt The postfix salt.
+     * @return The fingerprint.
+     * @throws ComponentInitializationException If component cannot be initialized.
+     */
+    protected byte[] calculateTableFingerprint(final String prefixSalt, final String postfixSalt)
+            throws ComponentInitializationException {
+        final EcaAuthnIdDataConnector dataConnector = new EcaAuthnIdDataConnector();
+        dataConnector.setId("fingerprint");
+        dataConnector.setSrcAttributeNames(srcAttributeName);
+        dataConnector.setDestAttributeName(destAttributeName);
+        dataConnector.setPrefixSalt(prefixSalt);
+        dataConnector.setPostfixSalt(postfixSalt);
+        dataConnector.initialize();
+        try {
+            return dataConnector.calculateFingerprint(dataConnector.getPlans().getDefaultPlan());
+        } finally {
+            dataConnector.destroy();
+        }
+    }
+
+    /**
+     * Tests that an invalid lookup table fails the initialization.
+     * @throws ComponentInitializationException If component cannot be initialized.
+     */
+    @Test(expectedExceptions = ComponentInitializationException.class)
+    public void testInvalidLookupTable() throws ComponentInitializationException {
+        final EcaAuthnIdDataConnector dataConnector = new EcaAuthnIdDataConnector();
+        dataConnector.setId("table");
+        dataConnector.setSrcAttributeNames(srcAttributeName);
+        dataConnector.setDestAttributeName(destAttributeName);
+        dataConnector.setLookupTableFile("src/test/resources/nonexisting.idx");
+        dataConnector.initialize();
+    }
+
+    /**
+     * Tests that the authnIDs are derived with PBKDF2 and cached when kdfIterations is set.
+     * @throws ComponentInitializationException If component cannot be initialized.
+     * @throws ResolutionException If the resolution fails.
+     */
+    @Test public void testKdf() throws ComponentInitializationException, ResolutionException {
+        final EcaAuthnIdDataConnector dataConnector = new EcaAuthnIdDataConnector();
+        dataConnector.setId("kdf");
+        dataConnector.setSrcAttributeNames(srcAttributeName);
+        dataConnector.setDestAttributeName(destAttributeName);
+        dataConnector.setPrefixSalt("testPre");
+        dataConnector.setPostfixSalt("testPost");
+        dataConnector.setKdfIterations("1000");
+        dataConnector.setKdfThreads("2");
+        dataConnector.setKdfQueueSize("10");
+        dataConnector.setKdfTimeout("PT10S");
+        Assert.assertEquals(dataConnector.getKdfIterations(), 1000);
+        Assert.assertEquals(dataConnector.getKdfThreads(), 2);
+        Assert.assertEquals(dataConnector.getKdfQueueSize(), 10);
+        Assert.assertEquals(dataConnector.getKdfTimeout(), 10000L);
+        dataConnector.initialize();
+        Assert.assertEquals(resolveOther(dataConnector), "IceAiUEHF03TwQlmhLyUm0Zn+nLR3nYjkdDyxBt1QNE=");
+        Assert.assertEquals(resolveOther(dataConnector), "IceAiUEHF03TwQlmhLyUm0Zn+nLR3nYjkdDyxBt1QNE=");
+        Assert.assertEquals(dataConnector.getCacheStats().hitCount(), 1);
+        Assert.assertEquals(dataConnector.calculateAuthnId(new String[] { srcAttributeValues.get(0) }),
+                "IceAiUEHF03TwQlmhLyUm0Zn+nLR3nYjkdDyxBt1QNE=");
+        dataConnector.destroy();
+    }
+
+    /**
+     * Tests that a key derivation exceeding the kdfTimeout fails the resolution.
+     * @throws ComponentInitializationException If component cannot be initialized.
+     * @throws ResolutionException If the resolution fails.
+     */
+    @Test public void testKdfTimeout() throws ComponentInitializationException, ResolutionException {
+        final EcaAuthnIdDataConnector dataConnector = new EcaAuthnIdDataConnector();
+        dataConnector.setId("kdf");
+        dataConnector.setSrcAttributeNames(srcAttributeName);
+        dataConnector.setDestAttributeName(destAttributeName);
+        dataConnector.setKdfIterations(String.valueOf(Integer.MAX_VALUE));
+        dataConnector.setKdfTimeout("PT0.05S");
+        dataConnector.initialize();
+        try {
+            resolveOther(dataConnector);
+            Assert.fail("The key derivation should have timed out");
+        } catch (ResolutionException e) {
+            Assert.assertEquals(dataConnector.getMetrics().getKdfFailure().getCount(), 1);
+        } finally {
+            dataConnector.destroy();
+        }
+    }
+
+    /**
+     * Tests that the key derivation cannot be combined with the pairwise authnIDs.
+     * @throws ComponentInitializationException If component cannot be initialized.
+     */
+    @Test(expectedExceptions = ComponentInitializationException.class)
+    public void testKdfWithPairwise() throws ComponentInitializationException {
+        final EcaAuthnIdDataConnector dataConnector = new EcaAuthnIdDataConnector();
+        dataConnector.setId("kdf");
+        dataConnector.setSrcAttributeNames(srcAttributeName);
+        dataConnector.setDestAttributeName(destAttributeName);
+        dataConnector.setPairwiseAttributeName("pairwise");
+        dataConnector.setKdfIterations("1000");
+        dataConnector.initialize();
+    }
+
+    /**
+     * Tests that the salts in the reloadableConfigurationFile override the configured ones, and that a modified file
+     * is applied without reinitializing the connector.
+     * @throws Exception If the test fails.
+     */
+    @Test public void testReloadableConfiguration() throws Exception {
+        final Path file = Files.createTempFile("authnid", ".properties");
+        try {
+            writeProperties(file, "prefixSalt=testPre\npostfixSalt=testPost\n");
+            final EcaAuthnIdDataConnector dataConnector = new EcaAuthnIdDataConnector();
+            dataConnector.setId("reloadable");
+            dataConnector.setSrcAttributeNames(srcAttributeName);
+            dataConnector.setDestAttributeName(destAttributeName);
+            dataConnector.setPrefixSalt("xmlPre");
+            dataConnector.setPostfixSalt("xmlPost");
+            dataConnector.setCacheMaxSize("100");
+            dataConnector.setReloadableConfigurationFile(file.toString());
+            dataConnector.initialize();
+            Assert.assertEquals(resolveOther(dataConnector), "/koIA2Xy/utNm9/f6c4HPnGb2bZ/0nRKOTd2BAQfFL8=");
+
+            final EcaAuthnIdDataConnector expected = new EcaAuthnIdDataConnector();
+            expected.setId("expected");
+            expected.setSrcAttributeNames(srcAttributeName);
+            expected.setDestAttributeName(destAttributeName);
+            expected.setPrefixSalt("newPre");
+            expected.setPostfixSalt("xmlPost");
+            expected.initialize();
+            final String expectedAuthnId = resolveOther(expected);
+
+            writeProperties(file, "prefixSalt=newPre\n");
+            final long deadline = System.currentTimeMillis() + 10000L;
+            String authnId = resolveOther(dataConnector);
+            while (!expectedAuthnId.equals(authnId) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+                authnId = resolveOther(dataConnector);
+            }
+            Assert.assertEquals(authnId, expectedAuthnId);
+
+            // an invalid file keeps the previous configuration
+            writeProperties(file, "prefixsalt=invalid\n");
+            dataConnector.reloadConfiguration();
+            Assert.assertEquals(resolveOther(dataConnector), expectedAuthnId);
+            dataConnector.destroy();
+            expected.destroy();
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * Tests that neither the session storage nor the lookup table serve the authnIDs calculated with the salts used
+     * before a reload.
+     * @throws Exception If the test fails.
+     */
+    @Test public void testReloadWithSessionAndTable() throws Exception {
+        final Path file = Files.createTempFile("authnid", ".properties");
+        final Path tableFile = Files.createTempFile("authnid", ".idx");
+        final MemoryStorageService storageService = new MemoryStorageService();
+        storageService.setId("sessionStorage");
+        storageService.initialize();
+        try {
+            writeProperties(file, "prefixSalt=testPre\n");
+            final AuthnIdTableBuilder builder =
+                    new AuthnIdTableBuilder(calculateTableFingerprint("testPre", "testPost"));
+            builder.add(TestSources.PRINCIPAL_ID, "precomputedId");
+            builder.write(tableFile);
+            final EcaAuthnIdDataConnector dataConnector = new EcaAuthnIdDataConnector();
+            dataConnector.setId("reloadable");
+            dataConnector.setSrcAttributeNames(srcAttributeName);
+            dataConnector.setDestAttributeName(destAttributeName);
+            dataConnector.setPrefixSalt("xmlPre");
+            dataConnector.setPostfixSalt("testPost");
+            dataConnector.setReloadableConfigurationFile(file.toString());
+            dataConnector.setLookupTableFile(tableFile.toString());
+            dataConnector.setLookupTableCheckInterval("PT0.001S");
+            dataConnector.setStorageService(storageService);
+            dataConnector.setSessionIdLookupStrategy(new Function<AttributeResolutionContext, String>() {
+                @Override
+                public String apply(final AttributeResolutionContext input) {
+                    return input.getPrincipal() != null ? "session-" + input.getPrincipal() : null;
+                }
+            });
+            dataConnector.initialize();
+            Assert.assertEquals(resolveOther(dataConnector), "/koIA2Xy/utNm9/f6c4HPnGb2bZ/0nRKOTd2BAQfFL8=");
+            Assert.assertEquals(resolveOther(dataConnector), "/koIA2Xy/utNm9/f6c4HPnGb2bZ/0nRKOTd2BAQfFL8=");
+            Assert.assertEquals(dataConnector.getMetrics().getSessionHit().getCount(), 1);
+            Assert.assertEquals(resolveTable(dataConnector), "precomputedId");
+
+            final EcaAuthnIdDataConnector expected = new EcaAuthnIdDataConnector();
+            expected.setId("expected");
+            expected.setSrcAttributeNames(srcAttributeName);
+            expected.setDestAttributeName(destAttributeName);
+            expected.setPrefixSalt("newPre");
+            expected.setPostfixSalt("testPost");
+            expected.initialize();
+            final String expectedAuthnId = resolveOther(expected);
+            expected.destroy();
+
+            writeProperties(file, "prefixSalt=newPre\n");
+            dataConnector.reloadConfiguration();
+            Assert.assertEquals(resolveOther(dataConnector), expectedAuthnId);
+            Assert.assertEquals(dataConnector.getMetrics().getSessionHit().getCount(), 1);
+            Assert.assertEquals(resolveOther(dataConnector), expectedAuthnId);
+            Assert.assertEquals(dataConnector.getMetrics().getSessionHit().getCount(), 2);
+
+            // the table built with the previous salts is not used, as the source attribute is missing
+            Assert.assertNull(resolveTable(dataConnector));
+            Assert.assertEquals(dataConnector.getMetrics().getTableHit().getCount(), 1);
+
+            // until a table built with the new salts replaces it
+            final AuthnIdTableBuilder newBuilder =
+                    new AuthnIdTableBuilder(calculateTableFingerprint("newPre", "testPost"));
+            newBuilder.add(TestSources.PRINCIPAL_ID, "newPrecomputedId");
+            newBuilder.write(tableFile);
+            Thread.sleep(10);
+            Assert.assertEquals(resolveTable(dataConnector), "newPrecomputedId");
+            Assert.assertEquals(dataConnector.getMetrics().getTableHit().getCount(), 2);
+            dataConnector.destroy();
+        } finally {
+            storageService.destroy();
+            Files.delete(tableFile);
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * Resolves the authnID of the test principal without any source values.
+     * @param dataConnector The data connector.
+     * @return The authnID, null if none was resolved.
+     * @throws ResolutionException If the resolution fails.
+     */
+    private String resolveTable(final EcaAuthnIdDataConnector dataConnector) throws ResolutionException {
+        final AttributeResolutionContext context = TestSources.createResolutionContext(TestSources.PRINCIPAL_ID,
+                TestSources.IDP_ENTITY_ID, TestSources.SP_ENTITY_ID);
+        final Map<String, IdPAttribute> resolvedAttributes = dataConnector.resolve(context);
+        return resolvedAttributes.containsKey(destAttributeName)
+                ? (String) resolvedAttributes.get(destAttributeName).getValues().get(0).getValue() : null;
+    }
+
+    /**
+     * Tests that a missing reloadableConfigurationFile fails the initialization.
+     * @throws ComponentInitializationException If component cannot be initialized.
+     */
+    @Test(expectedExceptions = ComponentInitializationException.class)
+    public void testMissingReloadableConfiguration() throws ComponentInitializationException {
+        final EcaAuthnIdDataConnector dataConnector = new EcaAuthnIdDataConnector();
+        dataConnector.setId("reloadable");
+        dataConnector.setSrcAttributeNames(srcAttributeName);
+        dataConnector.setDestAttributeName(destAttributeName);
+        dataConnector.setReloadableConfigurationFile("src/test/resources/nonexisting.properties");
+        dataConnector.initialize();
+    }
+
+    /**
+     * Replaces the properties file by renaming a new file over it.
+     * @param file The properties file.
+     * @param contents The new contents.
+     * @throws IOException If the file cannot be written.
+     */
+    private void writeProperties(final Path file, final String contents) throws IOException {
+        final Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(temporary, contents.getBytes(StandardCharsets.UTF_8));
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Resolves the authnID of the principal "other" with the first source value.
+     * @param dataConnector The data connector.
+     * @return The authnID.
+     * @throws ComponentInitializationException If component cannot be initialized.
+     * @throws ResolutionException If the resolution fails.
+     */
+    private String resolveOther(final EcaAuthnIdDataConnector dataConnector)
+            throws ComponentInitializationException, ResolutionException {
+        final AttributeResolutionContext context = TestSources.createResolutionContext("other",
+                TestSources.IDP_ENTITY_ID, TestSources.SP_ENTITY_ID);
+        recordWorkContextAttribute(srcAttributeName, srcAttributeValues.get(0),
+                context.getSubcontext(AttributeResolverWorkContext.class, false));
+        return (String) dataConnector.resolve(context).get(destAttributeName).getValues().get(0).getValue();
+    }
+
+    /**
+     * Tests that the calculated authnIDs are written to the journal when the connector is destroyed.
+     * @throws ComponentInitializationException If component cannot be initialized.
+     * @throws ResolutionException If attribute recording fails.
+     * @throws IOException If the journal cannot be read.
+     */
+    @Test public void testJournal() throws ComponentInitializationException, ResolutionException, IOException {
+        final Path directory = Files.createTempDirectory("authnid-journal");
+        try {
+            final EcaAuthnIdDataConnector dataConnector = new EcaAuthnIdDataConnector();
+            dataConnector.setId("journal");
+            dataConnector.setSrcAttributeNames(srcAttributeName);
+            dataConnector.setDestAttributeName(destAttributeName);
+            dataConnector.setPrefixSalt("testPre");
+            dataConnector.setPostfixSalt("testPost");
+            dataConnector.setJournalDirectory(directory.toString());
+            dataConnector.setJournalSegmentSize("4096");
+            dataConnector.setJournalMaxSize("65536");
+            dataConnector.setJournalCommitInterval("PT0.5S");
+            Assert.assertEquals(dataConnector.getJournalSegmentSize(), 4096);
+            Assert.assertEquals(dataConnector.getJournalMaxSize(), 65536L);
+            Assert.assertEquals(dataConnector.getJournalCommitInterval(), 500L);
+            dataConnector.initialize();
+            Assert.assertEquals(dataConnector.getJournal().getDirectory(), directory);
+
+            for (int i = 0; i < 2; i++) {
+                final AttributeResolutionContext context = TestSources.createResolutionContext("other",
+                        TestSources.IDP_ENTITY_ID, TestSources.SP_ENTITY_ID);
+                recordWorkContextAttribute(srcAttributeName, srcAttributeValues.get(0),
+                        context.getSubcontext(AttributeResolverWorkContext.class, false));
+                dataConnector.resolve(context);
+            }
+            dataConnector.destroy();
+            Assert.assertEquals(dataConnector.getMetrics().getJournalDropped().getCount(), 0);
+
+            final List<String> lines = new ArrayList<>();
+            try (final DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (final Path segment : stream) {
+                    lines.addAll(Files.readAllLines(segment, StandardCharsets.UTF_8));
+                    Files.delete(segment);
+                }
+            }
+            // the repeated entry is compacted away
+            Assert.assertEquals(lines.size(), 1);
+            Assert.assertTrue(lines.get(0).endsWith(
+                    "\td9298a10d1b0735837dc4bd85dac641b0f3cef27a47e5d53a54f2f3f5b2fcffa\t-\t"
+                    + "/koIA2Xy/utNm9/f6c4HPnGb2bZ/0nRKOTd2BAQfFL8="), lines.get(0));
+        } finally {
+            Files.delete(directory);
+        }
+    }
+
+    /**
+     * Tests that the authnIDs served from the lookup table are journaled too.
+     * @throws ComponentInitializationException If component cannot be initialized.
+     * @throws ResolutionException If attribute recording fails.
+     * @throws IOException If the table cannot be written or the journal cannot be read.
+     */
+    @Test public void testJournalTableHit() throws ComponentInitializationException, ResolutionException,
+            IOException {
+        final Path directory = Files.createTempDirectory("authnid-journal");
+        final Path tableFile = Files.createTempFile("authnid", ".idx");
+        try {
+            final AuthnIdTableBuilder builder =
+                    new AuthnIdTableBuilder(calculateTableFingerprint("testPre", "testPost"));
+            builder.add(TestSources.PRINCIPAL_ID, "precomputedId");
+            builder.write(tableFile);
+            final EcaAuthnIdDataConnector dataConnector = new EcaAuthnIdDataConnector();
+            dataConnector.setId("journal");
+            dataConnector.setSrcAttributeNames(srcAttributeName);
+            dataConnector.setDestAttributeName(destAttributeName);
+            dataConnector.setPrefixSalt("testPre");
+            dataConnector.setPostfixSalt("testPost");
+            dataConnector.setLookupTableFile(tableFile.toString());
+            dataConnector.setJournalDirectory(directory.toString());
+            dataConnector.setJournalSegmentSize("4096");
+            dataConnector.setJournalMaxSize("65536");
+            dataConnector.initialize();
+
+            final AttributeResolutionContext context = TestSources.createResolutionContext(
+                    TestSources.PRINCIPAL_ID, TestSources.IDP_ENTITY_ID, TestSources.SP_ENTITY_ID);
+            Assert.assertEquals(dataConnector.resolve(context).get(destAttributeName).getValues().get(0).getValue(),
+                    "precomputedId");
+            Assert.assertEquals(dataConnector.getMetrics().getTableHit().getCount(), 1);
+            dataConnector.destroy();
+            Assert.assertEquals(dataConnector.getMetrics().getJournalDropped().getCount(), 0);
+
+            final List<String> lines = new ArrayList<>();
+            try (final DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (final Path segment : stream) {
+                    lines.addAll(Files.readAllLines(segment, StandardCharsets.UTF_8));
+                    Files.delete(segment);
+                }
+            }
+            Assert.assertEquals(lines.size(), 1);
+            Assert.assertTrue(lines.get(0).endsWith("\t-\tprecomputedId"), lines.get(0));
+        } finally {
+            Files.delete(tableFile);
+            Files.delete(directory);
+        }
+    }
+
     /**
      * Helper method for recording attribute name and value to {@link AttributeResolverWorkContext}.
      * @param attributeName The attribute name to be recorded.
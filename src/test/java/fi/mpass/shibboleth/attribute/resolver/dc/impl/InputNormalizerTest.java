@@ -0,0 +1,95 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.text.Normalizer;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link InputNormalizer}.
+ */
+public class InputNormalizerTest {
+
+    /**
+     * Tests parsing the normalization steps.
+     */
+    @Test public void testParse() {
+        Assert.assertNull(InputNormalizer.parse(null));
+        Assert.assertNull(InputNormalizer.parse(" , "));
+        final InputNormalizer normalizer = InputNormalizer.parse("NFKC, casefold");
+        Assert.assertEquals(normalizer.getForm(), Normalizer.Form.NFKC);
+        Assert.assertFalse(normalizer.isTrim());
+        Assert.assertTrue(normalizer.isCaseFold());
+        Assert.assertEquals(InputNormalizer.parse("trim").getForm(), null);
+        Assert.assertTrue(InputNormalizer.parse("trim").isTrim());
+    }
+
+    /**
+     * Tests that unsupported or conflicting steps are rejected.
+     */
+    @Test public void testParseInvalid() {
+        for (final String steps : new String[] { "nfd", "nfc,nfkc", "trim,lower" }) {
+            try {
+                InputNormalizer.parse(steps);
+                Assert.fail("The steps " + steps + " should have been rejected");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Tests the ASCII fast path.
+     */
+    @Test public void testAscii() {
+        Assert.assertTrue(InputNormalizer.isAscii("Plain ASCII~\u007f"));
+        Assert.assertFalse(InputNormalizer.isAscii("caf\u00e9"));
+        Assert.assertFalse(InputNormalizer.isAscii("\u0100"));
+        final InputNormalizer normalizer = new InputNormalizer(Normalizer.Form.NFC, true, true);
+        final String normalized = "already normalized";
+        Assert.assertSame(normalizer.normalize(normalized), normalized);
+        Assert.assertEquals(normalizer.normalize("\t Mixed CASE\r\n"), "mixed case");
+        Assert.assertEquals(normalizer.normalize("   "), "");
+        Assert.assertNull(normalizer.normalize(null));
+        Assert.assertEquals(new InputNormalizer(null, false, true).normalize(" ABC "), " abc ");
+        Assert.assertEquals(new InputNormalizer(null, true, false).normalize(" ABC "), "ABC");
+    }
+
+    /**
+     * Tests the normalization forms and the case folding of non-ASCII values.
+     */
+    @Test public void testUnicode() {
+        final InputNormalizer nfc = new InputNormalizer(Normalizer.Form.NFC, false, false);
+        Assert.assertEquals(nfc.normalize("A\u030angstro\u0308m"), "\u00c5ngstr\u00f6m");
+        Assert.assertEquals(nfc.normalize("\ufb01"), "\ufb01");
+        final InputNormalizer nfkc = new InputNormalizer(Normalizer.Form.NFKC, false, false);
+        Assert.assertEquals(nfkc.normalize("\ufb01le\u2460"), "file1");
+        final InputNormalizer folding = new InputNormalizer(Normalizer.Form.NFC, true, true);
+        Assert.assertEquals(folding.normalize(" Stra\u00dfe\u3000"), "strasse");
+        Assert.assertEquals(folding.normalize("\u00c5NGSTR\u00d6M"), folding.normalize("a\u030angstr\u00f6m"));
+    }
+}
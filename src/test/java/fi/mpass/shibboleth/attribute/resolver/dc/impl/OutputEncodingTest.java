@@ -0,0 +1,79 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.util.Random;
+
+import com.google.common.io.BaseEncoding;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link OutputEncoding}.
+ */
+public class OutputEncodingTest {
+
+    /**
+     * Tests the encodings against Guava with all the lengths up to the 64-byte digests.
+     */
+    @Test public void testEncodings() {
+        final BaseEncoding[] references = { BaseEncoding.base64(), BaseEncoding.base64Url().omitPadding(),
+            BaseEncoding.base32().omitPadding(), BaseEncoding.base16().lowerCase() };
+        final OutputEncoding[] encodings = { OutputEncoding.BASE64, OutputEncoding.BASE64URL, OutputEncoding.BASE32,
+            OutputEncoding.HEX };
+        final Random random = new Random(1);
+        final byte[] bytes = new byte[64];
+        random.nextBytes(bytes);
+        bytes[0] = (byte) 0xff;
+        bytes[1] = (byte) 0xfe;
+        for (int i = 0; i < encodings.length; i++) {
+            final char[] chars = new char[3 + encodings[i].getEncodedLength(bytes.length)];
+            for (int length = 0; length <= bytes.length; length++) {
+                final String expected = references[i].encode(bytes, 0, length);
+                Assert.assertEquals(encodings[i].getEncodedLength(length), expected.length());
+                final int written = encodings[i].encode(bytes, length, chars, 3);
+                Assert.assertEquals(new String(chars, 3, written), expected, encodings[i].getEncodingName());
+            }
+        }
+    }
+
+    /**
+     * Tests finding the encodings by their names.
+     */
+    @Test public void testForName() {
+        Assert.assertEquals(OutputEncoding.forName("base64"), OutputEncoding.BASE64);
+        Assert.assertEquals(OutputEncoding.forName("Base64url"), OutputEncoding.BASE64URL);
+        Assert.assertEquals(OutputEncoding.forName("BASE32"), OutputEncoding.BASE32);
+        Assert.assertEquals(OutputEncoding.forName("hex"), OutputEncoding.HEX);
+    }
+
+    /**
+     * Tests that unsupported encodings are rejected.
+     */
+    @Test(expectedExceptions = IllegalArgumentException.class) public void testUnsupported() {
+        OutputEncoding.forName("base85");
+    }
+}
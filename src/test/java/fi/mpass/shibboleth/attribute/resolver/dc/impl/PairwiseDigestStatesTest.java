@@ -0,0 +1,80 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.util.Arrays;
+
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.util.Memoable;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link PairwiseDigestStates}.
+ */
+public class PairwiseDigestStatesTest {
+
+    /**
+     * Tests that the engines are primed with the relying party id and that the number of kept states is bounded.
+     */
+    @Test public void testBorrow() {
+        final Digest base = new SHA256Digest();
+        base.update((byte) 's');
+        final PairwiseDigestStates states = 
+                new PairwiseDigestStates(new DigestEnginePool(new SHA256Digest()), (Memoable) base, 1);
+        for (int i = 0; i < 2; i++) {
+            Assert.assertEquals(digest(states.borrow("rp1"), "mock"),
+                    digest(new SHA256Digest(), "s\u0000\u0000\u0000\u0003rp1mock"));
+            Assert.assertEquals(digest(states.borrow("rp2"), "mock"),
+                    digest(new SHA256Digest(), "s\u0000\u0000\u0000\u0003rp2mock"));
+        }
+        Assert.assertEquals(states.size(), 1);
+    }
+
+    /**
+     * Tests that the relying party id cannot be confused with the source attribute values.
+     */
+    @Test public void testUnambiguous() {
+        final PairwiseDigestStates states = 
+                new PairwiseDigestStates(new DigestEnginePool(new SHA256Digest()), new SHA256Digest(), 10);
+        Assert.assertFalse(Arrays.equals(digest(states.borrow("a!b"), "c"), digest(states.borrow("a"), "b!c")));
+        Assert.assertFalse(Arrays.equals(digest(states.borrow("ab"), "c"), digest(states.borrow("a"), "bc")));
+    }
+
+    /**
+     * Helper method for calculating a digest with the given engine.
+     * 
+     * @param engine The engine to be used.
+     * @param input The input.
+     * @return The digest.
+     */
+    protected byte[] digest(final Digest engine, final String input) {
+        final byte[] bytes = input.getBytes();
+        engine.update(bytes, 0, bytes.length);
+        final byte[] result = new byte[engine.getDigestSize()];
+        engine.doFinal(result, 0);
+        return result;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.util.Arrays;
+import java.util.Properties;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link ReloadableConfiguration}.
+ */
+public class ReloadableConfigurationTest {
+
+    /**
+     * Tests that the keys in the properties override the values, and the other keys do not.
+     */
+    @Test public void testOverrides() {
+        final Properties properties = new Properties();
+        properties.setProperty(ReloadableConfiguration.PREFIX_SALT, "pre");
+        properties.setProperty(ReloadableConfiguration.PREVIOUS_POSTFIX_SALT, "");
+        properties.setProperty(ReloadableConfiguration.SKIP_CALCULATION, "school=1,school=2,role=guest");
+        final ReloadableConfiguration configuration = new ReloadableConfiguration(properties);
+        Assert.assertEquals(configuration.getPrefixSalt(), "pre");
+        Assert.assertNull(configuration.getPostfixSalt());
+        Assert.assertNull(configuration.getPreviousPrefixSalt());
+        Assert.assertEquals(configuration.getPreviousPostfixSalt(), "");
+        Assert.assertEquals(configuration.getSkipCalculation().size(), 2);
+        Assert.assertEquals(configuration.getSkipCalculation().get("school"), Arrays.asList("1", "2"));
+        Assert.assertEquals(configuration.getSkipCalculation().get("role"), Arrays.asList("guest"));
+    }
+
+    /**
+     * Tests that the properties without any keys override nothing.
+     */
+    @Test public void testEmpty() {
+        final ReloadableConfiguration configuration = new ReloadableConfiguration(new Properties());
+        Assert.assertNull(configuration.getPrefixSalt());
+        Assert.assertNull(configuration.getSkipCalculation());
+    }
+
+    /**
+     * Tests that an unsupported key is rejected.
+     */
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testUnsupportedKey() {
+        final Properties properties = new Properties();
+        properties.setProperty("prefixsalt", "pre");
+        new ReloadableConfiguration(properties);
+    }
+}